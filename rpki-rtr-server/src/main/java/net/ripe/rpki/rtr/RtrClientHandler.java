@@ -38,17 +38,18 @@ import lombok.AccessLevel;
 import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import net.ripe.rpki.rtr.adapter.netty.ChunkedStream;
+import net.ripe.rpki.rtr.adapter.netty.ChunkedByteBuf;
+import net.ripe.rpki.rtr.adapter.netty.EncodedPduCache;
 import net.ripe.rpki.rtr.domain.RtrCache;
 import net.ripe.rpki.rtr.domain.RtrClient;
 import net.ripe.rpki.rtr.domain.RtrClients;
+import net.ripe.rpki.rtr.domain.RtrSessions;
 import net.ripe.rpki.rtr.domain.SerialNumber;
 import net.ripe.rpki.rtr.domain.pdus.CacheResetPdu;
 import net.ripe.rpki.rtr.domain.pdus.CacheResponsePdu;
 import net.ripe.rpki.rtr.domain.pdus.EndOfDataPdu;
 import net.ripe.rpki.rtr.domain.pdus.ErrorCode;
 import net.ripe.rpki.rtr.domain.pdus.ErrorPdu;
-import net.ripe.rpki.rtr.domain.pdus.Flags;
 import net.ripe.rpki.rtr.domain.pdus.NotifyPdu;
 import net.ripe.rpki.rtr.domain.pdus.Pdu;
 import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
@@ -60,6 +61,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayDeque;
 import java.util.Collections;
@@ -73,11 +75,18 @@ import static org.springframework.beans.factory.config.BeanDefinition.SCOPE_PROT
 
 @Component
 @Scope(SCOPE_PROTOTYPE)
-@ToString(exclude = {"cache", "clients"})
+@ToString(exclude = {"sessions", "clients", "encodedPdus"})
 @Slf4j
 public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implements RtrClient {
-    private final RtrCache cache;
+    /**
+     * The encoded PDUs are written in chunks of this size, so that slow clients only hold back the
+     * chunked write and not the whole response.
+     */
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private final RtrSessions sessions;
     private final RtrClients clients;
+    private final EncodedPduCache encodedPdus;
 
     @Setter(AccessLevel.PACKAGE)
     @Value("${rtr.client.refresh.interval}")
@@ -91,26 +100,29 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     @Value("${rtr.client.expire.interval}")
     private int clientExpireInterval;
 
-    private ChannelHandlerContext ctx;
+    // Requests and notifications are handled on the event loop of the channel, other threads only read
+    // the client state.
+    private volatile ChannelHandlerContext ctx;
     private Pdu currentRequest = null;
     private Queue<Pdu> pending = new ArrayDeque<>();
 
-    private short clientSessionId;
-    private SerialNumber clientSerialNumber = SerialNumber.zero();
+    private volatile short clientSessionId;
+    private volatile SerialNumber clientSerialNumber = SerialNumber.zero();
     private SerialNumber latestNotifySerialNumber = SerialNumber.zero();
 
-    private ProtocolVersion clientProtocolVersion = null;
-    private Instant clientConnectedAt = Instant.now();
-    private Instant lastRequestReceivedAt = null;
+    private volatile ProtocolVersion clientProtocolVersion = null;
+    private final Instant clientConnectedAt = Instant.now();
+    private volatile Instant lastRequestReceivedAt = null;
+    private boolean initialSyncCompleted = false;
 
     @Setter
     private AbstractTrafficShapingHandler trafficShapingHandler;
 
     @Autowired
-    public RtrClientHandler(RtrCache cache, RtrClients clients) {
-        this.cache = Objects.requireNonNull(cache, "cache");
+    public RtrClientHandler(RtrSessions sessions, RtrClients clients, EncodedPduCache encodedPdus) {
+        this.sessions = Objects.requireNonNull(sessions, "sessions");
         this.clients = clients;
-        this.clientSessionId = cache.getSessionId();
+        this.encodedPdus = Objects.requireNonNull(encodedPdus, "encodedPdus");
     }
 
     @Override
@@ -127,7 +139,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     }
 
     @Override
-    public synchronized void channelRead0(ChannelHandlerContext ctx, Pdu pdu) {
+    public void channelRead0(ChannelHandlerContext ctx, Pdu pdu) {
         this.lastRequestReceivedAt = Instant.now();
         if (currentRequest != null) {
             pending.add(pdu);
@@ -143,12 +155,12 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
         }
     }
 
-    private synchronized void requestHandlingCompleted() {
+    private void requestHandlingCompleted() {
         currentRequest = pending.poll();
         if (currentRequest == null) {
             log.info("finished processing all pending requests for {}", this);
 
-            sendNotifyPduIfNeeded(cache.getSessionId(), cache.getSerialNumber());
+            sendNotifyPduIfNeeded(sessions.getSerialNumber());
         } else {
             ChannelFuture channelFuture = handleClientRequest(ctx, currentRequest);
             if (channelFuture != null) {
@@ -186,7 +198,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     }
 
     private ChannelFuture handleSerialQuery(ChannelHandlerContext ctx, SerialQueryPdu serialQueryPdu) {
-        Either<RtrCache.Delta, RtrCache.Content> deltaOrContent = cache.getDeltaOrContent(serialQueryPdu.getSerialNumber());
+        Either<RtrCache.Delta, RtrCache.Content> deltaOrContent = sessions.getDeltaOrContent(clientProtocolVersion, serialQueryPdu.getSerialNumber());
         if (deltaOrContent.right().exists(content -> !content.isReady())) {
             return ctx.writeAndFlush(ErrorPdu.of(clientProtocolVersion, ErrorCode.NoDataAvailable, serialQueryPdu.toByteArray(), ""));
         }
@@ -202,9 +214,12 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
             clientSerialNumber = delta.getSerialNumber();
 
             ctx.write(CacheResponsePdu.of(clientProtocolVersion, delta.getSessionId()));
-            ctx.write(new ChunkedStream<>(delta.getAnnouncements().stream().map(dataUnit -> dataUnit.toPdu(clientProtocolVersion, Flags.ANNOUNCEMENT))));
-            ctx.write(new ChunkedStream<>(delta.getWithdrawals().stream().map(dataUnit -> dataUnit.toPdu(clientProtocolVersion, Flags.WITHDRAWAL))));
-            return ctx.writeAndFlush(EndOfDataPdu.of(clientProtocolVersion, clientSessionId, clientSerialNumber, clientRefreshInterval, clientRetryInterval, clientExpireInterval));
+            ctx.write(new ChunkedByteBuf(encodedPdus.delta(serialQueryPdu.getSerialNumber(), delta, clientProtocolVersion), CHUNK_SIZE));
+            return writeEndOfData(ctx).addListener(f -> {
+                if (f.isSuccess()) {
+                    clients.syncCompleted(delta.getSerialNumber());
+                }
+            });
         } else {
             RtrCache.Content content = deltaOrContent.right().value();
             clientSessionId = content.getSessionId();
@@ -214,7 +229,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     }
 
     private ChannelFuture handleResetQuery(ChannelHandlerContext ctx, ResetQueryPdu resetQueryPdu) {
-        RtrCache.Content content = cache.getCurrentContent();
+        RtrCache.Content content = sessions.getCurrentContent(clientProtocolVersion);
         if (!content.isReady()) {
             return ctx.writeAndFlush(ErrorPdu.of(clientProtocolVersion, ErrorCode.NoDataAvailable, resetQueryPdu.toByteArray(), ""));
         }
@@ -223,8 +238,21 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
         clientSerialNumber = content.getSerialNumber();
 
         ctx.write(CacheResponsePdu.of(clientProtocolVersion, content.getSessionId()));
-        ctx.write(new ChunkedStream<>(content.getAnnouncements().stream().map(dataUnit -> dataUnit.toPdu(clientProtocolVersion, Flags.ANNOUNCEMENT))));
-        return ctx.writeAndFlush(EndOfDataPdu.of(clientProtocolVersion, clientSessionId, clientSerialNumber, clientRefreshInterval, clientRetryInterval, clientExpireInterval));
+        ctx.write(new ChunkedByteBuf(encodedPdus.content(content, clientProtocolVersion), CHUNK_SIZE));
+        return writeEndOfData(ctx);
+    }
+
+    private ChannelFuture writeEndOfData(ChannelHandlerContext ctx) {
+        final ChannelFuture written = ctx.writeAndFlush(EndOfDataPdu.of(clientProtocolVersion, clientSessionId, clientSerialNumber, clientRefreshInterval, clientRetryInterval, clientExpireInterval));
+        if (!initialSyncCompleted) {
+            initialSyncCompleted = true;
+            written.addListener(f -> {
+                if (f.isSuccess()) {
+                    clients.initialSyncCompleted(Duration.between(clientConnectedAt, Instant.now()));
+                }
+            });
+        }
+        return written;
     }
 
     private static Optional<RtrProtocolException> getRtrError(Throwable cause) {
@@ -273,8 +301,21 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     }
 
     @Override
-    public synchronized void cacheUpdated(short sessionId, SerialNumber updatedSerialNumber) {
-        sendNotifyPduIfNeeded(sessionId, updatedSerialNumber);
+    public ProtocolVersion getProtocolVersion() {
+        return clientProtocolVersion;
+    }
+
+    @Override
+    public void cacheUpdated(SerialNumber updatedSerialNumber) {
+        final ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null) {
+            return;
+        }
+        if (ctx.executor().inEventLoop()) {
+            sendNotifyPduIfNeeded(updatedSerialNumber);
+        } else {
+            ctx.executor().execute(() -> sendNotifyPduIfNeeded(updatedSerialNumber));
+        }
     }
 
     @Override
@@ -288,7 +329,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
     }
 
     @Override
-    public synchronized State getState() {
+    public State getState() {
         return new State(
             ctx.channel().localAddress().toString(),
             ctx.channel().remoteAddress().toString(),
@@ -302,7 +343,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
         );
     }
 
-    private void sendNotifyPduIfNeeded(short sessionId, SerialNumber updatedSerialNumber) {
+    private void sendNotifyPduIfNeeded(SerialNumber updatedSerialNumber) {
         if (currentRequest == null
             && lastRequestReceivedAt != null
             && clientProtocolVersion != null
@@ -310,7 +351,7 @@ public class RtrClientHandler extends SimpleChannelInboundHandler<Pdu> implement
             && updatedSerialNumber.isAfter(latestNotifySerialNumber)) {
             log.info("Sending notify PDU to client for serial number {}", updatedSerialNumber.getValue());
             latestNotifySerialNumber = updatedSerialNumber;
-            ctx.writeAndFlush(NotifyPdu.of(clientProtocolVersion, sessionId, updatedSerialNumber));
+            ctx.writeAndFlush(NotifyPdu.of(clientProtocolVersion, sessions.getSessionId(clientProtocolVersion), updatedSerialNumber));
         }
     }
 }
@@ -35,6 +35,11 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -48,11 +53,13 @@ import net.ripe.rpki.rtr.domain.SerialNumber;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Provider;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -60,27 +67,62 @@ import java.util.stream.Collectors;
 
 @Slf4j
 @Service
+@DependsOn("rtrCacheJournal") // Restore the cache before accepting clients
 public class RtrServer {
 
     public static final String DEFAULT_RTR_HOST = "localhost";
     public static final int DEFAULT_RTR_PORT = 9178;
 
+    /**
+     * Deltas are kept for this long after starting, so that routers that were connected before a restart
+     * (with the cache restored from a file) can reconnect within the default retry interval of RFC 8210
+     * and continue with a Serial Query.
+     */
+    private static final Duration KEEP_DELTAS_AFTER_START = Duration.ofMinutes(10);
+
     private String address;
     private int port;
 
+    /**
+     * <code>epoll</code>, <code>nio</code> or <code>auto</code> to use epoll when it is available.
+     */
+    private final String transport;
+    /**
+     * Number of event loop threads handling the clients, 0 for the Netty default (twice the number of cores).
+     */
+    private final int workerThreads;
+    private final boolean tcpNoDelay;
+    /**
+     * SO_SNDBUF of the client sockets, 0 for the operating system default.
+     */
+    private final int sendBufferSize;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+
     private final RtrCache rtrCache;
     private final RtrClients clients;
     private final Provider<RtrClientHandler> rtrClientHandlerProvider;
+    private final Instant startedAt = Instant.now();
 
     @Autowired
     public RtrServer(
             @Value("${rtr.server.address}") String address,
             @Value("${rtr.server.port}") int port,
+            @Value("${rtr.server.transport:auto}") String transport,
+            @Value("${rtr.server.worker.threads:0}") int workerThreads,
+            @Value("${rtr.server.tcp.nodelay:true}") boolean tcpNoDelay,
+            @Value("${rtr.server.send.buffer.size:0}") int sendBufferSize,
+            @Value("${rtr.server.write.buffer.low.water.mark:262144}") int writeBufferLowWaterMark,
+            @Value("${rtr.server.write.buffer.high.water.mark:1048576}") int writeBufferHighWaterMark,
             RtrCache rtrCache,
             RtrClients clients,
             Provider<RtrClientHandler> rtrClientHandlerProvider) {
         setAddress(address);
         setPort(port);
+        this.transport = transport;
+        this.workerThreads = workerThreads;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.writeBufferWaterMark = new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark);
         this.rtrCache = rtrCache;
         this.clients = clients;
         this.rtrClientHandlerProvider = rtrClientHandlerProvider;
@@ -114,6 +156,9 @@ public class RtrServer {
     }
 
     public void expireOldDeltas() {
+        if (Instant.now().isBefore(startedAt.plus(KEEP_DELTAS_AFTER_START))) {
+            return;
+        }
         SerialNumber lowestSerialNumber = clients.getLowestSerialNumber().orElse(rtrCache.getSerialNumber());
         Set<SerialNumber> forgottenDeltas = rtrCache.forgetDeltasBefore(lowestSerialNumber);
         if (!forgottenDeltas.isEmpty()) {
@@ -128,13 +173,38 @@ public class RtrServer {
         }
     }
 
+    private boolean useEpoll() {
+        switch (transport) {
+            case "epoll":
+                if (!Epoll.isAvailable()) {
+                    throw new IllegalStateException("epoll transport is not available", Epoll.unavailabilityCause());
+                }
+                return true;
+            case "nio":
+                return false;
+            case "auto":
+                return Epoll.isAvailable();
+            default:
+                throw new IllegalArgumentException("unknown RTR server transport '" + transport + "', expected epoll, nio or auto");
+        }
+    }
+
     private void runNetty() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup();
-        workerGroup = new NioEventLoopGroup();
+        final boolean epoll = useEpoll();
+        final Class<? extends ServerChannel> channelClass;
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(1);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+            channelClass = NioServerSocketChannel.class;
+        }
         try {
             final ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(channelClass)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch) {
@@ -150,9 +220,14 @@ public class RtrServer {
                     }
                 })
                 .option(ChannelOption.SO_BACKLOG, 128)
-                .childOption(ChannelOption.SO_KEEPALIVE, true);
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+            if (sendBufferSize > 0) {
+                b.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+            }
 
-            log.info("Running RTR at port {}", port);
+            log.info("Running RTR at port {} using {} transport", port, epoll ? "epoll" : "nio");
 
             final ChannelFuture f = b.bind(address, port).sync();
             f.channel().closeFuture().sync();
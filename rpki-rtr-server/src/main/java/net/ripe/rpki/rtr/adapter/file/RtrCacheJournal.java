@@ -0,0 +1,344 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.file;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrDataSet;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.VersionedSet;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the RTR cache to a local file, so that after a restart the cache has the same session id,
+ * serial number, data and recent deltas. Routers can then continue with Serial Queries, and the server
+ * answers them before it reaches the validator.
+ * <p>
+ * The file is a sequence of records, each preceded by its length and CRC32 checksum. The first record
+ * is a snapshot of the session id, serial number, data and delta log, every update of the cache appends
+ * a record with the delta to the next serial number. Every record has the time it was written. The file
+ * is replaced by a new snapshot when the session changes, when an update was missed, or after a number
+ * of appended deltas. Reading stops at the first incomplete or corrupted record, so a crash while
+ * appending loses the last update only.
+ * <p>
+ * A file last written longer than the expire interval of the clients ago is not restored, routers
+ * don't use data that old anymore and neither should the server.
+ */
+@Component
+@Slf4j
+public class RtrCacheJournal {
+
+    private static final byte SNAPSHOT = 1;
+    private static final byte DELTA = 2;
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES;
+    private static final int MAX_RECORD_LENGTH = 256 * 1024 * 1024;
+
+    private final RtrCache cache;
+    /**
+     * Null when persisting the cache is disabled.
+     */
+    private final Path file;
+    private final int compactAfter;
+    private final Duration maxAge;
+    private final Clock clock;
+
+    private FileChannel channel;
+    private Short sessionId;
+    private SerialNumber serialNumber;
+    private int appended;
+
+    @Autowired
+    public RtrCacheJournal(
+        RtrCache cache,
+        @Value("${rtr.cache.file:}") String file,
+        @Value("${rtr.cache.file.compact.after:100}") int compactAfter,
+        @Value("${rtr.client.expire.interval}") int clientExpireInterval
+    ) {
+        this(cache, file, compactAfter, Duration.ofSeconds(clientExpireInterval), Clock.systemUTC());
+    }
+
+    RtrCacheJournal(RtrCache cache, String file, int compactAfter, Duration maxAge, Clock clock) {
+        this.cache = cache;
+        this.file = StringUtils.isBlank(file) ? null : Paths.get(file);
+        this.compactAfter = compactAfter;
+        this.maxAge = maxAge;
+        this.clock = clock;
+    }
+
+    /**
+     * Restore the cache from the file, if it exists and is not older than the expire interval.
+     */
+    @PostConstruct
+    public synchronized void restore() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            read(in).ifPresent(persisted -> {
+                final RtrCache.Snapshot snapshot = persisted.getSnapshot();
+                if (persisted.getPersistedAt().plus(maxAge).isBefore(clock.instant())) {
+                    log.info("not restoring RTR cache from {}, it was written at {} which is longer than {} ago",
+                        file, persisted.getPersistedAt(), maxAge);
+                    return;
+                }
+                cache.restore(snapshot);
+                log.info("restored RTR cache with session id {}, serial number {}, {} data units and {} deltas written at {} from {}",
+                    snapshot.getSessionId(), snapshot.getSerialNumber().getValue(), snapshot.getValues().size(), snapshot.getDeltaLog().size(),
+                    persisted.getPersistedAt(), file);
+            });
+        } catch (IOException e) {
+            log.warn("failed to restore RTR cache from {}, starting with an empty cache", file, e);
+        }
+    }
+
+    /**
+     * Write the updates of the cache since the previous call to the file.
+     */
+    public synchronized void persist() {
+        if (file == null) {
+            return;
+        }
+        final RtrCache.Snapshot snapshot = cache.getSnapshot();
+        if (!snapshot.isReady() || (Short.valueOf(snapshot.getSessionId()).equals(sessionId) && snapshot.getSerialNumber().equals(serialNumber))) {
+            return;
+        }
+
+        try {
+            final VersionedSet.Delta<RtrDataSet> delta = serialNumber == null ? null : snapshot.getDeltaLog().get(serialNumber);
+            if (channel != null
+                && Short.valueOf(snapshot.getSessionId()).equals(sessionId)
+                && serialNumber.next().equals(snapshot.getSerialNumber())
+                && delta != null
+                && appended < compactAfter) {
+                append(channel, deltaRecord(clock.instant(), snapshot.getSessionId(), serialNumber, delta));
+                channel.force(false);
+                appended++;
+            } else {
+                rewrite(snapshot);
+            }
+            sessionId = snapshot.getSessionId();
+            serialNumber = snapshot.getSerialNumber();
+        } catch (IOException e) {
+            log.error("failed to write RTR cache to {}", file, e);
+            close();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("failed to close {}", file, e);
+            }
+            channel = null;
+        }
+        sessionId = null;
+        serialNumber = null;
+    }
+
+    private void rewrite(RtrCache.Snapshot snapshot) throws IOException {
+        close();
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            append(out, snapshotRecord(clock.instant(), snapshot));
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        appended = 0;
+    }
+
+    static Optional<Persisted> read(InputStream input) throws IOException {
+        final DataInputStream in = new DataInputStream(input);
+        RtrCache.Snapshot snapshot = null;
+        Instant persistedAt = null;
+        for (byte[] record = readRecord(in); record != null; record = readRecord(in)) {
+            final DataInputStream payload = new DataInputStream(new ByteArrayInputStream(record));
+            final byte type = payload.readByte();
+            final Instant recordPersistedAt = Instant.ofEpochMilli(payload.readLong());
+            if (type == SNAPSHOT && snapshot == null) {
+                snapshot = readSnapshot(payload);
+            } else if (type == DELTA && snapshot != null) {
+                final Optional<RtrCache.Snapshot> next = applyDelta(snapshot, payload);
+                if (!next.isPresent()) {
+                    log.warn("delta does not apply to serial number {}, ignoring the rest of the RTR cache file", snapshot.getSerialNumber().getValue());
+                    break;
+                }
+                snapshot = next.get();
+            } else {
+                throw new IOException("unexpected record type " + type + " in RTR cache file");
+            }
+            persistedAt = recordPersistedAt;
+        }
+        return snapshot == null ? Optional.empty() : Optional.of(Persisted.of(snapshot, persistedAt));
+    }
+
+    /**
+     * @return the payload of the next record, null at the end of the file or at an incomplete or corrupted record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        final int length;
+        final long checksum;
+        final byte[] payload;
+        try {
+            length = in.readInt();
+            checksum = in.readLong();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                log.warn("invalid record length {} in RTR cache file", length);
+                return null;
+            }
+            payload = new byte[length];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (checksum(payload) != checksum) {
+            log.warn("checksum mismatch in RTR cache file, ignoring the rest of the file");
+            return null;
+        }
+        return payload;
+    }
+
+    private static RtrCache.Snapshot readSnapshot(DataInputStream in) throws IOException {
+        final short sessionId = in.readShort();
+        final SerialNumber serialNumber = SerialNumber.of(in.readInt());
+        final RtrDataSet values = RtrDataSet.readFrom(in);
+        final int deltaCount = in.readInt();
+        final SortedMap<SerialNumber, VersionedSet.Delta<RtrDataSet>> deltaLog = new TreeMap<>();
+        for (int i = 0; i < deltaCount; i++) {
+            final SerialNumber from = SerialNumber.of(in.readInt());
+            deltaLog.put(from, VersionedSet.Delta.of(RtrDataSet.readFrom(in), RtrDataSet.readFrom(in)));
+        }
+        return RtrCache.Snapshot.of(sessionId, serialNumber, true, values, deltaLog);
+    }
+
+    private static Optional<RtrCache.Snapshot> applyDelta(RtrCache.Snapshot snapshot, DataInputStream in) throws IOException {
+        final short sessionId = in.readShort();
+        final SerialNumber from = SerialNumber.of(in.readInt());
+        if (sessionId != snapshot.getSessionId() || !from.equals(snapshot.getSerialNumber())) {
+            return Optional.empty();
+        }
+        final RtrDataSet additions = RtrDataSet.readFrom(in);
+        final RtrDataSet removals = RtrDataSet.readFrom(in);
+        final SortedMap<SerialNumber, VersionedSet.Delta<RtrDataSet>> deltaLog = new TreeMap<>(snapshot.getDeltaLog());
+        deltaLog.put(from, VersionedSet.Delta.of(additions, removals));
+        return Optional.of(RtrCache.Snapshot.of(
+            sessionId,
+            from.next(),
+            true,
+            snapshot.getValues().minus(removals).union(additions),
+            deltaLog
+        ));
+    }
+
+    static byte[] snapshotRecord(Instant persistedAt, RtrCache.Snapshot snapshot) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SNAPSHOT);
+        out.writeLong(persistedAt.toEpochMilli());
+        out.writeShort(snapshot.getSessionId());
+        out.writeInt(snapshot.getSerialNumber().getValue());
+        snapshot.getValues().writeTo(out);
+        out.writeInt(snapshot.getDeltaLog().size());
+        for (Map.Entry<SerialNumber, VersionedSet.Delta<RtrDataSet>> entry : snapshot.getDeltaLog().entrySet()) {
+            out.writeInt(entry.getKey().getValue());
+            entry.getValue().getAdditions().writeTo(out);
+            entry.getValue().getRemovals().writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] deltaRecord(Instant persistedAt, short sessionId, SerialNumber from, VersionedSet.Delta<RtrDataSet> delta) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELTA);
+        out.writeLong(persistedAt.toEpochMilli());
+        out.writeShort(sessionId);
+        out.writeInt(from.getValue());
+        delta.getAdditions().writeTo(out);
+        delta.getRemovals().writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    private static void append(FileChannel channel, byte[] payload) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(payload.length).putLong(checksum(payload)).flip();
+        final ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+        while (buffers[1].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private static long checksum(byte[] payload) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return crc32.getValue();
+    }
+
+    /**
+     * The cache as read from the file, with the time the last record was written.
+     */
+    @lombok.Value(staticConstructor = "of")
+    static class Persisted {
+        RtrCache.Snapshot snapshot;
+        Instant persistedAt;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.netty;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.pdus.Flags;
+import net.ripe.rpki.rtr.domain.pdus.IPv4PrefixPdu;
+import net.ripe.rpki.rtr.domain.pdus.Pdu;
+import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the prefix and router key PDUs of cache and delta responses encoded, so that they are
+ * encoded once per serial and protocol version instead of once per client.
+ * <p>
+ * The full content is cached per (session id, serial, protocol version), deltas per (session id,
+ * from serial, to serial, protocol version). Only the buffers of the most recent serial are kept,
+ * all older buffers are released as soon as a response for a newer serial (or another session of the
+ * same protocol version) is requested. Every protocol version has its own session id, see
+ * {@link net.ripe.rpki.rtr.domain.RtrSessions}.
+ * <p>
+ * The returned buffers are read-only duplicates sharing the memory of the cached buffer. Every call
+ * retains the cached buffer, and writing the returned buffer to a channel releases it again.
+ * <p>
+ * Encoding happens outside of the lock of the cache: the first request for a key encodes the buffer,
+ * concurrent requests for the same key wait for it, requests for other keys don't.
+ */
+@Component
+@Slf4j
+public class EncodedPduCache {
+
+    private final Counter hits;
+    private final Counter misses;
+
+    private final Map<ProtocolVersion, Short> sessionIds = new EnumMap<>(ProtocolVersion.class);
+    private SerialNumber serialNumber;
+    private final Map<Key, CompletableFuture<ByteBuf>> buffers = new HashMap<>();
+    private long bytes;
+
+    @Autowired
+    public EncodedPduCache(MeterRegistry registry) {
+        hits = Counter.builder("rtrserver.encoded.pdus")
+            .tag("operation", "hit")
+            .description("Number of responses served from the encoded PDU cache")
+            .register(registry);
+        misses = Counter.builder("rtrserver.encoded.pdus")
+            .tag("operation", "miss")
+            .description("Number of responses that had to be encoded")
+            .register(registry);
+        Gauge.builder("rtrserver.encoded.pdus.bytes", this, EncodedPduCache::getBytes)
+            .description("Size of the encoded PDU cache in bytes")
+            .register(registry);
+    }
+
+    /**
+     * @return the announcements of the content, encoded for the protocol version. The caller owns one
+     * reference to the returned buffer.
+     */
+    public ByteBuf content(RtrCache.Content content, ProtocolVersion protocolVersion) {
+        final Key key = new Key(content.getSessionId(), null, content.getSerialNumber(), protocolVersion);
+        return get(key, () -> encode(protocolVersion, content.getAnnouncements(), null));
+    }
+
+    /**
+     * @return the announcements followed by the withdrawals of the delta from <code>from</code>, encoded
+     * for the protocol version. The caller owns one reference to the returned buffer.
+     */
+    public ByteBuf delta(SerialNumber from, RtrCache.Delta delta, ProtocolVersion protocolVersion) {
+        final Key key = new Key(delta.getSessionId(), from, delta.getSerialNumber(), protocolVersion);
+        return get(key, () -> encode(protocolVersion, delta.getAnnouncements(), delta.getWithdrawals()));
+    }
+
+    ByteBuf get(Key key, Supplier<ByteBuf> encoder) {
+        final CompletableFuture<ByteBuf> encoding = new CompletableFuture<>();
+        final CompletableFuture<ByteBuf> cached;
+        final boolean outdated;
+        synchronized (this) {
+            final Short sessionId = sessionIds.get(key.protocolVersion);
+            if (serialNumber == null || key.to.isAfter(serialNumber) || (sessionId != null && sessionId != key.sessionId)) {
+                clear();
+                serialNumber = key.to;
+            }
+            outdated = !key.to.equals(serialNumber);
+            if (outdated) {
+                misses.increment();
+                cached = null;
+            } else {
+                sessionIds.put(key.protocolVersion, key.sessionId);
+                final CompletableFuture<ByteBuf> existing = buffers.putIfAbsent(key, encoding);
+                if (existing == null) {
+                    misses.increment();
+                    cached = null;
+                } else {
+                    hits.increment();
+                    // Retained while the buffer is still cached, right away or when its encoding completes
+                    cached = existing.thenApply(ByteBuf::retainedDuplicate);
+                }
+            }
+        }
+        if (outdated) {
+            // A response for an older serial that is still being sent out, no point caching it
+            return encoder.get();
+        }
+        return cached == null ? encode(key, encoding, encoder) : cached.join();
+    }
+
+    private ByteBuf encode(Key key, CompletableFuture<ByteBuf> encoding, Supplier<ByteBuf> encoder) {
+        final ByteBuf buffer;
+        try {
+            buffer = encoder.get().asReadOnly();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                buffers.remove(key, encoding);
+                encoding.completeExceptionally(e);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            final ByteBuf result = buffer.retainedDuplicate();
+            encoding.complete(buffer);
+            if (buffers.get(key) == encoding) {
+                bytes += buffer.readableBytes();
+                log.info("encoded {} bytes of PDUs for {}", buffer.readableBytes(), key);
+            } else {
+                // Cleared for a newer serial while encoding, the waiting requests have retained it already
+                buffer.release();
+            }
+            return result;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void clear() {
+        // Buffers that are still being encoded are released when the encoding completes
+        buffers.values().stream()
+            .filter(encoding -> encoding.isDone() && !encoding.isCompletedExceptionally())
+            .forEach(encoding -> encoding.join().release());
+        buffers.clear();
+        bytes = 0;
+        sessionIds.clear();
+        serialNumber = null;
+    }
+
+    private synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static ByteBuf encode(ProtocolVersion protocolVersion, Collection<? extends RtrDataUnit> announcements, Collection<? extends RtrDataUnit> withdrawals) {
+        final ByteBuf buffer = Unpooled.directBuffer(estimatedLength(announcements) + estimatedLength(withdrawals));
+        encode(buffer, protocolVersion, Flags.ANNOUNCEMENT, announcements);
+        encode(buffer, protocolVersion, Flags.WITHDRAWAL, withdrawals);
+        return buffer;
+    }
+
+    private static void encode(ByteBuf buffer, ProtocolVersion protocolVersion, Flags flags, Collection<? extends RtrDataUnit> dataUnits) {
+        if (dataUnits != null) {
+            for (RtrDataUnit dataUnit : dataUnits) {
+                final Pdu pdu = dataUnit.toPdu(protocolVersion, flags);
+                pdu.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Most data units are IPv4 prefixes, the buffer grows when needed.
+     */
+    private static int estimatedLength(Collection<? extends RtrDataUnit> dataUnits) {
+        return dataUnits == null ? 0 : dataUnits.size() * IPv4PrefixPdu.PDU_LENGTH;
+    }
+
+    @Value
+    static class Key {
+        short sessionId;
+        SerialNumber from;
+        SerialNumber to;
+        ProtocolVersion protocolVersion;
+    }
+}
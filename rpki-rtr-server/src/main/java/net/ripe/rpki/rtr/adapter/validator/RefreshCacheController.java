@@ -32,6 +32,7 @@ package net.ripe.rpki.rtr.adapter.validator;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.rtr.adapter.file.RtrCacheJournal;
 import net.ripe.rpki.rtr.domain.RtrCache;
 import net.ripe.rpki.rtr.domain.RtrClients;
 import net.ripe.rpki.rtr.domain.RtrDataUnit;
@@ -61,6 +62,9 @@ public class RefreshCacheController {
     @Autowired
     private RtrCache cache;
 
+    @Autowired
+    private RtrCacheJournal journal;
+
     @Autowired
     private RtrClients clients;
 
@@ -104,8 +108,10 @@ public class RefreshCacheController {
                 }));
 
         cache.update(Stream.concat(roaPrefixes, routerCertificates))
-            .ifPresent(updatedSerialNumber ->
-                clients.cacheUpdated(cache.getSessionId(), updatedSerialNumber));
+            .ifPresent(updatedSerialNumber -> {
+                journal.persist();
+                clients.cacheUpdated(updatedSerialNumber);
+            });
 
         lastRefreshSucceeded.set(true);
     }
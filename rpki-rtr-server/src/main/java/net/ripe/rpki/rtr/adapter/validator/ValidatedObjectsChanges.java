@@ -0,0 +1,116 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.validator;
+
+import lombok.Value;
+import net.ripe.rpki.rtr.domain.RtrDataSet;
+import net.ripe.rpki.rtr.domain.RtrRouterKey;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Changes of the validated objects as served by the validator change feed
+ * (<code>/api/objects/validated/changes</code>), or the full set of validated objects as served by
+ * <code>/api/objects/validated/snapshot</code>. The fixed width prefix records are decoded straight into
+ * the packed {@link RtrDataSet} representation, router keys into {@link RtrRouterKey} instances.
+ */
+@Value
+public class ValidatedObjectsChanges {
+    static final int FORMAT_VERSION = 1;
+    static final int FLAG_READY = 1;
+    static final int FLAG_RESET = 2;
+
+    long sessionId;
+    long serial;
+    boolean ready;
+    /**
+     * The announcements are the full set of validated objects, not a delta.
+     */
+    boolean reset;
+    RtrDataSet announcements;
+    RtrDataSet withdrawals;
+
+    public static ValidatedObjectsChanges parse(byte[] bytes) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final int formatVersion = Byte.toUnsignedInt(buffer.get());
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("unsupported change feed format version " + formatVersion);
+            }
+            final int flags = buffer.get();
+            final long sessionId = buffer.getLong();
+            final long serial = buffer.getLong();
+
+            final RtrDataSet.Builder announcements = RtrDataSet.builder();
+            final RtrDataSet.Builder withdrawals = RtrDataSet.builder();
+            readPrefixes(buffer, announcements);
+            readPrefixes(buffer, withdrawals);
+            readRouterKeys(buffer, announcements);
+            readRouterKeys(buffer, withdrawals);
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("unexpected " + buffer.remaining() + " bytes after the changes");
+            }
+
+            return new ValidatedObjectsChanges(sessionId, serial, (flags & FLAG_READY) != 0, (flags & FLAG_RESET) != 0, announcements.build(), withdrawals.build());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated changes", e);
+        }
+    }
+
+    private static void readPrefixes(ByteBuffer buffer, RtrDataSet.Builder result) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int asn = buffer.getInt();
+            final int family = buffer.get();
+            final int prefixLength = Byte.toUnsignedInt(buffer.get());
+            final int maxLength = Byte.toUnsignedInt(buffer.get());
+            buffer.get();
+            if (family == 6) {
+                result.ipv6Prefix(buffer.getLong(), buffer.getLong(), prefixLength, maxLength, asn);
+            } else {
+                result.ipv4Prefix(buffer.getInt(), prefixLength, maxLength, asn);
+                buffer.position(buffer.position() + 12);
+            }
+        }
+    }
+
+    private static void readRouterKeys(ByteBuffer buffer, RtrDataSet.Builder result) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int asn = buffer.getInt();
+            final byte[] subjectKeyIdentifier = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(subjectKeyIdentifier);
+            final byte[] subjectPublicKeyInfo = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(subjectPublicKeyInfo);
+            result.routerKey(RtrRouterKey.of(subjectKeyIdentifier, subjectPublicKeyInfo, asn));
+        }
+    }
+}
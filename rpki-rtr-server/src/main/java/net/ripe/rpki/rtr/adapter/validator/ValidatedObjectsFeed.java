@@ -0,0 +1,252 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.validator;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rtr.adapter.file.RtrCacheJournal;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrClients;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Follows the change feed of the validator and applies the changes to the RTR cache as soon as they
+ * are published. The validator holds the request until there are changes (or the wait time passes), so
+ * an idle validator costs one request per minute. The full set of validated objects is loaded from the
+ * snapshot first. Responses after the validator restarted or the RTR server fell too far behind contain
+ * the full set as well. The snapshot is requested with the ETag of the snapshot the cache contains, if
+ * any, so that an unchanged snapshot is not transferred again.
+ * <p>
+ * Validators without the change feed are polled every minute with {@link RefreshCacheController}.
+ */
+@Service
+@Slf4j
+public class ValidatedObjectsFeed {
+
+    private static final int WAIT_SECONDS = 60;
+    private static final Duration RETRY_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration POLLING_INTERVAL = Duration.ofMinutes(1);
+
+    private final RestTemplate restTemplate;
+    private final URI changesUri;
+    private final URI snapshotUri;
+    private final RtrCache cache;
+    private final RtrCacheJournal journal;
+    private final RtrClients clients;
+    private final RefreshCacheController refreshCacheController;
+
+    private volatile Thread thread;
+
+    private Long sessionId;
+    private Long serial;
+    /**
+     * The cache contains the validated objects of the session and serial above.
+     */
+    private boolean synced;
+    /**
+     * The snapshot the cache contains, as long as no other changes were applied.
+     */
+    private AppliedSnapshot appliedSnapshot;
+
+    @Autowired
+    public ValidatedObjectsFeed(
+        RestTemplateBuilder restTemplateBuilder,
+        @Value("${rpki.validator.validated.objects.changes.uri:${rpki.validator.validated.objects.uri}/changes}") URI changesUri,
+        @Value("${rpki.validator.validated.objects.snapshot.uri:${rpki.validator.validated.objects.uri}/snapshot}") URI snapshotUri,
+        RtrCache cache,
+        RtrCacheJournal journal,
+        RtrClients clients,
+        RefreshCacheController refreshCacheController
+    ) {
+        this.restTemplate = restTemplateBuilder
+            .setReadTimeout(Duration.ofSeconds(2 * WAIT_SECONDS))
+            .build();
+        this.changesUri = changesUri;
+        this.snapshotUri = snapshotUri;
+        this.cache = cache;
+        this.journal = journal;
+        this.clients = clients;
+        this.refreshCacheController = refreshCacheController;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "validated-objects-feed");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void run() {
+        log.info("following validated objects changes from {}", changesUri);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                followChanges().ifPresent(this::sleep);
+            } catch (Exception e) {
+                log.warn("failed to fetch validated objects changes from {}: {}", changesUri, e.toString());
+                sleep(RETRY_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Fetch and apply one batch of changes.
+     *
+     * @return how long to wait before the next request, if at all
+     */
+    Optional<Duration> followChanges() {
+        final ResponseEntity<byte[]> response;
+        try {
+            if (sessionId == null || serial == null) {
+                loadSnapshot();
+                return Optional.empty();
+            }
+            response = restTemplate.getForEntity(changesRequestUri(), byte[].class);
+        } catch (HttpClientErrorException.NotFound e) {
+            log.info("validator at {} does not provide the change feed, polling validated objects", changesUri);
+            refreshCacheController.refreshObjectCache();
+            return Optional.of(POLLING_INTERVAL);
+        }
+        if (response.getStatusCode() == HttpStatus.NO_CONTENT || response.getBody() == null) {
+            return Optional.empty();
+        }
+
+        apply(ValidatedObjectsChanges.parse(response.getBody()));
+        return Optional.empty();
+    }
+
+    void loadSnapshot() {
+        final AppliedSnapshot current = appliedSnapshot;
+        final HttpHeaders headers = new HttpHeaders();
+        if (current != null) {
+            headers.setIfNoneMatch(current.getETag());
+        }
+        final ResponseEntity<byte[]> response = restTemplate.exchange(snapshotUri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && current != null) {
+            log.info("validated objects snapshot {} from {} not modified", current.getETag(), snapshotUri);
+            sessionId = current.getSessionId();
+            serial = current.getSerial();
+            synced = true;
+            return;
+        }
+        final byte[] body = response.getBody();
+        if (body == null) {
+            throw new IllegalStateException("empty validated objects snapshot from " + snapshotUri);
+        }
+        applySnapshot(ValidatedObjectsChanges.parse(body), response.getHeaders().getETag());
+    }
+
+    void applySnapshot(ValidatedObjectsChanges snapshot, String eTag) {
+        if (!snapshot.isReset()) {
+            throw new IllegalArgumentException("snapshot from " + snapshotUri + " does not contain the full set of validated objects");
+        }
+        apply(snapshot);
+        if (synced && eTag != null) {
+            appliedSnapshot = new AppliedSnapshot(eTag, snapshot.getSessionId(), snapshot.getSerial());
+        }
+    }
+
+    void apply(ValidatedObjectsChanges changes) {
+        appliedSnapshot = null;
+        if (!changes.isReady()) {
+            log.info("validator {} not ready yet, waiting for changes", changesUri);
+            synced = false;
+        } else if (changes.isReset()) {
+            log.info("received {} validated objects with serial {} from {}", changes.getAnnouncements().size(), changes.getSerial(), changesUri);
+            cache.update(changes.getAnnouncements()).ifPresent(this::cacheUpdated);
+            synced = true;
+        } else if (synced) {
+            log.info("received {} announcements and {} withdrawals with serial {} from {}", changes.getAnnouncements().size(), changes.getWithdrawals().size(), changes.getSerial(), changesUri);
+            cache.update(changes.getAnnouncements(), changes.getWithdrawals()).ifPresent(this::cacheUpdated);
+        } else {
+            // The cache does not contain the state these changes apply to, start over with the full set
+            sessionId = null;
+            serial = null;
+            return;
+        }
+        sessionId = changes.getSessionId();
+        serial = changes.getSerial();
+    }
+
+    private void cacheUpdated(SerialNumber updatedSerialNumber) {
+        journal.persist();
+        clients.cacheUpdated(updatedSerialNumber);
+    }
+
+    private URI changesRequestUri() {
+        final UriComponentsBuilder builder = UriComponentsBuilder.fromUri(changesUri).queryParam("wait", WAIT_SECONDS);
+        if (sessionId != null && serial != null) {
+            builder.queryParam("session", sessionId).queryParam("serial", serial);
+        }
+        return builder.build().toUri();
+    }
+
+    private void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @lombok.Value
+    private static class AppliedSnapshot {
+        String eTag;
+        long sessionId;
+        long serial;
+    }
+}
@@ -66,11 +66,6 @@ public class BackgroundJobs {
                 futureDate(20, SECOND),
                 SimpleScheduleBuilder.repeatMinutelyForever());
 
-        schedule(RefreshObjectCacheJob.class,
-                futureDate(10, SECOND),
-                SimpleScheduleBuilder.repeatMinutelyForever()
-                        .withMisfireHandlingInstructionIgnoreMisfires());
-
     }
 
     private <T extends Trigger> void schedule(Class<? extends Job> jobClass, Date startAt, ScheduleBuilder<T> schedule) throws SchedulerException {
@@ -42,11 +42,9 @@ import org.springframework.stereotype.Component;
 
 import java.security.SecureRandom;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -66,7 +64,7 @@ public class RtrCache {
     @Getter
     private volatile short sessionId;
     private volatile boolean ready;
-    private VersionedSet<RtrDataUnit> data;
+    private VersionedSet<RtrDataSet> data;
 
     @Autowired
     public RtrCache(MeterRegistry registry) {
@@ -78,7 +76,7 @@ public class RtrCache {
         reset();
 
         // Init metrics
-        Gauge.builder("rtrserver.validated.objects.count", this.data::size)
+        Gauge.builder("rtrserver.validated.objects.count", () -> this.data.size())
             .description("Number of validated objects")
             .register(registry);
         Gauge.builder("rtrserver.validated.objects.ready", () -> this.ready ? 1 : 0)
@@ -96,7 +94,7 @@ public class RtrCache {
         Locks.locked(lock.writeLock(), () -> {
             this.ready = false;
             generateNewSessionId();
-            this.data = new VersionedSet<>(initialVersion);
+            this.data = new VersionedSet<>(RtrDataSet.EMPTY, initialVersion);
         });
     }
 
@@ -108,27 +106,65 @@ public class RtrCache {
         this.sessionId = newSessionId;
     }
 
+    /**
+     * Replace the session, serial number, data and deltas with persisted ones. The cache is ready
+     * afterwards.
+     */
+    public void restore(Snapshot snapshot) {
+        Locks.locked(lock.writeLock(), () -> {
+            this.sessionId = snapshot.getSessionId();
+            this.data = new VersionedSet<>(snapshot.getSerialNumber(), snapshot.getValues(), snapshot.getDeltaLog());
+            this.ready = true;
+        });
+    }
+
+    /**
+     * @return the session, serial number, data and the delta log of the individual updates, e.g. to
+     * persist them
+     */
+    public Snapshot getSnapshot() {
+        return Locks.locked(lock.readLock(), () ->
+            Snapshot.of(sessionId, data.getCurrentVersion(), ready, data.getValues(), data.getDeltaLog()));
+    }
+
     public Optional<SerialNumber> update(Collection<RtrDataUnit> updatedPdus) {
-        return update(updatedPdus.stream());
+        return update(RtrDataSet.of(updatedPdus));
     }
 
     public Optional<SerialNumber> update(Stream<RtrDataUnit> updatedPdus) {
-        return Locks.locked(lock.writeLock(), () -> {
-            ready = true;
-            if (data.updateValues(updatedPdus)) {
-                log.info(
-                        "{} validated ROAs updated to serial number {} (delta with {} announcements, {} withdrawals)",
-                        data.size(),
-                        data.getCurrentVersion().getValue(),
-                        data.getDelta(data.getCurrentVersion().previous()).map(x -> x.getAdditions().size()).orElse(0),
-                        data.getDelta(data.getCurrentVersion().previous()).map(x -> x.getRemovals().size()).orElse(0)
-                );
-                return Optional.of(data.getCurrentVersion());
-            } else {
-                log.info("no updates to cached data");
-                return Optional.empty();
-            }
-        });
+        return update(RtrDataSet.of(updatedPdus));
+    }
+
+    public Optional<SerialNumber> update(RtrDataSet updatedPdus) {
+        return Locks.locked(lock.writeLock(), () -> updated(data.updateValues(updatedPdus)));
+    }
+
+    /**
+     * Apply the announcements and withdrawals to the current data.
+     *
+     * @return the updated serial number, if anything changed
+     */
+    public Optional<SerialNumber> update(Collection<RtrDataUnit> announcements, Collection<RtrDataUnit> withdrawals) {
+        final RtrDataSet additions = RtrDataSet.of(announcements);
+        final RtrDataSet removals = RtrDataSet.of(withdrawals);
+        return Locks.locked(lock.writeLock(), () -> updated(data.applyChanges(additions, removals)));
+    }
+
+    private Optional<SerialNumber> updated(boolean changed) {
+        ready = true;
+        if (changed) {
+            log.info(
+                    "{} validated ROAs updated to serial number {} (delta with {} announcements, {} withdrawals)",
+                    data.size(),
+                    data.getCurrentVersion().getValue(),
+                    data.getDelta(data.getCurrentVersion().previous()).map(x -> x.getAdditions().size()).orElse(0),
+                    data.getDelta(data.getCurrentVersion().previous()).map(x -> x.getRemovals().size()).orElse(0)
+            );
+            return Optional.of(data.getCurrentVersion());
+        } else {
+            log.info("no updates to cached data");
+            return Optional.empty();
+        }
     }
 
     public Content getCurrentContent() {
@@ -158,9 +194,9 @@ public class RtrCache {
             if (!ready || serialNumber.isAfter(getSerialNumber())) {
                 return Optional.empty();
             } else if (serialNumber.equals(getSerialNumber())) {
-                return Optional.of(Delta.of(sessionId, serialNumber, Collections.emptySortedSet(), Collections.emptySortedSet()));
+                return Optional.of(Delta.of(sessionId, serialNumber, RtrDataSet.EMPTY, RtrDataSet.EMPTY));
             } else {
-                Optional<VersionedSet.Delta<RtrDataUnit>> delta = data.getDelta(serialNumber);
+                Optional<VersionedSet.Delta<RtrDataSet>> delta = data.getDelta(serialNumber);
                 return delta.map(d -> Delta.of(sessionId, getSerialNumber(), d.getAdditions(), d.getRemovals()));
             }
         });
@@ -177,11 +213,11 @@ public class RtrCache {
     }
 
     public State getState() {
-        final Triple<Content, VersionedSet<RtrDataUnit>, Short> t =
+        final Triple<Content, VersionedSet<RtrDataSet>, Short> t =
                 Locks.locked(lock.readLock(), () -> Triple.of(getCurrentContentNoLock(), data, sessionId));
 
         final Content content = t.getLeft();
-        final VersionedSet<RtrDataUnit> data = t.getMiddle();
+        final VersionedSet<RtrDataSet> data = t.getMiddle();
         final Short sessionId = t.getRight();
         SortedMap<SerialNumber, Delta> deltas = data.getDeltas().entrySet().stream().map(entry ->
             Delta.of(sessionId, entry.getKey(), entry.getValue().getAdditions(), entry.getValue().getRemovals())
@@ -204,19 +240,31 @@ public class RtrCache {
         SortedMap<SerialNumber, Delta> deltas;
     }
 
+    @Value(staticConstructor = "of")
+    public static class Snapshot {
+        short sessionId;
+        SerialNumber serialNumber;
+        boolean ready;
+        RtrDataSet values;
+        /**
+         * The delta from every retained serial number to the next one.
+         */
+        SortedMap<SerialNumber, VersionedSet.Delta<RtrDataSet>> deltaLog;
+    }
+
     @Value(staticConstructor = "of")
     public static class Content {
         short sessionId;
         SerialNumber serialNumber;
         boolean ready;
-        SortedSet<RtrDataUnit> announcements;
+        RtrDataSet announcements;
     }
 
     @Value(staticConstructor = "of")
     public static class Delta {
         short sessionId;
         SerialNumber serialNumber;
-        SortedSet<RtrDataUnit> announcements;
-        SortedSet<RtrDataUnit> withdrawals;
+        RtrDataSet announcements;
+        RtrDataSet withdrawals;
     }
 }
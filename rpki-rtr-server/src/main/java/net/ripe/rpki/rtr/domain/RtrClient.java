@@ -30,6 +30,7 @@
 package net.ripe.rpki.rtr.domain;
 
 import lombok.Value;
+import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
 
 import java.time.Instant;
 
@@ -38,7 +39,12 @@ public interface RtrClient {
 
     SerialNumber getClientSerialNumber();
 
-    void cacheUpdated(short sessionId, SerialNumber updatedSerialNumber);
+    /**
+     * @return the negotiated protocol version, null until the client sent its first query
+     */
+    ProtocolVersion getProtocolVersion();
+
+    void cacheUpdated(SerialNumber updatedSerialNumber);
 
     boolean disconnectIfInactive(Instant now);
 
@@ -30,20 +30,43 @@
 package net.ripe.rpki.rtr.domain;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
 import net.ripe.rpki.rtr.util.Locks;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
+/**
+ * The connected RTR clients.
+ * <p>
+ * Cache updates are announced to the clients with Notify PDUs. Since every notified router immediately
+ * sends a Serial Query, notifying all clients at once results in a burst of identical delta responses.
+ * Instead, the lagging clients are notified in batches spread over the notify window, the clients with
+ * the oldest serial number first. Updates arriving while a fan-out is in progress are coalesced: the
+ * remaining batches announce the newest serial number, and the clients that were notified of an older
+ * serial are notified again when the fan-out completes.
+ */
 @Service
 @Slf4j
 public class RtrClients {
@@ -57,9 +80,43 @@ public class RtrClients {
     private final Counter clientRegisterCount;
     private final Counter clientUnregisterCount;
     private final Counter clientDisconnectInactiveCount;
+    private final Timer initialSyncTimer;
+    private final Timer syncLatencyTimer;
+    private final DistributionSummary notifyBurstSize;
 
-    @Autowired
+    private final long notifyWindowMillis;
+    private final int notifyBatchSize;
+    private final ScheduledExecutorService notifyExecutor;
+
+    // Guarded by this
+    private SerialNumber latestSerialNumber;
+    private Instant latestSerialNumberAt;
+    private boolean notifyInProgress;
+
+    /**
+     * Notifies all clients immediately when the cache is updated.
+     */
     public RtrClients(final MeterRegistry meterRegistry) {
+        this(meterRegistry, 0, Integer.MAX_VALUE);
+    }
+
+    @Autowired
+    public RtrClients(
+        final MeterRegistry meterRegistry,
+        @Value("${rtr.server.notify.window.ms:10000}") long notifyWindowMillis,
+        @Value("${rtr.server.notify.batch.size:50}") int notifyBatchSize
+    ) {
+        if (notifyWindowMillis < 0 || notifyBatchSize <= 0) {
+            throw new IllegalArgumentException("notify window must not be negative and batch size must be positive");
+        }
+        this.notifyWindowMillis = notifyWindowMillis;
+        this.notifyBatchSize = notifyBatchSize;
+        this.notifyExecutor = notifyWindowMillis == 0 ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rtr-notify");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         clientRegisterCount = Counter.builder(RTRSERVER_CLIENTS_METRIC)
                 .tag(RTRSERVER_METRIC_TAG_OPERATION, "register")
                 .description(RTRSERVER_CLIENTS_METRIC_DESCRIPTION)
@@ -72,6 +129,23 @@ public class RtrClients {
                 .tag(RTRSERVER_METRIC_TAG_OPERATION, "disconnect_inactive")
                 .description(RTRSERVER_CLIENTS_METRIC_DESCRIPTION)
                 .register(meterRegistry);
+        initialSyncTimer = Timer.builder("rtrserver.client.initial.sync")
+                .description("Time from connecting until the first End of Data PDU is sent to a client")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        syncLatencyTimer = Timer.builder("rtrserver.client.sync.latency")
+                .description("Time from a cache update until a client received the End of Data PDU for its serial number")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        notifyBurstSize = DistributionSummary.builder("rtrserver.notify.burst")
+                .description("Number of clients notified at once, each of which is expected to send a Serial Query")
+                .register(meterRegistry);
+        for (ProtocolVersion protocolVersion : ProtocolVersion.values()) {
+            Gauge.builder("rtrserver.client.sessions", () -> countClients(protocolVersion))
+                    .tag("version", String.valueOf(protocolVersion.getValue()))
+                    .description("Number of RTR server clients per negotiated protocol version")
+                    .register(meterRegistry);
+        }
     }
 
     public void register(final RtrClient client) {
@@ -94,14 +168,132 @@ public class RtrClients {
         }
     }
 
+    public void initialSyncCompleted(Duration duration) {
+        initialSyncTimer.record(duration);
+    }
+
+    /**
+     * Record the time it took for a client to receive the data of the latest serial number after the update.
+     */
+    public void syncCompleted(SerialNumber serialNumber) {
+        final Instant updatedAt;
+        synchronized (this) {
+            if (!serialNumber.equals(latestSerialNumber)) {
+                return;
+            }
+            updatedAt = latestSerialNumberAt;
+        }
+        syncLatencyTimer.record(Duration.between(updatedAt, Instant.now()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (notifyExecutor != null) {
+            notifyExecutor.shutdownNow();
+        }
+    }
+
     public Set<RtrClient> list() {
         return Locks.locked(lock.readLock(), () -> new HashSet<>(clients));
     }
 
-    public void cacheUpdated(short sessionId, SerialNumber updatedSerialNumber) {
-        Locks.locked(lock.readLock(), () ->
-                clients.forEach(client -> client.cacheUpdated(sessionId, updatedSerialNumber))
-        );
+    public void cacheUpdated(SerialNumber updatedSerialNumber) {
+        synchronized (this) {
+            latestSerialNumber = updatedSerialNumber;
+            latestSerialNumberAt = Instant.now();
+            if (notifyInProgress) {
+                return;
+            }
+            notifyInProgress = true;
+        }
+        startNotify();
+    }
+
+    private void startNotify() {
+        if (notifyExecutor == null) {
+            notifyLaggingClients();
+        } else {
+            try {
+                notifyExecutor.execute(this::notifyLaggingClients);
+            } catch (RejectedExecutionException e) {
+                notifyAborted(e);
+            }
+        }
+    }
+
+    /**
+     * Any failure before the last batch ends the fan-out, otherwise no client would be notified ever again.
+     */
+    private void notifyLaggingClients() {
+        try {
+            final SerialNumber serialNumber = getLatestSerialNumber();
+            // Serial number order is not transitive, the distance to the latest serial number is
+            final List<RtrClient> lagging = Locks.locked(lock.readLock(), () -> clients.stream()
+                    .filter(client -> serialNumber.isAfter(client.getClientSerialNumber()))
+                    .sorted(Comparator.comparingLong((RtrClient client) -> lag(serialNumber, client.getClientSerialNumber())).reversed())
+                    .collect(Collectors.toList()));
+            if (notifyExecutor == null) {
+                notifyBatch(serialNumber, lagging, 0, lagging.size(), 0);
+            } else {
+                final int batches = (lagging.size() + notifyBatchSize - 1) / notifyBatchSize;
+                final long intervalMillis = batches <= 1 ? 0 : notifyWindowMillis / (batches - 1);
+                notifyBatch(serialNumber, lagging, 0, notifyBatchSize, intervalMillis);
+            }
+        } catch (RuntimeException e) {
+            notifyAborted(e);
+        }
+    }
+
+    private static long lag(SerialNumber latest, SerialNumber clientSerialNumber) {
+        return Integer.toUnsignedLong(latest.getValue() - clientSerialNumber.getValue());
+    }
+
+    private void notifyAborted(RuntimeException e) {
+        log.error("failed to notify lagging clients", e);
+        synchronized (this) {
+            notifyInProgress = false;
+        }
+    }
+
+    private void notifyBatch(SerialNumber startSerialNumber, List<RtrClient> lagging, int from, int batchSize, long intervalMillis) {
+        final int to = (int) Math.min((long) from + batchSize, lagging.size());
+        try {
+            final SerialNumber serialNumber = getLatestSerialNumber();
+            lagging.subList(from, to).forEach(client -> client.cacheUpdated(serialNumber));
+            notifyBurstSize.record(to - from);
+        } catch (RuntimeException e) {
+            log.error("failed to notify clients", e);
+        }
+
+        if (to < lagging.size()) {
+            try {
+                notifyExecutor.schedule(() -> notifyBatch(startSerialNumber, lagging, to, batchSize, intervalMillis), intervalMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                notifyAborted(e);
+            }
+        } else {
+            notifyCompleted(startSerialNumber);
+        }
+    }
+
+    private void notifyCompleted(SerialNumber startSerialNumber) {
+        synchronized (this) {
+            if (startSerialNumber.equals(latestSerialNumber)) {
+                notifyInProgress = false;
+                return;
+            }
+        }
+        // The cache was updated during the fan-out, notify the clients that are still lagging
+        startNotify();
+    }
+
+    private synchronized SerialNumber getLatestSerialNumber() {
+        return latestSerialNumber;
+    }
+
+    public long countClients(ProtocolVersion protocolVersion) {
+        return Locks.locked(lock.readLock(), () ->
+                clients.stream().filter(client -> client.getProtocolVersion() == protocolVersion).count());
     }
 
     public Optional<SerialNumber> getLowestSerialNumber() {
@@ -0,0 +1,491 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Immutable set of RTR data units in a packed representation. Prefixes are stored in sorted arrays
+ * of longs, two longs per IPv4 prefix and three longs per IPv6 prefix, so that hundreds of thousands
+ * of prefixes take a few megabytes and the difference between two sets is a merge of the sorted
+ * arrays. The few router keys are kept in a sorted set.
+ * <p>
+ * Iteration creates the {@link RtrPrefix} instances on the fly and follows the natural order of
+ * {@link RtrDataUnit}: IPv4 prefixes, IPv6 prefixes and then the router keys.
+ */
+public final class RtrDataSet extends AbstractSet<RtrDataUnit> implements ValueSet<RtrDataSet> {
+
+    public static final RtrDataSet EMPTY = new RtrDataSet(new long[0], new long[0], ImmutableSortedSet.of());
+
+    /**
+     * IPv4 prefixes: the address, prefix length and maximum length in the first long, the ASN in the second.
+     */
+    private static final int IPV4_STRIDE = 2;
+    /**
+     * IPv6 prefixes: the address in the first two longs, the prefix length, maximum length and ASN in the third.
+     */
+    private static final int IPV6_STRIDE = 3;
+
+    private final long[] ipv4;
+    private final long[] ipv6;
+    private final ImmutableSortedSet<RtrDataUnit> routerKeys;
+
+    private RtrDataSet(long[] ipv4, long[] ipv6, ImmutableSortedSet<RtrDataUnit> routerKeys) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.routerKeys = routerKeys;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static RtrDataSet of(Collection<? extends RtrDataUnit> dataUnits) {
+        if (dataUnits instanceof RtrDataSet) {
+            return (RtrDataSet) dataUnits;
+        }
+        return builder().addAll(dataUnits.stream()).build();
+    }
+
+    public static RtrDataSet of(Stream<? extends RtrDataUnit> dataUnits) {
+        return builder().addAll(dataUnits).build();
+    }
+
+    @Override
+    public int size() {
+        return ipv4.length / IPV4_STRIDE + ipv6.length / IPV6_STRIDE + routerKeys.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ipv4.length == 0 && ipv6.length == 0 && routerKeys.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof RtrPrefix) {
+            final RtrPrefix prefix = (RtrPrefix) o;
+            final long[] key = new long[IPV6_STRIDE];
+            if (prefix.getPrefix().length == 4) {
+                packIpv4(key, 0, address(prefix.getPrefix(), 0, 4), prefix.getPrefixLength(), prefix.getMaxLength(), prefix.getAsn());
+                return indexOf(ipv4, IPV4_STRIDE, key) >= 0;
+            } else if (prefix.getPrefix().length == 16) {
+                packIpv6(key, 0, address(prefix.getPrefix(), 0, 8), address(prefix.getPrefix(), 8, 16), prefix.getPrefixLength(), prefix.getMaxLength(), prefix.getAsn());
+                return indexOf(ipv6, IPV6_STRIDE, key) >= 0;
+            }
+            return false;
+        }
+        return routerKeys.contains(o);
+    }
+
+    @Override
+    public Iterator<RtrDataUnit> iterator() {
+        return Iterators.concat(new PrefixIterator(), routerKeys.iterator());
+    }
+
+    /**
+     * @return the prefixes of this set, sharing the packed representation
+     */
+    public RtrDataSet withoutRouterKeys() {
+        return routerKeys.isEmpty() ? this : new RtrDataSet(ipv4, ipv6, ImmutableSortedSet.of());
+    }
+
+    /**
+     * @return the data units of this set that are not in <code>other</code>
+     */
+    public RtrDataSet minus(RtrDataSet other) {
+        return new RtrDataSet(
+            minus(ipv4, other.ipv4, IPV4_STRIDE),
+            minus(ipv6, other.ipv6, IPV6_STRIDE),
+            ImmutableSortedSet.copyOf(Sets.difference(routerKeys, other.routerKeys))
+        );
+    }
+
+    /**
+     * @return the data units in this set or in <code>other</code>
+     */
+    public RtrDataSet union(RtrDataSet other) {
+        return new RtrDataSet(
+            union(ipv4, other.ipv4, IPV4_STRIDE),
+            union(ipv6, other.ipv6, IPV6_STRIDE),
+            ImmutableSortedSet.copyOf(Sets.union(routerKeys, other.routerKeys))
+        );
+    }
+
+    /**
+     * Write the packed representation, which can be read back with {@link #readFrom(DataInput)}
+     * without sorting.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        writeLongs(out, ipv4);
+        writeLongs(out, ipv6);
+        out.writeInt(routerKeys.size());
+        for (RtrDataUnit dataUnit : routerKeys) {
+            final RtrRouterKey routerKey = (RtrRouterKey) dataUnit;
+            writeBytes(out, routerKey.getSubjectKeyIdentifier());
+            writeBytes(out, routerKey.getSubjectPublicKeyInfo());
+            out.writeInt(routerKey.getAsn());
+        }
+    }
+
+    /**
+     * @throws IOException when reading fails or the prefixes are not sorted
+     */
+    public static RtrDataSet readFrom(DataInput in) throws IOException {
+        final long[] ipv4 = readSortedLongs(in, IPV4_STRIDE);
+        final long[] ipv6 = readSortedLongs(in, IPV6_STRIDE);
+        final int routerKeyCount = in.readInt();
+        final ImmutableSortedSet.Builder<RtrDataUnit> routerKeys = ImmutableSortedSet.naturalOrder();
+        for (int i = 0; i < routerKeyCount; i++) {
+            routerKeys.add(RtrRouterKey.of(readBytes(in), readBytes(in), in.readInt()));
+        }
+        return new RtrDataSet(ipv4, ipv6, routerKeys.build());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof RtrDataSet) {
+            final RtrDataSet that = (RtrDataSet) o;
+            return Arrays.equals(ipv4, that.ipv4) && Arrays.equals(ipv6, that.ipv6) && routerKeys.equals(that.routerKeys);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Consistent with the hash code of other sets, so computed from the data units
+        return super.hashCode();
+    }
+
+    private class PrefixIterator implements Iterator<RtrDataUnit> {
+        private int i = 0;
+        private int j = 0;
+
+        @Override
+        public boolean hasNext() {
+            return i < ipv4.length || j < ipv6.length;
+        }
+
+        @Override
+        public RtrDataUnit next() {
+            if (i < ipv4.length) {
+                final long head = ipv4[i];
+                final byte[] prefix = new byte[4];
+                writeAddress(prefix, 0, 4, head >>> 16);
+                final RtrPrefix result = RtrPrefix.of((byte) (head >>> 8), (byte) head, prefix, (int) ipv4[i + 1]);
+                i += IPV4_STRIDE;
+                return result;
+            } else if (j < ipv6.length) {
+                final long lengthsAndAsn = ipv6[j + 2];
+                final byte[] prefix = new byte[16];
+                writeAddress(prefix, 0, 8, ipv6[j]);
+                writeAddress(prefix, 8, 16, ipv6[j + 1]);
+                final RtrPrefix result = RtrPrefix.of((byte) (lengthsAndAsn >>> 40), (byte) (lengthsAndAsn >>> 32), prefix, (int) lengthsAndAsn);
+                j += IPV6_STRIDE;
+                return result;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    public static class Builder {
+        private long[] ipv4 = new long[IPV4_STRIDE * 1024];
+        private int ipv4Length;
+        private long[] ipv6 = new long[IPV6_STRIDE * 256];
+        private int ipv6Length;
+        private final ImmutableSortedSet.Builder<RtrDataUnit> routerKeys = ImmutableSortedSet.naturalOrder();
+
+        public Builder ipv4Prefix(int address, int prefixLength, int maxLength, int asn) {
+            if (ipv4Length == ipv4.length) {
+                ipv4 = Arrays.copyOf(ipv4, ipv4.length * 2);
+            }
+            packIpv4(ipv4, ipv4Length, address & 0xffffffffL, prefixLength, maxLength, asn);
+            ipv4Length += IPV4_STRIDE;
+            return this;
+        }
+
+        public Builder ipv6Prefix(long addressHi, long addressLo, int prefixLength, int maxLength, int asn) {
+            if (ipv6Length == ipv6.length) {
+                ipv6 = Arrays.copyOf(ipv6, ipv6.length * 2);
+            }
+            packIpv6(ipv6, ipv6Length, addressHi, addressLo, prefixLength, maxLength, asn);
+            ipv6Length += IPV6_STRIDE;
+            return this;
+        }
+
+        public Builder routerKey(RtrRouterKey routerKey) {
+            routerKeys.add(routerKey);
+            return this;
+        }
+
+        public Builder add(RtrDataUnit dataUnit) {
+            if (dataUnit instanceof RtrPrefix) {
+                final RtrPrefix prefix = (RtrPrefix) dataUnit;
+                final byte[] address = prefix.getPrefix();
+                if (address.length == 4) {
+                    return ipv4Prefix((int) address(address, 0, 4), prefix.getPrefixLength(), prefix.getMaxLength(), prefix.getAsn());
+                } else if (address.length == 16) {
+                    return ipv6Prefix(address(address, 0, 8), address(address, 8, 16), prefix.getPrefixLength(), prefix.getMaxLength(), prefix.getAsn());
+                }
+                throw new IllegalArgumentException(String.format("invalid RTR prefix length, expected 4 or 16, was %d", address.length));
+            } else if (dataUnit instanceof RtrRouterKey) {
+                return routerKey((RtrRouterKey) dataUnit);
+            }
+            throw new IllegalArgumentException("unsupported RTR data unit " + dataUnit);
+        }
+
+        public Builder addAll(Stream<? extends RtrDataUnit> dataUnits) {
+            dataUnits.forEach(this::add);
+            return this;
+        }
+
+        public RtrDataSet build() {
+            return new RtrDataSet(
+                sortedDistinct(Arrays.copyOf(ipv4, ipv4Length), IPV4_STRIDE),
+                sortedDistinct(Arrays.copyOf(ipv6, ipv6Length), IPV6_STRIDE),
+                routerKeys.build()
+            );
+        }
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readSortedLongs(DataInput in, int stride) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length % stride != 0) {
+            throw new IOException("invalid length " + length + " of packed prefixes");
+        }
+        final long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readLong();
+        }
+        for (int i = stride; i < length; i += stride) {
+            if (compare(values, i - stride, values, i, stride) >= 0) {
+                throw new IOException("packed prefixes are not sorted");
+            }
+        }
+        return values;
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > 65536) {
+            throw new IOException("invalid router key field length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void packIpv4(long[] target, int offset, long address, int prefixLength, int maxLength, int asn) {
+        target[offset] = (address << 16) | ((prefixLength & 0xffL) << 8) | (maxLength & 0xffL);
+        target[offset + 1] = asn & 0xffffffffL;
+    }
+
+    private static void packIpv6(long[] target, int offset, long addressHi, long addressLo, int prefixLength, int maxLength, int asn) {
+        target[offset] = addressHi;
+        target[offset + 1] = addressLo;
+        target[offset + 2] = ((prefixLength & 0xffL) << 40) | ((maxLength & 0xffL) << 32) | (asn & 0xffffffffL);
+    }
+
+    private static long address(byte[] bytes, int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            result = (result << 8) | (bytes[i] & 0xff);
+        }
+        return result;
+    }
+
+    private static void writeAddress(byte[] bytes, int from, int to, long address) {
+        for (int i = to - 1; i >= from; i--) {
+            bytes[i] = (byte) address;
+            address >>>= 8;
+        }
+    }
+
+    /**
+     * Unsigned comparison of the packed data units at <code>i</code> in <code>a</code> and <code>j</code> in <code>b</code>,
+     * which is the same order as {@link RtrPrefix#compareToSameType(RtrDataUnit)}.
+     */
+    private static int compare(long[] a, int i, long[] b, int j, int stride) {
+        for (int k = 0; k < stride; k++) {
+            final int rc = Long.compareUnsigned(a[i + k], b[j + k]);
+            if (rc != 0) {
+                return rc;
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(long[] sorted, int stride, long[] key) {
+        int lo = 0;
+        int hi = sorted.length / stride - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int rc = compare(sorted, mid * stride, key, 0, stride);
+            if (rc < 0) {
+                lo = mid + 1;
+            } else if (rc > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the data units of <code>a</code> that are not in <code>b</code>, both sorted
+     */
+    private static long[] minus(long[] a, long[] b, int stride) {
+        final long[] result = new long[a.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length) {
+            final int rc = j < b.length ? compare(a, i, b, j, stride) : -1;
+            if (rc < 0) {
+                System.arraycopy(a, i, result, length, stride);
+                length += stride;
+                i += stride;
+            } else if (rc > 0) {
+                j += stride;
+            } else {
+                i += stride;
+                j += stride;
+            }
+        }
+        return length == a.length ? a : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * @return the sorted union of the sorted data units of <code>a</code> and <code>b</code>
+     */
+    private static long[] union(long[] a, long[] b, int stride) {
+        if (b.length == 0) {
+            return a;
+        } else if (a.length == 0) {
+            return b;
+        }
+        final long[] result = new long[a.length + b.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            final int rc = i == a.length ? 1 : j == b.length ? -1 : compare(a, i, b, j, stride);
+            if (rc <= 0) {
+                System.arraycopy(a, i, result, length, stride);
+                i += stride;
+                if (rc == 0) {
+                    j += stride;
+                }
+            } else {
+                System.arraycopy(b, j, result, length, stride);
+                j += stride;
+            }
+            length += stride;
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static long[] sortedDistinct(long[] values, int stride) {
+        sort(values, 0, values.length / stride - 1, stride, new long[stride]);
+        int length = 0;
+        for (int i = 0; i < values.length; i += stride) {
+            if (length == 0 || compare(values, length - stride, values, i, stride) != 0) {
+                System.arraycopy(values, i, values, length, stride);
+                length += stride;
+            }
+        }
+        return length == values.length ? values : Arrays.copyOf(values, length);
+    }
+
+    /**
+     * Quicksort of the packed data units from index <code>lo</code> to <code>hi</code> (inclusive). The
+     * three-way partition keeps it O(n log n) when the same data unit is added many times.
+     */
+    private static void sort(long[] values, int lo, int hi, int stride, long[] pivot) {
+        while (lo < hi) {
+            System.arraycopy(values, ((lo + hi) >>> 1) * stride, pivot, 0, stride);
+            // values[lo..lt) < pivot, values[lt..i) == pivot, values(gt..hi] > pivot
+            int lt = lo;
+            int i = lo;
+            int gt = hi;
+            while (i <= gt) {
+                final int rc = compare(values, i * stride, pivot, 0, stride);
+                if (rc < 0) {
+                    swap(values, lt++, i++, stride);
+                } else if (rc > 0) {
+                    swap(values, i, gt--, stride);
+                } else {
+                    i++;
+                }
+            }
+            // Recurse into the smaller part to bound the stack depth, the pivot is not needed anymore
+            if (lt - lo < hi - gt) {
+                sort(values, lo, lt - 1, stride, pivot);
+                lo = gt + 1;
+            } else {
+                sort(values, gt + 1, hi, stride, pivot);
+                hi = lt - 1;
+            }
+        }
+    }
+
+    private static void swap(long[] values, int i, int j, int stride) {
+        for (int k = 0; k < stride; k++) {
+            final long tmp = values[i * stride + k];
+            values[i * stride + k] = values[j * stride + k];
+            values[j * stride + k] = tmp;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import fj.data.Either;
+import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The RTR sessions of the cache, one per protocol version. All sessions share the data, serial numbers
+ * and delta history of the {@link RtrCache}, but every protocol version gets its own view:
+ * <ul>
+ *     <li>version 1 contains the prefixes and router keys,</li>
+ *     <li>version 0 (RFC 6810) only contains the prefixes.</li>
+ * </ul>
+ * Since the views differ, every protocol version has its own session id: a router that reconnects with
+ * another protocol version gets a cache reset instead of deltas on top of the data of the other version.
+ */
+@Component
+public class RtrSessions {
+    private final RtrCache cache;
+
+    @Autowired
+    public RtrSessions(RtrCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the session id of the protocol version, derived from the session id of the cache
+     */
+    public short getSessionId(ProtocolVersion protocolVersion) {
+        return sessionId(cache.getSessionId(), protocolVersion);
+    }
+
+    public SerialNumber getSerialNumber() {
+        return cache.getSerialNumber();
+    }
+
+    public RtrCache.Content getCurrentContent(ProtocolVersion protocolVersion) {
+        return view(cache.getCurrentContent(), protocolVersion);
+    }
+
+    public Either<RtrCache.Delta, RtrCache.Content> getDeltaOrContent(ProtocolVersion protocolVersion, SerialNumber serialNumber) {
+        final Either<RtrCache.Delta, RtrCache.Content> deltaOrContent = cache.getDeltaOrContent(serialNumber);
+        if (deltaOrContent.isLeft()) {
+            return Either.left(view(deltaOrContent.left().value(), protocolVersion));
+        } else {
+            return Either.right(view(deltaOrContent.right().value(), protocolVersion));
+        }
+    }
+
+    private static short sessionId(short cacheSessionId, ProtocolVersion protocolVersion) {
+        switch (protocolVersion) {
+            case V0:
+                return (short) (cacheSessionId + 1);
+            case V1:
+            default:
+                return cacheSessionId;
+        }
+    }
+
+    private static RtrCache.Content view(RtrCache.Content content, ProtocolVersion protocolVersion) {
+        return RtrCache.Content.of(
+            sessionId(content.getSessionId(), protocolVersion),
+            content.getSerialNumber(),
+            content.isReady(),
+            dataUnits(content.getAnnouncements(), protocolVersion)
+        );
+    }
+
+    private static RtrCache.Delta view(RtrCache.Delta delta, ProtocolVersion protocolVersion) {
+        return RtrCache.Delta.of(
+            sessionId(delta.getSessionId(), protocolVersion),
+            delta.getSerialNumber(),
+            dataUnits(delta.getAnnouncements(), protocolVersion),
+            dataUnits(delta.getWithdrawals(), protocolVersion)
+        );
+    }
+
+    private static RtrDataSet dataUnits(RtrDataSet dataUnits, ProtocolVersion protocolVersion) {
+        return protocolVersion == ProtocolVersion.V0 ? dataUnits.withoutRouterKeys() : dataUnits;
+    }
+}
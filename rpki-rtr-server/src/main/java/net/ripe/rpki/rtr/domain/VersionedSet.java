@@ -30,70 +30,123 @@
 package net.ripe.rpki.rtr.domain;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
+import lombok.Value;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-public class VersionedSet<T extends Comparable<T>> {
+/**
+ * A set of values with a version number that is incremented on every change.
+ *
+ * The changes are kept as a log with one delta per version. The delta from an older version to the
+ * current version is composed from the log when it is requested, so memory grows with the total
+ * number of changes and not with the number of changes times the number of versions kept. Composed
+ * deltas are cached; when the same version is requested again after updates, only the new deltas
+ * from the log are applied to it. Cached deltas that were not requested since the previous update
+ * are dropped. Updates and {@link #forgetDeltasBefore(SerialNumber)} must not run
+ * concurrently with other methods, {@link #getDelta(SerialNumber)} can be called concurrently.
+ *
+ * The values and the deltas are {@link ValueSet}s, e.g. the packed {@link RtrDataSet}, so an update
+ * only costs the difference and union of the current and updated values.
+ */
+public class VersionedSet<S extends ValueSet<S>> {
 
-    private final Delta<T> EMPTY_DELTA = new Delta<T>(Collections.emptySortedSet(), Collections.emptySortedSet());
+    private final Delta<S> emptyDelta;
 
     @Getter
     private SerialNumber currentVersion;
 
     @Getter
-    private SortedSet<T> values = Collections.emptySortedSet();
+    private S values;
 
+    /**
+     * The delta from every version (the key) to the version following it.
+     */
     @Getter
-    private SortedMap<SerialNumber, Delta<T>> deltas = Collections.emptySortedMap();
+    private SortedMap<SerialNumber, Delta<S>> deltaLog = Collections.emptySortedMap();
+
+    private final Map<SerialNumber, ComposedDelta<S>> composedDeltas = new ConcurrentHashMap<>();
 
-    public VersionedSet() {
-        this(SerialNumber.zero());
+    public VersionedSet(S empty) {
+        this(empty, SerialNumber.zero());
     }
 
-    public VersionedSet(SerialNumber initialVersion) {
+    public VersionedSet(S empty, SerialNumber initialVersion) {
+        this.emptyDelta = Delta.of(empty, empty);
         this.currentVersion = initialVersion;
+        this.values = empty;
     }
 
-    public boolean updateValues(Collection<T> newValues) {
-        return updateValues(newValues.stream());
+    /**
+     * Restore the values and the delta log of a version, e.g. after reading them from a file.
+     */
+    public VersionedSet(SerialNumber currentVersion, S values, SortedMap<SerialNumber, Delta<S>> deltaLog) {
+        this(values.minus(values), currentVersion);
+        this.values = values;
+        this.deltaLog = Collections.unmodifiableSortedMap(new TreeMap<>(deltaLog));
     }
 
-    public boolean updateValues(Stream<T> newValues) {
-        SortedSet<T> updatedValues = Collections.unmodifiableSortedSet(newSortedSet(newValues));
+    /**
+     * @return true if the values changed and the version was incremented
+     */
+    public boolean updateValues(S updatedValues) {
         if (values.equals(updatedValues)) {
             return false;
         }
 
-        Delta<T> delta = Delta.calculate(values, updatedValues);
-        deltas = updateDeltas(delta);
+        update(updatedValues, Delta.of(updatedValues.minus(values), values.minus(updatedValues)));
+        return true;
+    }
+
+    /**
+     * Apply changes to the current values, additions of values that are already present and removals
+     * of values that are not present are ignored.
+     *
+     * @return true if the values changed and the version was incremented
+     */
+    public boolean applyChanges(S additions, S removals) {
+        final S added = additions.minus(values);
+        final S removed = removals.minus(removals.minus(values));
+        if (added.isEmpty() && removed.isEmpty()) {
+            return false;
+        }
+
+        update(values.minus(removed).union(added), Delta.of(added, removed));
+        return true;
+    }
+
+    private void update(S updatedValues, Delta<S> delta) {
+        TreeMap<SerialNumber, Delta<S>> updatedLog = new TreeMap<>(deltaLog);
+        updatedLog.put(currentVersion, delta);
+        deltaLog = Collections.unmodifiableSortedMap(updatedLog);
+        final SerialNumber previousVersion = currentVersion;
+        composedDeltas.values().removeIf(composed -> !composed.getTo().equals(previousVersion));
 
         currentVersion = currentVersion.next();
         values = updatedValues;
-        return true;
     }
 
     public Set<SerialNumber> forgetDeltasBefore(SerialNumber version) {
-        Set<SerialNumber> olderDeltas = deltas.keySet().stream().filter(key -> key.compareTo(version) < 0).collect(Collectors.toSet());
+        Set<SerialNumber> olderDeltas = deltaLog.keySet().stream().filter(key -> key.compareTo(version) < 0).collect(Collectors.toSet());
         if (!olderDeltas.isEmpty()) {
-            deltas = Collections.unmodifiableSortedMap(new TreeMap<>(Maps.filterEntries(deltas, entry -> !olderDeltas.contains(entry.getKey()))));
+            deltaLog = Collections.unmodifiableSortedMap(new TreeMap<>(Maps.filterEntries(deltaLog, entry -> !olderDeltas.contains(entry.getKey()))));
+            composedDeltas.keySet().removeAll(olderDeltas);
         }
         return olderDeltas;
     }
 
-    public Optional<Delta<T>> getDelta(SerialNumber version) {
+    public Optional<Delta<S>> getDelta(SerialNumber version) {
         if (version.isAfter(currentVersion)) {
             throw new IllegalArgumentException(String.format(
                 "requested version %d must not be greater than current version %d",
@@ -101,10 +154,49 @@ public class VersionedSet<T extends Comparable<T>> {
                 currentVersion
             ));
         } else if (version.equals(currentVersion)) {
-            return Optional.of(EMPTY_DELTA);
-        } else {
-            return Optional.ofNullable(deltas.get(version));
+            return Optional.of(emptyDelta);
+        }
+
+        final SortedMap<SerialNumber, Delta<S>> log = deltaLog;
+        final SerialNumber to = currentVersion;
+        final Delta<S> step = log.get(version);
+        if (step == null) {
+            return Optional.empty();
+        } else if (version.next().equals(to)) {
+            return Optional.of(step);
         }
+
+        final ComposedDelta<S> cached = composedDeltas.get(version);
+        if (cached != null && cached.getTo().equals(to)) {
+            return Optional.of(cached.getDelta());
+        }
+        Delta<S> delta = emptyDelta;
+        SerialNumber from = version;
+        if (cached != null) {
+            delta = cached.getDelta();
+            from = cached.getTo();
+        }
+        for (Delta<S> next : log.tailMap(from).values()) {
+            delta = delta.then(next);
+        }
+        composedDeltas.put(version, new ComposedDelta<>(to, delta));
+        return Optional.of(delta);
+    }
+
+    /**
+     * @return the deltas from all the known versions to the current version. All of them are
+     * computed, so this is only meant for monitoring.
+     */
+    public SortedMap<SerialNumber, Delta<S>> getDeltas() {
+        final SortedMap<SerialNumber, Delta<S>> log = deltaLog;
+        final TreeMap<SerialNumber, Delta<S>> result = new TreeMap<>();
+        Delta<S> delta = emptyDelta;
+        final List<SerialNumber> versions = new ArrayList<>(log.keySet());
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            delta = log.get(versions.get(i)).then(delta);
+            result.put(versions.get(i), delta);
+        }
+        return Collections.unmodifiableSortedMap(result);
     }
 
     public int size() {
@@ -114,56 +206,34 @@ public class VersionedSet<T extends Comparable<T>> {
     @EqualsAndHashCode
     @Getter
     @ToString
-    public static class Delta<T>{
-        private final SortedSet<T> additions;
-        private final SortedSet<T> removals;
+    public static class Delta<S extends ValueSet<S>> {
+        private final S additions;
+        private final S removals;
 
-        private Delta(SortedSet<T> additions, SortedSet<T> removals) {
-            this.additions = Collections.unmodifiableSortedSet(additions);
-            this.removals = Collections.unmodifiableSortedSet(removals);
+        private Delta(S additions, S removals) {
+            this.additions = additions;
+            this.removals = removals;
         }
 
-        public static <T> Delta<T> of(SortedSet<T> additions, SortedSet<T> removals) {
+        public static <S extends ValueSet<S>> Delta<S> of(S additions, S removals) {
             return new Delta<>(additions, removals);
         }
 
-        public static <T> Delta<T> calculate(Set<T> values, Set<T> updated) {
-            return of(
-                newSortedSet(Sets.difference(updated, values)),
-                newSortedSet(Sets.difference(values, updated))
-            );
-        }
-
-        public Delta<T> append(Delta<T> that) {
-            SortedSet<T> additions = newSortedSet(Sets.union(
-                Sets.difference(this.additions, that.removals),
-                Sets.difference(that.additions, this.removals)
-            ));
-
-            SortedSet<T> removals = newSortedSet(Sets.union(
-                Sets.difference(this.removals, that.additions),
-                Sets.difference(that.removals, this.additions)
-            ));
-
+        /**
+         * @return the delta applying this delta followed by <code>next</code>, a removal cancels an
+         * earlier addition and vice versa
+         */
+        public Delta<S> then(Delta<S> next) {
             return new Delta<>(
-                additions,
-                removals
+                additions.minus(next.removals).union(next.additions.minus(removals)),
+                removals.minus(next.additions).union(next.removals.minus(additions))
             );
         }
     }
 
-    private SortedMap<SerialNumber, Delta<T>> updateDeltas(Delta<T> delta) {
-        TreeMap<SerialNumber, Delta<T>> updatedDeltas = new TreeMap<>(deltas);
-        updatedDeltas.replaceAll((key, value) -> value.append(delta));
-        updatedDeltas.put(currentVersion, delta);
-        return Collections.unmodifiableSortedMap(updatedDeltas);
-    }
-
-    private static <T> SortedSet<T> newSortedSet(Collection<? extends T> values) {
-        return new TreeSet<>(values);
-    }
-
-    private static <T> SortedSet<T> newSortedSet(Stream<? extends T> values) {
-        return values.collect(Collectors.toCollection(TreeSet::new));
+    @Value
+    private static class ComposedDelta<S extends ValueSet<S>> {
+        SerialNumber to;
+        Delta<S> delta;
     }
 }
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.rtr;
 
+import com.google.common.collect.ImmutableSet;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.netty.buffer.ByteBuf;
@@ -37,11 +38,14 @@ import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.rtr.adapter.netty.EncodedPduCache;
 import net.ripe.rpki.rtr.adapter.netty.PduCodec;
 import net.ripe.rpki.rtr.domain.RtrCache;
 import net.ripe.rpki.rtr.domain.RtrClients;
 import net.ripe.rpki.rtr.domain.RtrDataUnit;
 import net.ripe.rpki.rtr.domain.RtrPrefix;
+import net.ripe.rpki.rtr.domain.RtrRouterKey;
+import net.ripe.rpki.rtr.domain.RtrSessions;
 import net.ripe.rpki.rtr.domain.SerialNumber;
 import net.ripe.rpki.rtr.domain.pdus.CacheResetPdu;
 import net.ripe.rpki.rtr.domain.pdus.CacheResponsePdu;
@@ -70,16 +74,21 @@ public class RtrServerTest {
 
     private static final RtrPrefix AS_3333 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("127.0.0.0/8"), 12);
     private static final RtrPrefix AS_4444 = RtrDataUnit.prefix(Asn.parse("AS4444"), IpRange.parse("127.0.0.0/8"), 12);
+    private static final RtrRouterKey ROUTER_KEY = RtrRouterKey.of(new byte[20], new byte[]{1, 2, 3}, 65000);
 
     private final RtrCache rtrCache = new RtrCache(new SimpleMeterRegistry());
-    private final RtrClients clients = new RtrClients(new SimpleMeterRegistry());
-    private final RtrClientHandler rtrClientHandler = new RtrClientHandler(rtrCache, clients);
+    private final RtrSessions sessions = new RtrSessions(rtrCache);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RtrClients clients = new RtrClients(registry);
+    private final RtrClientHandler rtrClientHandler = new RtrClientHandler(sessions, clients, new EncodedPduCache(new SimpleMeterRegistry()));
     private final EmbeddedChannel channel = new EmbeddedChannel(
         new PduCodec(),
         new ChunkedWriteHandler(),
         rtrClientHandler
     );
 
+    private ByteBuf outbound;
+
     @Before
     public void setUp() throws Exception {
         rtrClientHandler.setClientRefreshInterval(3600);
@@ -154,6 +163,14 @@ public class RtrServerTest {
         );
     }
 
+    @Test
+    public void should_record_initial_sync_time() {
+        clientRequest(ResetQueryPdu.of(V1));
+        clientRequest(SerialQueryPdu.of(V1, rtrCache.getSessionId(), rtrCache.getSerialNumber()));
+
+        assertThat(registry.get("rtrserver.client.initial.sync").timer().count()).isEqualTo(1);
+    }
+
     @Test
     public void should_notify_client_when_cache_is_updated() {
         clientRequest(ResetQueryPdu.of(V1));
@@ -209,9 +226,9 @@ public class RtrServerTest {
         clientRequest(ResetQueryPdu.of(V0));
 
         assertResponse(
-            CacheResponsePdu.of(V0, rtrCache.getSessionId()),
+            CacheResponsePdu.of(V0, sessions.getSessionId(V0)),
             AS_3333.toPdu(V0, Flags.ANNOUNCEMENT),
-            EndOfDataPdu.of(V0, rtrCache.getSessionId(), rtrCache.getSerialNumber(), 3600, 600, 7200)
+            EndOfDataPdu.of(V0, sessions.getSessionId(V0), rtrCache.getSerialNumber(), 3600, 600, 7200)
         );
     }
 
@@ -239,13 +256,13 @@ public class RtrServerTest {
     public void should_reply_with_cache_response_if_delta_is_available_v0() {
         updateCache(Collections.singleton(AS_4444));
 
-        clientRequest(SerialQueryPdu.of(V0, rtrCache.getSessionId(), rtrCache.getSerialNumber().previous()));
+        clientRequest(SerialQueryPdu.of(V0, sessions.getSessionId(V0), rtrCache.getSerialNumber().previous()));
 
         assertResponse(
-            CacheResponsePdu.of(V0, rtrCache.getSessionId()),
+            CacheResponsePdu.of(V0, sessions.getSessionId(V0)),
             AS_4444.toPdu(V0, Flags.ANNOUNCEMENT),
             AS_3333.toPdu(V0, Flags.WITHDRAWAL),
-            EndOfDataPdu.of(V0, rtrCache.getSessionId(), rtrCache.getSerialNumber(), 3600, 600, 7200)
+            EndOfDataPdu.of(V0, sessions.getSessionId(V0), rtrCache.getSerialNumber(), 3600, 600, 7200)
         );
     }
 
@@ -253,19 +270,50 @@ public class RtrServerTest {
     public void should_notify_client_when_cache_is_updated_v0() {
         clientRequest(ResetQueryPdu.of(V0));
         assertResponse(
-            CacheResponsePdu.of(V0, rtrCache.getSessionId()),
+            CacheResponsePdu.of(V0, sessions.getSessionId(V0)),
             AS_3333.toPdu(V0, Flags.ANNOUNCEMENT),
-            EndOfDataPdu.of(V0, rtrCache.getSessionId(), SerialNumber.of(1), 3600, 600, 7200)
+            EndOfDataPdu.of(V0, sessions.getSessionId(V0), SerialNumber.of(1), 3600, 600, 7200)
         );
 
         Set<RtrDataUnit> singleton = Collections.singleton(AS_4444);
         updateCache(singleton);
 
         assertResponse(
-            NotifyPdu.of(V0, rtrCache.getSessionId(), SerialNumber.of(2))
+            NotifyPdu.of(V0, sessions.getSessionId(V0), SerialNumber.of(2))
+        );
+    }
+
+    @Test
+    public void should_not_send_router_keys_to_protocol_version_0() {
+        updateCache(ImmutableSet.of(AS_3333, ROUTER_KEY));
+
+        clientRequest(ResetQueryPdu.of(V0));
+
+        assertResponse(
+            CacheResponsePdu.of(V0, sessions.getSessionId(V0)),
+            AS_3333.toPdu(V0, Flags.ANNOUNCEMENT),
+            EndOfDataPdu.of(V0, sessions.getSessionId(V0), rtrCache.getSerialNumber(), 3600, 600, 7200)
         );
     }
 
+    @Test
+    public void should_reply_with_cache_reset_if_session_id_of_other_protocol_version() {
+        updateCache(Collections.singleton(AS_4444));
+
+        clientRequest(SerialQueryPdu.of(V0, sessions.getSessionId(V1), rtrCache.getSerialNumber().previous()));
+
+        assertResponse(CacheResetPdu.of(V0));
+    }
+
+    @Test
+    public void should_count_clients_per_protocol_version() {
+        clients.register(rtrClientHandler);
+        clientRequest(ResetQueryPdu.of(V0));
+
+        assertThat(registry.get("rtrserver.client.sessions").tag("version", "0").gauge().value()).isEqualTo(1.0);
+        assertThat(registry.get("rtrserver.client.sessions").tag("version", "1").gauge().value()).isEqualTo(0.0);
+    }
+
     @Test
     public void should_not_report_error_on_broken_client_error_pdu() {
         channel.writeInbound(Unpooled.copiedBuffer(new byte[] {ProtocolVersion.V1.getValue(), ErrorPdu.PDU_TYPE, 0, 0, 0, 0, 0, 12, 0, 0, 0, 3}));
@@ -275,7 +323,7 @@ public class RtrServerTest {
 
 
     private void updateCache(Set<RtrDataUnit> dataUnits) {
-        rtrCache.update(dataUnits).ifPresent(sn -> clients.cacheUpdated(rtrCache.getSessionId(), sn));
+        rtrCache.update(dataUnits).ifPresent(sn -> clients.cacheUpdated(sn));
     }
 
     private void clientRequest(Pdu pdu) {
@@ -285,7 +333,8 @@ public class RtrServerTest {
     private void assertResponse(Pdu... expectedResponses) {
         for (Pdu expected : expectedResponses) {
             try {
-                for (ByteBuf msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+                // Pre-encoded prefix PDUs are written as a single buffer
+                for (ByteBuf msg = nextOutbound(); msg != null; msg = nextOutbound()) {
                     Pdu actual = PduCodec.parsePdu(msg).orElse(null);
                     if (actual != null) {
                         assertEquals(expected, actual);
@@ -297,4 +346,11 @@ public class RtrServerTest {
             }
         }
     }
+
+    private ByteBuf nextOutbound() {
+        if (outbound == null || outbound.readableBytes() < 8) {
+            outbound = channel.readOutbound();
+        }
+        return outbound;
+    }
 }
@@ -0,0 +1,170 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.file;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.RtrPrefix;
+import net.ripe.rpki.rtr.domain.RtrRouterKey;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RtrCacheJournalTest {
+
+    private static final RtrPrefix AS_3333 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("127.0.0.0/8"), 12);
+    private static final RtrPrefix AS_4444 = RtrDataUnit.prefix(Asn.parse("AS4444"), IpRange.parse("2001:db8::/32"), 48);
+    private static final RtrRouterKey ROUTER_KEY = RtrRouterKey.of(new byte[]{1, 2, 3}, new byte[]{4, 5, 6, 7}, 65000);
+
+    private static final Duration MAX_AGE = Duration.ofHours(2);
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path file;
+    private final RtrCache cache = new RtrCache(new SimpleMeterRegistry());
+
+    @Before
+    public void setUp() {
+        file = tmp.getRoot().toPath().resolve("rtr-cache.dat");
+    }
+
+    @Test
+    public void should_restore_session_serial_data_and_deltas() {
+        RtrCacheJournal journal = journal(cache, 100, Clock.systemUTC());
+        update(journal, AS_3333);
+        update(journal, AS_3333, AS_4444, ROUTER_KEY);
+        update(journal, AS_4444);
+        journal.close();
+
+        RtrCache restored = restore(100);
+
+        assertThat(restored.getSnapshot()).isEqualTo(cache.getSnapshot());
+        assertThat(restored.getDeltaOrContent(SerialNumber.of(1)).left().value().getWithdrawals()).containsExactly(AS_3333);
+    }
+
+    @Test
+    public void should_rewrite_file_after_appending_deltas() throws IOException {
+        RtrCacheJournal journal = journal(cache, 1, Clock.systemUTC());
+        update(journal, AS_3333);
+        update(journal, AS_4444);
+        long sizeBeforeCompaction = Files.size(file);
+        update(journal, AS_3333, AS_4444);
+        journal.close();
+
+        assertThat(Files.size(file)).isNotEqualTo(sizeBeforeCompaction);
+        assertThat(restore(1).getSnapshot()).isEqualTo(cache.getSnapshot());
+    }
+
+    @Test
+    public void should_ignore_incomplete_last_update() throws IOException {
+        RtrCacheJournal journal = journal(cache, 100, Clock.systemUTC());
+        update(journal, AS_3333);
+        RtrCache.Snapshot expected = cache.getSnapshot();
+        update(journal, AS_4444);
+        journal.close();
+
+        try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "rw")) {
+            f.setLength(f.length() - 1);
+        }
+
+        assertThat(restore(100).getSnapshot()).isEqualTo(expected);
+    }
+
+    @Test
+    public void should_ignore_corrupted_update() throws IOException {
+        RtrCacheJournal journal = journal(cache, 100, Clock.systemUTC());
+        update(journal, AS_3333);
+        RtrCache.Snapshot expected = cache.getSnapshot();
+        update(journal, AS_4444);
+        journal.close();
+
+        try (RandomAccessFile f = new RandomAccessFile(file.toFile(), "rw")) {
+            f.seek(f.length() - 1);
+            int last = f.read();
+            f.seek(f.length() - 1);
+            f.write(last ^ 0xff);
+        }
+
+        assertThat(restore(100).getSnapshot()).isEqualTo(expected);
+    }
+
+    @Test
+    public void should_start_empty_without_file() {
+        RtrCache restored = restore(100);
+
+        assertThat(restored.getCurrentContent().isReady()).isFalse();
+    }
+
+    @Test
+    public void should_not_restore_file_older_than_client_expire_interval() {
+        Instant writtenAt = Instant.now().minus(MAX_AGE).minusSeconds(60);
+        RtrCacheJournal journal = journal(cache, 100, Clock.fixed(writtenAt, ZoneOffset.UTC));
+        update(journal, AS_3333);
+        update(journal, AS_4444);
+        journal.close();
+
+        RtrCache restored = restore(100);
+
+        assertThat(restored.getCurrentContent().isReady()).isFalse();
+    }
+
+    private RtrCacheJournal journal(RtrCache cache, int compactAfter, Clock clock) {
+        return new RtrCacheJournal(cache, file.toString(), compactAfter, MAX_AGE, clock);
+    }
+
+    private void update(RtrCacheJournal journal, RtrDataUnit... dataUnits) {
+        cache.update(Arrays.asList(dataUnits)).ifPresent(serialNumber -> journal.persist());
+    }
+
+    private RtrCache restore(int compactAfter) {
+        RtrCache restored = new RtrCache(new SimpleMeterRegistry());
+        journal(restored, compactAfter, Clock.systemUTC()).restore();
+        return restored;
+    }
+}
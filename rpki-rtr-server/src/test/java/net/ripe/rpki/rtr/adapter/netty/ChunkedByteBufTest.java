@@ -0,0 +1,71 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkedByteBufTest {
+
+    @Test
+    public void should_write_buffer_in_chunks() {
+        ByteBuf buffer = Unpooled.wrappedBuffer(new byte[40000]);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler());
+
+        channel.writeAndFlush(new ChunkedByteBuf(buffer.retainedDuplicate(), 16384));
+
+        assertThat(((ByteBuf) channel.readOutbound()).readableBytes()).isEqualTo(16384);
+        assertThat(((ByteBuf) channel.readOutbound()).readableBytes()).isEqualTo(16384);
+        assertThat(((ByteBuf) channel.readOutbound()).readableBytes()).isEqualTo(40000 - 2 * 16384);
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    @Test
+    public void should_release_buffer_when_closed() throws Exception {
+        ByteBuf buffer = Unpooled.wrappedBuffer(new byte[100]);
+        ChunkedByteBuf subject = new ChunkedByteBuf(buffer.retainedDuplicate(), 64);
+
+        ByteBuf chunk = subject.readChunk(ByteBufAllocator.DEFAULT);
+        assertThat(subject.progress()).isEqualTo(64);
+        assertThat(subject.length()).isEqualTo(100);
+        assertThat(subject.isEndOfInput()).isFalse();
+
+        subject.close();
+        assertThat(buffer.refCnt()).isEqualTo(2);
+        chunk.release();
+        assertThat(buffer.refCnt()).isEqualTo(1);
+    }
+}
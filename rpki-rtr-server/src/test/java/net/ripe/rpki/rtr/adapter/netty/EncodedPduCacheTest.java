@@ -0,0 +1,183 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.netty;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.RtrPrefix;
+import net.ripe.rpki.rtr.domain.RtrSessions;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.pdus.Flags;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static net.ripe.rpki.rtr.domain.pdus.ProtocolVersion.V0;
+import static net.ripe.rpki.rtr.domain.pdus.ProtocolVersion.V1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncodedPduCacheTest {
+
+    private static final RtrPrefix AS_3333 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("127.0.0.0/8"), 12);
+    private static final RtrPrefix AS_4444 = RtrDataUnit.prefix(Asn.parse("AS4444"), IpRange.parse("::1/128"), null);
+
+    private final RtrCache rtrCache = new RtrCache(new SimpleMeterRegistry());
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final EncodedPduCache subject = new EncodedPduCache(registry);
+
+    @Test
+    public void should_share_encoded_content_between_requests() {
+        rtrCache.update(Collections.singleton(AS_3333));
+
+        ByteBuf first = subject.content(rtrCache.getCurrentContent(), V1);
+        ByteBuf second = subject.content(rtrCache.getCurrentContent(), V1);
+
+        assertThat(first.isReadOnly()).isTrue();
+        assertThat(encodings()).isEqualTo(1);
+        assertThat(first.refCnt()).isEqualTo(3);
+        assertThat(first).isEqualTo(Unpooled.wrappedBuffer(AS_3333.toPdu(V1, Flags.ANNOUNCEMENT).toByteArray()));
+
+        ByteBuf v0 = subject.content(rtrCache.getCurrentContent(), V0);
+        assertThat(encodings()).isEqualTo(2);
+        assertThat(v0).isEqualTo(Unpooled.wrappedBuffer(AS_3333.toPdu(V0, Flags.ANNOUNCEMENT).toByteArray()));
+
+        first.release();
+        second.release();
+        v0.release();
+        assertThat(first.refCnt()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_encode_delta_announcements_before_withdrawals() {
+        rtrCache.update(Collections.singleton(AS_3333));
+        SerialNumber from = rtrCache.getSerialNumber();
+        rtrCache.update(Collections.singleton(AS_4444));
+
+        RtrCache.Delta delta = rtrCache.getDeltaOrContent(from).left().value();
+        ByteBuf encoded = subject.delta(from, delta, V1);
+
+        ByteBuf expected = Unpooled.wrappedBuffer(
+            AS_4444.toPdu(V1, Flags.ANNOUNCEMENT).toByteArray(),
+            AS_3333.toPdu(V1, Flags.WITHDRAWAL).toByteArray()
+        );
+        assertThat(encoded).isEqualTo(expected);
+        encoded.release();
+    }
+
+    @Test
+    public void should_release_buffers_of_older_serials() {
+        rtrCache.update(Collections.singleton(AS_3333));
+        ByteBuf old = subject.content(rtrCache.getCurrentContent(), V1);
+        RtrCache.Content oldContent = rtrCache.getCurrentContent();
+
+        rtrCache.update(Collections.singleton(AS_4444));
+        ByteBuf current = subject.content(rtrCache.getCurrentContent(), V1);
+        assertThat(old.refCnt()).isEqualTo(1);
+        old.release();
+        assertThat(old.refCnt()).isEqualTo(0);
+
+        // Late requests for the older serial are encoded, but not cached
+        ByteBuf late = subject.content(oldContent, V1);
+        assertThat(late.refCnt()).isEqualTo(1);
+        assertThat(current.refCnt()).isEqualTo(2);
+
+        late.release();
+        current.release();
+        subject.clear();
+        assertThat(current.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void should_keep_encodings_of_each_protocol_version_session() {
+        rtrCache.update(Collections.singleton(AS_3333));
+        RtrSessions sessions = new RtrSessions(rtrCache);
+
+        for (int i = 0; i < 2; ++i) {
+            subject.content(sessions.getCurrentContent(V0), V0).release();
+            subject.content(sessions.getCurrentContent(V1), V1).release();
+        }
+
+        assertThat(encodings()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_only_wait_for_encodings_of_the_same_key() throws Exception {
+        SerialNumber serial = SerialNumber.of(1);
+        EncodedPduCache.Key v0 = new EncodedPduCache.Key((short) 1, null, serial, V0);
+        EncodedPduCache.Key v1 = new EncodedPduCache.Key((short) 2, null, serial, V1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<ByteBuf> first = CompletableFuture.supplyAsync(() -> subject.get(v1, () -> {
+            started.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Unpooled.directBuffer().writeInt(42);
+        }));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        ByteBuf other = subject.get(v0, () -> Unpooled.directBuffer().writeInt(0));
+        assertThat(other.readInt()).isEqualTo(0);
+
+        CompletableFuture<ByteBuf> second = CompletableFuture.supplyAsync(() -> subject.get(v1, () -> {
+            throw new AssertionError("encoded twice");
+        }));
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+
+        finish.countDown();
+        ByteBuf firstBuffer = first.get(10, TimeUnit.SECONDS);
+        ByteBuf secondBuffer = second.get(10, TimeUnit.SECONDS);
+        assertThat(secondBuffer).isEqualTo(firstBuffer);
+        assertThat(encodings()).isEqualTo(2);
+        assertThat(firstBuffer.refCnt()).isEqualTo(3);
+
+        firstBuffer.release();
+        secondBuffer.release();
+        other.release();
+        subject.clear();
+        assertThat(firstBuffer.refCnt()).isEqualTo(0);
+    }
+
+    private double encodings() {
+        return registry.get("rtrserver.encoded.pdus").tag("operation", "miss").counter().count();
+    }
+}
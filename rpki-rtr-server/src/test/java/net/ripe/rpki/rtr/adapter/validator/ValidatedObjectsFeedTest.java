@@ -0,0 +1,183 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.adapter.validator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.rtr.adapter.file.RtrCacheJournal;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrClients;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.RtrPrefix;
+import net.ripe.rpki.rtr.domain.RtrRouterKey;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import org.junit.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class ValidatedObjectsFeedTest {
+
+    private static final RtrPrefix AS_3333 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("10.0.0.0/8"), 24);
+    private static final RtrPrefix AS_4444 = RtrDataUnit.prefix(Asn.parse("AS4444"), IpRange.parse("2001:db8::/32"), 48);
+    private static final RtrRouterKey ROUTER_KEY = RtrRouterKey.of(new byte[]{1, 2, 3}, new byte[]{4, 5, 6, 7}, 65000);
+
+    private final RtrCache cache = new RtrCache(new SimpleMeterRegistry());
+    private final ValidatedObjectsFeed subject = new ValidatedObjectsFeed(
+        new RestTemplateBuilder(),
+        URI.create("http://localhost:9176/api/objects/validated/changes"),
+        URI.create("http://localhost:9176/api/objects/validated/snapshot"),
+        cache,
+        new RtrCacheJournal(cache, "", 100, 7200),
+        new RtrClients(new SimpleMeterRegistry()),
+        new RefreshCacheController(new RestTemplateBuilder())
+    );
+
+    @Test
+    public void should_parse_changes() throws IOException {
+        ValidatedObjectsChanges changes = ValidatedObjectsChanges.parse(changes(true, true, 42));
+
+        assertThat(changes.getSessionId()).isEqualTo(7);
+        assertThat(changes.getSerial()).isEqualTo(42);
+        assertThat(changes.isReady()).isTrue();
+        assertThat(changes.isReset()).isTrue();
+        assertThat(changes.getAnnouncements()).containsExactly(AS_3333, ROUTER_KEY);
+        assertThat(changes.getWithdrawals()).containsExactly(AS_4444);
+    }
+
+    @Test
+    public void should_apply_changes_on_top_of_full_set() throws IOException {
+        subject.apply(ValidatedObjectsChanges.parse(changes(false, true, 1)));
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.zero());
+
+        // Not applied, the cache does not have the full set yet
+        subject.apply(ValidatedObjectsChanges.parse(changes(true, false, 2)));
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.zero());
+
+        subject.apply(ValidatedObjectsChanges.parse(changes(true, true, 2)));
+        assertThat(cache.getCurrentContent().getAnnouncements()).containsExactlyInAnyOrder(AS_3333, ROUTER_KEY);
+
+        subject.apply(ValidatedObjectsChanges.parse(changes(true, false, 3)));
+        assertThat(cache.getCurrentContent().getAnnouncements()).containsExactlyInAnyOrder(AS_3333, ROUTER_KEY);
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.of(1));
+    }
+
+    @Test
+    public void should_load_snapshot() throws IOException {
+        subject.applySnapshot(ValidatedObjectsChanges.parse(changes(true, true, 5)), null);
+        assertThat(cache.getCurrentContent().getAnnouncements()).containsExactlyInAnyOrder(AS_3333, ROUTER_KEY);
+
+        subject.apply(ValidatedObjectsChanges.parse(changes(true, false, 6)));
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.of(1));
+    }
+
+    @Test
+    public void should_not_load_unchanged_snapshot_again() throws IOException {
+        MockRestServiceServer[] server = new MockRestServiceServer[1];
+        ValidatedObjectsFeed feed = new ValidatedObjectsFeed(
+            new RestTemplateBuilder().additionalCustomizers(restTemplate -> server[0] = MockRestServiceServer.createServer(restTemplate)),
+            URI.create("http://localhost:9176/api/objects/validated/changes"),
+            URI.create("http://localhost:9176/api/objects/validated/snapshot"),
+            cache,
+            new RtrCacheJournal(cache, "", 100, 7200),
+            new RtrClients(new SimpleMeterRegistry()),
+            new RefreshCacheController(new RestTemplateBuilder())
+        );
+        HttpHeaders eTag = new HttpHeaders();
+        eTag.setETag("\"7-5\"");
+        server[0].expect(requestTo("http://localhost:9176/api/objects/validated/snapshot"))
+            .andRespond(withSuccess(changes(true, true, 5), MediaType.APPLICATION_OCTET_STREAM).headers(eTag));
+        server[0].expect(requestTo("http://localhost:9176/api/objects/validated/snapshot"))
+            .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"7-5\""))
+            .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+        feed.loadSnapshot();
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.of(1));
+
+        feed.loadSnapshot();
+        server[0].verify();
+        assertThat(cache.getSerialNumber()).isEqualTo(SerialNumber.of(1));
+
+        // Following the changes continues from the snapshot
+        feed.apply(ValidatedObjectsChanges.parse(changes(true, false, 6)));
+        assertThat(cache.getCurrentContent().getAnnouncements()).containsExactlyInAnyOrder(AS_3333, ROUTER_KEY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_snapshot_without_full_set() throws IOException {
+        subject.applySnapshot(ValidatedObjectsChanges.parse(changes(true, false, 5)), null);
+    }
+
+    /**
+     * Announces {@link #AS_3333} and {@link #ROUTER_KEY} and withdraws {@link #AS_4444}, as written by the validator.
+     */
+    private static byte[] changes(boolean ready, boolean reset, long serial) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ValidatedObjectsChanges.FORMAT_VERSION);
+        out.writeByte((ready ? ValidatedObjectsChanges.FLAG_READY : 0) | (reset ? ValidatedObjectsChanges.FLAG_RESET : 0));
+        out.writeLong(7);
+        out.writeLong(serial);
+
+        out.writeInt(1);
+        out.writeInt(3333);
+        out.write(new byte[]{4, 8, 24, 0, 10, 0, 0, 0});
+        out.write(new byte[12]);
+
+        out.writeInt(1);
+        out.writeInt(4444);
+        out.write(new byte[]{6, 32, 48, 0, 0x20, 0x01, 0x0d, (byte) 0xb8});
+        out.write(new byte[12]);
+
+        out.writeInt(1);
+        out.writeInt(65000);
+        out.writeShort(3);
+        out.write(new byte[]{1, 2, 3});
+        out.writeShort(4);
+        out.write(new byte[]{4, 5, 6, 7});
+
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.benchmarks;
+
+import net.ripe.rpki.rtr.domain.RtrDataSet;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.RtrPrefix;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.SortedValueSet;
+import net.ripe.rpki.rtr.domain.VersionedSet;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Compares refreshing the RTR data with a full set of prefixes in a {@link VersionedSet} of
+ * {@link SortedValueSet}s (tree sets of {@link RtrPrefix}) and of {@link RtrDataSet}s (packed arrays). Prints the time per refresh
+ * and the heap retained by the set and its deltas.
+ *
+ * Run it with "mvn test -Dtest=RtrDataSetBenchmark" after removing @Ignore.
+ */
+@Ignore
+public class RtrDataSetBenchmark {
+
+    private static final int PREFIXES = 500_000;
+    private static final int REFRESHES = 20;
+    private static final int CHANGES_PER_REFRESH = 100;
+
+    /**
+     * Keeps the measured set reachable.
+     */
+    private static Object measured;
+
+    @Test
+    public void compareRefreshes() {
+        run("SortedValueSet", new VersionedSet<SortedValueSet<RtrDataUnit>>(SortedValueSet.of(), SerialNumber.zero()), (set, values) -> set.updateValues(SortedValueSet.of(values)));
+        run("RtrDataSet", new VersionedSet<RtrDataSet>(RtrDataSet.EMPTY, SerialNumber.zero()), (set, values) -> set.updateValues(RtrDataSet.of(values)));
+    }
+
+    private static <T> void run(String name, T set, BiConsumer<T, List<RtrDataUnit>> update) {
+        measured = null;
+        final long baseline = usedHeap();
+        measured = set;
+        final Random random = new Random(1);
+        List<RtrDataUnit> values = new ArrayList<>(PREFIXES);
+        for (int i = 0; i < PREFIXES; i++) {
+            values.add(randomPrefix(random));
+        }
+        long nanos = 0;
+        for (int refresh = 0; refresh < REFRESHES; refresh++) {
+            for (int change = 0; change < CHANGES_PER_REFRESH; change++) {
+                values.set(random.nextInt(values.size()), randomPrefix(random));
+            }
+            final long t = System.nanoTime();
+            update.accept(set, values);
+            nanos += System.nanoTime() - t;
+        }
+        values = null;
+        System.out.printf("%s: %dms per refresh, %dMB retained%n", name, nanos / 1_000_000 / REFRESHES, (usedHeap() - baseline) / (1024 * 1024));
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static RtrPrefix randomPrefix(Random random) {
+        if (random.nextInt(5) == 0) {
+            final byte[] address = new byte[16];
+            random.nextBytes(address);
+            for (int i = 6; i < 16; i++) {
+                address[i] = 0;
+            }
+            return RtrPrefix.of((byte) 48, (byte) 48, address, random.nextInt(100_000));
+        }
+        final byte[] address = new byte[4];
+        random.nextBytes(address);
+        address[3] = 0;
+        return RtrPrefix.of((byte) 24, (byte) 24, address, random.nextInt(100_000));
+    }
+}
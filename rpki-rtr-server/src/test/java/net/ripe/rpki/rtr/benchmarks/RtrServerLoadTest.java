@@ -0,0 +1,336 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.benchmarks;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import net.ripe.rpki.rtr.RtrClientHandler;
+import net.ripe.rpki.rtr.RtrServer;
+import net.ripe.rpki.rtr.adapter.netty.EncodedPduCache;
+import net.ripe.rpki.rtr.domain.RtrCache;
+import net.ripe.rpki.rtr.domain.RtrClients;
+import net.ripe.rpki.rtr.domain.RtrDataSet;
+import net.ripe.rpki.rtr.domain.RtrDataUnit;
+import net.ripe.rpki.rtr.domain.RtrSessions;
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.pdus.CacheResetPdu;
+import net.ripe.rpki.rtr.domain.pdus.EndOfDataPdu;
+import net.ripe.rpki.rtr.domain.pdus.ErrorPdu;
+import net.ripe.rpki.rtr.domain.pdus.NotifyPdu;
+import net.ripe.rpki.rtr.domain.pdus.Pdu;
+import net.ripe.rpki.rtr.domain.pdus.ResetQueryPdu;
+import net.ripe.rpki.rtr.domain.pdus.SerialQueryPdu;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.ServerSocket;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.ripe.rpki.rtr.domain.pdus.ProtocolVersion.V1;
+
+/**
+ * Runs the RTR server with a synthetic set of prefixes and a fleet of simulated routers connected
+ * over loopback. Every router does a Reset Query, and then a Serial Query for every Notify PDU
+ * it receives (or sometimes a Reset Query, as if it restarted). In the meantime the prefixes churn
+ * and the cache is updated at a fixed interval. Prints the throughput, the response time
+ * percentiles, the heap usage and the garbage collections.
+ *
+ * The routers only frame the PDUs and look at the few they need, so most of the CPU time is spent in
+ * the server. Note that the heap usage includes the routers and the data generated for the test.
+ *
+ * Run it with "mvn test -Dtest=RtrServerLoadTest" after removing @Ignore. The size of the test can
+ * be changed with the system properties below, e.g. "-Drtr.load.routers=5000". Every router uses
+ * two file descriptors, so the open files limit may need to be raised.
+ */
+@Ignore
+public class RtrServerLoadTest {
+
+    private static final int ROUTERS = Integer.getInteger("rtr.load.routers", 2_000);
+    private static final int PREFIXES = Integer.getInteger("rtr.load.prefixes", 500_000);
+    private static final int DURATION_SECONDS = Integer.getInteger("rtr.load.duration.seconds", 60);
+    private static final int CHURN_INTERVAL_MILLIS = Integer.getInteger("rtr.load.churn.interval.ms", 5_000);
+    private static final int CHANGES_PER_CHURN = Integer.getInteger("rtr.load.churn.changes", 200);
+    private static final int RESET_PERCENTAGE = Integer.getInteger("rtr.load.reset.percentage", 5);
+    private static final int NOTIFY_WINDOW_MILLIS = Integer.getInteger("rtr.server.notify.window.ms", 2_000);
+    private static final int NOTIFY_BATCH_SIZE = Integer.getInteger("rtr.server.notify.batch.size", 50);
+
+    private static final DecimalFormat PERCENTILE = new DecimalFormat("0.#");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Timer initialQueries = responseTimer("initial");
+    private final Timer resetQueries = responseTimer("reset");
+    private final Timer serialQueries = responseTimer("serial");
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder cacheResets = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final CountDownLatch initialSync = new CountDownLatch(ROUTERS);
+
+    @Test
+    public void run() throws Exception {
+        ((Logger) LoggerFactory.getLogger("net.ripe.rpki.rtr")).setLevel(Level.WARN);
+
+        final Random random = new Random(1);
+        final List<RtrDataUnit> values = new ArrayList<>(PREFIXES);
+        for (int i = 0; i < PREFIXES; i++) {
+            values.add(RtrDataSetBenchmark.randomPrefix(random));
+        }
+
+        final RtrCache cache = new RtrCache(registry);
+        final RtrSessions sessions = new RtrSessions(cache);
+        final RtrClients clients = new RtrClients(registry, NOTIFY_WINDOW_MILLIS, NOTIFY_BATCH_SIZE);
+        final EncodedPduCache encodedPdus = new EncodedPduCache(registry);
+        cache.update(RtrDataSet.of(values));
+
+        final int port = freePort();
+        final RtrServer server = new RtrServer("localhost", port, "auto", 0, true, 0, 256 * 1024, 1024 * 1024,
+            cache, clients, () -> new RtrClientHandler(sessions, clients, encodedPdus));
+        server.run();
+
+        final EventLoopGroup group = new NioEventLoopGroup();
+        final ScheduledExecutorService churn = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 4, 4, -8, 0), new SimulatedRouter());
+                    }
+                });
+
+            final long connectStart = System.nanoTime();
+            final List<Channel> routers = new ArrayList<>(ROUTERS);
+            for (int i = 0; i < ROUTERS; i++) {
+                routers.add(connect(bootstrap, port));
+            }
+            if (!initialSync.await(10, TimeUnit.MINUTES)) {
+                throw new IllegalStateException(initialSync.getCount() + " routers did not complete the initial sync");
+            }
+            final long initialSyncMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+            System.out.printf("%d routers, %d prefixes: initial sync completed in %dms%n", ROUTERS, PREFIXES, initialSyncMillis);
+            report(initialQueries, "initial reset query");
+
+            receivedBytes.reset();
+            final long gcCountBefore = gcCount();
+            final long gcMillisBefore = gcMillis();
+            final long start = System.nanoTime();
+
+            churn.scheduleWithFixedDelay(() -> {
+                for (int i = 0; i < CHANGES_PER_CHURN; i++) {
+                    values.set(random.nextInt(values.size()), RtrDataSetBenchmark.randomPrefix(random));
+                }
+                cache.update(RtrDataSet.of(values)).ifPresent(clients::cacheUpdated);
+                server.expireOldDeltas();
+            }, CHURN_INTERVAL_MILLIS, CHURN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(DURATION_SECONDS));
+            churn.shutdownNow();
+
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long responses = resetQueries.count() + serialQueries.count();
+            System.out.printf("%d updates in %.0fs: %.1f responses/s, %.1f MB/s, %d cache resets, %d errors%n",
+                cache.getSerialNumber().getValue() - 1, seconds, responses / seconds, receivedBytes.sum() / seconds / (1024 * 1024),
+                cacheResets.sum(), errors.sum());
+            report(resetQueries, "reset query");
+            report(serialQueries, "serial query");
+            report(registry.get("rtrserver.client.sync.latency").timer(), "update to end of data");
+            System.out.printf("notify bursts: %d, max %.0f routers%n",
+                registry.get("rtrserver.notify.burst").summary().count(), registry.get("rtrserver.notify.burst").summary().max());
+            System.out.printf("heap: %dMB used, %dMB peak, %d collections taking %dms%n",
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024), peakHeap() / (1024 * 1024),
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+
+            routers.forEach(Channel::close);
+        } finally {
+            churn.shutdownNow();
+            group.shutdownGracefully().sync();
+            server.stop();
+            clients.shutdown();
+            encodedPdus.clear();
+        }
+    }
+
+    private Timer responseTimer(String query) {
+        return Timer.builder("load.response")
+            .tag("query", query)
+            .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+            .register(registry);
+    }
+
+    private static Channel connect(Bootstrap bootstrap, int port) throws InterruptedException {
+        // The server binds on its own thread, retry until it accepts connections
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return bootstrap.connect("localhost", port).sync().channel();
+            } catch (Exception e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void report(Timer timer, String name) {
+        final HistogramSnapshot snapshot = timer.takeSnapshot();
+        final StringBuilder percentiles = new StringBuilder();
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            percentiles.append(String.format(", p%s %.1fms", PERCENTILE.format(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        System.out.printf("%s: %d, mean %.1fms, max %.1fms%s%n",
+            name, snapshot.count(), snapshot.mean(TimeUnit.MILLISECONDS), snapshot.max(TimeUnit.MILLISECONDS), percentiles);
+    }
+
+    private static long peakHeap() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getPeakUsage)
+            .mapToLong(usage -> usage.getUsed())
+            .sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    /**
+     * A router on one connection, handling one query at a time. A Notify PDU received while a query is
+     * in progress results in a Serial Query after the response.
+     */
+    private class SimulatedRouter extends SimpleChannelInboundHandler<ByteBuf> {
+        private short sessionId;
+        private int serialNumber;
+        private boolean synced;
+        private boolean notified;
+
+        private Timer queryTimer;
+        private long queryStartedAt;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            super.channelActive(ctx);
+            query(ctx, ResetQueryPdu.of(V1), initialQueries);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf pdu) {
+            receivedBytes.add(pdu.readableBytes());
+            switch (pdu.getByte(1)) {
+                case NotifyPdu.PDU_TYPE:
+                    if (queryTimer == null) {
+                        nextQuery(ctx);
+                    } else {
+                        notified = true;
+                    }
+                    break;
+                case EndOfDataPdu.PDU_TYPE:
+                    sessionId = pdu.getShort(2);
+                    serialNumber = pdu.getInt(8);
+                    queryTimer.record(System.nanoTime() - queryStartedAt, TimeUnit.NANOSECONDS);
+                    queryTimer = null;
+                    if (!synced) {
+                        synced = true;
+                        initialSync.countDown();
+                    }
+                    if (notified) {
+                        notified = false;
+                        nextQuery(ctx);
+                    }
+                    break;
+                case CacheResetPdu.PDU_TYPE:
+                    cacheResets.increment();
+                    query(ctx, ResetQueryPdu.of(V1), resetQueries);
+                    break;
+                case ErrorPdu.PDU_TYPE:
+                    errors.increment();
+                    break;
+                default:
+                    // Cache response, prefixes and router keys
+            }
+        }
+
+        private void nextQuery(ChannelHandlerContext ctx) {
+            if (ThreadLocalRandom.current().nextInt(100) < RESET_PERCENTAGE) {
+                query(ctx, ResetQueryPdu.of(V1), resetQueries);
+            } else {
+                query(ctx, SerialQueryPdu.of(V1, sessionId, SerialNumber.of(serialNumber)), serialQueries);
+            }
+        }
+
+        private void query(ChannelHandlerContext ctx, Pdu query, Timer timer) {
+            queryTimer = timer;
+            queryStartedAt = System.nanoTime();
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(query.toByteArray()));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.benchmarks;
+
+import net.ripe.rpki.rtr.domain.SerialNumber;
+import net.ripe.rpki.rtr.domain.SortedValueSet;
+import net.ripe.rpki.rtr.domain.VersionedSet;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Simulates days of one-minute cache updates with a client that never catches up (so no delta
+ * is ever forgotten). After every update routers ask for the delta from the previous and from a
+ * random serial of the last hour, the stale client asks for its delta once an hour. Prints the
+ * time spent and the heap in use.
+ *
+ * Run it with "mvn test -Dtest=VersionedSetBenchmark" after removing @Ignore.
+ */
+@Ignore
+public class VersionedSetBenchmark {
+
+    private static final int VALUES = 20_000;
+    private static final int DAYS = 3;
+    private static final int UPDATES_PER_DAY = 24 * 60;
+    private static final int CHANGES_PER_UPDATE = 50;
+
+    @Test
+    public void simulateOneMinuteUpdates() {
+        final Random random = new Random(1);
+        final VersionedSet<SortedValueSet<Integer>> versionedSet = new VersionedSet<>(SortedValueSet.of());
+        final TreeSet<Integer> values = new TreeSet<>();
+        for (int i = 0; i < VALUES; i++) {
+            values.add(i * 2);
+        }
+        versionedSet.updateValues(SortedValueSet.of(values));
+        final SerialNumber oldestClient = versionedSet.getCurrentVersion();
+
+        long updateNanos = 0;
+        long queryNanos = 0;
+        for (int day = 1; day <= DAYS; day++) {
+            for (int update = 0; update < UPDATES_PER_DAY; update++) {
+                for (int change = 0; change < CHANGES_PER_UPDATE; change++) {
+                    final int value = random.nextInt(VALUES * 4);
+                    if (!values.remove(value)) {
+                        values.add(value);
+                    }
+                }
+
+                long t = System.nanoTime();
+                versionedSet.updateValues(SortedValueSet.of(values));
+                updateNanos += System.nanoTime() - t;
+
+                t = System.nanoTime();
+                versionedSet.getDelta(versionedSet.getCurrentVersion().previous());
+                versionedSet.getDelta(randomVersionSince(random, oldestClient, versionedSet.getCurrentVersion()));
+                if (update % 60 == 0) {
+                    versionedSet.getDelta(oldestClient);
+                }
+                queryNanos += System.nanoTime() - t;
+            }
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            System.out.printf("day %d: %d deltas, updates %dms, serial queries %dms, heap used %dMB%n",
+                day,
+                versionedSet.getDeltaLog().size(),
+                updateNanos / 1_000_000,
+                queryNanos / 1_000_000,
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+        }
+    }
+
+    private static SerialNumber randomVersionSince(Random random, SerialNumber oldest, SerialNumber current) {
+        SerialNumber version = current;
+        for (int steps = random.nextInt(60); steps > 0 && !version.equals(oldest); steps--) {
+            version = version.previous();
+        }
+        return version;
+    }
+}
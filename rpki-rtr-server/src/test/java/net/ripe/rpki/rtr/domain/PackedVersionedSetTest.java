@@ -0,0 +1,116 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SortedMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks a {@link VersionedSet} of packed {@link RtrDataSet}s against one of plain sorted sets.
+ */
+public class PackedVersionedSetTest {
+
+    private final VersionedSet<SortedValueSet<RtrDataUnit>> expected = new VersionedSet<>(SortedValueSet.of(), SerialNumber.zero());
+    private final VersionedSet<RtrDataSet> subject = new VersionedSet<>(RtrDataSet.EMPTY, SerialNumber.zero());
+
+    @Test
+    public void should_update_values_like_sorted_sets() {
+        Random random = new Random(1);
+        for (int update = 0; update < 50; update++) {
+            List<RtrDataUnit> values = RtrDataSetTest.randomDataUnits(random, 300);
+
+            assertThat(subject.updateValues(RtrDataSet.of(values))).isEqualTo(expected.updateValues(SortedValueSet.of(values)));
+
+            assertSameState(random);
+        }
+    }
+
+    @Test
+    public void should_apply_changes_like_sorted_sets() {
+        Random random = new Random(2);
+        for (int update = 0; update < 50; update++) {
+            List<RtrDataUnit> additions = RtrDataSetTest.randomDataUnits(random, random.nextInt(40));
+            List<RtrDataUnit> removals = RtrDataSetTest.randomDataUnits(random, random.nextInt(40));
+
+            assertThat(subject.applyChanges(RtrDataSet.of(additions), RtrDataSet.of(removals)))
+                .isEqualTo(expected.applyChanges(SortedValueSet.of(additions), SortedValueSet.of(removals)));
+
+            assertSameState(random);
+        }
+    }
+
+    @Test
+    public void should_forget_deltas_like_sorted_sets() {
+        Random random = new Random(3);
+        for (int update = 0; update < 10; update++) {
+            List<RtrDataUnit> values = RtrDataSetTest.randomDataUnits(random, 100);
+            subject.updateValues(RtrDataSet.of(values));
+            expected.updateValues(SortedValueSet.of(values));
+        }
+
+        assertThat(subject.forgetDeltasBefore(SerialNumber.of(5))).isEqualTo(expected.forgetDeltasBefore(SerialNumber.of(5)));
+        assertThat(subject.getDelta(SerialNumber.of(4))).isEmpty();
+        assertSameState(random);
+    }
+
+    private void assertSameState(Random random) {
+        assertThat(subject.getCurrentVersion()).isEqualTo(expected.getCurrentVersion());
+        assertThat(subject.getValues()).containsExactlyElementsOf(expected.getValues());
+        assertThat(subject.getDeltaLog().keySet()).isEqualTo(expected.getDeltaLog().keySet());
+
+        // Request random versions, so that cached compositions are extended as well
+        for (int i = 0; i < 3; i++) {
+            SerialNumber version = subject.getCurrentVersion();
+            for (int steps = random.nextInt(10); steps > 0; steps--) {
+                version = version.previous();
+            }
+            assertSameDelta(subject.getDelta(version), expected.getDelta(version));
+        }
+
+        SortedMap<SerialNumber, VersionedSet.Delta<RtrDataSet>> deltas = subject.getDeltas();
+        SortedMap<SerialNumber, VersionedSet.Delta<SortedValueSet<RtrDataUnit>>> expectedDeltas = expected.getDeltas();
+        assertThat(deltas.keySet()).isEqualTo(expectedDeltas.keySet());
+        deltas.forEach((version, delta) -> assertSameDelta(Optional.of(delta), Optional.of(expectedDeltas.get(version))));
+    }
+
+    private static void assertSameDelta(Optional<VersionedSet.Delta<RtrDataSet>> actual, Optional<VersionedSet.Delta<SortedValueSet<RtrDataUnit>>> expected) {
+        assertThat(actual.isPresent()).isEqualTo(expected.isPresent());
+        if (actual.isPresent()) {
+            assertThat(actual.get().getAdditions()).containsExactlyElementsOf(expected.get().getAdditions());
+            assertThat(actual.get().getRemovals()).containsExactlyElementsOf(expected.get().getRemovals());
+        }
+    }
+}
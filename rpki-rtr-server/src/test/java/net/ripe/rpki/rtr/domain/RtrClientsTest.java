@@ -0,0 +1,174 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import net.ripe.rpki.rtr.domain.pdus.ProtocolVersion;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RtrClientsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<String> notifications = Collections.synchronizedList(new ArrayList<>());
+
+    private RtrClients subject = new RtrClients(registry);
+
+    @After
+    public void tearDown() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void should_notify_clients_with_oldest_serial_first() {
+        subject.register(new TestClient("up-to-date", SerialNumber.of(3)));
+        subject.register(new TestClient("one-behind", SerialNumber.of(2)));
+        subject.register(new TestClient("two-behind", SerialNumber.of(1)));
+
+        subject.cacheUpdated(SerialNumber.of(3));
+
+        assertThat(notifications).containsExactly("two-behind@3", "one-behind@3");
+        assertThat(registry.get("rtrserver.notify.burst").summary().totalAmount()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void should_spread_notifications_in_batches_over_window() throws InterruptedException {
+        subject = new RtrClients(registry, 50, 2);
+        for (int i = 0; i < 5; ++i) {
+            subject.register(new TestClient("client-" + i, SerialNumber.of(i)));
+        }
+
+        subject.cacheUpdated(SerialNumber.of(10));
+
+        for (int i = 0; i < 100 && notifications.size() < 5; ++i) {
+            Thread.sleep(10);
+        }
+        assertThat(notifications).containsExactly("client-0@10", "client-1@10", "client-2@10", "client-3@10", "client-4@10");
+        assertThat(registry.get("rtrserver.notify.burst").summary().count()).isEqualTo(3);
+        assertThat(registry.get("rtrserver.notify.burst").summary().max()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void should_coalesce_updates_during_fan_out() {
+        subject.register(new TestClient("first", SerialNumber.of(0), serial -> subject.cacheUpdated(SerialNumber.of(2))));
+        subject.register(new TestClient("second", SerialNumber.of(1)));
+
+        subject.cacheUpdated(SerialNumber.of(1));
+
+        assertThat(notifications).containsExactly("first@1", "first@2", "second@2");
+    }
+
+    @Test
+    public void should_keep_notifying_after_a_failed_fan_out() {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        subject.register(new TestClient("flaky", SerialNumber.of(0)) {
+            @Override
+            public SerialNumber getClientSerialNumber() {
+                if (failing.getAndSet(false)) {
+                    throw new IllegalStateException("client is gone");
+                }
+                return super.getClientSerialNumber();
+            }
+        });
+
+        subject.cacheUpdated(SerialNumber.of(1));
+        assertThat(notifications).isEmpty();
+
+        subject.cacheUpdated(SerialNumber.of(2));
+        assertThat(notifications).containsExactly("flaky@2");
+    }
+
+    @Test
+    public void should_notify_clients_across_serial_number_wrap_around() {
+        subject.register(new TestClient("before-wrap", SerialNumber.of(-2)));
+        subject.register(new TestClient("after-wrap", SerialNumber.of(1)));
+
+        subject.cacheUpdated(SerialNumber.of(2));
+
+        assertThat(notifications).containsExactly("before-wrap@2", "after-wrap@2");
+    }
+
+    @Test
+    public void should_record_sync_latency_of_latest_serial() {
+        subject.cacheUpdated(SerialNumber.of(2));
+
+        subject.syncCompleted(SerialNumber.of(1));
+        subject.syncCompleted(SerialNumber.of(2));
+
+        assertThat(registry.get("rtrserver.client.sync.latency").timer().count()).isEqualTo(1);
+    }
+
+    @RequiredArgsConstructor
+    private class TestClient implements RtrClient {
+        private final String name;
+        private final SerialNumber clientSerialNumber;
+        private final Consumer<SerialNumber> onNotify;
+
+        TestClient(String name, SerialNumber clientSerialNumber) {
+            this(name, clientSerialNumber, serial -> {});
+        }
+
+        @Override
+        public State getState() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SerialNumber getClientSerialNumber() {
+            return clientSerialNumber;
+        }
+
+        @Override
+        public ProtocolVersion getProtocolVersion() {
+            return ProtocolVersion.V1;
+        }
+
+        @Override
+        public void cacheUpdated(SerialNumber updatedSerialNumber) {
+            notifications.add(name + "@" + updatedSerialNumber.getValue());
+            onNotify.accept(updatedSerialNumber);
+        }
+
+        @Override
+        public boolean disconnectIfInactive(Instant now) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import net.ripe.ipresource.Asn;
+import net.ripe.ipresource.IpRange;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RtrDataSetTest {
+
+    private static final RtrPrefix IPV4 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("193.0.0.0/16"), 24);
+    private static final RtrPrefix IPV4_HIGH_ASN = RtrDataUnit.prefix(Asn.parse("AS4294967295"), IpRange.parse("255.255.255.255/32"), 32);
+    private static final RtrPrefix IPV6 = RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("2001:db8::/32"), 48);
+    private static final RtrPrefix IPV6_HOST = RtrDataUnit.prefix(Asn.parse("AS65000"), IpRange.parse("ffff::1/128"), 128);
+    private static final RtrRouterKey ROUTER_KEY = RtrRouterKey.of(new byte[]{1, 2, 3}, new byte[]{4, 5, 6}, 65000);
+
+    @Test
+    public void should_iterate_in_natural_order_of_data_units() {
+        List<RtrDataUnit> dataUnits = Arrays.asList(ROUTER_KEY, IPV6_HOST, IPV4_HIGH_ASN, IPV6, IPV4, IPV4);
+
+        RtrDataSet subject = RtrDataSet.of(dataUnits);
+
+        assertThat(subject).containsExactlyElementsOf(new TreeSet<>(dataUnits));
+        assertThat(subject).hasSize(5);
+        assertThat(subject).isEqualTo(new TreeSet<>(dataUnits));
+        assertThat(new TreeSet<>(dataUnits)).isEqualTo(subject);
+        assertThat(subject.hashCode()).isEqualTo(new TreeSet<>(dataUnits).hashCode());
+    }
+
+    @Test
+    public void should_contain_data_units() {
+        RtrDataSet subject = RtrDataSet.of(Arrays.asList(IPV4, IPV6, ROUTER_KEY));
+
+        assertThat(subject.contains(RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("193.0.0.0/16"), 24))).isTrue();
+        assertThat(subject.contains(RtrDataUnit.prefix(Asn.parse("AS3333"), IpRange.parse("193.0.0.0/16"), 25))).isFalse();
+        assertThat(subject.contains(IPV6)).isTrue();
+        assertThat(subject.contains(IPV6_HOST)).isFalse();
+        assertThat(subject.contains(RtrRouterKey.of(new byte[]{1, 2, 3}, new byte[]{4, 5, 6}, 65000))).isTrue();
+        assertThat(subject.contains("193.0.0.0/16")).isFalse();
+    }
+
+    @Test
+    public void should_read_written_data_units() throws IOException {
+        RtrDataSet subject = RtrDataSet.of(randomDataUnits(new Random(7), 1000));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        subject.writeTo(new DataOutputStream(bytes));
+
+        RtrDataSet read = RtrDataSet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read).isEqualTo(subject);
+        assertThat(read).containsExactlyElementsOf(subject);
+    }
+
+    @Test
+    public void should_compute_difference_and_union_like_sorted_sets() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            List<RtrDataUnit> a = randomDataUnits(random, 500);
+            List<RtrDataUnit> b = randomDataUnits(random, 500);
+            TreeSet<RtrDataUnit> expectedMinus = new TreeSet<>(a);
+            expectedMinus.removeAll(b);
+            TreeSet<RtrDataUnit> expectedUnion = new TreeSet<>(a);
+            expectedUnion.addAll(b);
+
+            assertThat(RtrDataSet.of(a).minus(RtrDataSet.of(b))).containsExactlyElementsOf(expectedMinus);
+            assertThat(RtrDataSet.of(a).union(RtrDataSet.of(b))).containsExactlyElementsOf(expectedUnion);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void should_sort_many_duplicates_quickly() {
+        List<RtrDataUnit> dataUnits = new ArrayList<>(Collections.nCopies(200_000, IPV4));
+        dataUnits.addAll(Collections.nCopies(200_000, IPV6));
+        dataUnits.addAll(randomDataUnits(new Random(3), 1000));
+
+        RtrDataSet subject = RtrDataSet.of(dataUnits);
+
+        assertThat(subject).containsExactlyElementsOf(new TreeSet<>(dataUnits));
+    }
+
+    /**
+     * Random data units from a small space, so that sets overlap.
+     */
+    static List<RtrDataUnit> randomDataUnits(Random random, int count) {
+        List<RtrDataUnit> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int asn = random.nextBoolean() ? random.nextInt(4) : -random.nextInt(4) - 1;
+            final int kind = random.nextInt(10);
+            if (kind < 6) {
+                final byte[] address = {(byte) random.nextInt(4), 0, 0, (byte) (random.nextInt(2) * 255)};
+                final int prefixLength = 8 * (1 + random.nextInt(4));
+                result.add(RtrPrefix.of((byte) prefixLength, (byte) (prefixLength + random.nextInt(33 - prefixLength)), address, asn));
+            } else if (kind < 9) {
+                final byte[] address = new byte[16];
+                address[0] = (byte) (random.nextInt(2) * 0xff);
+                address[15] = (byte) random.nextInt(4);
+                final int prefixLength = 120 + random.nextInt(9);
+                result.add(RtrPrefix.of((byte) prefixLength, (byte) (prefixLength + random.nextInt(129 - prefixLength)), address, asn));
+            } else {
+                result.add(RtrRouterKey.of(new byte[]{(byte) random.nextInt(4)}, new byte[]{1, 2}, asn));
+            }
+        }
+        return result;
+    }
+}
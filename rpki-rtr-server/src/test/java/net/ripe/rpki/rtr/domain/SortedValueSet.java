@@ -0,0 +1,79 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.rtr.domain;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * {@link ValueSet} backed by a sorted set, the straightforward reference for the packed {@link RtrDataSet}.
+ */
+public final class SortedValueSet<T extends Comparable<T>> extends AbstractSet<T> implements ValueSet<SortedValueSet<T>> {
+
+    private final ImmutableSortedSet<T> values;
+
+    private SortedValueSet(ImmutableSortedSet<T> values) {
+        this.values = values;
+    }
+
+    public static <T extends Comparable<T>> SortedValueSet<T> of(Collection<? extends T> values) {
+        return new SortedValueSet<>(ImmutableSortedSet.copyOf(values));
+    }
+
+    @SafeVarargs
+    public static <T extends Comparable<T>> SortedValueSet<T> of(T... values) {
+        return of(Arrays.asList(values));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return values.iterator();
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public SortedValueSet<T> minus(SortedValueSet<T> other) {
+        return new SortedValueSet<>(ImmutableSortedSet.copyOf(Sets.difference(values, other.values)));
+    }
+
+    @Override
+    public SortedValueSet<T> union(SortedValueSet<T> other) {
+        return new SortedValueSet<>(ImmutableSortedSet.copyOf(Sets.union(values, other.values)));
+    }
+}
@@ -29,51 +29,57 @@
  */
 package net.ripe.rpki.rtr.domain;
 
+import com.google.common.collect.Sets;
 import org.junit.Test;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class VersionedSetTest {
 
-    private final VersionedSet<Integer> subject = new VersionedSet<>(SerialNumber.zero());
+    private final VersionedSet<SortedValueSet<Integer>> subject = new VersionedSet<>(SortedValueSet.of(), SerialNumber.zero());
 
     @Test
     public void should_track_serial_number() {
         assertThat(subject.getCurrentVersion()).isEqualTo(SerialNumber.of(0));
 
-        subject.updateValues(Arrays.asList(1, 2, 3));
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
         assertThat(subject.getCurrentVersion()).isEqualTo(SerialNumber.of(1));
 
-        subject.updateValues(Arrays.asList(2, 3, 4));
+        subject.updateValues(SortedValueSet.of(2, 3, 4));
         assertThat(subject.getCurrentVersion()).isEqualTo(SerialNumber.of(2));
     }
 
     @Test
     public void should_contain_latest_values() {
-        subject.updateValues(Arrays.asList(1, 2, 3));
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
 
         assertThat(subject.getValues()).containsExactly(1, 2, 3);
     }
 
     @Test
     public void should_track_deltas_between_updates() {
-        subject.updateValues(Arrays.asList(1, 2, 3));
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
         assertThat(delta(0).get().getAdditions()).containsExactly(1, 2, 3);
 
-        subject.updateValues(Arrays.asList(2, 3, 4));
+        subject.updateValues(SortedValueSet.of(2, 3, 4));
         assertThat(delta(1).get().getAdditions()).containsExactly(4);
         assertThat(delta(1).get().getRemovals()).containsExactly(1);
 
-        subject.updateValues(Arrays.asList(3, 4, 5));
+        subject.updateValues(SortedValueSet.of(3, 4, 5));
         assertThat(delta(2).get().getAdditions()).containsExactly(5);
         assertThat(delta(2).get().getRemovals()).containsExactly(2);
         assertThat(delta(1).get().getAdditions()).containsExactly(4, 5);
         assertThat(delta(1).get().getRemovals()).containsExactly(1, 2);
 
-        subject.updateValues(Arrays.asList(4, 5, 6));
+        subject.updateValues(SortedValueSet.of(4, 5, 6));
         assertThat(delta(3).get().getAdditions()).containsExactly(6);
         assertThat(delta(3).get().getRemovals()).containsExactly(3);
         assertThat(delta(2).get().getAdditions()).containsExactly(5, 6);
@@ -81,7 +87,7 @@ public class VersionedSetTest {
         assertThat(delta(1).get().getAdditions()).containsExactly(4, 5, 6);
         assertThat(delta(1).get().getRemovals()).containsExactly(1, 2, 3);
 
-        subject.updateValues(Arrays.asList(1, 2, 3));
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
         assertThat(delta(4).get().getAdditions()).containsExactly(1, 2, 3);
         assertThat(delta(4).get().getRemovals()).containsExactly(4, 5, 6);
         assertThat(delta(3).get().getAdditions()).containsExactly(1, 2);
@@ -91,7 +97,7 @@ public class VersionedSetTest {
         assertThat(delta(1).get().getAdditions()).containsExactly();
         assertThat(delta(1).get().getRemovals()).containsExactly();
 
-        subject.updateValues(Arrays.asList());
+        subject.updateValues(SortedValueSet.<Integer>of());
         assertThat(delta(5).get().getAdditions()).containsExactly();
         assertThat(delta(5).get().getRemovals()).containsExactly(1, 2, 3);
         assertThat(delta(4).get().getAdditions()).containsExactly();
@@ -103,8 +109,66 @@ public class VersionedSetTest {
         assertThat(delta(1).get().getAdditions()).containsExactly();
         assertThat(delta(1).get().getRemovals()).containsExactly(1, 2, 3);
     }
-    
-    private Optional<VersionedSet.Delta<Integer>> delta(int version) {
+
+    @Test
+    public void should_compose_deltas_to_current_version() {
+        final Random random = new Random(42);
+        final List<Set<Integer>> history = new ArrayList<>();
+        history.add(new TreeSet<>());
+        for (int version = 1; version <= 50; version++) {
+            final Set<Integer> values = new TreeSet<>(history.get(version - 1));
+            for (int change = 0; change < 10; change++) {
+                final int value = random.nextInt(100);
+                if (!values.remove(value)) {
+                    values.add(value);
+                }
+            }
+            history.add(values);
+            subject.updateValues(SortedValueSet.of(values));
+
+            // Ask for a few older versions in a random order, so that cached compositions get re-used
+            for (int i = 0; i < 5; i++) {
+                final int from = random.nextInt(version + 1);
+                assertThat(delta(from).get().getAdditions()).containsExactlyElementsOf(Sets.difference(values, history.get(from)));
+                assertThat(delta(from).get().getRemovals()).containsExactlyElementsOf(Sets.difference(history.get(from), values));
+            }
+        }
+
+        final SortedMap<SerialNumber, VersionedSet.Delta<SortedValueSet<Integer>>> deltas = subject.getDeltas();
+        assertThat(deltas).hasSize(50);
+        deltas.forEach((version, delta) -> assertThat(delta).isEqualTo(subject.getDelta(version).get()));
+    }
+
+    @Test
+    public void should_forget_old_deltas() {
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
+        subject.updateValues(SortedValueSet.of(2, 3, 4));
+        subject.updateValues(SortedValueSet.of(3, 4, 5));
+        assertThat(delta(1).get().getAdditions()).containsExactly(4, 5);
+
+        assertThat(subject.forgetDeltasBefore(SerialNumber.of(2))).containsExactlyInAnyOrder(SerialNumber.of(0), SerialNumber.of(1));
+
+        assertThat(delta(0)).isEmpty();
+        assertThat(delta(1)).isEmpty();
+        assertThat(delta(2).get().getAdditions()).containsExactly(5);
+        assertThat(subject.getDeltaLog().keySet()).containsExactly(SerialNumber.of(2));
+    }
+
+    @Test
+    public void should_apply_changes() {
+        subject.updateValues(SortedValueSet.of(1, 2, 3));
+
+        assertThat(subject.applyChanges(SortedValueSet.of(3, 4), SortedValueSet.of(1, 5))).isTrue();
+        assertThat(subject.getValues()).containsExactly(2, 3, 4);
+        assertThat(subject.getCurrentVersion()).isEqualTo(SerialNumber.of(2));
+        assertThat(delta(1).get().getAdditions()).containsExactly(4);
+        assertThat(delta(1).get().getRemovals()).containsExactly(1);
+
+        assertThat(subject.applyChanges(SortedValueSet.of(2), SortedValueSet.of(1))).isFalse();
+        assertThat(subject.getCurrentVersion()).isEqualTo(SerialNumber.of(2));
+    }
+
+    private Optional<VersionedSet.Delta<SortedValueSet<Integer>>> delta(int version) {
         return subject.getDelta(SerialNumber.of(version));
     }
 }
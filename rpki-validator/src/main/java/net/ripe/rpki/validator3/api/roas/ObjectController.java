@@ -42,24 +42,25 @@ import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilterService;
 import net.ripe.rpki.validator3.api.roaprefixassertions.RoaPrefixAssertionsService;
 import net.ripe.rpki.validator3.api.trustanchors.TrustAnchorResource;
 import net.ripe.rpki.validator3.domain.IgnoreFiltersPredicate;
-import net.ripe.rpki.validator3.domain.validation.TrustAnchorState;
 import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects;
 import net.ripe.rpki.validator3.storage.Storage;
-import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
-import net.ripe.rpki.validator3.storage.stores.RpkiRepositories;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -71,15 +72,14 @@ import static net.ripe.rpki.validator3.api.ModelPropertyDescriptions.*;
 @Slf4j
 public class ObjectController {
 
+    private static final int MAX_CHANGES_WAIT_SECONDS = 300;
+
     @Autowired
     private ValidatedRpkiObjects validatedRpkiObjects;
 
     @Autowired
     private TrustAnchors trustAnchors;
 
-    @Autowired
-    private RpkiRepositories rpkiRepositories;
-
     @Autowired
     private IgnoreFilterService ignoreFilters;
 
@@ -93,7 +93,10 @@ public class ObjectController {
     private BgpSecFilterService bgpSecFilterService;
 
     @Autowired
-    private TrustAnchorState trustAnchorState;
+    private ValidatorReadiness validatorReadiness;
+
+    @Autowired
+    private RtrPayloadFeed rtrPayloadFeed;
 
     @Autowired
     private Storage storage;
@@ -134,28 +137,49 @@ public class ObjectController {
 
         final Stream<RouterCertificate> combinedAssertions = Stream.concat(filteredRouterCertificates, bgpSecAssertions).distinct();
 
-        final boolean noPendingRepositories = storage.readTx(tx ->
-            trustAnchorList.stream().allMatch(ta -> {
-                final Map<RpkiRepository.Status, Long> statusLongMap = rpkiRepositories.countByStatus(tx, ta.key(), true);
-                final Long pendingRepoNumber = statusLongMap.get(RpkiRepository.Status.PENDING);
-                return pendingRepoNumber == null || pendingRepoNumber == 0L;
-            }));
-
-        final boolean allTasDoneInitialLoading = storage.readTx(tx -> trustAnchors.allInitialCertificateTreeValidationRunsCompleted(tx));
-
         final List<TrustAnchorResource> trustAnchorResources = trustAnchorList.stream()
             .map(ta -> TrustAnchorResource.of(ta, Locale.ROOT))
             .collect(Collectors.toList());
 
         return ResponseEntity.ok(ApiResponse.<ValidatedObjects>builder()
             .data(new ValidatedObjects(
-                allTasDoneInitialLoading && noPendingRepositories && trustAnchorState.allTAsValidatedAfterRepositoryLoading(),
+                validatorReadiness.isReady(),
                 trustAnchorResources,
                 combinedPrefixes,
                 combinedAssertions))
             .build());
     }
 
+    @ApiOperation("get all validated objects in a compact binary format (used by rpki-rtr-server)")
+    @GetMapping(path = "/validated/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> snapshot(WebRequest request) {
+        final RtrPayloadFeed.Snapshot snapshot = rtrPayloadFeed.getSnapshot();
+        if (request.checkNotModified(snapshot.getETag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+            .eTag(snapshot.getETag())
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .body(snapshot.getContent());
+    }
+
+    @ApiOperation("get the changes of the validated objects since a serial in a compact binary format (used by rpki-rtr-server)")
+    @GetMapping(path = "/validated/changes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public DeferredResult<ResponseEntity<byte[]>> changes(
+        @RequestParam(name = "session", required = false) Long session,
+        @RequestParam(name = "serial", required = false) Long serial,
+        @RequestParam(name = "wait", defaultValue = "60") int waitSeconds
+    ) {
+        final long timeout = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(waitSeconds, MAX_CHANGES_WAIT_SECONDS)));
+        final DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>(timeout, ResponseEntity.noContent().build());
+        final Runnable stopWaiting = rtrPayloadFeed.onChanges(session, serial, changes ->
+            result.setResult(ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(changes.isReset() ? rtrPayloadFeed.getSnapshot().getContent() : changes.toByteArray())));
+        result.onCompletion(stopWaiting);
+        return result;
+    }
+
     @Value
     public static class ValidatedObjects {
         @ApiModelProperty(position = 1)
@@ -0,0 +1,366 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.ipresource.Asn;
+import net.ripe.rpki.validator3.api.bgpsec.BgpSecAssertionsService;
+import net.ripe.rpki.validator3.api.bgpsec.BgpSecFilterService;
+import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilter;
+import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilterService;
+import net.ripe.rpki.validator3.api.roaprefixassertions.RoaPrefixAssertionsService;
+import net.ripe.rpki.validator3.api.slurm.SlurmStore;
+import net.ripe.rpki.validator3.domain.IgnoreFiltersPredicate;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects;
+import net.ripe.rpki.validator3.domain.validation.VrpSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Change feed of the payloads used by the RTR server. Every change of the validated objects or of the
+ * SLURM exceptions recomputes the {@link RtrPayloadSet}; if it differs from the previous one, the serial
+ * is incremented and the difference is added to a bounded log of deltas.
+ * <p>
+ * Clients follow the feed by asking for the changes since the session and serial they last saw. They
+ * get the composed deltas from the log or, when the session changed or the serial is too old, the full
+ * payload set. Clients that are up to date wait until the next change.
+ * <p>
+ * The full payload set is also available as a {@link Snapshot}, encoded once per serial, for clients that
+ * start without any state.
+ * <p>
+ * Not every step towards readiness changes the validated objects (e.g. repositories leaving the pending
+ * state), so while the payload set is not ready the readiness is checked periodically as well.
+ */
+@Component
+@Slf4j
+public class RtrPayloadFeed {
+
+    static final int FORMAT_VERSION = 1;
+    static final int FLAG_READY = 1;
+    static final int FLAG_RESET = 2;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int maxDeltas;
+    private final IgnoreFilterService ignoreFilterService;
+    private final RoaPrefixAssertionsService roaPrefixAssertionsService;
+    private final BgpSecAssertionsService bgpSecAssertionsService;
+    private final BgpSecFilterService bgpSecFilterService;
+    private final ValidatorReadiness validatorReadiness;
+    private final Duration readinessCheckInterval;
+
+    @Getter
+    private final long sessionId = RANDOM.nextLong() & Long.MAX_VALUE;
+
+    private volatile Collection<ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates> validatedObjects = Collections.emptyList();
+
+    private final ScheduledThreadPoolExecutor refreshExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+        final Thread t = new Thread(r, "rtr-payload-feed");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final AtomicBoolean readinessCheckScheduled = new AtomicBoolean();
+
+    // Guarded by this
+    private long serial;
+    private RtrPayloadSet current = RtrPayloadSet.EMPTY;
+    private final TreeMap<Long, RtrPayloadSet.Delta> deltas = new TreeMap<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private Snapshot snapshot;
+
+    @Autowired
+    public RtrPayloadFeed(
+            @Value("${rpki.validator.rtr.feed.deltas:100}") int maxDeltas,
+            ValidatedRpkiObjects validatedRpkiObjects,
+            IgnoreFilterService ignoreFilterService,
+            RoaPrefixAssertionsService roaPrefixAssertionsService,
+            BgpSecAssertionsService bgpSecAssertionsService,
+            BgpSecFilterService bgpSecFilterService,
+            SlurmStore slurmStore,
+            ValidatorReadiness validatorReadiness,
+            @Value("${rpki.validator.rtr.feed.readiness.check.interval:PT10S}") String readinessCheckInterval
+    ) {
+        this.maxDeltas = maxDeltas;
+        this.ignoreFilterService = ignoreFilterService;
+        this.roaPrefixAssertionsService = roaPrefixAssertionsService;
+        this.bgpSecAssertionsService = bgpSecAssertionsService;
+        this.bgpSecFilterService = bgpSecFilterService;
+        this.validatorReadiness = validatorReadiness;
+        this.readinessCheckInterval = Duration.parse(readinessCheckInterval);
+        refreshExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        refreshExecutor.allowCoreThreadTimeOut(true);
+
+        validatedRpkiObjects.addListener(objects -> {
+            this.validatedObjects = objects;
+            scheduleRefresh();
+        });
+        slurmStore.addListener(this::scheduleRefresh);
+        scheduleReadinessCheck();
+    }
+
+    public synchronized long getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return the changes from the session and serial the client last saw, or the full payload set if
+     * the client has not seen anything yet (<code>since</code> is null), the session is different or
+     * the deltas are not kept anymore. Empty if the client is up to date.
+     */
+    public synchronized Optional<Changes> getChanges(Long session, Long since) {
+        if (since != null && session != null && session == sessionId) {
+            if (since == serial) {
+                return Optional.empty();
+            }
+            final Map<Long, RtrPayloadSet.Delta> log = deltas.tailMap(since);
+            if (since < serial && !log.isEmpty() && deltas.firstKey() <= since) {
+                final RtrPayloadSet.Delta delta = log.values().stream().reduce(RtrPayloadSet.Delta::then).get();
+                return Optional.of(new Changes(sessionId, serial, current.isReady(), false, delta));
+            }
+        }
+        return Optional.of(new Changes(sessionId, serial, current.isReady(), true, current.asDelta()));
+    }
+
+    /**
+     * @return the full payload set of the current serial. The encoding is shared by all clients asking for
+     * the same serial.
+     */
+    public synchronized Snapshot getSnapshot() {
+        if (snapshot == null || snapshot.getSerial() != serial) {
+            final Changes full = new Changes(sessionId, serial, current.isReady(), true, current.asDelta());
+            snapshot = new Snapshot(sessionId, serial, full.toByteArray());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Calls the consumer with the changes since the session and serial as soon as there are any, right
+     * away if possible.
+     *
+     * @return action to stop waiting
+     */
+    public Runnable onChanges(Long session, Long since, Consumer<Changes> consumer) {
+        final Waiter waiter = new Waiter(session, since, consumer);
+        final Optional<Changes> changes;
+        synchronized (this) {
+            changes = getChanges(session, since);
+            if (!changes.isPresent()) {
+                waiters.add(waiter);
+            }
+        }
+        changes.ifPresent(consumer);
+        return () -> removeWaiter(waiter);
+    }
+
+    private synchronized void removeWaiter(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> {
+                    refreshScheduled.set(false);
+                    try {
+                        refresh();
+                    } catch (Exception e) {
+                        log.error("Failed to update the RTR payloads", e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshScheduled.set(false);
+                log.warn("Not updating the RTR payloads, already shutting down");
+            }
+        }
+    }
+
+    /**
+     * Re-checks the readiness without rebuilding the payload set, and refreshes it once the validator
+     * became ready.
+     */
+    private void scheduleReadinessCheck() {
+        if (readinessCheckScheduled.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.schedule(() -> {
+                    readinessCheckScheduled.set(false);
+                    try {
+                        if (validatorReadiness.isReady()) {
+                            scheduleRefresh();
+                        } else {
+                            scheduleReadinessCheck();
+                        }
+                    } catch (Exception e) {
+                        log.error("Failed to check the readiness of the RTR payloads", e);
+                        scheduleReadinessCheck();
+                    }
+                }, readinessCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                readinessCheckScheduled.set(false);
+            }
+        }
+    }
+
+    void refresh() {
+        final RtrPayloadSet updated = build();
+        if (!updated.isReady()) {
+            scheduleReadinessCheck();
+        }
+        final List<Waiter> notified;
+        synchronized (this) {
+            if (updated.equals(current)) {
+                return;
+            }
+            final RtrPayloadSet.Delta delta = current.diff(updated);
+            deltas.put(serial, delta);
+            while (deltas.size() > maxDeltas) {
+                deltas.pollFirstEntry();
+            }
+            serial++;
+            current = updated;
+            notified = new ArrayList<>(waiters);
+            waiters.clear();
+            log.info("RTR payloads updated to serial {} ({} VRPs, {} announced, {} withdrawn, ready: {})",
+                serial, updated.getVrpCount(), delta.getVrpAdditionCount(), delta.getVrpRemovalCount(), updated.isReady());
+        }
+        for (Waiter waiter : notified) {
+            getChanges(waiter.session, waiter.since).ifPresent(waiter.consumer);
+        }
+    }
+
+    private RtrPayloadSet build() {
+        final Collection<ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates> objects = validatedObjects;
+        final List<IgnoreFilter> ignoreFilters = ignoreFilterService.all().collect(Collectors.toList());
+        final IgnoreFiltersPredicate ignored = ignoreFilters.isEmpty() ? null : new IgnoreFiltersPredicate(ignoreFilters.stream());
+
+        final RtrPayloadSet.Builder builder = RtrPayloadSet.builder().ready(validatorReadiness.isReady());
+        for (ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates o : objects) {
+            final VrpSnapshot vrps = o.getRoaPrefixes();
+            for (int i = 0; i < vrps.size(); i++) {
+                if (ignored == null || !ignored.test(vrps.getAsn(i), vrps.isIpv6(i), vrps.getAddressHi(i), vrps.getAddressLo(i), vrps.getPrefixLength(i))) {
+                    builder.vrp(vrps.getAsn(i), vrps.isIpv6(i), vrps.getAddressHi(i), vrps.getAddressLo(i), vrps.getPrefixLength(i), vrps.getEffectiveLength(i));
+                }
+            }
+        }
+        roaPrefixAssertionsService.all().forEach(assertion -> builder.vrp(
+            assertion.getAsn(),
+            assertion.getPrefix(),
+            assertion.getMaxPrefixLength() != null ? assertion.getMaxPrefixLength() : assertion.getPrefix().getPrefixLength()
+        ));
+
+        bgpSecFilterService.filterCertificates(objects.stream().flatMap(o -> o.getRouterCertificates().stream()))
+            .forEach(rc -> rc.getAsn().forEach(asn ->
+                builder.routerKey(Asn.parse(asn).longValue(), rc.getSubjectKeyIdentifier(), rc.getSubjectPublicKeyInfo())));
+        bgpSecAssertionsService.all().forEach(assertion ->
+            builder.routerKey(assertion.getAsn(), assertion.getSki(), assertion.getPublicKey()));
+
+        return builder.build();
+    }
+
+    @PreDestroy
+    void stop() {
+        refreshExecutor.shutdownNow();
+    }
+
+    @lombok.Value
+    public static class Changes {
+        long sessionId;
+        long serial;
+        boolean ready;
+        boolean reset;
+        RtrPayloadSet.Delta delta;
+
+        /**
+         * Binary representation: format version, flags, session id, serial and the delta, see
+         * {@link RtrPayloadSet.Delta#writeTo(java.io.DataOutput)}. A reset carries the full payload set
+         * as additions.
+         */
+        public byte[] toByteArray() {
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(FORMAT_VERSION);
+                out.writeByte((ready ? FLAG_READY : 0) | (reset ? FLAG_RESET : 0));
+                out.writeLong(sessionId);
+                out.writeLong(serial);
+                delta.writeTo(out);
+                out.flush();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @lombok.Value
+    public static class Snapshot {
+        long sessionId;
+        long serial;
+        /**
+         * Same binary representation as the {@link Changes} of a reset.
+         */
+        byte[] content;
+
+        public String getETag() {
+            return "\"" + Long.toHexString(sessionId) + "-" + serial + "\"";
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Waiter {
+        final Long session;
+        final Long since;
+        final Consumer<Changes> consumer;
+    }
+}
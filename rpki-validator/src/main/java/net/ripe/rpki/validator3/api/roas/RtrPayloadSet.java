@@ -0,0 +1,370 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * The payloads the validator hands to the RTR server: the VRPs and router keys, after applying the
+ * local exceptions (SLURM filters and assertions), and whether the validator is ready.
+ * <p>
+ * Every VRP is stored as three longs in one sorted array, so that a set of hundreds of thousands of
+ * VRPs takes a few megabytes and the difference between two sets is a merge of the sorted arrays.
+ * The first long holds the address family, prefix length, maximum length and ASN, the other two the
+ * prefix start address.
+ */
+@EqualsAndHashCode
+public final class RtrPayloadSet {
+
+    public static final RtrPayloadSet EMPTY = new RtrPayloadSet(false, new long[0], ImmutableSortedSet.of());
+
+    private static final int STRIDE = 3;
+
+    @Getter
+    private final boolean ready;
+    private final long[] vrps;
+    @Getter
+    private final ImmutableSortedSet<RouterKey> routerKeys;
+
+    private RtrPayloadSet(boolean ready, long[] vrps, ImmutableSortedSet<RouterKey> routerKeys) {
+        this.ready = ready;
+        this.vrps = vrps;
+        this.routerKeys = routerKeys;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getVrpCount() {
+        return vrps.length / STRIDE;
+    }
+
+    /**
+     * @return the changes needed to turn this set into <code>updated</code>
+     */
+    public Delta diff(RtrPayloadSet updated) {
+        return new Delta(
+            minus(updated.vrps, vrps),
+            minus(vrps, updated.vrps),
+            ImmutableSortedSet.copyOf(Sets.difference(updated.routerKeys, routerKeys)),
+            ImmutableSortedSet.copyOf(Sets.difference(routerKeys, updated.routerKeys))
+        );
+    }
+
+    /**
+     * @return all the payloads as additions to the empty set
+     */
+    public Delta asDelta() {
+        return new Delta(vrps, new long[0], routerKeys, ImmutableSortedSet.of());
+    }
+
+    /**
+     * Changes between two payload sets, the VRPs are in the same sorted representation.
+     */
+    @EqualsAndHashCode
+    public static final class Delta {
+        private final long[] vrpAdditions;
+        private final long[] vrpRemovals;
+        @Getter
+        private final ImmutableSortedSet<RouterKey> routerKeyAdditions;
+        @Getter
+        private final ImmutableSortedSet<RouterKey> routerKeyRemovals;
+
+        private Delta(long[] vrpAdditions, long[] vrpRemovals, ImmutableSortedSet<RouterKey> routerKeyAdditions, ImmutableSortedSet<RouterKey> routerKeyRemovals) {
+            this.vrpAdditions = vrpAdditions;
+            this.vrpRemovals = vrpRemovals;
+            this.routerKeyAdditions = routerKeyAdditions;
+            this.routerKeyRemovals = routerKeyRemovals;
+        }
+
+        public int getVrpAdditionCount() {
+            return vrpAdditions.length / STRIDE;
+        }
+
+        public int getVrpRemovalCount() {
+            return vrpRemovals.length / STRIDE;
+        }
+
+        public boolean isEmpty() {
+            return vrpAdditions.length == 0 && vrpRemovals.length == 0 && routerKeyAdditions.isEmpty() && routerKeyRemovals.isEmpty();
+        }
+
+        /**
+         * @return the delta applying this delta followed by <code>next</code>
+         */
+        public Delta then(Delta next) {
+            return new Delta(
+                union(minus(vrpAdditions, next.vrpRemovals), minus(next.vrpAdditions, vrpRemovals)),
+                union(minus(vrpRemovals, next.vrpAdditions), minus(next.vrpRemovals, vrpAdditions)),
+                ImmutableSortedSet.copyOf(Sets.union(Sets.difference(routerKeyAdditions, next.routerKeyRemovals), Sets.difference(next.routerKeyAdditions, routerKeyRemovals))),
+                ImmutableSortedSet.copyOf(Sets.union(Sets.difference(routerKeyRemovals, next.routerKeyAdditions), Sets.difference(next.routerKeyRemovals, routerKeyAdditions)))
+            );
+        }
+
+        /**
+         * Writes the VRP additions and removals followed by the router key additions and removals,
+         * every section starts with the number of records.
+         */
+        public void writeTo(DataOutput out) throws IOException {
+            writeVrps(vrpAdditions, out);
+            writeVrps(vrpRemovals, out);
+            writeRouterKeys(routerKeyAdditions, out);
+            writeRouterKeys(routerKeyRemovals, out);
+        }
+    }
+
+    /**
+     * Router key, the subject key identifier and public key are base64 encoded like in the router certificate.
+     */
+    @lombok.Value(staticConstructor = "of")
+    public static class RouterKey implements Comparable<RouterKey> {
+        private static final Comparator<RouterKey> COMPARATOR = Comparator
+            .comparingLong(RouterKey::getAsn)
+            .thenComparing(RouterKey::getSubjectKeyIdentifier)
+            .thenComparing(RouterKey::getSubjectPublicKeyInfo);
+
+        long asn;
+        String subjectKeyIdentifier;
+        String subjectPublicKeyInfo;
+
+        @Override
+        public int compareTo(RouterKey that) {
+            return COMPARATOR.compare(this, that);
+        }
+
+        /**
+         * Writes the ASN followed by the length prefixed, decoded subject key identifier and public key.
+         */
+        void writeTo(DataOutput out) throws IOException {
+            final Base64.Decoder decoder = Base64.getDecoder();
+            final byte[] ski = decoder.decode(subjectKeyIdentifier);
+            final byte[] spki = decoder.decode(subjectPublicKeyInfo);
+            out.writeInt((int) asn);
+            out.writeShort(ski.length);
+            out.write(ski);
+            out.writeShort(spki.length);
+            out.write(spki);
+        }
+    }
+
+    public static class Builder {
+        private boolean ready;
+        private long[] vrps = new long[STRIDE * 1024];
+        private int length;
+        private final TreeSet<RouterKey> routerKeys = new TreeSet<>();
+
+        public Builder ready(boolean ready) {
+            this.ready = ready;
+            return this;
+        }
+
+        public Builder vrp(long asn, IpRange prefix, int maxLength) {
+            final BigInteger start = prefix.getStart().getValue();
+            return vrp(asn, prefix.getType() == IpResourceType.IPv6, start.shiftRight(Long.SIZE).longValue(), start.longValue(), prefix.getPrefixLength(), maxLength);
+        }
+
+        public Builder vrp(long asn, boolean ipv6, long addressHi, long addressLo, int prefixLength, int maxLength) {
+            if (length == vrps.length) {
+                vrps = Arrays.copyOf(vrps, vrps.length * 2);
+            }
+            vrps[length++] = (ipv6 ? 1L << 48 : 0L) | ((long) prefixLength << 40) | ((long) maxLength << 32) | (asn & 0xffffffffL);
+            vrps[length++] = addressHi;
+            vrps[length++] = addressLo;
+            return this;
+        }
+
+        public Builder routerKey(long asn, String subjectKeyIdentifier, String subjectPublicKeyInfo) {
+            routerKeys.add(RouterKey.of(asn, subjectKeyIdentifier, subjectPublicKeyInfo));
+            return this;
+        }
+
+        public Builder routerKeys(Collection<RouterKey> keys) {
+            routerKeys.addAll(keys);
+            return this;
+        }
+
+        public RtrPayloadSet build() {
+            final long[] sorted = Arrays.copyOf(vrps, length);
+            sort(sorted, 0, length / STRIDE - 1);
+            return new RtrPayloadSet(ready, distinct(sorted), ImmutableSortedSet.copyOf(routerKeys));
+        }
+    }
+
+    /**
+     * Writes the number of VRPs followed by one fixed width record per VRP: ASN, address family (4 or 6),
+     * prefix length, maximum length, one padding byte and the 16 byte address (IPv4 addresses are padded
+     * with zeroes).
+     */
+    private static void writeVrps(long[] vrps, DataOutput out) throws IOException {
+        out.writeInt(vrps.length / STRIDE);
+        for (int i = 0; i < vrps.length; i += STRIDE) {
+            final long head = vrps[i];
+            final boolean ipv6 = (head >>> 48) != 0;
+            out.writeInt((int) head);
+            out.writeByte(ipv6 ? 6 : 4);
+            out.writeByte((int) (head >>> 40));
+            out.writeByte((int) (head >>> 32));
+            out.writeByte(0);
+            if (ipv6) {
+                out.writeLong(vrps[i + 1]);
+                out.writeLong(vrps[i + 2]);
+            } else {
+                out.writeInt((int) vrps[i + 2]);
+                out.writeInt(0);
+                out.writeLong(0);
+            }
+        }
+    }
+
+    private static void writeRouterKeys(Collection<RouterKey> routerKeys, DataOutput out) throws IOException {
+        out.writeInt(routerKeys.size());
+        for (RouterKey routerKey : routerKeys) {
+            routerKey.writeTo(out);
+        }
+    }
+
+    private static int compare(long[] a, int i, long[] b, int j) {
+        int rc = Long.compare(a[i], b[j]);
+        if (rc == 0) {
+            rc = Long.compare(a[i + 1], b[j + 1]);
+        }
+        if (rc == 0) {
+            rc = Long.compare(a[i + 2], b[j + 2]);
+        }
+        return rc;
+    }
+
+    /**
+     * @return the VRPs of <code>a</code> that are not in <code>b</code>, both sorted
+     */
+    private static long[] minus(long[] a, long[] b) {
+        final long[] result = new long[a.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length) {
+            final int rc = j < b.length ? compare(a, i, b, j) : -1;
+            if (rc < 0) {
+                System.arraycopy(a, i, result, length, STRIDE);
+                length += STRIDE;
+                i += STRIDE;
+            } else if (rc > 0) {
+                j += STRIDE;
+            } else {
+                i += STRIDE;
+                j += STRIDE;
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * @return the sorted union of the sorted VRPs of <code>a</code> and <code>b</code>
+     */
+    private static long[] union(long[] a, long[] b) {
+        final long[] result = new long[a.length + b.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            final int rc = i == a.length ? 1 : j == b.length ? -1 : compare(a, i, b, j);
+            if (rc <= 0) {
+                System.arraycopy(a, i, result, length, STRIDE);
+                i += STRIDE;
+                if (rc == 0) {
+                    j += STRIDE;
+                }
+            } else {
+                System.arraycopy(b, j, result, length, STRIDE);
+                j += STRIDE;
+            }
+            length += STRIDE;
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static long[] distinct(long[] sorted) {
+        int length = 0;
+        for (int i = 0; i < sorted.length; i += STRIDE) {
+            if (length == 0 || compare(sorted, length - STRIDE, sorted, i) != 0) {
+                System.arraycopy(sorted, i, sorted, length, STRIDE);
+                length += STRIDE;
+            }
+        }
+        return length == sorted.length ? sorted : Arrays.copyOf(sorted, length);
+    }
+
+    /**
+     * Quicksort of the VRPs from index <code>lo</code> to <code>hi</code> (inclusive).
+     */
+    private static void sort(long[] vrps, int lo, int hi) {
+        while (lo < hi) {
+            swap(vrps, (lo + hi) >>> 1, hi);
+            int store = lo;
+            for (int i = lo; i < hi; i++) {
+                if (compare(vrps, i * STRIDE, vrps, hi * STRIDE) < 0) {
+                    swap(vrps, i, store++);
+                }
+            }
+            swap(vrps, store, hi);
+            // Recurse into the smaller half to bound the stack depth
+            if (store - lo < hi - store) {
+                sort(vrps, lo, store - 1);
+                lo = store + 1;
+            } else {
+                sort(vrps, store + 1, hi);
+                hi = store - 1;
+            }
+        }
+    }
+
+    private static void swap(long[] vrps, int i, int j) {
+        for (int k = 0; k < STRIDE; k++) {
+            final long tmp = vrps[i * STRIDE + k];
+            vrps[i * STRIDE + k] = vrps[j * STRIDE + k];
+            vrps[j * STRIDE + k] = tmp;
+        }
+    }
+}
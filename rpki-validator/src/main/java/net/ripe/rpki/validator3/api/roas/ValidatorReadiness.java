@@ -0,0 +1,75 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import net.ripe.rpki.validator3.domain.validation.TrustAnchorState;
+import net.ripe.rpki.validator3.storage.Storage;
+import net.ripe.rpki.validator3.storage.data.RpkiRepository;
+import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import net.ripe.rpki.validator3.storage.stores.RpkiRepositories;
+import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The validated objects are complete enough to be used by the RTR server once all the trust anchors
+ * have completed their initial validation, no repository is pending and all the trust anchors were
+ * validated after loading the repositories.
+ */
+@Component
+public class ValidatorReadiness {
+
+    @Autowired
+    private TrustAnchors trustAnchors;
+
+    @Autowired
+    private RpkiRepositories rpkiRepositories;
+
+    @Autowired
+    private TrustAnchorState trustAnchorState;
+
+    @Autowired
+    private Storage storage;
+
+    public boolean isReady() {
+        return storage.readTx(tx -> {
+            final List<TrustAnchor> trustAnchorList = trustAnchors.findAll(tx);
+            final boolean noPendingRepositories = trustAnchorList.stream().allMatch(ta -> {
+                final Map<RpkiRepository.Status, Long> statusLongMap = rpkiRepositories.countByStatus(tx, ta.key(), true);
+                final Long pendingRepoNumber = statusLongMap.get(RpkiRepository.Status.PENDING);
+                return pendingRepoNumber == null || pendingRepoNumber == 0L;
+            });
+            return noPendingRepositories && trustAnchors.allInitialCertificateTreeValidationRunsCompleted(tx);
+        }) && trustAnchorState.allTAsValidatedAfterRepositoryLoading();
+    }
+}
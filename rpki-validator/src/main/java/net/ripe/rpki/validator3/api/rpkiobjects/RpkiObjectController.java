@@ -32,6 +32,7 @@ package net.ripe.rpki.validator3.api.rpkiobjects;
 import au.com.bytecode.opencsv.CSVWriter;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiModel;
@@ -56,12 +57,15 @@ import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.api.ValidatorApi;
 import net.ripe.rpki.validator3.api.ApiResponse;
 import net.ripe.rpki.validator3.api.PublicApiCall;
-import net.ripe.rpki.validator3.storage.Tx;
+import net.ripe.rpki.validator3.storage.ExportSnapshot;
+import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
 import net.ripe.rpki.validator3.storage.Storage;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
@@ -76,9 +80,12 @@ import org.springframework.web.bind.annotation.RestController;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.X509CRLEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -97,6 +104,8 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import static net.ripe.rpki.validator3.domain.RpkiObjectUtils.newValidationResult;
 
 @Api(tags = "RPKI objects")
@@ -106,6 +115,9 @@ import static net.ripe.rpki.validator3.domain.RpkiObjectUtils.newValidationResul
 @Slf4j
 public class RpkiObjectController {
 
+    private static final Coder<RpkiObject> RPKI_OBJECT_CODER = CoderFactory.makeCoder(RpkiObject.class);
+    private static final int SNAPSHOT_CHUNK_SIZE = 1000;
+
     @Autowired
     private RpkiObjects rpkiObjects;
 
@@ -118,49 +130,80 @@ public class RpkiObjectController {
     @Autowired
     private Storage storage;
 
+    /**
+     * The objects of every trust anchor are copied to a snapshot in short transactions and
+     * streamed to the client from there, the snapshots are deleted when the response is written.
+     */
     @GetMapping(path = "/")
     public ResponseEntity<ApiResponse<Stream<RpkiObj>>> all() {
-        List<RpkiObj> objects = storage.readTx(tx -> this.trustAnchors.findAll(tx))
-                .parallelStream()
-                .flatMap(this::getRpkiObjsPerTa)
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(ApiResponse.data(objects.stream()));
-    }
-
-    private Stream<RpkiObj> getRpkiObjsPerTa(TrustAnchor trustAnchor) {
-        return storage.readTx(tx ->
-                validationRuns.findLatestSuccessfulCaTreeValidationRun(tx, trustAnchor)
-                        .map(vr -> getAssociatedRpkiObjects(tx, vr, getCheckMap(vr)))
-                        .orElse(Stream.empty())
-                        .collect(Collectors.toList()))
-                .stream()
-                .sorted(Comparator.comparing(o -> location(o.getLeft().getType(), o.getMiddle())))
-                .parallel()
-                .map(triple -> {
-                    final RpkiObject rpkiObject = triple.getLeft();
-                    final SortedSet<String> locations = triple.getMiddle();
-                    Optional<ValidationCheck> vc = triple.getRight();
-                    return mapRpkiObject(rpkiObject, vc
-                            .map(c -> newValidationResult(c.getLocation()))
-                            .orElse(newValidationResult(location(rpkiObject.getType(), locations))));
-                })
-                .filter(Objects::nonNull);
-    }
-
-    private Stream<Triple<RpkiObject, SortedSet<String>, Optional<ValidationCheck>>> getAssociatedRpkiObjects(Tx.Read tx, CertificateTreeValidationRun vr, Map<String, ValidationCheck> checkMap) {
-        return validationRuns.findAssociatedPks(tx, vr).stream()
-                .map(k -> rpkiObjects.get(tx, k))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .map(ro -> {
-                    final SortedSet<String> locations = rpkiObjects.getLocations(tx, ro.key());
-                    final Optional<ValidationCheck> check = locations
-                            .stream()
-                            .map(checkMap::get)
-                            .filter(Objects::nonNull)
-                            .findFirst();
-                    return Triple.of(ro, locations, check);
-                });
+        final List<ExportSnapshot<Pair<RpkiObject, String>>> snapshots = new ArrayList<>();
+        try {
+            for (TrustAnchor trustAnchor : storage.readTx(tx -> this.trustAnchors.findAll(tx))) {
+                snapshots.add(snapshotPerTa(trustAnchor));
+            }
+        } catch (RuntimeException e) {
+            snapshots.forEach(ExportSnapshot::close);
+            throw e;
+        }
+        final Stream<RpkiObj> objects = snapshots.stream()
+                .flatMap(snapshot -> snapshot.stream()
+                        .map(p -> mapRpkiObject(p.getLeft(), newValidationResult(p.getRight())))
+                        .filter(Objects::nonNull))
+                .onClose(() -> snapshots.forEach(ExportSnapshot::close));
+        return ResponseEntity.ok(ApiResponse.data(objects));
+    }
+
+    /**
+     * @return snapshot of the objects of the latest successful validation run of the trust anchor
+     * with the locations for their validation results, ordered by their first location
+     */
+    private ExportSnapshot<Pair<RpkiObject, String>> snapshotPerTa(TrustAnchor trustAnchor) {
+        // Only the keys and the locations are sorted in memory, the objects are read in that order
+        // in chunks, so that no read transaction stays open while the snapshot file is written
+        final List<Pair<Key, String>> sorted = storage.readTx(tx ->
+            validationRuns.findLatestSuccessfulCaTreeValidationRun(tx, trustAnchor)
+                    .map(vr -> {
+                        final Map<String, ValidationCheck> checkMap = getCheckMap(vr);
+                        return validationRuns.findAssociatedPks(tx, vr).stream()
+                                .map(k -> {
+                                    final SortedSet<String> locations = rpkiObjects.getLocations(tx, k);
+                                    final String location = locations.isEmpty() ?
+                                            rpkiObjects.get(tx, k).map(ro -> location(ro.getType(), locations)).orElse(null) :
+                                            locations.first();
+                                    if (location == null) {
+                                        return null;
+                                    }
+                                    final String checkLocation = locations.stream()
+                                            .map(checkMap::get)
+                                            .filter(Objects::nonNull)
+                                            .findFirst()
+                                            .map(ValidationCheck::getLocation)
+                                            .orElse(location);
+                                    return Triple.of(location, k, checkLocation);
+                                })
+                                .filter(Objects::nonNull)
+                                .sorted(Comparator.comparing(Triple::getLeft))
+                                .map(t -> Pair.of(t.getMiddle(), t.getRight()))
+                                .collect(Collectors.toList());
+                    })
+                    .orElse(Collections.emptyList()));
+        final Stream<Pair<RpkiObject, String>> objects = Lists.partition(sorted, SNAPSHOT_CHUNK_SIZE).stream()
+                .flatMap(chunk -> storage.readTx(tx -> chunk.stream()
+                        .map(p -> rpkiObjects.get(tx, p.getLeft()).map(ro -> Pair.of(ro, p.getRight())))
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList())).stream());
+        return ExportSnapshot.of(objects, RpkiObjectController::writeObjectWithLocation, RpkiObjectController::readObjectWithLocation);
+    }
+
+    private static void writeObjectWithLocation(DataOutput out, Pair<RpkiObject, String> p) throws IOException {
+        ExportSnapshot.writeBytes(out, RPKI_OBJECT_CODER.toBytes(p.getLeft()));
+        ExportSnapshot.writeBytes(out, p.getRight().getBytes(UTF_8));
+    }
+
+    private static Pair<RpkiObject, String> readObjectWithLocation(DataInput in) throws IOException {
+        final RpkiObject rpkiObject = RPKI_OBJECT_CODER.fromBytes(ExportSnapshot.readBytes(in));
+        return Pair.of(rpkiObject, new String(ExportSnapshot.readBytes(in), UTF_8));
     }
 
     private Map<String, ValidationCheck> getCheckMap(CertificateTreeValidationRun vr) {
@@ -181,9 +224,12 @@ public class RpkiObjectController {
     }
 
 
-    private static Stream<CertificateRepositoryObject> objectStream(Stream<byte[]> byteStream, String fileExtension) {
-        return byteStream.
-                collect(Collectors.toList()).
+    private static Stream<CertificateRepositoryObject> objectStream(ExportSnapshot<byte[]> snapshot, String fileExtension) {
+        final List<byte[]> objects;
+        try (Stream<byte[]> byteStream = snapshot.stream()) {
+            objects = byteStream.collect(Collectors.toList());
+        }
+        return objects.
                 parallelStream().
                 map(bytes -> {
                     ValidationResult vr = newValidationResult("whatever." + fileExtension);
@@ -198,21 +244,24 @@ public class RpkiObjectController {
 
         final IpResourceSet ipResources = new IpResourceSet();
 
-        final Pair<Set<String>, List<X509ResourceCertificate>> txResult = storage.readTx(tx -> {
-            final Set<String> roaAKIs = objectStream(rpkiObjects.streamObjects(tx, RpkiObject.Type.ROA), "roa")
+        // Only copy the objects within the transaction, parsing them takes much longer
+        final Pair<ExportSnapshot<byte[]>, ExportSnapshot<byte[]>> snapshots = storage.readTx(tx -> Pair.of(
+                ExportSnapshot.ofBytes(rpkiObjects.streamObjects(tx, RpkiObject.Type.ROA)),
+                ExportSnapshot.ofBytes(rpkiObjects.streamObjects(tx, RpkiObject.Type.CER))));
+
+        final Set<String> roaAKIs;
+        final List<X509ResourceCertificate> allCerts;
+        try (ExportSnapshot<byte[]> roas = snapshots.getLeft(); ExportSnapshot<byte[]> cers = snapshots.getRight()) {
+            roaAKIs = objectStream(roas, "roa")
                     .filter(p -> p instanceof RoaCms)
                     .map(p -> Hex.format(((RoaCms) p).getCertificate().getAuthorityKeyIdentifier()))
                     .collect(Collectors.toSet());
 
-            final List<X509ResourceCertificate> allCerts = objectStream(rpkiObjects.streamObjects(tx, RpkiObject.Type.CER), "cer")
+            allCerts = objectStream(cers, "cer")
                     .filter(p -> p instanceof X509ResourceCertificate)
                     .map(p -> (X509ResourceCertificate) p)
                     .collect(Collectors.toList());
-            return Pair.of(roaAKIs, allCerts);
-        });
-
-        Set<String> roaAKIs = txResult.getLeft();
-        List<X509ResourceCertificate> allCerts = txResult.getRight();
+        }
 
         final List<X509ResourceCertificate> roaParents = allCerts
                 .stream()
@@ -272,17 +321,21 @@ public class RpkiObjectController {
         try (final CSVWriter writer = new CSVWriter(response.getWriter())) {
             writer.writeNext(new String[]{"Subject", "Resources"});
 
-            Stream<byte[]> byteStream = storage.readTx(tx -> rpkiObjects.streamObjects(tx, RpkiObject.Type.CER));
-            objectStream(byteStream, "cer")
-                    .forEachOrdered(c -> {
-                        if (c instanceof X509ResourceCertificate) {
-                            final X509ResourceCertificate cert = (X509ResourceCertificate) c;
-                            writer.writeNext(new String[]{
-                                    cert.getSubject().toString(),
-                                    cert.getResources().toString()
-                            });
-                        }
-                    });
+            try (ExportSnapshot<byte[]> cers = storage.readTx(tx -> ExportSnapshot.ofBytes(rpkiObjects.streamObjects(tx, RpkiObject.Type.CER)));
+                 Stream<byte[]> byteStream = cers.stream()) {
+                byteStream
+                        .map(bytes -> CertificateRepositoryObjectFactory.createCertificateRepositoryObject(bytes,
+                                newValidationResult("whatever.cer")))
+                        .forEachOrdered(c -> {
+                            if (c instanceof X509ResourceCertificate) {
+                                final X509ResourceCertificate cert = (X509ResourceCertificate) c;
+                                writer.writeNext(new String[]{
+                                        cert.getSubject().toString(),
+                                        cert.getResources().toString()
+                                });
+                            }
+                        });
+            }
         }
     }
 
@@ -46,6 +46,8 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -66,6 +68,8 @@ public class SlurmStore {
     @Getter
     private final AtomicLong idSeq = new AtomicLong(0);
 
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
     public SlurmStore(String path) {
         final File slurmFile = new File(path, "slurm.json");
         this.slurmFileName = slurmFile.getAbsolutePath();
@@ -99,6 +103,14 @@ public class SlurmStore {
         } finally {
             new File(tmp).delete();
         }
+        listeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Register a listener that is called (while holding the store lock) after every change.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
     }
 
     public synchronized SlurmExt read() {
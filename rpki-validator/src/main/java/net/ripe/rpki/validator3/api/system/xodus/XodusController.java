@@ -33,7 +33,10 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.ValidatorApi;
 import net.ripe.rpki.validator3.api.InternalApiCall;
 import net.ripe.rpki.validator3.domain.cleanup.ValidationRunCleanupService;
+import net.ripe.rpki.validator3.storage.xodus.ReindexProgress;
+import net.ripe.rpki.validator3.storage.xodus.ScrubReport;
 import net.ripe.rpki.validator3.storage.xodus.Xodus;
+import net.ripe.rpki.validator3.storage.xodus.XodusScrubber;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -53,6 +56,9 @@ public class XodusController {
     @Autowired
     private Xodus xodus;
 
+    @Autowired
+    private XodusScrubber xodusScrubber;
+
     @GetMapping(path = "/clean-vr")
     public void clean() {
         validationRunCleanupService.cleanupValidationRuns();
@@ -68,4 +74,14 @@ public class XodusController {
         return xodus.getStat();
     }
 
+    @GetMapping(path = "/scrub")
+    public ScrubReport scrub() {
+        return xodusScrubber.getReport();
+    }
+
+    @GetMapping(path = "/reindex")
+    public Map<String, ReindexProgress> reindex() {
+        return xodus.getReindexProgress();
+    }
+
 }
@@ -80,7 +80,6 @@ public class ValidationRunController {
                 ResponseEntity.ok(ApiResponse.data(
                         new Links(linkTo(methodOn(ValidationRunController.class).list(locale)).withSelfRel()),
                         validationRuns.findAll(tx)
-                                .stream()
                                 .map(validationRun -> ValidationRunResource.of(validationRun,
                                         vr -> validationRuns.getObjectCount(tx, vr),
                                         messageSource, locale))
@@ -95,6 +95,10 @@ public class BackgroundJobs extends JobListenerSupport {
         schedule(DownloadBgpRisDumpsJob.class,
                 futureDate(10, SECOND),
                 simpleSchedule().repeatForever().withIntervalInMinutes(10));
+
+        schedule(XodusScrubberJob.class,
+                futureDate(30, MINUTE),
+                simpleSchedule().repeatForever().withIntervalInHours(6));
     }
 
     private <T extends Trigger> void schedule(Class<? extends Job> jobClass, Date startAt, ScheduleBuilder<T> schedule) throws SchedulerException {
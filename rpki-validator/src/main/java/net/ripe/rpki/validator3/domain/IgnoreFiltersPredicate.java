@@ -32,11 +32,17 @@ package net.ripe.rpki.validator3.domain;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
 import net.ripe.ipresource.IpResourceSet;
+import net.ripe.ipresource.IpResourceType;
 import net.ripe.ipresource.etree.IntervalMap;
 import net.ripe.ipresource.etree.IpResourceIntervalStrategy;
 import net.ripe.ipresource.etree.NestedIntervalMap;
 import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilter;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -45,16 +51,24 @@ public class IgnoreFiltersPredicate implements Predicate<RoaPrefixDefinition> {
     private IpResourceSet ignoredAsns = new IpResourceSet();
     private IntervalMap<IpRange, IpResourceSet> ignoredPrefixes = new NestedIntervalMap<>(IpResourceIntervalStrategy.getInstance());
 
+    // The same filters for prefixes given as primitive values, see test(long, boolean, long, long, int)
+    private final long[] ignoredAsnValues;
+    private final RangeFilter[] rangeFilters;
+
     public IgnoreFiltersPredicate(Stream<IgnoreFilter> ignoreFilterStream) {
+        final List<Long> asnValues = new ArrayList<>();
+        final List<RangeFilter> ranges = new ArrayList<>();
         ignoreFilterStream.forEach(filter -> {
             IpRange prefix = filter.getPrefix();
             if (prefix == null) {
                 ignoredAsns.add(new Asn(filter.getAsn()));
+                asnValues.add(filter.getAsn());
             } else {
                 IpResourceSet existing = ignoredPrefixes.findExact(prefix);
                 if (existing == null) {
                     existing = new IpResourceSet();
                     ignoredPrefixes.put(prefix, existing);
+                    ranges.add(new RangeFilter(prefix, existing));
                 }
                 if (filter.getAsn() == null) {
                     existing.add(new Asn(Asn.ASN_MIN_VALUE).upTo(new Asn(Asn.ASN32_MAX_VALUE)));
@@ -63,6 +77,11 @@ public class IgnoreFiltersPredicate implements Predicate<RoaPrefixDefinition> {
                 }
             }
         });
+        ignoredAsnValues = asnValues.stream().mapToLong(Long::longValue).sorted().toArray();
+        // Like the interval map, only the most specific range containing a prefix decides
+        rangeFilters = ranges.stream()
+            .sorted(Comparator.comparing((RangeFilter f) -> f.size))
+            .toArray(RangeFilter[]::new);
     }
 
     @Override
@@ -73,4 +92,62 @@ public class IgnoreFiltersPredicate implements Predicate<RoaPrefixDefinition> {
         IpResourceSet filter = ignoredPrefixes.findExactOrFirstLessSpecific(roaPrefix.getPrefix());
         return filter != null && filter.contains(new Asn(roaPrefix.getAsn()));
     }
+
+    /**
+     * Same as {@link #test(RoaPrefixDefinition)} for a prefix given by its start address as two unsigned
+     * longs (the IPv4 address in the low one), so that columnar VRPs can be filtered without
+     * materializing them.
+     */
+    public boolean test(long asn, boolean ipv6, long addressHi, long addressLo, int prefixLength) {
+        if (Arrays.binarySearch(ignoredAsnValues, asn) >= 0) {
+            return true;
+        }
+        if (rangeFilters.length == 0) {
+            return false;
+        }
+        final int hostBits = (ipv6 ? 128 : 32) - prefixLength;
+        final long endHi = hostBits <= 64 ? addressHi : addressHi | lowBits(hostBits - 64);
+        final long endLo = hostBits >= 64 ? -1L : addressLo | lowBits(hostBits);
+        for (RangeFilter filter : rangeFilters) {
+            if (filter.ipv6 == ipv6 && filter.contains(addressHi, addressLo, endHi, endLo)) {
+                return filter.asns.contains(new Asn(asn));
+            }
+        }
+        return false;
+    }
+
+    private static long lowBits(int n) {
+        return n >= 64 ? -1L : (1L << n) - 1;
+    }
+
+    private static final class RangeFilter {
+        final boolean ipv6;
+        final long startHi;
+        final long startLo;
+        final long endHi;
+        final long endLo;
+        final BigInteger size;
+        final IpResourceSet asns;
+
+        RangeFilter(IpRange range, IpResourceSet asns) {
+            final BigInteger start = range.getStart().getValue();
+            final BigInteger end = range.getEnd().getValue();
+            this.ipv6 = range.getType() == IpResourceType.IPv6;
+            this.startHi = start.shiftRight(Long.SIZE).longValue();
+            this.startLo = start.longValue();
+            this.endHi = end.shiftRight(Long.SIZE).longValue();
+            this.endLo = end.longValue();
+            this.size = end.subtract(start);
+            this.asns = asns;
+        }
+
+        boolean contains(long hi, long lo, long toHi, long toLo) {
+            return compareUnsigned(startHi, startLo, hi, lo) <= 0 && compareUnsigned(toHi, toLo, endHi, endLo) <= 0;
+        }
+
+        private static int compareUnsigned(long aHi, long aLo, long bHi, long bLo) {
+            final int hi = Long.compareUnsigned(aHi, bHi);
+            return hi != 0 ? hi : Long.compareUnsigned(aLo, bLo);
+        }
+    }
 }
@@ -29,9 +29,13 @@
  */
 package net.ripe.rpki.validator3.domain.cleanup;
 
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
 import net.ripe.rpki.validator3.storage.Storage;
+import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
 import net.ripe.rpki.validator3.util.Time;
 import org.apache.commons.lang3.tuple.Pair;
@@ -40,7 +44,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -53,23 +60,102 @@ public class ValidationRunCleanupService {
 
     private final Storage storage;
 
+    private final int chunkSize;
+
+    private final Duration chunkPause;
+
+    private final int scanSize;
+
+    private final Timer chunkDuration;
+
     public ValidationRunCleanupService(@Value("${rpki.validator.validation.run.cleanup.grace.duration}") String cleanupGraceDuration,
-                                       Storage storage) {
+                                       @Value("${rpki.validator.validation.run.cleanup.chunk.size:100}") int chunkSize,
+                                       @Value("${rpki.validator.validation.run.cleanup.chunk.pause:PT0.01S}") String chunkPause,
+                                       @Value("${rpki.validator.validation.run.cleanup.scan.size:10000}") int scanSize,
+                                       Storage storage,
+                                       MeterRegistry registry) {
         this.cleanupGraceDuration = Duration.parse(cleanupGraceDuration);
+        this.chunkSize = chunkSize;
+        this.chunkPause = Duration.parse(chunkPause);
+        this.scanSize = scanSize;
         this.storage = storage;
+        this.chunkDuration = Timer.builder("rpkivalidator.validation.run.cleanup.chunk.duration")
+                .description("Duration of one write transaction of the validation run cleanup")
+                .register(registry);
     }
 
+    /**
+     * Old validation runs are looked up and deleted in the same small write transactions,
+     * continuing from where the previous one stopped, with a pause in between, so that other
+     * writers (e.g. RRDP updates) don't have to wait for the whole cleanup. Orphan associations
+     * are looked up in bounded read transactions and deleted in small write transactions that
+     * check them again.
+     */
     public Pair<AtomicInteger, AtomicInteger> cleanupValidationRuns() {
         AtomicInteger oldCount = new AtomicInteger();
         AtomicInteger orphanCount = new AtomicInteger();
         InstantWithoutNanos completedBefore = InstantWithoutNanos.now().minus(cleanupGraceDuration);
         Long t = Time.timed(() -> {
             // Delete all validation runs older than `cleanupGraceDuration` that have a later validation run.
-            oldCount.set(storage.writeTx(tx -> validationRuns.removeOldValidationRuns(tx, completedBefore)));
-            orphanCount.set(storage.writeTx(tx -> validationRuns.removeOrphanValidationRunAssociations(tx)));
+            oldCount.set(removeOldValidationRuns(completedBefore));
+            orphanCount.set(
+                    removeOrphans(validationRuns::findOrphanObjectAssociations, validationRuns::removeObjectAssociations) +
+                    removeOrphans(validationRuns::findOrphanRepositoryAssociations, validationRuns::removeRepositoryAssociations));
         });
         log.info("Removed {} old validation runs and {} orphans in {}ms", oldCount.get(), orphanCount.get(), t);
         storage.gc();
         return Pair.of(oldCount, orphanCount);
     }
+
+    private int removeOldValidationRuns(InstantWithoutNanos completedBefore) {
+        int removed = 0;
+        ValidationRuns.CleanupPosition position = null;
+        do {
+            final ValidationRuns.CleanupPosition from = position;
+            final Pair<Integer, ValidationRuns.CleanupPosition> chunk = chunkDuration.record(() ->
+                    storage.writeTx(tx -> validationRuns.removeOldValidationRuns(tx, completedBefore, from, chunkSize)));
+            removed += chunk.getLeft();
+            position = chunk.getRight();
+        } while (position != null && pause());
+        return removed;
+    }
+
+    private <T, P> int removeOrphans(OrphanFinder<T, P> find, BiFunction<Tx.Write, List<T>, Integer> remove) {
+        int removed = 0;
+        P position = null;
+        do {
+            final P from = position;
+            final Pair<List<T>, P> scanned = storage.readTx(tx -> find.find(tx, from, scanSize));
+            removed += removeInChunks(scanned.getLeft(), chunk -> storage.writeTx(tx -> remove.apply(tx, chunk)));
+            position = scanned.getRight();
+        } while (position != null && pause());
+        return removed;
+    }
+
+    private interface OrphanFinder<T, P> {
+        Pair<List<T>, P> find(Tx.Read tx, P after, int maxScanned);
+    }
+
+    private <T> int removeInChunks(List<T> items, Function<List<T>, Integer> removeChunk) {
+        int removed = 0;
+        boolean first = true;
+        for (List<T> chunk : Lists.partition(items, chunkSize)) {
+            if (!first && !pause()) {
+                break;
+            }
+            first = false;
+            removed += chunkDuration.record(() -> removeChunk.apply(chunk));
+        }
+        return removed;
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(chunkPause.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 }
@@ -174,6 +174,7 @@ public class CertificateTreeValidationService {
         String trustAnchorLocation = trustAnchor.getLocations().get(0);
         ValidationResult validationResult = ValidationResult.withLocation(trustAnchorLocation).withoutStoringPassingChecks();
 
+        boolean validatedObjectsUpdated = false;
         try {
             X509ResourceCertificate trustAnchorCertificate = trustAnchor.getCertificate();
             validationResult.rejectIfNull(trustAnchorCertificate, VALIDATOR_TRUST_ANCHOR_CERTIFICATE_AVAILABLE);
@@ -225,10 +226,14 @@ public class CertificateTreeValidationService {
             });
             if (!accumulator.isEmpty()) {
                 validatedRpkiObjects.updateByKey(trustAnchorRef, accumulator);
+                validatedObjectsUpdated = true;
             }
         } finally {
             validationRun.completeWith(validationResult);
             storage.writeTx0(tx -> validationRuns.update(tx, validationRun));
+            if (validatedObjectsUpdated) {
+                validatedRpkiObjects.persist(validationRun);
+            }
             trustAnchorState.setValidatedAfterLastRepositoryUpdate(trustAnchor);
             long delta = System.currentTimeMillis() - begin;
             logForDuration("Tree validation {} for {} in {}ms", validationRun.getStatus().toString().toLowerCase(), trustAnchor.getName(), delta);
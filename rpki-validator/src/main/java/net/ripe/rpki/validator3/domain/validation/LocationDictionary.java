@@ -0,0 +1,150 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable, sorted set of strings stored with front coding: within a block of strings only the
+ * first one is stored completely, the following ones only store the length of the prefix shared
+ * with the previous string and the remaining bytes. Object locations are long rsync URIs that
+ * mostly share the repository part, so this is a lot more compact than keeping the strings.
+ */
+final class LocationDictionary {
+
+    static final LocationDictionary EMPTY = of(new String[0]);
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final int size;
+    private final int[] blockOffsets;
+    private final byte[] data;
+
+    private LocationDictionary(int size, int[] blockOffsets, byte[] data) {
+        this.size = size;
+        this.blockOffsets = blockOffsets;
+        this.data = data;
+    }
+
+    /**
+     * @param sortedLocations distinct strings in their natural order
+     */
+    static LocationDictionary of(String[] sortedLocations) {
+        final int[] blockOffsets = new int[(sortedLocations.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < sortedLocations.length; i++) {
+            final byte[] current = sortedLocations[i].getBytes(StandardCharsets.UTF_8);
+            final int shared;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = data.size();
+                shared = 0;
+            } else {
+                shared = sharedPrefixLength(previous, current);
+            }
+            writeVarInt(data, shared);
+            writeVarInt(data, current.length - shared);
+            data.write(current, shared, current.length - shared);
+            previous = current;
+        }
+        return new LocationDictionary(sortedLocations.length, blockOffsets, data.toByteArray());
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Location " + index + " of " + size);
+        }
+        byte[] current = new byte[0];
+        int position = blockOffsets[index / BLOCK_SIZE];
+        for (int i = index - index % BLOCK_SIZE; i <= index; i++) {
+            final int[] shared = readVarInt(data, position);
+            final int[] suffix = readVarInt(data, shared[1]);
+            position = suffix[1];
+            final byte[] next = Arrays.copyOf(current, shared[0] + suffix[0]);
+            System.arraycopy(data, position, next, shared[0], suffix[0]);
+            position += suffix[0];
+            current = next;
+        }
+        return new String(current, StandardCharsets.UTF_8);
+    }
+
+    String[] toArray() {
+        final String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Approximate number of bytes used by the dictionary, for logging.
+     */
+    int byteSize() {
+        return data.length + blockOffsets.length * Integer.BYTES;
+    }
+
+    private static int sharedPrefixLength(byte[] a, byte[] b) {
+        final int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @return the decoded value and the position right after it
+     */
+    private static int[] readVarInt(byte[] data, int position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return new int[]{value, position};
+    }
+}
@@ -40,6 +40,7 @@ import net.ripe.rpki.validator3.domain.ErrorCodes;
 import net.ripe.rpki.validator3.domain.RpkiObjectUtils;
 import net.ripe.rpki.validator3.domain.metrics.RsyncMetricsService;
 import net.ripe.rpki.validator3.rrdp.RrdpService;
+import net.ripe.rpki.validator3.storage.GroupCommitWriter;
 import net.ripe.rpki.validator3.storage.Storage;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
@@ -50,6 +51,7 @@ import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.RpkiRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.data.validation.RrdpRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.data.validation.RsyncRepositoryValidationRun;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationRun;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
 import net.ripe.rpki.validator3.storage.stores.RpkiRepositories;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
@@ -74,12 +76,15 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -104,6 +109,7 @@ public class RpkiRepositoryValidationService {
     private final TrustAnchors trustAnchors;
     private final ValidationScheduler validationScheduler;
     private final Storage storage;
+    private final GroupCommitWriter groupCommitWriter;
     private final TrustAnchorState trustAnchorState;
     private final RsyncFactory rsyncFactory;
 
@@ -117,6 +123,7 @@ public class RpkiRepositoryValidationService {
             RrdpService rrdpService,
             TrustAnchors trustAnchors,
             Storage storage,
+            GroupCommitWriter groupCommitWriter,
             @Value("${rpki.validator.rsync.local.storage.directory}") File rsyncLocalStorageDirectory,
             TrustAnchorState trustAnchorState,
             ValidationScheduler validationScheduler, RsyncFactory rsyncFactory, RsyncMetricsService rsyncMetrics) {
@@ -127,6 +134,7 @@ public class RpkiRepositoryValidationService {
         this.trustAnchors = trustAnchors;
         this.rsyncLocalStorageDirectory = rsyncLocalStorageDirectory;
         this.storage = storage;
+        this.groupCommitWriter = groupCommitWriter;
         this.trustAnchorState = trustAnchorState;
         this.validationScheduler = validationScheduler;
         this.rsyncFactory = rsyncFactory;
@@ -205,6 +213,7 @@ public class RpkiRepositoryValidationService {
         final RsyncRepositoryValidationRun validationRun = makeAndStoreRsyncValidationRun();
 
         final Map<URI, RpkiRepository> fetchedLocations = new HashMap<>();
+        final List<CompletableFuture<?>> pendingWrites = new ArrayList<>();
 
         try {
             Stream<RpkiRepository> repositoriesNeedingUpdate = storage.readTx(rpkiRepositories::findRsyncRepositories)
@@ -217,14 +226,15 @@ public class RpkiRepositoryValidationService {
                 });
 
             ValidationResult results = repositoriesNeedingUpdate.map(repository -> {
-                    storage.writeTx0(tx -> validationRuns.associate(tx, validationRun, repository));
-                    return processRsyncRepository(affectedTrustAnchors, validationRun, fetchedLocations, repository);
+                    pendingWrites.add(groupCommitWriter.submit0(tx -> validationRuns.associate(tx, validationRun, repository)));
+                    return processRsyncRepository(affectedTrustAnchors, validationRun, fetchedLocations, repository, pendingWrites);
                 }
             ).collect(
                 () -> newValidationResult("placeholder"),
                 ValidationResult::addAll,
                 ValidationResult::addAll
             );
+            groupCommitWriter.awaitAll(pendingWrites);
 
             validationRun.completeWith(results);
             affectedTrustAnchors.forEach(ta -> {
@@ -234,10 +244,24 @@ public class RpkiRepositoryValidationService {
         } catch (Exception e) {
             validationRun.setFailed();
         } finally {
+            awaitPendingWrites(validationRun, pendingWrites);
             storage.writeTx0(tx -> validationRuns.update(tx, validationRun));
         }
     }
 
+    /**
+     * Waits for the writes submitted during the validation run, also when the run failed half way, so that
+     * the run is not stored before (or without) the objects and associations it refers to.
+     */
+    private void awaitPendingWrites(ValidationRun validationRun, Collection<? extends CompletableFuture<?>> pendingWrites) {
+        try {
+            groupCommitWriter.awaitAll(pendingWrites);
+        } catch (Exception e) {
+            log.error("Failed to store the objects of the " + validationRun.getType() + " validation run", e);
+            validationRun.setFailed();
+        }
+    }
+
     Set<TrustAnchor> prefetchRepository(RpkiRepository repository) {
         final Set<TrustAnchor> affectedTrustAnchors = new HashSet<>();
         if (repository.isPending() && repository.getType() == RpkiRepository.Type.RSYNC_PREFETCH) {
@@ -246,7 +270,7 @@ public class RpkiRepositoryValidationService {
             final RsyncRepositoryValidationRun validationRun = makeAndStoreRsyncValidationRun();
 
             final ValidationResult validationResult = newValidationResult(repository.getRsyncRepositoryUri());
-            storage.writeTx0(tx -> validationRuns.associate(tx, validationRun, repository));
+            final CompletableFuture<Void> associated = groupCommitWriter.submit0(tx -> validationRuns.associate(tx, validationRun, repository));
 
             try {
                 final File targetDirectory = Rsync.localFileFromRsyncUri(rsyncLocalStorageDirectory, URI.create(repository.getRsyncRepositoryUri()));
@@ -261,6 +285,7 @@ public class RpkiRepositoryValidationService {
                 repository.setFailed();
                 validationResult.error(ErrorCodes.RSYNC_REPOSITORY_IO, e.toString(), ExceptionUtils.getStackTrace(e));
             } finally {
+                awaitPendingWrites(validationRun, Collections.singletonList(associated));
                 storage.writeTx0(tx -> {
                     rpkiRepositories.update(tx, repository);
                     validationRuns.add(tx, validationRun);
@@ -276,7 +301,8 @@ public class RpkiRepositoryValidationService {
     private ValidationResult processRsyncRepository(Set<TrustAnchor> affectedTrustAnchors,
                                                     RsyncRepositoryValidationRun validationRun,
                                                     Map<URI, RpkiRepository> fetchedLocations,
-                                                    RpkiRepository repository) {
+                                                    RpkiRepository repository,
+                                                    List<CompletableFuture<?>> pendingWrites) {
 
         final ValidationResult validationResult = newValidationResult(repository.getRsyncRepositoryUri());
 
@@ -307,7 +333,7 @@ public class RpkiRepositoryValidationService {
             repository.setFailed();
             validationResult.error(ErrorCodes.RSYNC_REPOSITORY_IO, e.toString(), ExceptionUtils.getStackTrace(e));
         } finally {
-            storage.writeTx0(tx -> rpkiRepositories.update(tx, repository));
+            pendingWrites.add(groupCommitWriter.submit0(tx -> rpkiRepositories.update(tx, repository)));
         }
 
         storage.readTx0(tx ->
@@ -0,0 +1,174 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.RouterCertificate;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.TrustAnchorData;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores the validated objects of the latest successful validation run of every trust anchor
+ * in a file next to the database, so that they can be loaded quickly at startup instead of
+ * parsing all the ROAs and router certificates again.
+ *
+ * A file is only used if it belongs to the same validation run (id and completion time) as the
+ * latest successful one in the database and its CRC32 checksum matches.
+ */
+@Component
+@Profile("!test")
+@Slf4j
+public class ValidatedObjectsSnapshotFiles {
+
+    private static final int MAGIC = 0x52564f53; // "RVOS"
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path directory;
+
+    public ValidatedObjectsSnapshotFiles(@Value("${rpki.validator.validated.objects.snapshot.path:${rpki.validator.data.path}/validated-objects}") String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    public void write(long validationRunId, long completedAt, TrustAnchorData trustAnchor, RoaPrefixesAndRouterCertificates objects) {
+        final Path file = file(trustAnchor.getId());
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            final CRC32 checksum = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), checksum))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(trustAnchor.getId());
+                out.writeLong(validationRunId);
+                out.writeLong(completedAt);
+                objects.getRoaPrefixes().writeTo(out);
+                out.writeInt(objects.getRouterCertificates().size());
+                for (RouterCertificate certificate : objects.getRouterCertificates()) {
+                    out.writeInt(certificate.getAsn().size());
+                    for (String asn : certificate.getAsn()) {
+                        VrpSnapshot.writeString(out, asn);
+                    }
+                    VrpSnapshot.writeString(out, certificate.getSubjectKeyIdentifier());
+                    VrpSnapshot.writeString(out, certificate.getSubjectPublicKeyInfo());
+                }
+                out.flush();
+                // The checksum itself is not part of the checked data
+                out.writeLong(checksum.getValue());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write validated objects of trust anchor {} to {}", trustAnchor.getName(), file, e);
+            deleteQuietly(tmp);
+        }
+    }
+
+    public Optional<RoaPrefixesAndRouterCertificates> read(long validationRunId, long completedAt, TrustAnchorData trustAnchor) {
+        final Path file = file(trustAnchor.getId());
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < Long.BYTES) {
+                log.warn("Validated objects file {} is truncated, ignoring it", file);
+                return Optional.empty();
+            }
+            final ByteBuffer content = (ByteBuffer) buffer.duplicate().limit(buffer.limit() - Long.BYTES);
+            final CRC32 checksum = new CRC32();
+            checksum.update(content.duplicate());
+            if (checksum.getValue() != buffer.getLong(buffer.limit() - Long.BYTES)) {
+                log.warn("Validated objects file {} is corrupted, ignoring it", file);
+                return Optional.empty();
+            }
+            if (content.getInt() != MAGIC || content.getInt() != FORMAT_VERSION) {
+                log.info("Validated objects file {} has an unknown format, ignoring it", file);
+                return Optional.empty();
+            }
+            if (content.getLong() != trustAnchor.getId() || content.getLong() != validationRunId || content.getLong() != completedAt) {
+                log.info("Validated objects file {} is not from the latest validation run of {}, ignoring it", file, trustAnchor.getName());
+                return Optional.empty();
+            }
+            final VrpSnapshot roaPrefixes = VrpSnapshot.readFrom(trustAnchor, content);
+            final int routerCertificateCount = content.getInt();
+            final ImmutableSet.Builder<RouterCertificate> routerCertificates = ImmutableSet.builder();
+            for (int c = 0; c < routerCertificateCount; c++) {
+                final int asnCount = content.getInt();
+                final ImmutableList.Builder<String> asns = ImmutableList.builder();
+                for (int a = 0; a < asnCount; a++) {
+                    asns.add(VrpSnapshot.readString(content));
+                }
+                routerCertificates.add(RouterCertificate.of(trustAnchor, asns.build(), VrpSnapshot.readString(content), VrpSnapshot.readString(content)));
+            }
+            return Optional.of(RoaPrefixesAndRouterCertificates.of(roaPrefixes, routerCertificates.build()));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read validated objects file {}, ignoring it", file, e);
+            return Optional.empty();
+        }
+    }
+
+    public void delete(long trustAnchorId) {
+        deleteQuietly(file(trustAnchorId));
+    }
+
+    private Path file(long trustAnchorId) {
+        return directory.resolve("trust-anchor-" + trustAnchorId + ".bin");
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete {}", file, e);
+            }
+        }
+    }
+}
@@ -29,14 +29,16 @@
  */
 package net.ripe.rpki.validator3.domain.validation;
 
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
 import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
-import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
 import net.ripe.rpki.commons.crypto.x509cert.X509CertificateUtil;
 import net.ripe.rpki.commons.crypto.x509cert.X509RouterCertificate;
 import net.ripe.rpki.validator3.api.Paging;
@@ -49,15 +51,16 @@ import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
-import net.ripe.rpki.validator3.util.Locks;
 import net.ripe.rpki.validator3.util.Time;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
@@ -68,17 +71,42 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 @Component
 @Slf4j
 public class ValidatedRpkiObjects {
 
-    private final List<Consumer<Collection<RoaPrefixesAndRouterCertificates>>> listeners = new ArrayList<>();
+    /**
+     * The current validated objects, replaced as a whole on every update. Readers never block and
+     * always see a consistent set of trust anchors.
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
 
-    private Map<Long, RoaPrefixesAndRouterCertificates> validatedObjectsByTrustAnchor = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listeners are notified on a single dedicated thread, so a slow listener never blocks the
+     * validation and the notifications are delivered in order. Notifications are coalesced: if
+     * multiple updates happen while the listeners are busy, they only get the latest snapshot.
+     */
+    private final ThreadPoolExecutor notificationExecutor = new ThreadPoolExecutor(1, 1,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        final Thread t = new Thread(r, "validated-objects-listeners");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicBoolean notificationScheduled = new AtomicBoolean();
 
     @Autowired
     private RpkiObjects rpkiObjects;
@@ -92,7 +120,12 @@ public class ValidatedRpkiObjects {
     @Autowired
     private Storage storage;
 
-    private ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
+    @Autowired(required = false)
+    private ValidatedObjectsSnapshotFiles snapshotFiles;
+
+    public ValidatedRpkiObjects() {
+        notificationExecutor.allowCoreThreadTimeOut(true);
+    }
 
     @PostConstruct
     private void initialize() {
@@ -103,6 +136,13 @@ public class ValidatedRpkiObjects {
                         TrustAnchorData trustAnchorData = TrustAnchorData.of(ta.getId().asLong(), ta.getName());
                         final Accumulator validatedObjects = new Accumulator(trustAnchorData);
                         validationRuns.findLatestSuccessfulCaTreeValidationRun(tx, ta).ifPresent(vr -> {
+                            final Optional<RoaPrefixesAndRouterCertificates> persisted = readSnapshotFile(vr, trustAnchorData);
+                            if (persisted.isPresent()) {
+                                log.info("Loaded validated objects of trust anchor {} from the snapshot file", ta.getName());
+                                update(trustAnchorData.getId(), persisted.get());
+                                return;
+                            }
+
                             final Set<Key> associatedPks = validationRuns.findAssociatedPks(tx, vr);
                             Stream<RpkiObject> roaStream = streamByType(tx, associatedPks, RpkiObject.Type.ROA);
                             Stream<RpkiObject> routerCertStream = streamByType(tx, associatedPks, RpkiObject.Type.ROUTER_CER);
@@ -121,6 +161,7 @@ public class ValidatedRpkiObjects {
                                 validatedObjects.add(rpkiObject.key(), maybeObject.get(), ImmutableSortedSet.copyOf(locations));
                             });
                             updateByKey(vr.getTrustAnchor(), validatedObjects);
+                            persist(vr);
                         });
                     }));
         });
@@ -128,23 +169,51 @@ public class ValidatedRpkiObjects {
     }
 
     void updateByKey(Ref<TrustAnchor> trustAnchor, Accumulator validatedObjects) {
-        Locks.locked(dataLock.writeLock(), () -> {
-            log.info("updating validation objects cache for trust anchor {} with {} ROA prefixes and {} router certificates",
-                    trustAnchor,
-                    validatedObjects.getValidatedRoaPrefixes().size(),
-                    validatedObjects.getRouterCertificates().size()
-            );
-            validatedObjectsByTrustAnchor.put(
-                    trustAnchor.key().asLong(),
-                    RoaPrefixesAndRouterCertificates.of(
-                            ImmutableSet.copyOf(validatedObjects.getValidatedRoaPrefixes()),
-                            ImmutableSet.copyOf(validatedObjects.getRouterCertificates())
-                    )
-            );
-        });
+        final VrpSnapshot roaPrefixes = validatedObjects.getRoaPrefixes().build();
+        log.info("updating validation objects cache for trust anchor {} with {} ROA prefixes and {} router certificates",
+                trustAnchor,
+                roaPrefixes.size(),
+                validatedObjects.getRouterCertificates().size()
+        );
+        update(trustAnchor.key().asLong(), RoaPrefixesAndRouterCertificates.of(
+                roaPrefixes,
+                ImmutableSet.copyOf(validatedObjects.getRouterCertificates())
+        ));
+    }
+
+    private void update(long trustAnchorId, RoaPrefixesAndRouterCertificates objects) {
+        snapshot.updateAndGet(s -> s.with(trustAnchorId, objects));
         notifyListeners();
     }
 
+    /**
+     * Store the current validated objects of the trust anchor of the validation run on disk, so that
+     * they can be loaded at startup as long as the validation run is the latest successful one.
+     * Must only be called for a completed validation run whose objects were passed to
+     * {@link #updateByKey(Ref, Accumulator)}.
+     */
+    void persist(CertificateTreeValidationRun validationRun) {
+        if (snapshotFiles == null || !validationRun.isSucceeded()) {
+            return;
+        }
+        final RoaPrefixesAndRouterCertificates objects = snapshot.get().getByTrustAnchor().get(validationRun.getTrustAnchor().key().asLong());
+        if (objects != null) {
+            Long t = Time.timed(() -> snapshotFiles.write(
+                    validationRun.key().asLong(),
+                    validationRun.getCompletedAt().toEpochMilli(),
+                    objects.getRoaPrefixes().getTrustAnchor(),
+                    objects));
+            log.debug("Stored validated objects of validation run {} in {}ms", validationRun.key(), t);
+        }
+    }
+
+    private Optional<RoaPrefixesAndRouterCertificates> readSnapshotFile(CertificateTreeValidationRun validationRun, TrustAnchorData trustAnchorData) {
+        if (snapshotFiles == null || validationRun.getCompletedAt() == null) {
+            return Optional.empty();
+        }
+        return snapshotFiles.read(validationRun.key().asLong(), validationRun.getCompletedAt().toEpochMilli(), trustAnchorData);
+    }
+
     private Stream<RpkiObject> streamByType(Tx.Read tx, Collection<Key> rpkiObjectsKeys, RpkiObject.Type type) {
         final Set<Key> byType = rpkiObjects.getPkByType(tx, type);
         return rpkiObjectsKeys.stream()
@@ -156,7 +225,10 @@ public class ValidatedRpkiObjects {
 
     public void remove(TrustAnchor trustAnchor) {
         long trustAnchorId = trustAnchor.key().asLong();
-        Locks.locked(dataLock.writeLock(), () -> validatedObjectsByTrustAnchor.remove(trustAnchorId));
+        snapshot.updateAndGet(s -> s.without(trustAnchorId));
+        if (snapshotFiles != null) {
+            snapshotFiles.delete(trustAnchorId);
+        }
         notifyListeners();
     }
 
@@ -174,26 +246,41 @@ public class ValidatedRpkiObjects {
 
         Sorting finalSorting = sorting;
         Paging finalPaging = paging;
-        return Locks.locked(dataLock.readLock(), () ->
-            ValidatedObjects.of(
-                countRoaPrefixes(searchTerm),
-                findRoaPrefixes(searchTerm, finalSorting, finalPaging)
-            ));
+        final ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects = validatedObjects();
+        return ValidatedObjects.of(
+            countRoaPrefixes(validatedObjects, searchTerm),
+            findRoaPrefixes(validatedObjects, searchTerm, finalSorting, finalPaging)
+        );
     }
 
     public ValidatedObjects<RouterCertificate> findCurrentlyValidatedRouterCertificates() {
-        return Locks.locked(dataLock.readLock(), () ->
-            ValidatedObjects.of(
-                countRouterCertificates(),
-                findRouterCertificates()
-            ));
+        final ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects = validatedObjects();
+        return ValidatedObjects.of(
+            countRouterCertificates(validatedObjects),
+            findRouterCertificates(validatedObjects)
+        );
     }
 
+    /**
+     * @return the current version of the validated objects, incremented on every update.
+     */
+    public long getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    /**
+     * Register a listener for the validated objects. Listeners start from the empty state and are
+     * called asynchronously with all the current objects whenever they change (and right after
+     * registration, if there are any validated objects already).
+     */
     public void addListener(Consumer<Collection<RoaPrefixesAndRouterCertificates>> listener) {
-        Locks.locked(dataLock.writeLock(), () -> {
-            listeners.add(listener);
-            listener.accept(validatedObjectsByTrustAnchor.values());
-        });
+        listeners.add(new Listener(listener));
+        notifyListeners();
+    }
+
+    @PreDestroy
+    void stop() {
+        notificationExecutor.shutdownNow();
     }
 
     @Value(staticConstructor = "of")
@@ -204,10 +291,30 @@ public class ValidatedRpkiObjects {
 
     @Value(staticConstructor = "of")
     public static class RoaPrefixesAndRouterCertificates {
-        ImmutableSet<ValidatedRoaPrefix> roaPrefixes;
+        VrpSnapshot roaPrefixes;
         ImmutableSet<RouterCertificate> routerCertificates;
     }
 
+    @Value(staticConstructor = "of")
+    static class Snapshot {
+        static final Snapshot EMPTY = Snapshot.of(0, ImmutableMap.of());
+
+        long version;
+        ImmutableMap<Long, RoaPrefixesAndRouterCertificates> byTrustAnchor;
+
+        Snapshot with(long trustAnchorId, RoaPrefixesAndRouterCertificates objects) {
+            final Map<Long, RoaPrefixesAndRouterCertificates> updated = new HashMap<>(byTrustAnchor);
+            updated.put(trustAnchorId, objects);
+            return Snapshot.of(version + 1, ImmutableMap.copyOf(updated));
+        }
+
+        Snapshot without(long trustAnchorId) {
+            final Map<Long, RoaPrefixesAndRouterCertificates> updated = new HashMap<>(byTrustAnchor);
+            updated.remove(trustAnchorId);
+            return Snapshot.of(version + 1, ImmutableMap.copyOf(updated));
+        }
+    }
+
     @Value(staticConstructor = "of")
     public static class TrustAnchorData {
         long id;
@@ -222,69 +329,110 @@ public class ValidatedRpkiObjects {
         String subjectPublicKeyInfo;
     }
 
-    private ImmutableList<RoaPrefixesAndRouterCertificates> validatedObjects() {
-        return Locks.locked(dataLock.readLock(), () ->
-            ImmutableList.copyOf(validatedObjectsByTrustAnchor.values()));
+    private ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects() {
+        return snapshot.get().getByTrustAnchor().values();
     }
 
-    private int countRouterCertificates() {
-        return validatedObjects().stream().mapToInt(x -> x.getRouterCertificates().size()).sum();
+    private static int countRouterCertificates(ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects) {
+        return validatedObjects.stream().mapToInt(x -> x.getRouterCertificates().size()).sum();
     }
 
-    private Stream<RouterCertificate> findRouterCertificates() {
-        return validatedObjects()
+    private static Stream<RouterCertificate> findRouterCertificates(ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects) {
+        return validatedObjects
             .stream()
             .flatMap(x -> x.getRouterCertificates().stream());
     }
 
-    private long countRoaPrefixes(SearchTerm searchTerm) {
-        return validatedObjects().stream()
-            .flatMap(x -> x.getRoaPrefixes().stream())
-            .filter(prefix -> searchTerm == null || searchTerm.test(prefix))
+    private static long countRoaPrefixes(ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects, SearchTerm searchTerm) {
+        if (searchTerm == null) {
+            return validatedObjects.stream().mapToLong(x -> x.getRoaPrefixes().size()).sum();
+        }
+        return validatedObjects.stream()
+            .flatMap(x -> matchingRoaPrefixes(x.getRoaPrefixes(), searchTerm))
             .count();
     }
 
-    private Stream<ValidatedRoaPrefix> findRoaPrefixes(SearchTerm searchTerm, Sorting sorting, Paging paging) {
-        return validatedObjects()
+    private static Stream<ValidatedRoaPrefix> findRoaPrefixes(ImmutableCollection<RoaPrefixesAndRouterCertificates> validatedObjects,
+                                                             SearchTerm searchTerm, Sorting sorting, Paging paging) {
+        return validatedObjects
             .parallelStream()
-            .flatMap(x -> x.getRoaPrefixes().stream())
-            .filter(prefix -> searchTerm == null || searchTerm.test(prefix))
+            .flatMap(x -> matchingRoaPrefixes(x.getRoaPrefixes(), searchTerm))
             .sorted(sorting.comparator())
             .skip(Math.max(0, paging.getStartFrom()))
             .limit(Math.max(1, paging.getPageSize()));
     }
 
+    private static Stream<ValidatedRoaPrefix> matchingRoaPrefixes(VrpSnapshot roaPrefixes, SearchTerm searchTerm) {
+        if (searchTerm == null) {
+            return roaPrefixes.stream();
+        }
+        IntStream indexes = roaPrefixes.indexes();
+        final Long asn = searchTerm.asAsn();
+        if (asn != null) {
+            // Look at the ASN column first to avoid materializing all the prefixes
+            indexes = indexes.filter(i -> roaPrefixes.getAsn(i) == asn);
+        }
+        return indexes.mapToObj(roaPrefixes::get).filter(searchTerm);
+    }
+
     private void notifyListeners() {
-        Locks.locked(dataLock.readLock(), () ->
-            listeners.forEach(listener -> listener.accept(validatedObjectsByTrustAnchor.values())));
+        if (notificationScheduled.compareAndSet(false, true)) {
+            try {
+                notificationExecutor.execute(() -> {
+                    // Reset the flag before reading the snapshot, so that an update published
+                    // after this point schedules another notification
+                    notificationScheduled.set(false);
+                    final Snapshot current = snapshot.get();
+                    listeners.forEach(listener -> listener.deliver(current));
+                });
+            } catch (RejectedExecutionException e) {
+                notificationScheduled.set(false);
+                log.warn("Not notifying listeners of validated objects, already shutting down");
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Listener {
+        private final Consumer<Collection<RoaPrefixesAndRouterCertificates>> consumer;
+        private long notifiedVersion = Snapshot.EMPTY.getVersion();
+
+        void deliver(Snapshot snapshot) {
+            if (snapshot.getVersion() <= notifiedVersion) {
+                return;
+            }
+            notifiedVersion = snapshot.getVersion();
+            try {
+                consumer.accept(snapshot.getByTrustAnchor().values());
+            } catch (Exception e) {
+                log.error("Listener of validated objects failed", e);
+            }
+        }
     }
 
     public static class Accumulator {
         private final TrustAnchorData trustAnchorData;
         private final List<Key> validatedObjectKeys = Collections.synchronizedList(new ArrayList<>());
-        private final List<ValidatedRoaPrefix> validatedRoaPrefixes = Collections.synchronizedList(new ArrayList<>());
+        private final VrpSnapshot.Builder roaPrefixes;
         private final List<RouterCertificate> routerCertificates = Collections.synchronizedList(new ArrayList<>());
 
         public Accumulator(TrustAnchorData trustAnchorData) {
             this.trustAnchorData = trustAnchorData;
+            this.roaPrefixes = new VrpSnapshot.Builder(trustAnchorData);
         }
 
         public void add(Key key, CertificateRepositoryObject object, ImmutableSortedSet<String> locations) {
             validatedObjectKeys.add(key);
             if (object instanceof RoaCms) {
                 RoaCms roa = (RoaCms) object;
-                for (RoaPrefix prefix: roa.getPrefixes()) {
-                    validatedRoaPrefixes.add(ValidatedRoaPrefix.of(
-                            trustAnchorData,
-                            roa.getAsn().longValue(),
-                            prefix.getPrefix(),
-                            prefix.getMaximumLength(),
-                            roa.getNotValidBefore().getMillis(),
-                            roa.getNotValidAfter().getMillis(),
-                            roa.getCertificate().getSerialNumber(),
-                            locations
-                    ));
-                }
+                roaPrefixes.add(
+                        roa.getAsn().longValue(),
+                        roa.getPrefixes(),
+                        roa.getNotValidBefore().getMillis(),
+                        roa.getNotValidAfter().getMillis(),
+                        roa.getCertificate().getSerialNumber(),
+                        locations
+                );
             } else if (object instanceof X509RouterCertificate) {
                 final Base64.Encoder encoder = Base64.getEncoder();
                 X509RouterCertificate certificate = (X509RouterCertificate) object;
@@ -316,8 +464,8 @@ public class ValidatedRpkiObjects {
             validatedObjectKeys.forEach(consumer);
         }
 
-        public List<ValidatedRoaPrefix> getValidatedRoaPrefixes() {
-            return validatedRoaPrefixes;
+        public VrpSnapshot.Builder getRoaPrefixes() {
+            return roaPrefixes;
         }
 
         public List<RouterCertificate> getRouterCertificates() {
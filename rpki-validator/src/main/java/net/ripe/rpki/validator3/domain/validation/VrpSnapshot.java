@@ -0,0 +1,556 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpAddress;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.ipresource.Ipv6Address;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable, columnar representation of the validated ROA prefixes of one trust anchor.
+ *
+ * Instead of keeping a {@link ValidatedRoaPrefix} (with its IpRange, BigIntegers and location
+ * set) per VRP, the prefixes are stored in primitive arrays. Everything that is the same for all
+ * the prefixes of a ROA (ASN, validity, serial number and locations) is stored once per ROA and
+ * referenced from the prefix columns. Locations are interned in a per-snapshot
+ * {@link LocationDictionary} and every ROA only refers to them by index. The location set of a ROA
+ * is decoded once, when it is first asked for, and shared by all its prefixes afterwards.
+ * {@link ValidatedRoaPrefix} instances are only created on demand, e.g. when rendering an API
+ * response, and can be garbage collected right away.
+ */
+public final class VrpSnapshot {
+
+    private static final int NO_MAXIMUM_LENGTH = 0xff;
+
+    private final ValidatedRpkiObjects.TrustAnchorData trustAnchor;
+
+    // Per ROA columns
+    private final int[] asns;
+    private final long[] notBefore;
+    private final long[] notAfter;
+    private final BigInteger[] serialNumbers;
+    // The location indexes of ROA r are locationRefs[locationOffsets[r]] .. locationRefs[locationOffsets[r + 1] - 1]
+    private final int[] locationOffsets;
+    private final int[] locationRefs;
+    private final LocationDictionary locationDictionary;
+    private final AtomicReferenceArray<ImmutableSortedSet<String>> decodedLocations;
+
+    // Per prefix columns
+    private final int size;
+    private final int[] roaRefs;
+    private final long[] addressHi;
+    private final long[] addressLo;
+    private final byte[] prefixLengths;
+    private final byte[] maximumLengths;
+    private final BitSet ipv6;
+
+    private VrpSnapshot(ValidatedRpkiObjects.TrustAnchorData trustAnchor,
+                        int[] asns, long[] notBefore, long[] notAfter, BigInteger[] serialNumbers,
+                        int[] locationOffsets, int[] locationRefs, LocationDictionary locationDictionary,
+                        int size, int[] roaRefs, long[] addressHi, long[] addressLo, byte[] prefixLengths, byte[] maximumLengths, BitSet ipv6) {
+        this.trustAnchor = trustAnchor;
+        this.asns = asns;
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+        this.serialNumbers = serialNumbers;
+        this.locationOffsets = locationOffsets;
+        this.locationRefs = locationRefs;
+        this.locationDictionary = locationDictionary;
+        this.decodedLocations = new AtomicReferenceArray<>(asns.length);
+        this.size = size;
+        this.roaRefs = roaRefs;
+        this.addressHi = addressHi;
+        this.addressLo = addressLo;
+        this.prefixLengths = prefixLengths;
+        this.maximumLengths = maximumLengths;
+        this.ipv6 = ipv6;
+    }
+
+    public static VrpSnapshot empty(ValidatedRpkiObjects.TrustAnchorData trustAnchor) {
+        return new Builder(trustAnchor).build();
+    }
+
+    public ValidatedRpkiObjects.TrustAnchorData getTrustAnchor() {
+        return trustAnchor;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getAsn(int i) {
+        return Integer.toUnsignedLong(asns[roaRefs[i]]);
+    }
+
+    public IpRange getPrefix(int i) {
+        final IpAddress start;
+        if (ipv6.get(i)) {
+            start = new Ipv6Address(toUnsignedBigInteger(addressHi[i], addressLo[i]));
+        } else {
+            start = new Ipv4Address(addressLo[i]);
+        }
+        return IpRange.prefix(start, getPrefixLength(i));
+    }
+
+    public boolean isIpv6(int i) {
+        return ipv6.get(i);
+    }
+
+    /**
+     * @return the high 64 bits of the prefix start address, always zero for IPv4 prefixes
+     */
+    public long getAddressHi(int i) {
+        return addressHi[i];
+    }
+
+    /**
+     * @return the low 64 bits of the prefix start address, the IPv4 address for IPv4 prefixes
+     */
+    public long getAddressLo(int i) {
+        return addressLo[i];
+    }
+
+    public int getPrefixLength(int i) {
+        return Byte.toUnsignedInt(prefixLengths[i]);
+    }
+
+    public Integer getMaximumLength(int i) {
+        final int maximumLength = Byte.toUnsignedInt(maximumLengths[i]);
+        return maximumLength == NO_MAXIMUM_LENGTH ? null : maximumLength;
+    }
+
+    public int getEffectiveLength(int i) {
+        final Integer maximumLength = getMaximumLength(i);
+        return maximumLength != null ? maximumLength : getPrefixLength(i);
+    }
+
+    public long getNotBefore(int i) {
+        return notBefore[roaRefs[i]];
+    }
+
+    public long getNotAfter(int i) {
+        return notAfter[roaRefs[i]];
+    }
+
+    public BigInteger getSerialNumber(int i) {
+        return serialNumbers[roaRefs[i]];
+    }
+
+    public ImmutableSortedSet<String> getLocations(int i) {
+        final int roa = roaRefs[i];
+        final ImmutableSortedSet<String> decoded = decodedLocations.get(roa);
+        if (decoded != null) {
+            return decoded;
+        }
+        final ImmutableSortedSet<String> locations = decodeLocations(roa);
+        // Another thread may have decoded the same set in the meantime, keep only one of them
+        return decodedLocations.compareAndSet(roa, null, locations) ? locations : decodedLocations.get(roa);
+    }
+
+    private ImmutableSortedSet<String> decodeLocations(int roa) {
+        final int from = locationOffsets[roa];
+        final int to = locationOffsets[roa + 1];
+        if (to - from == 1) {
+            return ImmutableSortedSet.of(locationDictionary.get(locationRefs[from]));
+        }
+        final ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+        for (int l = from; l < to; l++) {
+            result.add(locationDictionary.get(locationRefs[l]));
+        }
+        return result.build();
+    }
+
+    /**
+     * @return the number of distinct locations of all the ROAs in the snapshot.
+     */
+    public int getLocationCount() {
+        return locationDictionary.size();
+    }
+
+    /**
+     * Materialize the i-th prefix of the snapshot.
+     */
+    public ValidatedRoaPrefix get(int i) {
+        return ValidatedRoaPrefix.of(
+            trustAnchor,
+            getAsn(i),
+            getPrefix(i),
+            getMaximumLength(i),
+            getNotBefore(i),
+            getNotAfter(i),
+            getSerialNumber(i),
+            getLocations(i)
+        );
+    }
+
+    public IntStream indexes() {
+        return IntStream.range(0, size);
+    }
+
+    public Stream<ValidatedRoaPrefix> stream() {
+        return indexes().mapToObj(this::get);
+    }
+
+    /**
+     * Write the columns in a compact binary form, see {@link #readFrom(ValidatedRpkiObjects.TrustAnchorData, ByteBuffer)}.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(locationDictionary.size());
+        for (String location : locationDictionary.toArray()) {
+            writeString(out, location);
+        }
+        out.writeInt(asns.length);
+        for (int roa = 0; roa < asns.length; roa++) {
+            out.writeInt(asns[roa]);
+            out.writeLong(notBefore[roa]);
+            out.writeLong(notAfter[roa]);
+            writeBytes(out, serialNumbers[roa].toByteArray());
+            out.writeInt(locationOffsets[roa + 1] - locationOffsets[roa]);
+            for (int l = locationOffsets[roa]; l < locationOffsets[roa + 1]; l++) {
+                out.writeInt(locationRefs[l]);
+            }
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(roaRefs[i]);
+            out.writeLong(addressHi[i]);
+            out.writeLong(addressLo[i]);
+            out.writeByte(prefixLengths[i]);
+            out.writeByte(maximumLengths[i]);
+            out.writeBoolean(ipv6.get(i));
+        }
+    }
+
+    static VrpSnapshot readFrom(ValidatedRpkiObjects.TrustAnchorData trustAnchor, ByteBuffer in) {
+        final String[] sortedLocations = new String[in.getInt()];
+        for (int l = 0; l < sortedLocations.length; l++) {
+            sortedLocations[l] = readString(in);
+        }
+        final int roaCount = in.getInt();
+        final int[] asns = new int[roaCount];
+        final long[] notBefore = new long[roaCount];
+        final long[] notAfter = new long[roaCount];
+        final BigInteger[] serialNumbers = new BigInteger[roaCount];
+        final int[] locationOffsets = new int[roaCount + 1];
+        int[] locationRefs = new int[roaCount];
+        for (int roa = 0; roa < roaCount; roa++) {
+            asns[roa] = in.getInt();
+            notBefore[roa] = in.getLong();
+            notAfter[roa] = in.getLong();
+            serialNumbers[roa] = new BigInteger(readBytes(in));
+            final int locationCount = in.getInt();
+            final int from = locationOffsets[roa];
+            if (from + locationCount > locationRefs.length) {
+                locationRefs = Arrays.copyOf(locationRefs, Math.max(locationRefs.length * 2, from + locationCount));
+            }
+            for (int l = 0; l < locationCount; l++) {
+                locationRefs[from + l] = in.getInt();
+            }
+            locationOffsets[roa + 1] = from + locationCount;
+        }
+        final int size = in.getInt();
+        final int[] roaRefs = new int[size];
+        final long[] addressHi = new long[size];
+        final long[] addressLo = new long[size];
+        final byte[] prefixLengths = new byte[size];
+        final byte[] maximumLengths = new byte[size];
+        final BitSet ipv6 = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            roaRefs[i] = in.getInt();
+            addressHi[i] = in.getLong();
+            addressLo[i] = in.getLong();
+            prefixLengths[i] = in.get();
+            maximumLengths[i] = in.get();
+            ipv6.set(i, in.get() != 0);
+        }
+        return new VrpSnapshot(trustAnchor, asns, notBefore, notAfter, serialNumbers,
+            locationOffsets, Arrays.copyOf(locationRefs, locationOffsets[roaCount]), LocationDictionary.of(sortedLocations),
+            size, roaRefs, addressHi, addressLo, prefixLengths, maximumLengths, ipv6);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(ByteBuffer in) {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static BigInteger toUnsignedBigInteger(long hi, long lo) {
+        final byte[] bytes = new byte[16];
+        for (int b = 0; b < 8; b++) {
+            bytes[b] = (byte) (hi >>> (56 - 8 * b));
+            bytes[8 + b] = (byte) (lo >>> (56 - 8 * b));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Collects the ROA prefixes of a validation run. The builder is thread-safe, since objects
+     * are validated in parallel. Identical ROAs and identical prefixes of a ROA are only kept
+     * once in the snapshot.
+     */
+    public static class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final ValidatedRpkiObjects.TrustAnchorData trustAnchor;
+
+        private int roaCount;
+        private int[] asns = new int[INITIAL_CAPACITY];
+        private long[] notBefore = new long[INITIAL_CAPACITY];
+        private long[] notAfter = new long[INITIAL_CAPACITY];
+        private BigInteger[] serialNumbers = new BigInteger[INITIAL_CAPACITY];
+        private int[] locationOffsets = new int[INITIAL_CAPACITY + 1];
+        private int[] locationRefs = new int[INITIAL_CAPACITY];
+        // Locations are interned while collecting, their final (sorted) indexes are assigned in build()
+        private final Map<String, Integer> locationIds = new HashMap<>();
+        private final List<String> locations = new ArrayList<>();
+
+        private int size;
+        private int[] roaRefs = new int[INITIAL_CAPACITY];
+        private long[] addressHi = new long[INITIAL_CAPACITY];
+        private long[] addressLo = new long[INITIAL_CAPACITY];
+        private byte[] prefixLengths = new byte[INITIAL_CAPACITY];
+        private byte[] maximumLengths = new byte[INITIAL_CAPACITY];
+        private final BitSet ipv6 = new BitSet();
+
+        public Builder(ValidatedRpkiObjects.TrustAnchorData trustAnchor) {
+            this.trustAnchor = trustAnchor;
+        }
+
+        public synchronized Builder add(long asn, Collection<RoaPrefix> prefixes, long notValidBefore, long notValidAfter,
+                                        BigInteger serialNumber, ImmutableSortedSet<String> roaLocations) {
+            if (roaCount == asns.length) {
+                final int capacity = asns.length * 2;
+                asns = Arrays.copyOf(asns, capacity);
+                notBefore = Arrays.copyOf(notBefore, capacity);
+                notAfter = Arrays.copyOf(notAfter, capacity);
+                serialNumbers = Arrays.copyOf(serialNumbers, capacity);
+                locationOffsets = Arrays.copyOf(locationOffsets, capacity + 1);
+            }
+            final int roaRef = roaCount++;
+            asns[roaRef] = (int) asn;
+            notBefore[roaRef] = notValidBefore;
+            notAfter[roaRef] = notValidAfter;
+            serialNumbers[roaRef] = serialNumber;
+            int locationRef = locationOffsets[roaRef];
+            if (roaLocations != null) {
+                if (locationRef + roaLocations.size() > locationRefs.length) {
+                    locationRefs = Arrays.copyOf(locationRefs, Math.max(locationRefs.length * 2, locationRef + roaLocations.size()));
+                }
+                for (String location : roaLocations) {
+                    locationRefs[locationRef++] = locationIds.computeIfAbsent(location, l -> {
+                        locations.add(l);
+                        return locations.size() - 1;
+                    });
+                }
+            }
+            locationOffsets[roaRef + 1] = locationRef;
+
+            for (RoaPrefix prefix : prefixes) {
+                addPrefix(roaRef, prefix.getPrefix(), prefix.getMaximumLength());
+            }
+            return this;
+        }
+
+        private void addPrefix(int roaRef, IpRange prefix, Integer maximumLength) {
+            if (size == roaRefs.length) {
+                final int capacity = roaRefs.length * 2;
+                roaRefs = Arrays.copyOf(roaRefs, capacity);
+                addressHi = Arrays.copyOf(addressHi, capacity);
+                addressLo = Arrays.copyOf(addressLo, capacity);
+                prefixLengths = Arrays.copyOf(prefixLengths, capacity);
+                maximumLengths = Arrays.copyOf(maximumLengths, capacity);
+            }
+            final int i = size++;
+            final BigInteger start = prefix.getStart().getValue();
+            roaRefs[i] = roaRef;
+            addressHi[i] = start.shiftRight(Long.SIZE).longValue();
+            addressLo[i] = start.longValue();
+            prefixLengths[i] = (byte) prefix.getPrefixLength();
+            maximumLengths[i] = (byte) (maximumLength == null ? NO_MAXIMUM_LENGTH : maximumLength);
+            if (prefix.getType() == IpResourceType.IPv6) {
+                ipv6.set(i);
+            }
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        public synchronized VrpSnapshot build() {
+            // Re-number the locations in their natural order, so that the location indexes of a
+            // ROA are in the same order as its (sorted) set of locations
+            final String[] sortedLocations = locations.toArray(new String[0]);
+            Arrays.sort(sortedLocations);
+            final int[] sortedIds = new int[sortedLocations.length];
+            for (int l = 0; l < sortedLocations.length; l++) {
+                sortedIds[locationIds.get(sortedLocations[l])] = l;
+            }
+            final int[] sortedLocationRefs = new int[locationOffsets[roaCount]];
+            for (int roa = 0; roa < roaCount; roa++) {
+                for (int l = locationOffsets[roa]; l < locationOffsets[roa + 1]; l++) {
+                    sortedLocationRefs[l] = sortedIds[locationRefs[l]];
+                }
+                Arrays.sort(sortedLocationRefs, locationOffsets[roa], locationOffsets[roa + 1]);
+            }
+
+            // The same ROA can be collected more than once, keep the first of the identical ROAs
+            final Map<RoaRow, Integer> distinctRoas = new HashMap<>();
+            final int[] roaIds = new int[roaCount];
+            final int[] distinctRoaRefs = new int[roaCount];
+            final int[] distinctLocationOffsets = new int[roaCount + 1];
+            final int[] distinctLocationRefs = new int[sortedLocationRefs.length];
+            for (int roa = 0; roa < roaCount; roa++) {
+                final int[] roaLocationRefs = Arrays.copyOfRange(sortedLocationRefs, locationOffsets[roa], locationOffsets[roa + 1]);
+                final RoaRow row = new RoaRow(asns[roa], notBefore[roa], notAfter[roa], serialNumbers[roa], roaLocationRefs);
+                final int distinct = distinctRoas.size();
+                final Integer id = distinctRoas.putIfAbsent(row, distinct);
+                if (id != null) {
+                    roaIds[roa] = id;
+                    continue;
+                }
+                roaIds[roa] = distinct;
+                distinctRoaRefs[distinct] = roa;
+                System.arraycopy(roaLocationRefs, 0, distinctLocationRefs, distinctLocationOffsets[distinct], roaLocationRefs.length);
+                distinctLocationOffsets[distinct + 1] = distinctLocationOffsets[distinct] + roaLocationRefs.length;
+            }
+            final int distinctRoaCount = distinctRoas.size();
+            final int[] distinctAsns = new int[distinctRoaCount];
+            final long[] distinctNotBefore = new long[distinctRoaCount];
+            final long[] distinctNotAfter = new long[distinctRoaCount];
+            final BigInteger[] distinctSerialNumbers = new BigInteger[distinctRoaCount];
+            for (int roa = 0; roa < distinctRoaCount; roa++) {
+                distinctAsns[roa] = asns[distinctRoaRefs[roa]];
+                distinctNotBefore[roa] = notBefore[distinctRoaRefs[roa]];
+                distinctNotAfter[roa] = notAfter[distinctRoaRefs[roa]];
+                distinctSerialNumbers[roa] = serialNumbers[distinctRoaRefs[roa]];
+            }
+
+            // Prefixes of identical ROAs, or listed twice in one ROA, are only kept once
+            final Set<PrefixRow> distinctPrefixes = new HashSet<>();
+            int distinctSize = 0;
+            final int[] distinctPrefixRoaRefs = new int[size];
+            final long[] distinctAddressHi = new long[size];
+            final long[] distinctAddressLo = new long[size];
+            final byte[] distinctPrefixLengths = new byte[size];
+            final byte[] distinctMaximumLengths = new byte[size];
+            final BitSet distinctIpv6 = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                final int roaRef = roaIds[roaRefs[i]];
+                if (!distinctPrefixes.add(new PrefixRow(roaRef, addressHi[i], addressLo[i], prefixLengths[i], maximumLengths[i], ipv6.get(i)))) {
+                    continue;
+                }
+                final int j = distinctSize++;
+                distinctPrefixRoaRefs[j] = roaRef;
+                distinctAddressHi[j] = addressHi[i];
+                distinctAddressLo[j] = addressLo[i];
+                distinctPrefixLengths[j] = prefixLengths[i];
+                distinctMaximumLengths[j] = maximumLengths[i];
+                distinctIpv6.set(j, ipv6.get(i));
+            }
+
+            return new VrpSnapshot(
+                trustAnchor,
+                distinctAsns,
+                distinctNotBefore,
+                distinctNotAfter,
+                distinctSerialNumbers,
+                distinctLocationOffsets,
+                Arrays.copyOf(distinctLocationRefs, distinctLocationOffsets[distinctRoaCount]),
+                LocationDictionary.of(sortedLocations),
+                distinctSize,
+                Arrays.copyOf(distinctPrefixRoaRefs, distinctSize),
+                Arrays.copyOf(distinctAddressHi, distinctSize),
+                Arrays.copyOf(distinctAddressLo, distinctSize),
+                Arrays.copyOf(distinctPrefixLengths, distinctSize),
+                Arrays.copyOf(distinctMaximumLengths, distinctSize),
+                distinctIpv6
+            );
+        }
+
+        @lombok.Value
+        private static class RoaRow {
+            int asn;
+            long notBefore;
+            long notAfter;
+            BigInteger serialNumber;
+            int[] locationRefs;
+        }
+
+        @lombok.Value
+        private static class PrefixRow {
+            int roaRef;
+            long addressHi;
+            long addressLo;
+            byte prefixLength;
+            byte maximumLength;
+            boolean ipv6;
+        }
+    }
+}
@@ -27,23 +27,17 @@
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
  * POSSIBILITY OF SUCH DAMAGE.
  */
-package net.ripe.rpki.rtr.background;
+package net.ripe.rpki.validator3.storage;
 
-import net.ripe.rpki.rtr.adapter.validator.RefreshCacheController;
-import org.quartz.DisallowConcurrentExecution;
-import org.quartz.Job;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
-import org.springframework.beans.factory.annotation.Autowired;
+import lombok.Getter;
+import net.ripe.rpki.validator3.storage.data.Key;
 
-@DisallowConcurrentExecution
-public class RefreshObjectCacheJob implements Job {
+public class CorruptedDataException extends RuntimeException {
+    @Getter
+    private final Key key;
 
-    @Autowired
-    private RefreshCacheController refreshCacheController;
-
-    @Override
-    public void execute(JobExecutionContext context) throws JobExecutionException {
-        refreshCacheController.refreshObjectCache();
+    public CorruptedDataException(Key key) {
+        super("Data for the key " + key + " is corrupted");
+        this.key = key;
     }
 }
@@ -0,0 +1,173 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable copy of the data needed by a long export, backed by a temporary file.
+ *
+ * The copy is made within a short read transaction, the export is then streamed to
+ * the (possibly slow) client without any transaction open, so that the reader doesn't
+ * pin old log files and prevent Xodus GC from reclaiming them.
+ *
+ * The temporary file is deleted when the snapshot is closed.
+ */
+@Slf4j
+public class ExportSnapshot<T> implements Closeable {
+
+    public interface Encoder<T> {
+        void write(DataOutput out, T value) throws IOException;
+    }
+
+    public interface Decoder<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private final Path file;
+    private final Decoder<T> decoder;
+    @Getter
+    private final long size;
+
+    private ExportSnapshot(Path file, Decoder<T> decoder, long size) {
+        this.file = file;
+        this.decoder = decoder;
+        this.size = size;
+    }
+
+    /**
+     * Write all the values to a new snapshot, the stream is consumed and closed.
+     */
+    public static <T> ExportSnapshot<T> of(Stream<T> values, Encoder<T> encoder, Decoder<T> decoder) {
+        try {
+            final Path file = Files.createTempFile("rpki-validator-export-", ".bin");
+            long size = 0;
+            try (Stream<T> s = values;
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+                final Iterator<T> it = s.iterator();
+                while (it.hasNext()) {
+                    encoder.write(out, it.next());
+                    size++;
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            return new ExportSnapshot<>(file, decoder, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static ExportSnapshot<byte[]> ofBytes(Stream<byte[]> values) {
+        return of(values, ExportSnapshot::writeBytes, ExportSnapshot::readBytes);
+    }
+
+    public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static byte[] readBytes(DataInput in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stream the values in the order they were written, the stream must be closed.
+     */
+    public Stream<T> stream() {
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final Iterator<T> it = new Iterator<T>() {
+            long read = 0;
+
+            @Override
+            public boolean hasNext() {
+                return read < size;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    final T value = decoder.read(in);
+                    read++;
+                    return value;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(it, size, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        log.warn("Could not close {}", file, e);
+                    }
+                });
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+}
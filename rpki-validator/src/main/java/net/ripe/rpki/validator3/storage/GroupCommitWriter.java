@@ -0,0 +1,256 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.util.ForkJoin;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Coalesces small write transactions coming from concurrent jobs (repository validation
+ * runs, RRDP and rsync updates) into one write transaction, so that many of them share
+ * one commit instead of queueing on the exclusive write lock one by one.
+ *
+ * The single writer thread takes the first pending intent, waits at most `window` for
+ * more of them (up to `maxBatch`) and applies all of them in one transaction. The future
+ * of every intent is completed after the commit and after the afterCommit hooks have run.
+ * If an intent throws, the batched transaction is aborted, that intent is failed and the
+ * remaining intents are applied again in a new transaction, so an intent may be applied
+ * more than once before it commits. Intents should therefore only change storage through
+ * the given transaction and not start storage transactions themselves.
+ *
+ * Intents submitted from a thread that is already inside a write transaction are applied
+ * directly in that transaction, waiting for the writer thread there would deadlock.
+ */
+@Component
+@Slf4j
+public class GroupCommitWriter {
+
+    private final Storage storage;
+    private final Duration window;
+    private final int maxBatch;
+
+    private final BlockingQueue<Intent<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final DistributionSummary batchSize;
+    private final Timer queueWait;
+
+    @Autowired
+    public GroupCommitWriter(Storage storage,
+                             MeterRegistry registry,
+                             @Value("${rpki.validator.storage.group.commit.window:PT0.002S}") String window,
+                             @Value("${rpki.validator.storage.group.commit.max.batch:100}") int maxBatch) {
+        this.storage = storage;
+        this.window = Duration.parse(window);
+        this.maxBatch = maxBatch;
+        this.batchSize = DistributionSummary.builder("rpkivalidator.storage.group.commit.batch.size")
+                .description("Number of write intents committed in one transaction")
+                .register(registry);
+        this.queueWait = Timer.builder("rpkivalidator.storage.group.commit.queue.wait")
+                .description("Time write intents spend in the queue before their transaction starts")
+                .register(registry);
+        this.writer = new Thread(this::run, "group-commit-writer");
+        this.writer.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.start();
+    }
+
+    public <T> CompletableFuture<T> submit(Function<Tx.Write, T> f) {
+        final Optional<Tx.Write> current = storage.currentWriteTx();
+        if (current.isPresent()) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                future.complete(f.apply(current.get()));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        final Intent<T> intent = new Intent<>(f);
+        if (!running) {
+            intent.future.completeExceptionally(new IllegalStateException("Group commit writer is stopped"));
+            return intent.future;
+        }
+        queue.add(intent);
+        return intent.future;
+    }
+
+    public CompletableFuture<Void> submit0(Consumer<Tx.Write> c) {
+        return submit(tx -> {
+            c.accept(tx);
+            return null;
+        });
+    }
+
+    public <T> T write(Function<Tx.Write, T> f) {
+        final Optional<Tx.Write> current = storage.currentWriteTx();
+        if (current.isPresent()) {
+            return f.apply(current.get());
+        }
+        return await(submit(f));
+    }
+
+    public void write0(Consumer<Tx.Write> c) {
+        write(tx -> {
+            c.accept(tx);
+            return null;
+        });
+    }
+
+    /**
+     * Wait for all the given intents to be committed, rethrowing the first failure.
+     */
+    public void awaitAll(Collection<? extends CompletableFuture<?>> futures) {
+        await(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return ForkJoin.blocking(future::join);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        final List<Intent<?>> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.forEach(i -> i.future.completeExceptionally(new IllegalStateException("Group commit writer is stopped")));
+    }
+
+    private void run() {
+        final List<Intent<?>> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                final long deadline = System.nanoTime() + window.toNanos();
+                while (batch.size() < maxBatch) {
+                    final long left = deadline - System.nanoTime();
+                    final Intent<?> next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Commit whatever was already taken, `running` decides whether to go on
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Intent<?>> batch) {
+        final long now = System.nanoTime();
+        batch.forEach(i -> queueWait.record(now - i.submittedAt, TimeUnit.NANOSECONDS));
+        batchSize.record(batch.size());
+
+        final List<Intent<?>> pending = new ArrayList<>(batch);
+        while (!pending.isEmpty()) {
+            final Intent<?>[] applying = new Intent<?>[1];
+            try {
+                final List<Object> results = storage.writeTx(tx -> {
+                    final List<Object> r = new ArrayList<>(pending.size());
+                    for (Intent<?> intent : pending) {
+                        applying[0] = intent;
+                        r.add(intent.f.apply(tx));
+                    }
+                    applying[0] = null;
+                    return r;
+                });
+                for (int i = 0; i < pending.size(); i++) {
+                    pending.get(i).complete(results.get(i));
+                }
+                return;
+            } catch (Throwable e) {
+                final Intent<?> failed = applying[0];
+                if (failed == null) {
+                    // The commit itself failed, not one of the intents
+                    pending.forEach(i -> i.future.completeExceptionally(e));
+                    return;
+                }
+                failed.future.completeExceptionally(e);
+                pending.remove(failed);
+                if (!pending.isEmpty()) {
+                    log.debug("Write intent failed, applying the other {} intents of the batch again", pending.size(), e);
+                }
+            }
+        }
+    }
+
+    private static class Intent<T> {
+        final Function<Tx.Write, T> f;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long submittedAt = System.nanoTime();
+
+        Intent(Function<Tx.Write, T> f) {
+            this.f = f;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
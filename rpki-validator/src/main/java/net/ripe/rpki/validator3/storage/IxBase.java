@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public interface IxBase<T extends Serializable> {
 
@@ -58,6 +59,24 @@ public interface IxBase<T extends Serializable> {
 
     void forEach(Tx.Read tx, BiConsumer<Key, byte[]> c);
 
+    /**
+     * Lazily stream all the keys, see {@link #streamValues(Tx.Read)}.
+     */
+    Stream<Key> streamKeys(Tx.Read tx);
+
+    /**
+     * Lazily stream the keys following `after`, or all of them if it is null.
+     */
+    Stream<Key> streamKeys(Tx.Read tx, Key after);
+
+    /**
+     * Lazily stream all the values without collecting them in memory.
+     *
+     * The stream can only be consumed within the transaction and it should be
+     * closed if it is not consumed till the end.
+     */
+    Stream<T> streamValues(Tx.Read tx);
+
     long size(Tx.Read tx);
 
     Sizes sizeInfo(Tx.Read tx);
@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.storage;
 
 import net.ripe.rpki.validator3.storage.data.Key;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
 import java.util.List;
@@ -39,6 +40,7 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Indexes Map of type T.
@@ -70,6 +72,30 @@ public interface IxMap<T extends Serializable> extends IxBase<T> {
 
     Map<Key, T> getByIdxAscendingWhere(String indexName, Tx.Read tx, Predicate<T> p);
 
+    /**
+     * Lazy version of {@link #getPkByIndex(String, Tx.Read, Key)}, the same rules as
+     * for {@link #streamValues(Tx.Read)} apply.
+     */
+    Stream<Key> streamPkByIndex(String indexName, Tx.Read tx, Key indexKey);
+
+    /**
+     * Lazy version of {@link #getByIndex(String, Tx.Read, Key)}. Primary keys are read from
+     * the index in batches of `batchSize` and values of every batch are looked up in the key order.
+     */
+    Stream<T> streamByIndex(String indexName, Tx.Read tx, Key indexKey, int batchSize);
+
+    /**
+     * Lazily stream the values in the descending order of the index, allows to stop at the first match.
+     */
+    Stream<T> streamByIdxDescending(String indexName, Tx.Read tx);
+
+    /**
+     * Lazily stream the (index key, primary key) entries of the index in ascending order, starting
+     * after the entry `after` or from the beginning if it is null. The entry itself doesn't have to
+     * exist anymore, so the stream can be resumed from the last entry of an earlier one.
+     */
+    Stream<Pair<Key, Key>> streamIndexEntries(String indexName, Tx.Read tx, Pair<Key, Key> after);
+
     Optional<T> put(Tx.Write tx, Key primaryKey, T value);
 
     boolean modify(Tx.Write tx, Key primaryKey, Consumer<T> modifyValue);
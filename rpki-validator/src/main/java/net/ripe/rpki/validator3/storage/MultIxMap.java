@@ -34,6 +34,7 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface MultIxMap<T extends Serializable> extends IxBase<T> {
     List<T> get(Tx.Read tx, Key primaryKey);
@@ -49,4 +50,10 @@ public interface MultIxMap<T extends Serializable> extends IxBase<T> {
     void deleteBatch(Tx.Write tx, List<Pair<Key, T>> toDelete);
 
     boolean exists(Tx.Read tx, Key pk, T location);
+
+    /**
+     * Lazily stream the (key, value) entries starting after the entry `after` or from the
+     * beginning if it is null, the entry itself doesn't have to exist anymore.
+     */
+    Stream<Pair<Key, T>> streamEntries(Tx.Read tx, Pair<Key, T> after);
 }
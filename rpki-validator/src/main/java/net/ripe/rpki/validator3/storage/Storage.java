@@ -35,6 +35,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -48,6 +49,11 @@ public interface Storage {
 
     void readTx0(Consumer<Tx.Read> c);
 
+    /**
+     * @return the write transaction the calling thread is currently inside of, if any.
+     */
+    Optional<Tx.Write> currentWriteTx();
+
     String status();
 
     <T extends Serializable> IxMap<T> createIxMap(String name,
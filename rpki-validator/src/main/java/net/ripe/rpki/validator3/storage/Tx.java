@@ -29,11 +29,18 @@
  */
 package net.ripe.rpki.validator3.storage;
 
+import java.util.function.Supplier;
+
 public class Tx {
 
     public interface Read {
         Object txn();
 
+        /**
+         * @return the value attached to the transaction under the key, computed by the supplier on first use
+         */
+        <V> V attribute(Object key, Supplier<V> supplier);
+
         void close();
     }
 
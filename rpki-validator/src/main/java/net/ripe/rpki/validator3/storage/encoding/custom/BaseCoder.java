@@ -30,9 +30,6 @@
 package net.ripe.rpki.validator3.storage.encoding.custom;
 
 import net.ripe.rpki.validator3.storage.data.Base;
-import net.ripe.rpki.validator3.storage.data.Key;
-
-import java.util.Map;
 
 public class BaseCoder {
 
@@ -40,23 +37,29 @@ public class BaseCoder {
     private final static short CREATED_AT = Tags.unique(2);
     private final static short UPDATED_AT = Tags.unique(3);
 
-    public static void toBytes(Base base, Encoded encoded) {
-        encoded.appendNotNull(ID_TAG, base.key(), Key::getBytes);
-        toBytesNoId(base, encoded);
+    public static void toBytes(Base base, EncodedWriter writer) {
+        writer.putKey(ID_TAG, base.key());
+        toBytesNoId(base, writer);
     }
 
-    public static void fromBytes(Map<Short, byte[]> content, Base base) {
-        Encoded.field(content, ID_TAG).ifPresent(b -> base.setId(Key.of(b)));
-        fromBytesNoId(content, base);
+    public static void fromBytes(EncodedReader reader, Base base) {
+        if (reader.has(ID_TAG)) {
+            base.setId(reader.getKey(ID_TAG));
+        }
+        fromBytesNoId(reader, base);
     }
 
-    public static void toBytesNoId(Base base, Encoded encoded) {
-        encoded.appendNotNull(CREATED_AT, base.getCreatedAt(), Coders::toBytes);
-        encoded.appendNotNull(UPDATED_AT, base.getUpdatedAt(), Coders::toBytes);
+    public static void toBytesNoId(Base base, EncodedWriter writer) {
+        writer.putInstant(CREATED_AT, base.getCreatedAt());
+        writer.putInstant(UPDATED_AT, base.getUpdatedAt());
     }
 
-    public static void fromBytesNoId(Map<Short, byte[]> content, Base base) {
-        Encoded.field(content, CREATED_AT).ifPresent(b -> base.setCreatedAt(Coders.toInstant(b)));
-        Encoded.field(content, UPDATED_AT).ifPresent(b -> base.setUpdatedAt(Coders.toInstant(b)));
+    public static void fromBytesNoId(EncodedReader reader, Base base) {
+        if (reader.has(CREATED_AT)) {
+            base.setCreatedAt(reader.getInstant(CREATED_AT));
+        }
+        if (reader.has(UPDATED_AT)) {
+            base.setUpdatedAt(reader.getInstant(UPDATED_AT));
+        }
     }
 }
@@ -0,0 +1,188 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads fields of a record written by {@link EncodedWriter} or {@link Encoded}.
+ *
+ * Only the table of fields is parsed when the reader is created, fields are decoded
+ * directly from the underlying array when they are asked for, nested records and
+ * lists of records are read from the same array without copying.
+ */
+public class EncodedReader {
+
+    private static final int FIELD_HEADER_SIZE = Short.BYTES + Integer.BYTES;
+
+    private final byte[] array;
+    private final short[] tags;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private EncodedReader(byte[] array, int start, int length) {
+        this.array = array;
+        final int end = start + length;
+        final int count = getInt(array, start);
+        tags = new short[count];
+        offsets = new int[count];
+        lengths = new int[count];
+        int p = start + Integer.BYTES;
+        for (int i = 0; i < count; i++) {
+            tags[i] = (short) (((array[p] & 0xFF) << 8) | (array[p + 1] & 0xFF));
+            offsets[i] = start + getInt(array, p + Short.BYTES);
+            p += FIELD_HEADER_SIZE;
+        }
+        for (int i = 0; i < count; i++) {
+            lengths[i] = (i < count - 1 ? offsets[i + 1] : end) - offsets[i];
+        }
+    }
+
+    public static EncodedReader of(byte[] array) {
+        return new EncodedReader(array, 0, array.length);
+    }
+
+    /**
+     * @return schema version of a top-level record, 0 for the records written before it was introduced.
+     */
+    public short schemaVersion() {
+        final int i = find(EncodedWriter.SCHEMA_VERSION_TAG);
+        return i < 0 ? 0 : (short) (((array[offsets[i]] & 0xFF) << 8) | (array[offsets[i] + 1] & 0xFF));
+    }
+
+    public boolean has(short tag) {
+        return find(tag) >= 0;
+    }
+
+    public byte[] getBytes(short tag) {
+        final int i = find(tag);
+        return i < 0 ? null : Arrays.copyOfRange(array, offsets[i], offsets[i] + lengths[i]);
+    }
+
+    public String getString(short tag) {
+        final int i = find(tag);
+        return i < 0 ? null : new String(array, offsets[i], lengths[i], UTF_8);
+    }
+
+    public Key getKey(short tag) {
+        final byte[] bytes = getBytes(tag);
+        return bytes == null ? null : Key.of(bytes);
+    }
+
+    public Long getLong(short tag) {
+        final int i = find(tag);
+        return i < 0 ? null : getLong(array, offsets[i]);
+    }
+
+    public InstantWithoutNanos getInstant(short tag) {
+        final Long millis = getLong(tag);
+        return millis == null ? null : InstantWithoutNanos.ofEpochMilli(millis);
+    }
+
+    public BigInteger getBigInteger(short tag) {
+        final byte[] bytes = getBytes(tag);
+        return bytes == null ? null : new BigInteger(bytes);
+    }
+
+    public Boolean getBoolean(short tag) {
+        final int i = find(tag);
+        return i < 0 ? null : array[offsets[i]] == (byte) 1;
+    }
+
+    public List<String> getStrings(short tag) {
+        return getList(tag, (offset, length) -> new String(array, offset, length, UTF_8));
+    }
+
+    public <R> R getRecord(short tag, Function<EncodedReader, R> readRecord) {
+        final int i = find(tag);
+        return i < 0 ? null : readRecord.apply(new EncodedReader(array, offsets[i], lengths[i]));
+    }
+
+    public <R> List<R> getRecords(short tag, Function<EncodedReader, R> readRecord) {
+        return getList(tag, (offset, length) -> readRecord.apply(new EncodedReader(array, offset, length)));
+    }
+
+    private interface ElementReader<R> {
+        R read(int offset, int length);
+    }
+
+    private <R> List<R> getList(short tag, ElementReader<R> readElement) {
+        final int i = find(tag);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        int p = offsets[i];
+        final int size = getInt(array, p);
+        p += Integer.BYTES;
+        final List<R> list = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            final int length = getInt(array, p);
+            p += Integer.BYTES;
+            if (length >= 0) {
+                list.add(readElement.read(p, length));
+                p += length;
+            } else {
+                list.add(null);
+            }
+        }
+        return list;
+    }
+
+    private int find(short tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int getInt(byte[] a, int p) {
+        return ((a[p] & 0xFF) << 24) | ((a[p + 1] & 0xFF) << 16) | ((a[p + 2] & 0xFF) << 8) | (a[p + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] a, int p) {
+        long l = 0;
+        for (int k = 0; k < Long.BYTES; k++) {
+            l = (l << 8) | (a[p + k] & 0xFF);
+        }
+        return l;
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the fields of a record directly into one growing buffer, without creating
+ * a map of tags and an intermediate array per field like {@link Encoded} does.
+ *
+ * The produced bytes have exactly the same layout as {@link Encoded#toByteArray()}:
+ * <pre>
+ *     int count, (short tag, int offset) * count, field data
+ * </pre>
+ * so everything stored before can be read by {@link EncodedReader} and the other way around.
+ *
+ * Top-level records also carry the schema version in the field {@link #SCHEMA_VERSION_TAG}.
+ */
+public class EncodedWriter {
+
+    public static final short SCHEMA_VERSION_TAG = Tags.unique(0);
+    /**
+     * 1 - first version with the schema version field,
+     * 2 - validation checks of validation runs are stored in the compact form.
+     */
+    public static final short SCHEMA_VERSION = 2;
+
+    private static final int FIELD_HEADER_SIZE = Short.BYTES + Integer.BYTES;
+
+    private short[] tags = new short[16];
+    private int[] offsets = new int[16];
+    private int fieldCount;
+
+    private byte[] data;
+    private int position;
+
+    private EncodedWriter nested;
+
+    public EncodedWriter() {
+        this(256);
+    }
+
+    public EncodedWriter(int expectedSize) {
+        data = new byte[expectedSize];
+    }
+
+    /**
+     * Writer for a top-level stored value, i.e. the one having the schema version.
+     */
+    public static EncodedWriter record() {
+        return new EncodedWriter().putShort(SCHEMA_VERSION_TAG, SCHEMA_VERSION);
+    }
+
+    public EncodedWriter putBytes(short tag, byte[] bytes) {
+        if (bytes != null) {
+            startField(tag);
+            write(bytes, 0, bytes.length);
+        }
+        return this;
+    }
+
+    public EncodedWriter putString(short tag, String s) {
+        if (s != null) {
+            putBytes(tag, s.getBytes(UTF_8));
+        }
+        return this;
+    }
+
+    public EncodedWriter putEnum(short tag, Enum<?> e) {
+        if (e != null) {
+            putString(tag, e.name());
+        }
+        return this;
+    }
+
+    public EncodedWriter putKey(short tag, Key key) {
+        if (key != null) {
+            putBytes(tag, key.getBytes());
+        }
+        return this;
+    }
+
+    public EncodedWriter putLong(short tag, long l) {
+        startField(tag);
+        writeLong(l);
+        return this;
+    }
+
+    public EncodedWriter putShort(short tag, short s) {
+        startField(tag);
+        ensureCapacity(Short.BYTES);
+        data[position++] = (byte) (s >> 8);
+        data[position++] = (byte) s;
+        return this;
+    }
+
+    public EncodedWriter putInstant(short tag, InstantWithoutNanos instant) {
+        if (instant != null) {
+            putLong(tag, instant.toEpochMilli());
+        }
+        return this;
+    }
+
+    public EncodedWriter putBigInteger(short tag, BigInteger bi) {
+        if (bi != null) {
+            putBytes(tag, bi.toByteArray());
+        }
+        return this;
+    }
+
+    public EncodedWriter putBoolean(short tag, Boolean b) {
+        if (b != null) {
+            startField(tag);
+            ensureCapacity(1);
+            data[position++] = (byte) (b ? 1 : 0);
+        }
+        return this;
+    }
+
+    /**
+     * Same layout as {@link Coders#toBytes(Collection, java.util.function.Function)} with strings.
+     */
+    public EncodedWriter putStrings(short tag, Collection<String> strings) {
+        if (strings != null && !strings.isEmpty()) {
+            startField(tag);
+            writeInt(strings.size());
+            for (String s : strings) {
+                if (s == null) {
+                    writeInt(-1);
+                } else {
+                    final byte[] bytes = s.getBytes(UTF_8);
+                    writeInt(bytes.length);
+                    write(bytes, 0, bytes.length);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write a nested record into the field.
+     */
+    public <R> EncodedWriter putRecord(short tag, R value, BiConsumer<EncodedWriter, R> writeRecord) {
+        if (value != null) {
+            startField(tag);
+            writeNested(value, writeRecord);
+        }
+        return this;
+    }
+
+    /**
+     * Write a list of nested records, the layout is the same as of
+     * {@link Coders#toBytes(Collection, java.util.function.Function)} with records.
+     */
+    public <R> EncodedWriter putRecords(short tag, Collection<R> values, BiConsumer<EncodedWriter, R> writeRecord) {
+        if (values != null && !values.isEmpty()) {
+            startField(tag);
+            writeInt(values.size());
+            for (R value : values) {
+                if (value == null) {
+                    writeInt(-1);
+                } else {
+                    final int lengthPosition = position;
+                    writeInt(0);
+                    final int length = writeNested(value, writeRecord);
+                    putIntAt(lengthPosition, length);
+                }
+            }
+        }
+        return this;
+    }
+
+    public int size() {
+        return Integer.BYTES + fieldCount * FIELD_HEADER_SIZE + position;
+    }
+
+    public byte[] toByteArray() {
+        final byte[] array = new byte[size()];
+        writeTo(array, 0);
+        return array;
+    }
+
+    private void writeTo(byte[] array, int start) {
+        final int headerSize = Integer.BYTES + fieldCount * FIELD_HEADER_SIZE;
+        int p = start;
+        p = putInt(array, p, fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            array[p++] = (byte) (tags[i] >> 8);
+            array[p++] = (byte) tags[i];
+            p = putInt(array, p, headerSize + offsets[i]);
+        }
+        System.arraycopy(data, 0, array, p, position);
+    }
+
+    private <R> int writeNested(R value, BiConsumer<EncodedWriter, R> writeRecord) {
+        if (nested == null) {
+            nested = new EncodedWriter(64);
+        }
+        final EncodedWriter w = nested;
+        w.reset();
+        writeRecord.accept(w, value);
+        final int size = w.size();
+        ensureCapacity(size);
+        w.writeTo(data, position);
+        position += size;
+        return size;
+    }
+
+    private void reset() {
+        fieldCount = 0;
+        position = 0;
+    }
+
+    private void startField(short tag) {
+        for (int i = 0; i < fieldCount; i++) {
+            if (tags[i] == tag) {
+                throw new IllegalStateException("Field " + tag + " is already written");
+            }
+        }
+        if (fieldCount == tags.length) {
+            tags = Arrays.copyOf(tags, fieldCount * 2);
+            offsets = Arrays.copyOf(offsets, fieldCount * 2);
+        }
+        tags[fieldCount] = tag;
+        offsets[fieldCount] = position;
+        fieldCount++;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, data, position, length);
+        position += length;
+    }
+
+    private void writeInt(int i) {
+        ensureCapacity(Integer.BYTES);
+        position = putInt(data, position, i);
+    }
+
+    private void writeLong(long l) {
+        ensureCapacity(Long.BYTES);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            data[position++] = (byte) (l >> shift);
+        }
+    }
+
+    private void putIntAt(int p, int i) {
+        putInt(data, p, i);
+    }
+
+    private static int putInt(byte[] array, int p, int i) {
+        array[p++] = (byte) (i >> 24);
+        array[p++] = (byte) (i >> 16);
+        array[p++] = (byte) (i >> 8);
+        array[p++] = (byte) i;
+        return p;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + extra));
+        }
+    }
+}
@@ -29,12 +29,10 @@
  */
 package net.ripe.rpki.validator3.storage.encoding.custom;
 
-import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
 import java.io.Serializable;
-import java.util.Map;
 
 public class RefCoder<T extends Serializable> implements Coder<Ref<T>> {
 
@@ -42,16 +40,21 @@ public class RefCoder<T extends Serializable> implements Coder<Ref<T>> {
     private final static short KEY_TAG = Tags.unique(12);
 
     public byte[] toBytes(Ref<T> ref) {
-        final Encoded encoded = new Encoded();
-        encoded.append(TABLE_NAME_TAG, Coders.toBytes(ref.getMapName()));
-        encoded.append(KEY_TAG, ref.key().getBytes());
-        return encoded.toByteArray();
+        final EncodedWriter writer = new EncodedWriter(64);
+        write(writer, ref);
+        return writer.toByteArray();
     }
 
     public Ref<T> fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
-        return Ref.unsafe(
-                Coders.toString(content.get(TABLE_NAME_TAG)),
-                Key.of(content.get(KEY_TAG)));
+        return read(EncodedReader.of(bytes));
+    }
+
+    public void write(EncodedWriter writer, Ref<T> ref) {
+        writer.putString(TABLE_NAME_TAG, ref.getMapName());
+        writer.putKey(KEY_TAG, ref.key());
+    }
+
+    public Ref<T> read(EncodedReader reader) {
+        return Ref.unsafe(reader.getString(TABLE_NAME_TAG), reader.getKey(KEY_TAG));
     }
 }
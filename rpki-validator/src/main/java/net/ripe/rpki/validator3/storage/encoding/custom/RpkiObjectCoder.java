@@ -32,8 +32,6 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
-import java.util.Map;
-
 public class RpkiObjectCoder implements Coder<RpkiObject> {
 
     private final static short TYPE_TAG = Tags.unique(31);
@@ -48,33 +46,33 @@ public class RpkiObjectCoder implements Coder<RpkiObject> {
 
     @Override
     public byte[] toBytes(RpkiObject rpkiObject) {
-        final Encoded encoded = new Encoded();
+        final EncodedWriter writer = EncodedWriter.record();
 
-        BaseCoder.toBytesNoId(rpkiObject, encoded);
+        BaseCoder.toBytesNoId(rpkiObject, writer);
 
-        encoded.append(TYPE_TAG, Coders.toBytes(rpkiObject.getType().name()));
-        encoded.append(SHA256_TAG, rpkiObject.getSha256());
-        encoded.append(AKI_TAG, rpkiObject.getAuthorityKeyIdentifier());
-        encoded.appendNotNull(SERIAL_TAG, rpkiObject.getSerialNumber(), Coders::toBytes);
-        encoded.appendNotNull(ENCODED_TAG, rpkiObject.getEncoded());
-        encoded.appendNotNull(SIGNING_TIME_TAG, rpkiObject.getSigningTime(), Coders::toBytes);
+        writer.putEnum(TYPE_TAG, rpkiObject.getType());
+        writer.putBytes(SHA256_TAG, rpkiObject.getSha256());
+        writer.putBytes(AKI_TAG, rpkiObject.getAuthorityKeyIdentifier());
+        writer.putBigInteger(SERIAL_TAG, rpkiObject.getSerialNumber());
+        writer.putBytes(ENCODED_TAG, rpkiObject.getEncoded());
+        writer.putInstant(SIGNING_TIME_TAG, rpkiObject.getSigningTime());
 
-        return encoded.toByteArray();
+        return writer.toByteArray();
     }
 
     @Override
     public RpkiObject fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        final EncodedReader reader = EncodedReader.of(bytes);
 
         final RpkiObject rpkiObject = new RpkiObject();
-        BaseCoder.fromBytesNoId(content, rpkiObject);
+        BaseCoder.fromBytesNoId(reader, rpkiObject);
 
-        rpkiObject.setType(RpkiObject.Type.valueOf(Coders.toString(content.get(TYPE_TAG))));
-        rpkiObject.setSha256(content.get(SHA256_TAG));
-        rpkiObject.setEncoded(content.get(ENCODED_TAG));
-        rpkiObject.setAuthorityKeyIdentifier(content.get(AKI_TAG));
-        Encoded.field(content, SIGNING_TIME_TAG).ifPresent(b -> rpkiObject.setSigningTime(Coders.toInstant(b)));
-        Encoded.field(content, SERIAL_TAG).ifPresent(b -> rpkiObject.setSerialNumber(Coders.toBigInteger(b)));
+        rpkiObject.setType(RpkiObject.Type.valueOf(reader.getString(TYPE_TAG)));
+        rpkiObject.setSha256(reader.getBytes(SHA256_TAG));
+        rpkiObject.setEncoded(reader.getBytes(ENCODED_TAG));
+        rpkiObject.setAuthorityKeyIdentifier(reader.getBytes(AKI_TAG));
+        rpkiObject.setSigningTime(reader.getInstant(SIGNING_TIME_TAG));
+        rpkiObject.setSerialNumber(reader.getBigInteger(SERIAL_TAG));
 
         return rpkiObject;
     }
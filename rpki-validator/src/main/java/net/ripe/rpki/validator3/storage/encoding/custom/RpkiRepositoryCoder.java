@@ -29,14 +29,11 @@
  */
 package net.ripe.rpki.validator3.storage.encoding.custom;
 
-import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 
 public class RpkiRepositoryCoder implements Coder<RpkiRepository> {
 
@@ -55,47 +52,43 @@ public class RpkiRepositoryCoder implements Coder<RpkiRepository> {
 
     @Override
     public byte[] toBytes(RpkiRepository rpkiRepository) {
-        final Encoded encoded = new Encoded();
+        final EncodedWriter writer = EncodedWriter.record();
 
-        BaseCoder.toBytes(rpkiRepository, encoded);
+        BaseCoder.toBytes(rpkiRepository, writer);
 
-        encoded.append(TYPE_TAG, Coders.toBytes(rpkiRepository.getType().name()));
-        encoded.append(STATUS_TAG, Coders.toBytes(rpkiRepository.getStatus().name()));
-        encoded.appendNotNull(RRDP_NOTIFY_URL_TAG, rpkiRepository.getRrdpNotifyUri(), Coders::toBytes);
-        encoded.appendNotNull(RSYNC_URL_TAG, rpkiRepository.getRsyncRepositoryUri(), Coders::toBytes);
-        encoded.appendNotNull(RRDP_SESSION, rpkiRepository.getRrdpSessionId(), Coders::toBytes);
-        encoded.appendNotNull(RRDP_SERIAL, rpkiRepository.getRrdpSerial(), Coders::toBytes);
-        encoded.appendNotNull(LAST_DOWNLOADED, rpkiRepository.getLastDownloadedAt(), Coders::toBytes);
-        encoded.appendNotNull(PARENT_REPOSITORY, rpkiRepository.getParentRepository(), repoRefCoder::toBytes);
+        writer.putEnum(TYPE_TAG, rpkiRepository.getType());
+        writer.putEnum(STATUS_TAG, rpkiRepository.getStatus());
+        writer.putString(RRDP_NOTIFY_URL_TAG, rpkiRepository.getRrdpNotifyUri());
+        writer.putString(RSYNC_URL_TAG, rpkiRepository.getRsyncRepositoryUri());
+        writer.putString(RRDP_SESSION, rpkiRepository.getRrdpSessionId());
+        writer.putBigInteger(RRDP_SERIAL, rpkiRepository.getRrdpSerial());
+        writer.putInstant(LAST_DOWNLOADED, rpkiRepository.getLastDownloadedAt());
+        writer.putRecord(PARENT_REPOSITORY, rpkiRepository.getParentRepository(), repoRefCoder::write);
+        writer.putRecords(TRUST_ANCHORS, rpkiRepository.getTrustAnchors(), taRefCoder::write);
 
-        if (rpkiRepository.getTrustAnchors() != null && !rpkiRepository.getTrustAnchors().isEmpty()) {
-            byte[] taBytes = Coders.toBytes(rpkiRepository.getTrustAnchors(), taRefCoder::toBytes);
-            encoded.append(TRUST_ANCHORS, taBytes);
-        }
-
-        return encoded.toByteArray();
+        return writer.toByteArray();
     }
 
     @Override
     public RpkiRepository fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        final EncodedReader reader = EncodedReader.of(bytes);
 
         final RpkiRepository rpkiRepository = new RpkiRepository();
-        BaseCoder.fromBytes(content, rpkiRepository);
-
-        rpkiRepository.setType(RpkiRepository.Type.valueOf(Coders.toString(content.get(TYPE_TAG))));
-        rpkiRepository.setStatus(Coders.toString(content.get(STATUS_TAG)));
-        Encoded.field(content, RRDP_NOTIFY_URL_TAG).ifPresent(b -> rpkiRepository.setRrdpNotifyUri(Coders.toString(b)));
-        Encoded.field(content, RSYNC_URL_TAG).ifPresent(b -> rpkiRepository.setRsyncRepositoryUri(Coders.toString(b)));
-        Encoded.field(content, RRDP_SESSION).ifPresent(b -> rpkiRepository.setRrdpSessionId(Coders.toString(b)));
-        Encoded.field(content, RRDP_SERIAL).ifPresent(b -> rpkiRepository.setRrdpSerial(Coders.toBigInteger(b)));
-        Encoded.field(content, LAST_DOWNLOADED).ifPresent(b -> rpkiRepository.setLastDownloadedAt(Coders.toInstant(b)));
-        Encoded.field(content, PARENT_REPOSITORY).ifPresent(b -> rpkiRepository.setParentRepository(repoRefCoder.fromBytes(b)));
-
-        Encoded.field(content, TRUST_ANCHORS).ifPresent(b -> {
-            final List<Ref<TrustAnchor>> objects = Coders.fromBytes(b, taRefCoder::fromBytes);
-            rpkiRepository.setTrustAnchors(new HashSet<>(objects));
-        });
+        BaseCoder.fromBytes(reader, rpkiRepository);
+
+        rpkiRepository.setType(RpkiRepository.Type.valueOf(reader.getString(TYPE_TAG)));
+        rpkiRepository.setStatus(reader.getString(STATUS_TAG));
+        rpkiRepository.setRrdpNotifyUri(reader.getString(RRDP_NOTIFY_URL_TAG));
+        rpkiRepository.setRsyncRepositoryUri(reader.getString(RSYNC_URL_TAG));
+        rpkiRepository.setRrdpSessionId(reader.getString(RRDP_SESSION));
+        rpkiRepository.setRrdpSerial(reader.getBigInteger(RRDP_SERIAL));
+        if (reader.has(LAST_DOWNLOADED)) {
+            rpkiRepository.setLastDownloadedAt(reader.getInstant(LAST_DOWNLOADED));
+        }
+        rpkiRepository.setParentRepository(reader.getRecord(PARENT_REPOSITORY, repoRefCoder::read));
+        if (reader.has(TRUST_ANCHORS)) {
+            rpkiRepository.setTrustAnchors(new HashSet<>(reader.getRecords(TRUST_ANCHORS, taRefCoder::read)));
+        }
 
         return rpkiRepository;
     }
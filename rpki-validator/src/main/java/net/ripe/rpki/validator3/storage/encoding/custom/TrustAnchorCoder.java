@@ -32,10 +32,6 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
-import java.util.Map;
-
-import static net.ripe.rpki.validator3.storage.encoding.custom.Encoded.field;
-
 public class TrustAnchorCoder implements Coder<TrustAnchor> {
 
     private final static short NAME_TAG = Tags.unique(71);
@@ -48,42 +44,41 @@ public class TrustAnchorCoder implements Coder<TrustAnchor> {
 
     @Override
     public byte[] toBytes(TrustAnchor trustAnchor) {
-        final Encoded encoded = new Encoded();
+        final EncodedWriter writer = EncodedWriter.record();
 
-        BaseCoder.toBytes(trustAnchor, encoded);
+        BaseCoder.toBytes(trustAnchor, writer);
 
-        encoded.append(NAME_TAG, Coders.toBytes(trustAnchor.getName()));
-        encoded.appendNotNull(ENCODED_CERT_TAG, trustAnchor.getEncodedCertificate(), c -> c);
-        encoded.appendNotNull(SPKI_SERIAL, trustAnchor.getSubjectPublicKeyInfo(), Coders::toBytes);
-        encoded.appendNotNull(RSYNC_PREFETCH_TAG, trustAnchor.getRsyncPrefetchUri(), Coders::toBytes);
-        encoded.appendNotNull(PRECONFIGURED_TAG, trustAnchor.isPreconfigured(), Coders::toBytes);
-        encoded.appendNotNull(INITIAL_VALIDATION_DONE_TAG, trustAnchor.isInitialCertificateTreeValidationRunCompleted(),
-                Coders::toBytes);
+        writer.putString(NAME_TAG, trustAnchor.getName());
+        writer.putBytes(ENCODED_CERT_TAG, trustAnchor.getEncodedCertificate());
+        writer.putString(SPKI_SERIAL, trustAnchor.getSubjectPublicKeyInfo());
+        writer.putString(RSYNC_PREFETCH_TAG, trustAnchor.getRsyncPrefetchUri());
+        writer.putBoolean(PRECONFIGURED_TAG, trustAnchor.isPreconfigured());
+        writer.putBoolean(INITIAL_VALIDATION_DONE_TAG, trustAnchor.isInitialCertificateTreeValidationRunCompleted());
+        writer.putStrings(LOCATIONS_TAG, trustAnchor.getLocations());
 
-        if (trustAnchor.getLocations() != null && !trustAnchor.getLocations().isEmpty()) {
-            encoded.append(LOCATIONS_TAG, Coders.toBytes(trustAnchor.getLocations(), Coders::toBytes));
-        }
-
-        return encoded.toByteArray();
+        return writer.toByteArray();
     }
 
     @Override
     public TrustAnchor fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        final EncodedReader reader = EncodedReader.of(bytes);
 
         final TrustAnchor trustAnchor = new TrustAnchor();
-        BaseCoder.fromBytes(content, trustAnchor);
-
-        trustAnchor.setName(Coders.toString(content.get(NAME_TAG)));
-        field(content, ENCODED_CERT_TAG).ifPresent(trustAnchor::setEncodedCertificate);
-        field(content, SPKI_SERIAL).ifPresent(b -> trustAnchor.setSubjectPublicKeyInfo(Coders.toString(b)));
-        field(content, RSYNC_PREFETCH_TAG).ifPresent(b -> trustAnchor.setRsyncPrefetchUri(Coders.toString(b)));
-        field(content, PRECONFIGURED_TAG).ifPresent(b -> trustAnchor.setPreconfigured(Coders.toBoolean(b)));
-        field(content, INITIAL_VALIDATION_DONE_TAG).ifPresent(b ->
-                trustAnchor.setInitialCertificateTreeValidationRunCompleted(Coders.toBoolean(b)));
-
-        field(content, LOCATIONS_TAG).ifPresent(b ->
-                trustAnchor.setLocations(Coders.fromBytes(b, Coders::toString)));
+        BaseCoder.fromBytes(reader, trustAnchor);
+
+        trustAnchor.setName(reader.getString(NAME_TAG));
+        trustAnchor.setEncodedCertificate(reader.getBytes(ENCODED_CERT_TAG));
+        trustAnchor.setSubjectPublicKeyInfo(reader.getString(SPKI_SERIAL));
+        trustAnchor.setRsyncPrefetchUri(reader.getString(RSYNC_PREFETCH_TAG));
+        if (reader.has(PRECONFIGURED_TAG)) {
+            trustAnchor.setPreconfigured(reader.getBoolean(PRECONFIGURED_TAG));
+        }
+        if (reader.has(INITIAL_VALIDATION_DONE_TAG)) {
+            trustAnchor.setInitialCertificateTreeValidationRunCompleted(reader.getBoolean(INITIAL_VALIDATION_DONE_TAG));
+        }
+        if (reader.has(LOCATIONS_TAG)) {
+            trustAnchor.setLocations(reader.getStrings(LOCATIONS_TAG));
+        }
 
         return trustAnchor;
     }
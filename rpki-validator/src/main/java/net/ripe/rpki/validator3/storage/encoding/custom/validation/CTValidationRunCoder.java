@@ -33,12 +33,11 @@ import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
-
 public class CTValidationRunCoder implements Coder<CertificateTreeValidationRun> {
 
     private final static short TA_TAG = Tags.unique(81);
@@ -47,18 +46,18 @@ public class CTValidationRunCoder implements Coder<CertificateTreeValidationRun>
 
     @Override
     public byte[] toBytes(CertificateTreeValidationRun validationRun) {
-        final Encoded encoded = new Encoded();
-        ValidationRunCoder.toBytes(validationRun, encoded);
-        encoded.appendNotNull(TA_TAG, validationRun.getTrustAnchor(), taRefCoder::toBytes);
-        return encoded.toByteArray();
+        final EncodedWriter writer = EncodedWriter.record();
+        ValidationRunCoder.toBytes(validationRun, writer);
+        writer.putRecord(TA_TAG, validationRun.getTrustAnchor(), taRefCoder::write);
+        return writer.toByteArray();
     }
 
     @Override
     public CertificateTreeValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
-        final Ref<TrustAnchor> trustAnchorRef = taRefCoder.fromBytes(content.get(TA_TAG));
+        final EncodedReader reader = EncodedReader.of(bytes);
+        final Ref<TrustAnchor> trustAnchorRef = reader.getRecord(TA_TAG, taRefCoder::read);
         final CertificateTreeValidationRun validationRun = new CertificateTreeValidationRun(trustAnchorRef);
-        ValidationRunCoder.fromBytes(content, validationRun);
+        ValidationRunCoder.fromBytes(reader, validationRun);
         return validationRun;
     }
 }
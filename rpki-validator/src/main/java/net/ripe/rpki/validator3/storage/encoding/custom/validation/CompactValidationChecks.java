@@ -0,0 +1,145 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom.validation;
+
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * List of validation checks backed by their compact encoding.
+ *
+ * Iteration and streaming decode the checks one by one without keeping them, so
+ * a run with tens of thousands of checks can be paged through without materialising it.
+ * Random access or modification decodes the whole list once and works on that copy.
+ */
+class CompactValidationChecks extends AbstractList<ValidationCheck> implements Serializable {
+
+    private final byte[] encoded;
+    private final int encodedSize;
+    private List<ValidationCheck> decoded;
+
+    CompactValidationChecks(byte[] encoded, int encodedSize) {
+        this.encoded = encoded;
+        this.encodedSize = encodedSize;
+    }
+
+    @Override
+    public ValidationCheck get(int index) {
+        return decoded().get(index);
+    }
+
+    @Override
+    public int size() {
+        return decoded == null ? encodedSize : decoded.size();
+    }
+
+    @Override
+    public ValidationCheck set(int index, ValidationCheck element) {
+        return decoded().set(index, element);
+    }
+
+    @Override
+    public void add(int index, ValidationCheck element) {
+        modCount++;
+        decoded().add(index, element);
+    }
+
+    @Override
+    public ValidationCheck remove(int index) {
+        modCount++;
+        return decoded().remove(index);
+    }
+
+    @Override
+    public Iterator<ValidationCheck> iterator() {
+        if (decoded != null) {
+            return decoded.iterator();
+        }
+        return new Iterator<ValidationCheck>() {
+            private ValidationChecksCoder.Reader reader;
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < encodedSize;
+            }
+
+            @Override
+            public ValidationCheck next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (reader == null) {
+                    reader = new ValidationChecksCoder.Reader(encoded);
+                }
+                position++;
+                return reader.next();
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<ValidationCheck> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * @return the encoded checks if the list is still unchanged.
+     */
+    byte[] encoded() {
+        return decoded == null ? encoded : null;
+    }
+
+    private List<ValidationCheck> decoded() {
+        if (decoded == null) {
+            final List<ValidationCheck> checks = new ArrayList<>(encodedSize);
+            if (encodedSize > 0) {
+                final ValidationChecksCoder.Reader reader = new ValidationChecksCoder.Reader(encoded);
+                for (int i = 0; i < encodedSize; i++) {
+                    checks.add(reader.next());
+                }
+            }
+            decoded = checks;
+        }
+        return decoded;
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+}
@@ -33,12 +33,11 @@ import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.validation.RrdpRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
-
 public class RRValidationRunCoder implements Coder<RrdpRepositoryValidationRun> {
 
     private final static short REPO_TAG = Tags.unique(91);
@@ -47,18 +46,18 @@ public class RRValidationRunCoder implements Coder<RrdpRepositoryValidationRun>
 
     @Override
     public byte[] toBytes(RrdpRepositoryValidationRun validationRun) {
-        final Encoded encoded = new Encoded();
-        ValidationRunCoder.toBytes(validationRun, encoded);
-        encoded.appendNotNull(REPO_TAG, validationRun.getRpkiRepository(), repoRefCoder::toBytes);
-        return encoded.toByteArray();
+        final EncodedWriter writer = EncodedWriter.record();
+        ValidationRunCoder.toBytes(validationRun, writer);
+        writer.putRecord(REPO_TAG, validationRun.getRpkiRepository(), repoRefCoder::write);
+        return writer.toByteArray();
     }
 
     @Override
     public RrdpRepositoryValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
-        final Ref<RpkiRepository> repoRef = repoRefCoder.fromBytes(content.get(REPO_TAG));
+        final EncodedReader reader = EncodedReader.of(bytes);
+        final Ref<RpkiRepository> repoRef = reader.getRecord(REPO_TAG, repoRefCoder::read);
         final RrdpRepositoryValidationRun validationRun = new RrdpRepositoryValidationRun(repoRef);
-        ValidationRunCoder.fromBytes(content, validationRun);
+        ValidationRunCoder.fromBytes(reader, validationRun);
         return validationRun;
     }
 }
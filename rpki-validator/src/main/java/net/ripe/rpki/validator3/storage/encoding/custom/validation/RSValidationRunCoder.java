@@ -31,24 +31,22 @@ package net.ripe.rpki.validator3.storage.encoding.custom.validation;
 
 import net.ripe.rpki.validator3.storage.data.validation.RsyncRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
-
-import java.util.Map;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 
 public class RSValidationRunCoder implements Coder<RsyncRepositoryValidationRun> {
 
     @Override
     public byte[] toBytes(RsyncRepositoryValidationRun validationRun) {
-        final Encoded encoded = new Encoded();
-        ValidationRunCoder.toBytes(validationRun, encoded);
-        return encoded.toByteArray();
+        final EncodedWriter writer = EncodedWriter.record();
+        ValidationRunCoder.toBytes(validationRun, writer);
+        return writer.toByteArray();
     }
 
     @Override
     public RsyncRepositoryValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
         final RsyncRepositoryValidationRun validationRun = new RsyncRepositoryValidationRun();
-        ValidationRunCoder.fromBytes(content, validationRun);
+        ValidationRunCoder.fromBytes(EncodedReader.of(bytes), validationRun);
         return validationRun;
     }
 }
@@ -33,13 +33,11 @@ import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.TrustAnchorValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
-
 public class TAValidationRunCoder implements Coder<TrustAnchorValidationRun> {
 
     private final static short TA_TAG = Tags.unique(101);
@@ -49,20 +47,20 @@ public class TAValidationRunCoder implements Coder<TrustAnchorValidationRun> {
 
     @Override
     public byte[] toBytes(TrustAnchorValidationRun validationRun) {
-        final Encoded encoded = new Encoded();
-        ValidationRunCoder.toBytes(validationRun, encoded);
-        encoded.appendNotNull(TA_TAG, validationRun.getTrustAnchor(), taRefCoder::toBytes);
-        encoded.appendNotNull(URI_TAG, validationRun.getTrustAnchorCertificateURI(), Coders::toBytes);
-        return encoded.toByteArray();
+        final EncodedWriter writer = EncodedWriter.record();
+        ValidationRunCoder.toBytes(validationRun, writer);
+        writer.putRecord(TA_TAG, validationRun.getTrustAnchor(), taRefCoder::write);
+        writer.putString(URI_TAG, validationRun.getTrustAnchorCertificateURI());
+        return writer.toByteArray();
     }
 
     @Override
     public TrustAnchorValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
-        final Ref<TrustAnchor> trustAnchorRef = taRefCoder.fromBytes(content.get(TA_TAG));
-        final String uri = Coders.toString(content.get(URI_TAG));
+        final EncodedReader reader = EncodedReader.of(bytes);
+        final Ref<TrustAnchor> trustAnchorRef = reader.getRecord(TA_TAG, taRefCoder::read);
+        final String uri = reader.getString(URI_TAG);
         final TrustAnchorValidationRun validationRun = new TrustAnchorValidationRun(trustAnchorRef, uri);
-        ValidationRunCoder.fromBytes(content, validationRun);
+        ValidationRunCoder.fromBytes(reader, validationRun);
         return validationRun;
     }
 }
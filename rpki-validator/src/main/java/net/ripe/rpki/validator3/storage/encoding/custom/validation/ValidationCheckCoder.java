@@ -32,13 +32,11 @@ package net.ripe.rpki.validator3.storage.encoding.custom.validation;
 import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.BaseCoder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 public class ValidationCheckCoder implements Coder<ValidationCheck> {
 
@@ -49,37 +47,35 @@ public class ValidationCheckCoder implements Coder<ValidationCheck> {
 
     @Override
     public byte[] toBytes(ValidationCheck validationCheck) {
-        final Encoded encoded = new Encoded();
-        BaseCoder.toBytes(validationCheck, encoded);
-
-        encoded.appendNotNull(KEY_TAG, validationCheck.getKey(), Coders::toBytes);
-        encoded.appendNotNull(STATUS_TAG, validationCheck.getStatus(), s -> Coders.toBytes(s.name()));
-        encoded.appendNotNull(LOCATION_TAG, validationCheck.getLocation(), Coders::toBytes);
-
-        if (validationCheck.getParameters() != null && !validationCheck.getParameters().isEmpty()) {
-            encoded.append(PARAMETERS_TAG, Coders.toBytes(validationCheck.getParameters(), Coders::toBytes));
-        }
-        return encoded.toByteArray();
+        final EncodedWriter writer = new EncodedWriter(128);
+        write(writer, validationCheck);
+        return writer.toByteArray();
     }
 
     @Override
     public ValidationCheck fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return read(EncodedReader.of(bytes));
+    }
 
-        byte[] location = content.get(LOCATION_TAG);
-        byte[] key = content.get(KEY_TAG);
-        byte[] status = content.get(STATUS_TAG);
+    public void write(EncodedWriter writer, ValidationCheck validationCheck) {
+        BaseCoder.toBytes(validationCheck, writer);
+
+        writer.putString(KEY_TAG, validationCheck.getKey());
+        writer.putEnum(STATUS_TAG, validationCheck.getStatus());
+        writer.putString(LOCATION_TAG, validationCheck.getLocation());
+        writer.putStrings(PARAMETERS_TAG, validationCheck.getParameters());
+    }
 
-        final List<String> strings = Encoded.field(content, PARAMETERS_TAG).map(b ->
-                Coders.fromBytes(b, Coders::toString)).orElse(Collections.emptyList());
+    public ValidationCheck read(EncodedReader reader) {
+        final List<String> parameters = reader.getStrings(PARAMETERS_TAG);
 
         final ValidationCheck validationCheck = new ValidationCheck(
-                location == null ? null : Coders.toString(location),
-                ValidationCheck.Status.valueOf(Coders.toString(status)),
-                key == null ? null : Coders.toString(key),
-                strings.toArray(new String[0])
+                reader.getString(LOCATION_TAG),
+                ValidationCheck.Status.valueOf(reader.getString(STATUS_TAG)),
+                reader.getString(KEY_TAG),
+                parameters.toArray(new String[0])
         );
-        BaseCoder.fromBytes(content, validationCheck);
+        BaseCoder.fromBytes(reader, validationCheck);
         return validationCheck;
     }
 
@@ -0,0 +1,274 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom.validation;
+
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact encoding of the list of validation checks of a validation run.
+ *
+ * Locations, keys and parameters repeat a lot within one run, so every distinct string is
+ * stored once in a table and the checks refer to it by index. If the result is big enough
+ * it is also deflated.
+ * <pre>
+ *     byte compression, int checkCount, int payloadLength, payload
+ *     payload = int stringCount, (int length, utf8)*, check*
+ *     check = byte status, int location, int key, int paramCount, int param*,
+ *             short idLength, id, long createdAt, long updatedAt
+ * </pre>
+ * Statuses are stored with the fixed codes below, not the ordinal of the enum constant.
+ * String indexes are -1 for nulls, the same for the id length and Long.MIN_VALUE for the timestamps.
+ */
+public class ValidationChecksCoder {
+
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte DEFLATED = 1;
+
+    private static final int HEADER_SIZE = 1 + Integer.BYTES + Integer.BYTES;
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    private static final byte STATUS_WARNING = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    public static byte[] toBytes(Collection<ValidationCheck> checks) {
+        if (checks instanceof CompactValidationChecks) {
+            final byte[] unchanged = ((CompactValidationChecks) checks).encoded();
+            if (unchanged != null) {
+                return unchanged;
+            }
+        }
+        try {
+            final Map<String, Integer> table = new HashMap<>();
+            final List<String> strings = new ArrayList<>();
+            final ByteArrayOutputStream checksBytes = new ByteArrayOutputStream(checks.size() * 32);
+            final DataOutputStream out = new DataOutputStream(checksBytes);
+            for (ValidationCheck check : checks) {
+                out.writeByte(statusCode(check.getStatus()));
+                out.writeInt(index(table, strings, check.getLocation()));
+                out.writeInt(index(table, strings, check.getKey()));
+                final List<String> parameters = check.getParameters();
+                out.writeInt(parameters.size());
+                for (String parameter : parameters) {
+                    out.writeInt(index(table, strings, parameter));
+                }
+                if (check.getId() == null) {
+                    out.writeShort(-1);
+                } else {
+                    final byte[] id = check.getId().getBytes();
+                    out.writeShort(id.length);
+                    out.write(id);
+                }
+                out.writeLong(check.getCreatedAt() == null ? Long.MIN_VALUE : check.getCreatedAt().toEpochMilli());
+                out.writeLong(check.getUpdatedAt() == null ? Long.MIN_VALUE : check.getUpdatedAt().toEpochMilli());
+            }
+            out.flush();
+
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream(checksBytes.size() + strings.size() * 16);
+            final DataOutputStream p = new DataOutputStream(payload);
+            p.writeInt(strings.size());
+            for (String s : strings) {
+                final byte[] bytes = s.getBytes(UTF_8);
+                p.writeInt(bytes.length);
+                p.write(bytes);
+            }
+            checksBytes.writeTo(p);
+            p.flush();
+
+            final byte compression = payload.size() > COMPRESSION_THRESHOLD ? DEFLATED : UNCOMPRESSED;
+            final ByteArrayOutputStream result = new ByteArrayOutputStream(HEADER_SIZE + payload.size());
+            final DataOutputStream r = new DataOutputStream(result);
+            r.writeByte(compression);
+            r.writeInt(checks.size());
+            r.writeInt(payload.size());
+            if (compression == DEFLATED) {
+                final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try (DeflaterOutputStream deflated = new DeflaterOutputStream(r, deflater)) {
+                    payload.writeTo(deflated);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                payload.writeTo(r);
+                r.flush();
+            }
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return list that is decoded only when it is accessed, iterating or streaming over it
+     * doesn't keep the decoded checks.
+     */
+    public static List<ValidationCheck> fromBytes(byte[] bytes) {
+        return new CompactValidationChecks(bytes, checkCount(bytes));
+    }
+
+    static int checkCount(byte[] bytes) {
+        return ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+    }
+
+    private static byte statusCode(ValidationCheck.Status status) {
+        switch (status) {
+            case WARNING:
+                return STATUS_WARNING;
+            case ERROR:
+                return STATUS_ERROR;
+            default:
+                throw new IllegalArgumentException("No code for validation check status " + status);
+        }
+    }
+
+    private static ValidationCheck.Status status(byte code) {
+        switch (code) {
+            case STATUS_WARNING:
+                return ValidationCheck.Status.WARNING;
+            case STATUS_ERROR:
+                return ValidationCheck.Status.ERROR;
+            default:
+                throw new IllegalArgumentException("Unknown validation check status code " + code);
+        }
+    }
+
+    /**
+     * The payload is inflated at once, so that no native inflater stays around until the reader is collected.
+     */
+    private static byte[] payload(byte[] bytes) {
+        if (bytes[0] != DEFLATED) {
+            return bytes;
+        }
+        final int payloadLength = ((bytes[5] & 0xFF) << 24) | ((bytes[6] & 0xFF) << 16) | ((bytes[7] & 0xFF) << 8) | (bytes[8] & 0xFF);
+        final byte[] payload = new byte[HEADER_SIZE + payloadLength];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            int length = HEADER_SIZE;
+            while (length < payload.length) {
+                final int inflated = inflater.inflate(payload, length, payload.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated validation checks, got " + (length - HEADER_SIZE) + " of " + payloadLength + " bytes");
+                }
+                length += inflated;
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt validation checks", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int index(Map<String, Integer> table, List<String> strings, String s) {
+        if (s == null) {
+            return -1;
+        }
+        return table.computeIfAbsent(s, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    /**
+     * Sequential reader of the encoded checks, strings are decoded once and shared between the checks.
+     */
+    static class Reader {
+        private final DataInputStream in;
+        private final String[] strings;
+
+        Reader(byte[] bytes) {
+            try {
+                final byte[] payload = payload(bytes);
+                in = new DataInputStream(new ByteArrayInputStream(payload, HEADER_SIZE, payload.length - HEADER_SIZE));
+                strings = new String[in.readInt()];
+                for (int i = 0; i < strings.length; i++) {
+                    final byte[] s = new byte[in.readInt()];
+                    in.readFully(s);
+                    strings[i] = s.length == 0 ? "" : new String(s, UTF_8);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        ValidationCheck next() {
+            try {
+                final ValidationCheck.Status status = status(in.readByte());
+                final String location = string(in.readInt());
+                final String key = string(in.readInt());
+                final String[] parameters = new String[in.readInt()];
+                for (int i = 0; i < parameters.length; i++) {
+                    parameters[i] = string(in.readInt());
+                }
+                final ValidationCheck check = new ValidationCheck(location, status, key, parameters);
+
+                final short idLength = in.readShort();
+                if (idLength >= 0) {
+                    final byte[] id = new byte[idLength];
+                    in.readFully(id);
+                    check.setId(Key.of(id));
+                }
+                check.setCreatedAt(instant(in.readLong()));
+                check.setUpdatedAt(instant(in.readLong()));
+                return check;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String string(int i) {
+            return i < 0 ? null : strings[i];
+        }
+
+        private static InstantWithoutNanos instant(long millis) {
+            return millis == Long.MIN_VALUE ? null : InstantWithoutNanos.ofEpochMilli(millis);
+        }
+    }
+}
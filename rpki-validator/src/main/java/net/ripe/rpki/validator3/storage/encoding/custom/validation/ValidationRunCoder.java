@@ -31,37 +31,42 @@ package net.ripe.rpki.validator3.storage.encoding.custom.validation;
 
 import net.ripe.rpki.validator3.storage.data.validation.ValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.custom.BaseCoder;
-import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
-import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedReader;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedWriter;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
-
 public class ValidationRunCoder {
 
     private final static short COMPLETED_AT_TAG = Tags.unique(121);
     private final static short VALIDATION_CHECKS_TAG = Tags.unique(122);
     private final static short STATUS_TAG = Tags.unique(123);
+    private final static short COMPACT_VALIDATION_CHECKS_TAG = Tags.unique(124);
 
     private static final ValidationCheckCoder vcCoder = new ValidationCheckCoder();
 
-    public static void toBytes(ValidationRun validationRun, Encoded encoded) {
-        BaseCoder.toBytes(validationRun, encoded);
+    public static void toBytes(ValidationRun validationRun, EncodedWriter writer) {
+        BaseCoder.toBytes(validationRun, writer);
 
-        encoded.appendNotNull(STATUS_TAG, validationRun.getStatus(), s -> Coders.toBytes(s.name()));
-        encoded.appendNotNull(COMPLETED_AT_TAG, validationRun.getCompletedAt(), Coders::toBytes);
+        writer.putEnum(STATUS_TAG, validationRun.getStatus());
+        writer.putInstant(COMPLETED_AT_TAG, validationRun.getCompletedAt());
         if (validationRun.getValidationChecks() != null && !validationRun.getValidationChecks().isEmpty()) {
-            encoded.append(VALIDATION_CHECKS_TAG, Coders.toBytes(validationRun.getValidationChecks(), vcCoder::toBytes));
+            writer.putBytes(COMPACT_VALIDATION_CHECKS_TAG, ValidationChecksCoder.toBytes(validationRun.getValidationChecks()));
         }
     }
 
-    public static void fromBytes(Map<Short, byte[]> content, ValidationRun validationRun) {
-        BaseCoder.fromBytes(content, validationRun);
+    public static void fromBytes(EncodedReader reader, ValidationRun validationRun) {
+        BaseCoder.fromBytes(reader, validationRun);
 
-        Encoded.field(content, STATUS_TAG).ifPresent(b -> validationRun.setStatus(Coders.toString(b)));
-        Encoded.field(content, COMPLETED_AT_TAG).ifPresent(b -> validationRun.setCompletedAt(Coders.toInstant(b)));
-        Encoded.field(content, VALIDATION_CHECKS_TAG).ifPresent(b ->
-                validationRun.setValidationChecks(Coders.fromBytes(b, vcCoder::fromBytes)));
+        if (reader.has(STATUS_TAG)) {
+            validationRun.setStatus(reader.getString(STATUS_TAG));
+        }
+        validationRun.setCompletedAt(reader.getInstant(COMPLETED_AT_TAG));
+        if (reader.has(COMPACT_VALIDATION_CHECKS_TAG)) {
+            validationRun.setValidationChecks(ValidationChecksCoder.fromBytes(reader.getBytes(COMPACT_VALIDATION_CHECKS_TAG)));
+        } else if (reader.has(VALIDATION_CHECKS_TAG)) {
+            // written before the checks were stored in the compact form
+            validationRun.setValidationChecks(reader.getRecords(VALIDATION_CHECKS_TAG, vcCoder::read));
+        }
     }
 
 }
@@ -63,6 +63,9 @@ public interface RpkiObjects extends GenericStore<RpkiObject> {
 
     Map<String, RpkiObject> findObjectsInManifest(Tx.Read tx, ManifestCms manifestCms);
 
+    /**
+     * Lazily stream the encoded objects of the type, the stream must be consumed within the transaction.
+     */
     Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type);
 
     Set<Key> getPkByType(Tx.Read tx, RpkiObject.Type type);
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.storage.stores;
 
+import lombok.Value;
 import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
 import net.ripe.rpki.validator3.api.Sorting;
@@ -53,7 +54,7 @@ public interface ValidationRuns {
 
     <T extends ValidationRun> Optional<T> get(Tx.Read tx, Class<T> type, long id);
 
-    <T extends ValidationRun> List<T> findAll(Tx.Read tx);
+    <T extends ValidationRun> Stream<T> findAll(Tx.Read tx);
 
     <T extends ValidationRun> List<T> findAll(Tx.Read tx, Class<T> type);
 
@@ -65,7 +66,17 @@ public interface ValidationRuns {
 
     Optional<CertificateTreeValidationRun> findLatestCaTreeValidationRun(Tx.Read tx, TrustAnchor trustAnchor);
 
-    int removeOldValidationRuns(Tx.Write tx, InstantWithoutNanos completedBefore);
+    /**
+     * Remove validation runs completed (or started, if they never completed) before `completedBefore`,
+     * except for the latest successful ones. At most `maxCount` runs are looked at, going through the
+     * indexes in ascending order from the position `from`, the latest successful runs are determined
+     * within the same transaction.
+     *
+     * @param from position returned by the previous call, null to start from the beginning
+     * @return the number of removed runs and the position to continue from, null if there is nothing left
+     */
+    Pair<Integer, CleanupPosition> removeOldValidationRuns(Tx.Write tx, InstantWithoutNanos completedBefore,
+                                                           CleanupPosition from, int maxCount);
 
     Stream<ValidationCheck> findValidationChecksForValidationRun(Tx.Read tx, long validationRunId, Paging paging, SearchTerm searchTerm, Sorting sorting);
 
@@ -85,5 +96,39 @@ public interface ValidationRuns {
 
     int getObjectCount(Tx.Read tx, ValidationRun validationRun);
 
-    int removeOrphanValidationRunAssociations(Tx.Write tx);
+    /**
+     * Look at most at `maxScanned` associations to objects following the association `after`.
+     *
+     * @return pairs of validation run key and object key of the associations to objects that don't exist
+     * anymore, and the last association looked at or null if the end is reached
+     */
+    Pair<List<Pair<Key, Key>>, Pair<Key, Key>> findOrphanObjectAssociations(Tx.Read tx, Pair<Key, Key> after, int maxScanned);
+
+    /**
+     * Look at most at `maxScanned` associations to repositories following the validation run `after`.
+     *
+     * @return keys of the validation runs associated to repositories that don't exist anymore, and the
+     * last validation run looked at or null if the end is reached
+     */
+    Pair<List<Key>, Key> findOrphanRepositoryAssociations(Tx.Read tx, Key after, int maxScanned);
+
+    /**
+     * Remove the associations whose objects still don't exist.
+     */
+    int removeObjectAssociations(Tx.Write tx, List<Pair<Key, Key>> associations);
+
+    /**
+     * Remove the associations whose repositories still don't exist.
+     */
+    int removeRepositoryAssociations(Tx.Write tx, List<Key> validationRunKeys);
+
+    /**
+     * Where {@link #removeOldValidationRuns} stopped: the last entry looked at in an index of the runs of a type.
+     */
+    @Value
+    class CleanupPosition {
+        String type;
+        String index;
+        Pair<Key, Key> after;
+    }
 }
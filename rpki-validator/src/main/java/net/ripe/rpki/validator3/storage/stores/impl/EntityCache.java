@@ -0,0 +1,334 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import jetbrains.exodus.core.dataStructures.persistent.PersistentHashMap;
+import jetbrains.exodus.core.dataStructures.persistent.PersistentHashSet;
+import net.ripe.rpki.validator3.storage.IxMap;
+import net.ripe.rpki.validator3.storage.Storage;
+import net.ripe.rpki.validator3.storage.Tx;
+import net.ripe.rpki.validator3.storage.data.Base;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Write-through in-memory copy of a small entity map (trust anchors, repositories) with
+ * secondary indexes, so that read-only queries don't have to read and decode every row.
+ *
+ * All writes go through the cache. The keys changed by a write transaction are read again
+ * from the underlying map in the afterCommit hook of the transaction and applied to the
+ * cache, aborted transactions never reach the cache. Hooks of subsequent transactions can
+ * run out of order, but every hook reads the latest committed values, so an older value
+ * never overwrites a newer one.
+ *
+ * The cache content is an immutable {@link State} replaced by every applied transaction.
+ * The state consists of persistent maps, so a new state shares everything but the changed
+ * keys with the previous one. Reads within a read transaction are served from the state seen
+ * by its first read, which is kept as an attribute of the transaction, so the transaction
+ * keeps a consistent view. Reads within a write transaction go
+ * to the underlying map to see the changes of the transaction itself.
+ *
+ * "View" methods return the cached instances that must never be modified or returned
+ * to the callers of the store, {@link #copy(Tx.Read, Base)} makes a private copy.
+ */
+class EntityCache<T extends Base<T>> {
+
+    private final Storage storage;
+    private final IxMap<T> ixMap;
+    private final Coder<T> coder;
+    private final Map<String, Function<T, Set<Key>>> indexes;
+    private final Set<String> storedIndexes;
+
+    private volatile State<T> state;
+
+    /**
+     * Changes of the current write transaction, write transactions are exclusive.
+     */
+    private Changes pending;
+    private volatile long version;
+
+    /**
+     * @param indexes secondary indexes of the cache
+     * @param storedIndexes names of the indexes that the underlying map also has (with the same
+     *                      index function), used for the lookups within write transactions
+     */
+    EntityCache(Storage storage, IxMap<T> ixMap, Coder<T> coder,
+                Map<String, Function<T, Set<Key>>> indexes, Set<String> storedIndexes) {
+        this.storage = storage;
+        this.ixMap = ixMap;
+        this.coder = coder;
+        this.indexes = indexes;
+        this.storedIndexes = storedIndexes;
+        this.state = new State<>(new PersistentHashMap<>(), Collections.emptyMap());
+    }
+
+    synchronized void load(Tx.Read tx) {
+        final Update update = new Update(new State<>(new PersistentHashMap<>(), Collections.emptyMap()), indexes.keySet());
+        ixMap.forEach(tx, (k, bb) -> update.put(k, entry(ixMap.toValue(bb))));
+        state = update.done();
+        version++;
+    }
+
+    /**
+     * Increased every time a committed change is applied to the cache.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    void put(Tx.Write tx, Key key, T value) {
+        ixMap.put(tx, key, value);
+        changes(tx).keys.add(key);
+    }
+
+    void delete(Tx.Write tx, Key key) {
+        ixMap.delete(tx, key);
+        changes(tx).keys.add(key);
+    }
+
+    void clear(Tx.Write tx) {
+        ixMap.clear(tx);
+        changes(tx).cleared = true;
+    }
+
+    Optional<T> get(Tx.Read tx, Key key) {
+        if (tx instanceof Tx.Write) {
+            return ixMap.get(tx, key);
+        }
+        return Optional.ofNullable(state(tx).get(key)).map(e -> coder.fromBytes(e.bytes));
+    }
+
+    Optional<T> view(Tx.Read tx, Key key) {
+        if (tx instanceof Tx.Write) {
+            return ixMap.get(tx, key);
+        }
+        return Optional.ofNullable(state(tx).get(key)).map(e -> e.value);
+    }
+
+    Stream<T> view(Tx.Read tx) {
+        if (tx instanceof Tx.Write) {
+            return ixMap.values(tx).stream();
+        }
+        return stream(state(tx).entries.getCurrent()).map(e -> e.getValue().value);
+    }
+
+    Stream<T> viewByIndex(Tx.Read tx, String indexName, Key indexKey) {
+        if (tx instanceof Tx.Write) {
+            if (storedIndexes.contains(indexName)) {
+                return ixMap.getByIndex(indexName, tx, indexKey).values().stream();
+            }
+            final Function<T, Set<Key>> indexFunction = indexes.get(indexName);
+            return ixMap.values(tx).stream().filter(v -> indexFunction.apply(v).contains(indexKey));
+        }
+        final State<T> s = state(tx);
+        final PersistentHashMap<Key, PersistentHashSet<Key>> index = s.indexEntries.get(indexName);
+        final PersistentHashSet<Key> pks = index == null ? null : index.getCurrent().get(indexKey);
+        if (pks == null) {
+            return Stream.empty();
+        }
+        return stream(pks.beginRead())
+                .map(s::get)
+                .filter(Objects::nonNull)
+                .map(e -> e.value);
+    }
+
+    /**
+     * @return a copy of the viewed value that the caller is free to modify
+     */
+    T copy(Tx.Read tx, T view) {
+        if (tx instanceof Tx.Write) {
+            // values read within a write transaction are never shared
+            return view;
+        }
+        final Entry<T> e = state(tx).get(view.key());
+        return coder.fromBytes(e != null && e.value == view ? e.bytes : coder.toBytes(view));
+    }
+
+    private State<T> state(Tx.Read tx) {
+        return tx.attribute(this, () -> state);
+    }
+
+    private synchronized Changes changes(Tx.Write tx) {
+        if (pending == null || pending.tx != tx) {
+            final Changes changes = new Changes(tx);
+            tx.afterCommit(() -> apply(changes));
+            pending = changes;
+        }
+        return pending;
+    }
+
+    private synchronized void apply(Changes changes) {
+        if (pending == changes) {
+            pending = null;
+        }
+        storage.readTx0(tx -> {
+            if (changes.cleared) {
+                load(tx);
+                return;
+            }
+            final Update update = new Update(state, indexes.keySet());
+            for (Key key : changes.keys) {
+                final Optional<T> value = ixMap.get(tx, key);
+                if (value.isPresent()) {
+                    update.put(key, entry(value.get()));
+                } else {
+                    update.remove(key);
+                }
+            }
+            state = update.done();
+            version++;
+        });
+    }
+
+    private Entry<T> entry(T value) {
+        return new Entry<>(value, coder.toBytes(value));
+    }
+
+    private static <E> Stream<E> stream(Iterable<E> iterable) {
+        return StreamSupport.stream(iterable.spliterator(), false);
+    }
+
+    /**
+     * Immutable content of the cache, primary keys of the entries per index key for the
+     * secondary indexes.
+     */
+    private static class State<T> {
+        final PersistentHashMap<Key, Entry<T>> entries;
+        final Map<String, PersistentHashMap<Key, PersistentHashSet<Key>>> indexEntries;
+
+        State(PersistentHashMap<Key, Entry<T>> entries, Map<String, PersistentHashMap<Key, PersistentHashSet<Key>>> indexEntries) {
+            this.entries = entries;
+            this.indexEntries = indexEntries;
+        }
+
+        Entry<T> get(Key key) {
+            return entries.getCurrent().get(key);
+        }
+    }
+
+    /**
+     * Builds the next state from clones of the persistent maps of the previous one, only the
+     * paths to the changed keys are copied.
+     */
+    private class Update {
+        final PersistentHashMap<Key, Entry<T>> entries;
+        final PersistentHashMap<Key, Entry<T>>.MutablePersistentHashMap mutableEntries;
+        final Map<String, PersistentHashMap<Key, PersistentHashSet<Key>>> indexEntries = new HashMap<>();
+        final Map<String, PersistentHashMap<Key, PersistentHashSet<Key>>.MutablePersistentHashMap> mutableIndexes = new HashMap<>();
+
+        Update(State<T> previous, Set<String> indexNames) {
+            entries = previous.entries.getClone();
+            mutableEntries = entries.beginWrite();
+            for (String name : indexNames) {
+                final PersistentHashMap<Key, PersistentHashSet<Key>> index = previous.indexEntries.containsKey(name)
+                        ? previous.indexEntries.get(name).getClone()
+                        : new PersistentHashMap<>();
+                indexEntries.put(name, index);
+                mutableIndexes.put(name, index.beginWrite());
+            }
+        }
+
+        void put(Key key, Entry<T> entry) {
+            final Entry<T> old = mutableEntries.get(key);
+            mutableEntries.put(key, entry);
+            updateIndexes(key, old, entry);
+        }
+
+        void remove(Key key) {
+            final Entry<T> old = mutableEntries.removeKey(key);
+            updateIndexes(key, old, null);
+        }
+
+        private void updateIndexes(Key key, Entry<T> old, Entry<T> updated) {
+            indexes.forEach((name, f) -> {
+                final PersistentHashMap<Key, PersistentHashSet<Key>>.MutablePersistentHashMap index = mutableIndexes.get(name);
+                final Set<Key> before = old == null ? Collections.emptySet() : f.apply(old.value);
+                final Set<Key> after = updated == null ? Collections.emptySet() : f.apply(updated.value);
+                before.stream().filter(ik -> !after.contains(ik)).forEach(ik -> updateIndexSet(index, ik, key, false));
+                after.stream().filter(ik -> !before.contains(ik)).forEach(ik -> updateIndexSet(index, ik, key, true));
+            });
+        }
+
+        State<T> done() {
+            mutableEntries.endWrite();
+            mutableIndexes.values().forEach(index -> index.endWrite());
+            return new State<>(entries, indexEntries);
+        }
+    }
+
+    private static void updateIndexSet(PersistentHashMap<Key, PersistentHashSet<Key>>.MutablePersistentHashMap index,
+                                       Key indexKey, Key key, boolean add) {
+        final PersistentHashSet<Key> pks = index.get(indexKey);
+        final PersistentHashSet<Key> updated = pks == null ? new PersistentHashSet<>() : pks.getClone();
+        final PersistentHashSet.MutablePersistentHashSet<Key> mutable = updated.beginWrite();
+        if (add) {
+            mutable.add(key);
+        } else {
+            mutable.remove(key);
+        }
+        mutable.endWrite();
+        if (updated.beginRead().isEmpty()) {
+            index.removeKey(indexKey);
+        } else {
+            index.put(indexKey, updated);
+        }
+    }
+
+    private static class Changes {
+        final Tx.Write tx;
+        final Set<Key> keys = new HashSet<>();
+        boolean cleared;
+
+        Changes(Tx.Write tx) {
+            this.tx = tx;
+        }
+    }
+
+    private static class Entry<T> {
+        final T value;
+        final byte[] bytes;
+
+        Entry(T value, byte[] bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -59,6 +59,7 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -71,6 +72,9 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
     private static final String LOCATION_MAP = "rpki-objects-location";
     private static final String BY_AKI_MFT_INDEX = "by-aki-mft";
     private static final String BY_TYPE_INDEX = "by-type";
+    private static final String BY_REACHABLE_BUCKET_INDEX = "by-reachable-bucket";
+    private static final long REACHABLE_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int STREAM_BATCH_SIZE = 1000;
 
     private final IxMap<RpkiObject> ixMap;
     private final IxMap<Long> reachableMap;
@@ -88,6 +92,14 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
         return Key.keys(Key.of(rpkiObject.getType().toString()));
     }
 
+    /**
+     * Reachability timestamps are indexed by hour, so that cleanup only needs to
+     * look at the buckets that are expired.
+     */
+    private static long reachableBucket(long reachableAt) {
+        return reachableAt - Math.floorMod(reachableAt, REACHABLE_BUCKET_MILLIS);
+    }
+
     @Autowired
     public RpkiObjectStore(Storage storage) {
         this.storage = storage;
@@ -98,7 +110,9 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
                         BY_TYPE_INDEX, this::typeKey),
                 CoderFactory.makeCoder(RpkiObject.class));
 
-        this.reachableMap = storage.createIxMap(REACHABLE_MAP, ImmutableMap.of(), CoderFactory.longCoder());
+        this.reachableMap = storage.createIxMap(REACHABLE_MAP,
+                ImmutableMap.of(BY_REACHABLE_BUCKET_INDEX, reachableAt -> Key.keys(Key.of(reachableBucket(reachableAt)))),
+                CoderFactory.longCoder());
         this.locationMap = storage.createMultIxMap(LOCATION_MAP, CoderFactory.stringCoder());
 
         ixMap.onDelete((tx, k) -> {
@@ -128,7 +142,13 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public void markReachable(Tx.Write tx, Key pk, InstantWithoutNanos i) {
-        reachableMap.put(tx, pk, i.toEpochMilli());
+        final long reachableAt = i.toEpochMilli();
+        // Re-marking within the same bucket doesn't change anything for the cleanup,
+        // so skip the write (and the index update) that would happen on every validation run
+        final Optional<Long> current = reachableMap.get(tx, pk);
+        if (!current.isPresent() || reachableBucket(current.get()) != reachableBucket(reachableAt)) {
+            reachableMap.put(tx, pk, reachableAt);
+        }
     }
 
     @Override
@@ -169,16 +189,11 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public long deleteUnreachableObjects(InstantWithoutNanos unreachableSince) {
-        final List<Key> toDelete = new ArrayList<>();
-        storage.readTx0(tx ->
-                reachableMap.forEach(tx, (k, bytes) -> {
-                    if (reachableMap.toValue(bytes) < unreachableSince.toEpochMilli()) {
-                        // do not do ixMap.delete(tx, k) right here -- it will cause onDelete
-                        // trigger and deletion of pair at the current cursor position, which is
-                        // potentially a problem
-                        toDelete.add(k);
-                    }
-                }));
+        // Only take the buckets that are completely before `unreachableSince`, objects
+        // from the bucket containing it will be deleted by one of the next cleanups.
+        final Key expiredBucket = Key.of(reachableBucket(unreachableSince.toEpochMilli()));
+        final List<Key> toDelete = storage.readTx(tx ->
+                new ArrayList<>(reachableMap.getPkByIndexLessThan(BY_REACHABLE_BUCKET_INDEX, tx, expiredBucket)));
         // Divide the list to smaller chunks to avoid very long writing transaction
         Lists.partition(toDelete, 1000).forEach(chunk ->
             storage.writeTx0(tx ->
@@ -202,11 +217,8 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type) {
-        final List<byte[]> objectBytes = new ArrayList<>();
-        getPkByType(tx, type).forEach(pk ->
-                ixMap.get(tx, pk).ifPresent(ro ->
-                        objectBytes.add(ro.getEncoded())));
-        return objectBytes.stream();
+        return ixMap.streamByIndex(BY_TYPE_INDEX, tx, Key.of(type.toString()), STREAM_BATCH_SIZE)
+                .map(RpkiObject::getEncoded);
     }
 
     @Override
@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.storage.stores.impl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
@@ -44,6 +45,8 @@ import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.Storage;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.RpkiRepositories;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
@@ -53,7 +56,6 @@ import org.springframework.stereotype.Component;
 
 import javax.validation.constraints.NotNull;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
@@ -73,8 +75,10 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
     private static final String RPKI_REPOSITORIES = "rpki-repositories";
     private static final String BY_URI_PREFIX = "by-uri";
     private static final String BY_TA = "by-ta";
+    private static final String BY_STATUS = "by-status";
 
     private final IxMap<RpkiRepository> ixMap;
+    private final EntityCache<RpkiRepository> cache;
     private final SequencesStore sequences;
     private final ValidationScheduler validationScheduler;
 
@@ -83,14 +87,19 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
         this.sequences = sequences;
         this.validationScheduler = validationScheduler;
 
-        ixMap = storage.createIxMap(
-                RPKI_REPOSITORIES,
-                ImmutableMap.of(
-                        BY_URI_PREFIX, this::locationIndex,
-                        BY_TA, r -> r.getTrustAnchors().stream().map(Ref::key).collect(Collectors.toSet())
-                ),
-                RpkiRepository.class
+        final Coder<RpkiRepository> coder = CoderFactory.makeCoder(RpkiRepository.class);
+        final Map<String, Function<RpkiRepository, Set<Key>>> indexes = ImmutableMap.of(
+                BY_URI_PREFIX, this::locationIndex,
+                BY_TA, r -> r.getTrustAnchors().stream().map(Ref::key).collect(Collectors.toSet())
         );
+        ixMap = storage.createIxMap(RPKI_REPOSITORIES, indexes, coder);
+        cache = new EntityCache<>(storage, ixMap, coder,
+                ImmutableMap.<String, Function<RpkiRepository, Set<Key>>>builder()
+                        .putAll(indexes)
+                        .put(BY_STATUS, r -> Key.keys(Key.of(r.getStatus().name())))
+                        .build(),
+                ImmutableSet.of(BY_URI_PREFIX, BY_TA));
+        storage.readTx0(cache::load);
     }
 
     private Key uriToKey(String uri) {
@@ -132,7 +141,7 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
                 }
             });
         }
-        ixMap.put(tx, registered.key(), registered);
+        cache.put(tx, registered.key(), registered);
         return registered;
     }
 
@@ -147,20 +156,20 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
     @Override
     public void update(Tx.Write tx, RpkiRepository rpkiRepository) {
         rpkiRepository.setUpdatedAt(InstantWithoutNanos.now());
-        ixMap.put(tx, rpkiRepository.key(), rpkiRepository);
+        cache.put(tx, rpkiRepository.key(), rpkiRepository);
     }
 
     @Override
     public Optional<RpkiRepository> findByURI(Tx.Read tx, String uri) {
-        return ixMap.getByIndex(BY_URI_PREFIX, tx, uriToKey(uri)).values()
-                .stream()
+        return cache.viewByIndex(tx, BY_URI_PREFIX, uriToKey(uri))
                 .filter(r -> uri.equals(r.getRrdpNotifyUri()) || uri.equals(r.getRsyncRepositoryUri()))
-                .findFirst();
+                .findFirst()
+                .map(r -> cache.copy(tx, r));
     }
 
     @Override
     public Optional<RpkiRepository> get(Tx.Read tx, Key id) {
-        return ixMap.get(tx, id);
+        return cache.get(tx, id);
     }
 
     @Override
@@ -171,17 +180,25 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
                 applySorting(
                         applyFiltered(tx, optionalStatus, taId, hideChildrenOfDownloadedParent, searchTerm),
                         sorting),
-                paging);
+                paging)
+                .map(r -> cache.copy(tx, r));
     }
 
-    // TODO Optimize it with forEach
+    /**
+     * @return cached instances, these must be copied before leaving the store
+     */
     private Stream<RpkiRepository> applyFiltered(Tx.Read tx,
                                                  RpkiRepository.Status optionalStatus,
                                                  Key taId, boolean hideChildrenOfDownloadedParent,
                                                  SearchTerm searchTerm) {
-        Stream<RpkiRepository> stream = taId != null ?
-                ixMap.getByIndex(BY_TA, tx, taId).values().stream() :
-                ixMap.values(tx).stream();
+        Stream<RpkiRepository> stream;
+        if (taId != null) {
+            stream = cache.viewByIndex(tx, BY_TA, taId);
+        } else if (optionalStatus != null) {
+            stream = cache.viewByIndex(tx, BY_STATUS, Key.of(optionalStatus.name()));
+        } else {
+            stream = cache.view(tx);
+        }
 
         if (optionalStatus != null) {
             stream = stream.filter(r -> r.getStatus() == optionalStatus);
@@ -200,7 +217,7 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
                 if (parentRef == null) {
                     return true;
                 }
-                final Optional<RpkiRepository> parent = ixMap.get(tx, parentRef.key());
+                final Optional<RpkiRepository> parent = cache.view(tx, parentRef.key());
                 return !parent.isPresent() ||
                         parent.get().getStatus() == RpkiRepository.Status.FAILED &&
                                 parent.get().getLastDownloadedAt() == null;
@@ -256,12 +273,12 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
 
     @Override
     public Stream<RpkiRepository> findAll(Tx.Read tx, Key taId) {
-        return ixMap.getByIndex(BY_TA, tx, taId).values().stream();
+        return cache.viewByIndex(tx, BY_TA, taId).map(r -> cache.copy(tx, r));
     }
 
     @Override
     public Map<RpkiRepository.Status, Long> countByStatus(Tx.Read tx, Key taId, boolean hideChildrenOfDownloadedParent) {
-        return findAll(tx, null, taId, hideChildrenOfDownloadedParent, null, null, null)
+        return applyFiltered(tx, null, taId, hideChildrenOfDownloadedParent, null)
                 .collect(Collectors.groupingBy(RpkiRepository::getStatus, Collectors.counting()));
     }
 
@@ -278,13 +295,10 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
     }
 
     private Stream<RpkiRepository> findRepositoriesByPredicate(Tx.Read tx, Predicate<RpkiRepository> p) {
-        final List<RpkiRepository> result = new ArrayList<>();
-        ixMap.forEach(tx, (k, bb) -> {
-            final RpkiRepository r = ixMap.toValue(bb);
-            if (p.test(r)) {
-                result.add(r);
-            }
-        });
+        final List<RpkiRepository> result = cache.view(tx)
+                .filter(p)
+                .map(r -> cache.copy(tx, r))
+                .collect(Collectors.toList());
         return result.stream();
     }
 
@@ -298,21 +312,35 @@ public class RpkiRepositoriesStore extends GenericStoreImpl<RpkiRepository> impl
                         if (rpkiRepository.getType() == RpkiRepository.Type.RRDP) {
                             tx.afterCommit(() -> validationScheduler.removeRpkiRepository(rpkiRepository));
                         }
-                        ixMap.delete(tx, pk);
+                        cache.delete(tx, pk);
                     } else {
-                        ixMap.put(tx, pk, rpkiRepository);
+                        cache.put(tx, pk, rpkiRepository);
                     }
                 });
     }
 
     @Override
     public void remove(Tx.Write tx, Key key) {
-        ixMap.delete(tx, key);
+        cache.delete(tx, key);
     }
 
     @Override
     public Collection<RpkiRepository> findByTrustAnchor(Tx.Read tx, Key key) {
-        return ixMap.getByIndex(BY_TA, tx, key).values();
+        return cache.viewByIndex(tx, BY_TA, key)
+                .map(r -> cache.copy(tx, r))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<RpkiRepository> values(Tx.Read tx) {
+        return cache.view(tx)
+                .map(r -> cache.copy(tx, r))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void clear(Tx.Write tx) {
+        cache.clear(tx);
     }
 
     @Override
@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.storage.stores.impl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import net.ripe.rpki.validator3.api.trustanchors.TaStatus;
 import net.ripe.rpki.validator3.api.util.Dates;
 import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
@@ -39,6 +40,8 @@ import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
@@ -57,7 +60,11 @@ import java.util.stream.Collectors;
 @Component
 public class TrustAnchorStore extends GenericStoreImpl<TrustAnchor> implements TrustAnchors {
 
+    private static final String BY_NAME = "by-name";
+    private static final String BY_SUBJECT_PUBLIC_KEY_INFO = "by-spki";
+
     private final IxMap<TrustAnchor> ixMap;
+    private final EntityCache<TrustAnchor> cache;
     private final SequencesStore sequences;
     private final ValidationRuns validationRuns;
 
@@ -65,64 +72,83 @@ public class TrustAnchorStore extends GenericStoreImpl<TrustAnchor> implements T
     public TrustAnchorStore(Storage storage,
                             SequencesStore sequences,
                             @Lazy ValidationRuns validationRuns) {
+        final Coder<TrustAnchor> coder = CoderFactory.makeCoder(TrustAnchor.class);
         this.ixMap = storage.createIxMap(
                 TrustAnchors.TRUST_ANCHORS,
                 ImmutableMap.of(),
-                TrustAnchor.class);
+                coder);
+        this.cache = new EntityCache<>(storage, ixMap, coder,
+                ImmutableMap.of(
+                        BY_NAME, ta -> ta.getName() == null ? ImmutableSet.of() : Key.keys(Key.of(ta.getName())),
+                        BY_SUBJECT_PUBLIC_KEY_INFO, ta -> ta.getSubjectPublicKeyInfo() == null ?
+                                ImmutableSet.of() :
+                                Key.keys(Key.of(ta.getSubjectPublicKeyInfo()))),
+                ImmutableSet.of());
         this.sequences = sequences;
         this.validationRuns = validationRuns;
+        storage.readTx0(cache::load);
     }
 
     @Override
     public TrustAnchor add(Tx.Write tx, TrustAnchor trustAnchor) {
         trustAnchor.setId(Key.of(sequences.next(tx, TrustAnchors.TRUST_ANCHORS + ":pk")));
-        ixMap.put(tx, trustAnchor.key(), trustAnchor);
+        cache.put(tx, trustAnchor.key(), trustAnchor);
         return trustAnchor;
     }
 
     @Override
     public void update(Tx.Write tx, TrustAnchor trustAnchor) {
         trustAnchor.setUpdatedAt(InstantWithoutNanos.now());
-        ixMap.put(tx, trustAnchor.key(), trustAnchor);
+        cache.put(tx, trustAnchor.key(), trustAnchor);
     }
 
     @Override
     public void remove(Tx.Write tx, TrustAnchor trustAnchor) {
-        ixMap.delete(tx, trustAnchor.key());
+        cache.delete(tx, trustAnchor.key());
     }
 
     @Override
     public Optional<TrustAnchor> get(Tx.Read tx, Key id) {
-        return ixMap.get(tx, id);
+        return cache.get(tx, id);
     }
 
     @Override
     public List<TrustAnchor> findAll(Tx.Read tx) {
-        return ixMap.values(tx);
+        return cache.view(tx)
+                .map(ta -> cache.copy(tx, ta))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<TrustAnchor> values(Tx.Read tx) {
+        return findAll(tx);
     }
 
     @Override
     public Collection<TrustAnchor> findByName(Tx.Read tx, String name) {
-        return findAll(tx).stream()
-                .filter(ta -> ta.getName().equals(name))
+        return cache.viewByIndex(tx, BY_NAME, Key.of(name))
+                .map(ta -> cache.copy(tx, ta))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Optional<TrustAnchor> findBySubjectPublicKeyInfo(Tx.Read tx, String subjectPublicKeyInfo) {
-        return findAll(tx).stream()
-                .filter(ta -> ta.getSubjectPublicKeyInfo().equals(subjectPublicKeyInfo))
-                .findFirst();
+        if (subjectPublicKeyInfo == null) {
+            return Optional.empty();
+        }
+        return cache.viewByIndex(tx, BY_SUBJECT_PUBLIC_KEY_INFO, Key.of(subjectPublicKeyInfo))
+                .findFirst()
+                .map(ta -> cache.copy(tx, ta));
     }
 
     @Override
     public boolean allInitialCertificateTreeValidationRunsCompleted(Tx.Read tx) {
-        return findAll(tx).stream().allMatch(TrustAnchor::isInitialCertificateTreeValidationRunCompleted);
+        return cache.view(tx).allMatch(TrustAnchor::isInitialCertificateTreeValidationRunCompleted);
     }
 
     @Override
     public List<TaStatus> getStatuses(Tx.Read tx) {
-        return findAll(tx).stream().map(ta ->
+        return cache.view(tx).map(ta ->
                 validationRuns.findLatestCaTreeValidationRun(tx, ta).map(vr -> {
                     final List<ValidationCheck> validationChecks = vr.getValidationChecks();
                     Pair<Integer, Long> objectCount = Time.timed(() -> validationRuns.getObjectCount(tx, vr));
@@ -145,6 +171,11 @@ public class TrustAnchorStore extends GenericStoreImpl<TrustAnchor> implements T
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public void clear(Tx.Write tx) {
+        cache.clear(tx);
+    }
+
     @Override
     protected IxMap<TrustAnchor> ixMap() {
         return ixMap;
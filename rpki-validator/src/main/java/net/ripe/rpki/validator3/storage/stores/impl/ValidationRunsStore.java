@@ -30,6 +30,7 @@
 package net.ripe.rpki.validator3.storage.stores.impl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.UnsignedBytes;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.Paging;
 import net.ripe.rpki.validator3.api.SearchTerm;
@@ -62,15 +63,19 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -87,6 +92,8 @@ public class ValidationRunsStore implements ValidationRuns {
     private static final String VALIDATION_RUNS_TO_RPKI_REPOSITORIES = "validation-runs-to-repositories";
     private static final String BY_TA_INDEX = "by-ta";
     private static final String BY_COMPLETED_AT_INDEX = "by-completed-at";
+    private static final String BY_UNFINISHED_SINCE_INDEX = "by-unfinished-since";
+    private static final List<String> CLEANUP_INDEXES = Arrays.asList(BY_COMPLETED_AT_INDEX, BY_UNFINISHED_SINCE_INDEX);
 
     private MultIxMap<Key> vr2ro;
     private IxMap<Key> vr2repo;
@@ -117,23 +124,27 @@ public class ValidationRunsStore implements ValidationRuns {
         ctIxMap = storage.createIxMap(
                 CT_RPKI_VALIDATION_RUNS,
                 ImmutableMap.of(BY_TA_INDEX, vr -> Key.keys(vr.getTrustAnchor().key()),
-                        BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys),
+                        BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys,
+                        BY_UNFINISHED_SINCE_INDEX, this::unfinishedSinceIndexKeys),
                 CertificateTreeValidationRun.class);
 
         taIxMap = storage.createIxMap(
                 TA_RPKI_VALIDATION_RUNS,
                 ImmutableMap.of(BY_TA_INDEX, vr -> Key.keys(vr.getTrustAnchor().key()),
-                        BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys),
+                        BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys,
+                        BY_UNFINISHED_SINCE_INDEX, this::unfinishedSinceIndexKeys),
                 TrustAnchorValidationRun.class);
 
         rsIxMap = storage.createIxMap(
                 RS_RPKI_VALIDATION_RUNS,
-                ImmutableMap.of(BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys),
+                ImmutableMap.of(BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys,
+                        BY_UNFINISHED_SINCE_INDEX, this::unfinishedSinceIndexKeys),
                 RsyncRepositoryValidationRun.class);
 
         rrIxMap = storage.createIxMap(
                 RR_RPKI_VALIDATION_RUNS,
-                ImmutableMap.of(BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys),
+                ImmutableMap.of(BY_COMPLETED_AT_INDEX, this::completedAtIndexKeys,
+                        BY_UNFINISHED_SINCE_INDEX, this::unfinishedSinceIndexKeys),
                 RrdpRepositoryValidationRun.class);
 
         maps.put(CertificateTreeValidationRun.TYPE, ctIxMap);
@@ -159,6 +170,22 @@ public class ValidationRunsStore implements ValidationRuns {
         return completedAt != null ? Key.keys(Key.of(completedAt.toEpochMilli())) : Collections.emptySet();
     }
 
+    /**
+     * Runs that are not completed are indexed by the earliest of their creation and update
+     * time, that's what decides if they are old enough to be cleaned up.
+     */
+    private Set<Key> unfinishedSinceIndexKeys(ValidationRun vr) {
+        if (vr.getCompletedAt() != null) {
+            return Collections.emptySet();
+        }
+        return Stream.of(vr.getCreatedAt(), vr.getUpdatedAt())
+                .filter(Objects::nonNull)
+                .map(InstantWithoutNanos::toEpochMilli)
+                .min(Long::compare)
+                .map(since -> Key.keys(Key.of(since)))
+                .orElse(Collections.emptySet());
+    }
+
     @Override
     public <T extends ValidationRun> T add(Tx.Write tx, T vr) {
         vr.setId(Key.of(sequences.next(tx, RPKI_VALIDATION_RUNS + ":pk")));
@@ -182,21 +209,20 @@ public class ValidationRunsStore implements ValidationRuns {
     }
 
     @Override
-    public <T extends ValidationRun> List<T> findAll(Tx.Read tx) {
-        final List<T> result = new ArrayList<>();
-        maps.values().forEach(ixMap ->
-                ixMap.forEach(tx, (k, bb) ->
-                        result.add((T) ixMap.toValue(bb))));
-        return result;
+    @SuppressWarnings("unchecked")
+    public <T extends ValidationRun> Stream<T> findAll(Tx.Read tx) {
+        return maps.values().stream()
+                .flatMap(ixMap -> ixMap.streamValues(tx))
+                .map(vr -> (T) vr);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T extends ValidationRun> List<T> findAll(Tx.Read tx, Class<T> type) {
-        final List<T> result = new ArrayList<>();
-        pickIxMaps(type).forEach(ixMap ->
-                ixMap.forEach(tx, (k, bb) ->
-                        result.add((T) ixMap.toValue(bb))));
-        return result;
+        return pickIxMaps(type).stream()
+                .flatMap(ixMap -> ixMap.streamValues(tx))
+                .map(vr -> (T) vr)
+                .collect(Collectors.toList());
     }
 
     @Override
@@ -212,20 +238,23 @@ public class ValidationRunsStore implements ValidationRuns {
 
     @Override
     public Optional<CertificateTreeValidationRun> findLatestSuccessfulCaTreeValidationRun(Tx.Read tx, TrustAnchor trustAnchor) {
-        return ctIxMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx, vr ->
-                vr.isSucceeded() && trustAnchor.key().equals(vr.getTrustAnchor().key())).values().stream().findFirst();
+        return findLatest(tx, ctIxMap, vr -> vr.isSucceeded() && trustAnchor.key().equals(vr.getTrustAnchor().key()));
     }
 
     @Override
     public Optional<TrustAnchorValidationRun> findLatestCompletedForTrustAnchor(Tx.Read tx, TrustAnchor trustAnchor) {
-        return taIxMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx,
-                vr -> trustAnchor.key().equals(vr.getTrustAnchor().key())).values().stream().findFirst();
+        return findLatest(tx, taIxMap, vr -> trustAnchor.key().equals(vr.getTrustAnchor().key()));
     }
 
     @Override
     public Optional<CertificateTreeValidationRun> findLatestCaTreeValidationRun(Tx.Read tx, TrustAnchor trustAnchor) {
-        return ctIxMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx,
-                vr -> trustAnchor.key().equals(vr.getTrustAnchor().key())).values().stream().findFirst();
+        return findLatest(tx, ctIxMap, vr -> trustAnchor.key().equals(vr.getTrustAnchor().key()));
+    }
+
+    private static <T extends ValidationRun> Optional<T> findLatest(Tx.Read tx, IxMap<T> ixMap, Predicate<T> p) {
+        try (Stream<T> runs = ixMap.streamByIdxDescending(BY_COMPLETED_AT_INDEX, tx)) {
+            return runs.filter(p).findFirst();
+        }
     }
 
     private void removeAllForTrustAnchor(Tx.Write tx, Key trustAnchorKey) {
@@ -235,74 +264,144 @@ public class ValidationRunsStore implements ValidationRuns {
     }
 
     @Override
-    public int removeOldValidationRuns(Tx.Write tx, InstantWithoutNanos completedBefore) {
-        final AtomicInteger count = new AtomicInteger(0);
+    public Pair<Integer, CleanupPosition> removeOldValidationRuns(Tx.Write tx, InstantWithoutNanos completedBefore,
+                                                                  CleanupPosition from, int maxCount) {
         final Set<Key> taKeys = trustAnchors.keys(tx);
-        maps.forEach((type, ixMap) -> {
-            // Don't delete the most recent one successful for every trust anchor
-            final Set<Key> latestSuccessfulKeys = taKeys.stream().flatMap(taKey ->
-                    ixMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx, vr -> {
-                                if (vr instanceof CertificateTreeValidationRun) {
-                                    return taKey.equals(((CertificateTreeValidationRun) vr).getTrustAnchor().key()) && vr.isSucceeded();
-                                }
-                                if (vr instanceof TrustAnchorValidationRun) {
-                                    return taKey.equals(((TrustAnchorValidationRun) vr).getTrustAnchor().key()) && vr.isSucceeded();
-                                }
-                                return vr.isSucceeded();
-                            }
-                    ).keySet().stream())
-                    .collect(Collectors.toSet());
-
-//            final Set<Key> latestSuccessfulKeys = ixMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx, ValidationRun::isSucceeded).keySet();
-
-            final Set<Key> toDelete = new HashSet<>();
-            ixMap.forEach(tx, (k, bytes) -> {
-                ValidationRun validationRun = ixMap.toValue(bytes);
-                boolean deleteIt = false;
-                if (validationRun.getCompletedAt() != null) {
-                    if (validationRun.getCompletedAt().isBefore(completedBefore)) {
-                        deleteIt = true;
+        final byte[] before = Key.of(completedBefore.toEpochMilli()).getBytes();
+        final List<Pair<String, String>> ranges = new ArrayList<>();
+        new TreeSet<>(maps.keySet()).forEach(type -> CLEANUP_INDEXES.forEach(index -> ranges.add(Pair.of(type, index))));
+
+        int range = from == null ? 0 : ranges.indexOf(Pair.of(from.getType(), from.getIndex()));
+        Pair<Key, Key> after = from == null ? null : from.getAfter();
+        int looked = 0;
+        int removed = 0;
+        while (range < ranges.size()) {
+            final String type = ranges.get(range).getLeft();
+            final String index = ranges.get(range).getRight();
+            final IxMap<? extends ValidationRun> ixMap = pickIxMap(type);
+
+            final List<Pair<Key, Key>> entries = new ArrayList<>();
+            boolean exhausted = false;
+            try (Stream<Pair<Key, Key>> stream = ixMap.streamIndexEntries(index, tx, after)) {
+                final Iterator<Pair<Key, Key>> it = stream.iterator();
+                while (!exhausted && looked + entries.size() < maxCount) {
+                    if (!it.hasNext()) {
+                        exhausted = true;
+                    } else {
+                        final Pair<Key, Key> entry = it.next();
+                        if (UnsignedBytes.lexicographicalComparator().compare(entry.getLeft().getBytes(), before) >= 0) {
+                            exhausted = true;
+                        } else {
+                            entries.add(entry);
+                        }
                     }
-                } else {
-                    if (validationRun.getUpdatedAt() != null && validationRun.getUpdatedAt().isBefore(completedBefore)) {
-                        deleteIt = true;
-                    } else if (validationRun.getCreatedAt().isBefore(completedBefore)) {
-                        deleteIt = true;
+                }
+            }
+            looked += entries.size();
+            if (!entries.isEmpty()) {
+                // Don't delete the most recent one successful for every trust anchor
+                final Set<Key> latestSuccessfulKeys = latestSuccessfulKeys(tx, ixMap, taKeys);
+                for (Pair<Key, Key> entry : entries) {
+                    if (!latestSuccessfulKeys.contains(entry.getRight())) {
+                        ixMap.delete(tx, entry.getRight());
+                        removed++;
                     }
                 }
-                if (deleteIt && !latestSuccessfulKeys.contains(k)) {
-                    toDelete.add(k);
+                after = entries.get(entries.size() - 1);
+            }
+            if (!exhausted) {
+                return Pair.of(removed, new CleanupPosition(type, index, after));
+            }
+            range++;
+            after = null;
+        }
+        return Pair.of(removed, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Key> latestSuccessfulKeys(Tx.Read tx, IxMap<? extends ValidationRun> ixMap, Set<Key> taKeys) {
+        final IxMap<ValidationRun> runs = (IxMap<ValidationRun>) ixMap;
+        if (ixMap == ctIxMap || ixMap == taIxMap) {
+            return taKeys.stream()
+                    .map(taKey -> findLatest(tx, runs, vr -> vr.isSucceeded() && taKey.equals(trustAnchorKey(vr))))
+                    .filter(Optional::isPresent)
+                    .map(vr -> vr.get().key())
+                    .collect(Collectors.toSet());
+        }
+        return findLatest(tx, runs, ValidationRun::isSucceeded)
+                .map(vr -> Collections.singleton(vr.key()))
+                .orElse(Collections.emptySet());
+    }
+
+    private static Key trustAnchorKey(ValidationRun vr) {
+        if (vr instanceof CertificateTreeValidationRun) {
+            return ((CertificateTreeValidationRun) vr).getTrustAnchor().key();
+        }
+        if (vr instanceof TrustAnchorValidationRun) {
+            return ((TrustAnchorValidationRun) vr).getTrustAnchor().key();
+        }
+        return null;
+    }
+
+    @Override
+    public Pair<List<Pair<Key, Key>>, Pair<Key, Key>> findOrphanObjectAssociations(Tx.Read tx, Pair<Key, Key> after, int maxScanned) {
+        final List<Pair<Key, Key>> orphans = new ArrayList<>();
+        Pair<Key, Key> last = null;
+        int scanned = 0;
+        try (Stream<Pair<Key, Key>> associations = vr2ro.streamEntries(tx, after)) {
+            final Iterator<Pair<Key, Key>> it = associations.iterator();
+            while (scanned < maxScanned && it.hasNext()) {
+                last = it.next();
+                scanned++;
+                if (!rpkiObjects.exists(tx, last.getRight())) {
+                    orphans.add(last);
                 }
-            });
-            toDelete.forEach(pk -> ixMap.delete(tx, pk));
-            count.addAndGet(toDelete.size());
-        });
-        return count.get();
+            }
+        }
+        return Pair.of(orphans, scanned < maxScanned ? null : last);
     }
 
     @Override
-    public int removeOrphanValidationRunAssociations(Tx.Write tx) {
-        final Set<Key> roKeys = rpkiObjects.keys(tx);
-        final Set<Key> repoKeys = rpkiRepositories.keys(tx);
-        final List<Pair<Key, Key>> toDelete = new ArrayList<>();
-        vr2ro.forEach(tx, (vrKey, bytes) -> {
-            final Key roKey = vr2ro.toValue(bytes);
-            if (!roKeys.contains(roKey)) {
-                toDelete.add(Pair.of(vrKey, roKey));
+    public Pair<List<Key>, Key> findOrphanRepositoryAssociations(Tx.Read tx, Key after, int maxScanned) {
+        final List<Key> orphans = new ArrayList<>();
+        Key last = null;
+        int scanned = 0;
+        try (Stream<Key> vrKeys = vr2repo.streamKeys(tx, after)) {
+            final Iterator<Key> it = vrKeys.iterator();
+            while (scanned < maxScanned && it.hasNext()) {
+                last = it.next();
+                scanned++;
+                if (isOrphanRepositoryAssociation(tx, last)) {
+                    orphans.add(last);
+                }
             }
-        });
-        int c1 = toDelete.size();
-        vr2ro.deleteBatch(tx, toDelete);
-
-        final Set<Key> reposToDelete = new HashSet<>();
-        vr2repo.forEach(tx, (vrKey, bytes) -> {
-            final Key repoKey = vr2repo.toValue(bytes);
-            if (!repoKeys.contains(repoKey)) {
-                reposToDelete.add(vrKey);
+        }
+        return Pair.of(orphans, scanned < maxScanned ? null : last);
+    }
+
+    @Override
+    public int removeObjectAssociations(Tx.Write tx, List<Pair<Key, Key>> associations) {
+        final List<Pair<Key, Key>> orphans = associations.stream()
+                .filter(a -> !rpkiObjects.exists(tx, a.getRight()))
+                .collect(Collectors.toList());
+        vr2ro.deleteBatch(tx, orphans);
+        return orphans.size();
+    }
+
+    @Override
+    public int removeRepositoryAssociations(Tx.Write tx, List<Key> validationRunKeys) {
+        int removed = 0;
+        for (Key vrKey : validationRunKeys) {
+            if (isOrphanRepositoryAssociation(tx, vrKey)) {
+                vr2repo.delete(tx, vrKey);
+                removed++;
             }
-        });
-        reposToDelete.forEach(vrKey -> vr2repo.delete(tx, vrKey));
-        return c1 + reposToDelete.size();
+        }
+        return removed;
+    }
+
+    private boolean isOrphanRepositoryAssociation(Tx.Read tx, Key vrKey) {
+        return vr2repo.get(tx, vrKey).map(repoKey -> !rpkiRepositories.exists(tx, repoKey)).orElse(false);
     }
 
     @Override
@@ -318,20 +417,14 @@ public class ValidationRunsStore implements ValidationRuns {
     }
 
     private Stream<ValidationCheck> validationCheckForTaStreams(Tx.Read tx, long trustAnchorId) {
-        Stream<ValidationCheck> taChecks = taIxMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx,
+        Stream<ValidationCheck> taChecks = findLatest(tx, taIxMap,
                 vr -> trustAnchorId == vr.getTrustAnchor().key().asLong())
-                .values()
-                .stream()
-                .findFirst()
                 .map(ValidationRun::getValidationChecks)
                 .orElse(Collections.emptyList())
                 .stream();
 
-        Stream<ValidationCheck> ctChecks = ctIxMap.getByIdxDescendingWhere(BY_COMPLETED_AT_INDEX, tx,
+        Stream<ValidationCheck> ctChecks = findLatest(tx, ctIxMap,
                 vr -> trustAnchorId == vr.getTrustAnchor().key().asLong())
-                .values()
-                .stream()
-                .findFirst()
                 .map(ValidationRun::getValidationChecks)
                 .orElse(Collections.emptyList())
                 .stream();
@@ -0,0 +1,125 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import lombok.Getter;
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides whether the CRC32 stored in front of every value has to be verified
+ * when the value is read.
+ *
+ * Verifying on every read is expensive for large objects (manifests, CRLs) that
+ * are read during every tree walk, so it is possible to verify only the first read
+ * of every stored value, a random fraction of reads or to leave verification to the
+ * background scrubber altogether.
+ */
+public class ChecksumPolicy {
+
+    public enum Mode {
+        ALWAYS,
+        FIRST_READ,
+        SAMPLED,
+        SCRUBBER;
+
+        public static Mode parse(String s) {
+            return Mode.valueOf(s.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * Number of remembered verified values (4MB). Every fingerprint has one slot, a value
+     * whose slot was taken over by another value will be verified again.
+     */
+    private static final int VERIFIED_FINGERPRINT_SLOTS = 1 << 19;
+
+    @Getter
+    private final Mode mode;
+    @Getter
+    private final double sampleRate;
+
+    private final AtomicLongArray verified;
+
+    public ChecksumPolicy(Mode mode, double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1, got " + sampleRate);
+        }
+        this.mode = mode;
+        this.sampleRate = sampleRate;
+        this.verified = mode == Mode.FIRST_READ ? new AtomicLongArray(VERIFIED_FINGERPRINT_SLOTS) : null;
+    }
+
+    public static ChecksumPolicy always() {
+        return new ChecksumPolicy(Mode.ALWAYS, 1.0);
+    }
+
+    boolean shouldVerify(Key key, long checksum) {
+        switch (mode) {
+            case FIRST_READ:
+                // Values read by a cursor don't have a key, there's nothing to remember them by
+                return key == null || !isVerified(fingerprint(key, checksum));
+            case SAMPLED:
+                return ThreadLocalRandom.current().nextDouble() < sampleRate;
+            case SCRUBBER:
+                return false;
+            case ALWAYS:
+            default:
+                return true;
+        }
+    }
+
+    void markVerified(Key key, long checksum) {
+        if (mode == Mode.FIRST_READ && key != null) {
+            final long fingerprint = fingerprint(key, checksum);
+            verified.set(slot(fingerprint), fingerprint);
+        }
+    }
+
+    // An empty slot is 0, so a zero fingerprint is never considered verified
+    private boolean isVerified(long fingerprint) {
+        return fingerprint != 0 && verified.get(slot(fingerprint)) == fingerprint;
+    }
+
+    private static int slot(long fingerprint) {
+        final long h = fingerprint * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (VERIFIED_FINGERPRINT_SLOTS - 1);
+    }
+
+    /**
+     * A new value for the key has a different checksum, so it will
+     * produce a different fingerprint and will be verified again.
+     */
+    private static long fingerprint(Key key, long checksum) {
+        return ((long) key.hashCode() << 32) | (checksum & 0xFFFFFFFFL);
+    }
+}
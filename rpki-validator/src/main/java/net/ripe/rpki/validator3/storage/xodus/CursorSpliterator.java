@@ -0,0 +1,119 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily walks over a store with a cursor, the cursor is opened at the first element
+ * and closed when the end is reached or the stream is closed.
+ *
+ * It is only valid within the transaction it was created in.
+ */
+class CursorSpliterator<R> extends Spliterators.AbstractSpliterator<R> implements AutoCloseable {
+
+    private final Transaction txn;
+    private final Store store;
+    private final Predicate<Cursor> first;
+    private final Predicate<Cursor> next;
+    private final Function<Cursor, R> extract;
+
+    private Cursor cursor;
+    private boolean finished;
+
+    private CursorSpliterator(Transaction txn, Store store,
+                              Predicate<Cursor> first,
+                              Predicate<Cursor> next,
+                              Function<Cursor, R> extract) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.txn = txn;
+        this.store = store;
+        this.first = first;
+        this.next = next;
+        this.extract = extract;
+    }
+
+    /**
+     * @param first moves the cursor to the first element, returns false if there is none
+     * @param next  moves the cursor to the next element, returns false at the end
+     */
+    static <R> Stream<R> stream(Transaction txn, Store store,
+                                Predicate<Cursor> first,
+                                Predicate<Cursor> next,
+                                Function<Cursor, R> extract) {
+        final CursorSpliterator<R> spliterator = new CursorSpliterator<>(txn, store, first, next, extract);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+        if (finished) {
+            return false;
+        }
+        if (txn.isFinished()) {
+            close();
+            throw new IllegalStateException("The transaction of the stream over " + store.getName() + " is already finished");
+        }
+        final boolean hasNext;
+        if (cursor == null) {
+            cursor = store.openCursor(txn);
+            hasNext = first.test(cursor);
+        } else {
+            hasNext = next.test(cursor);
+        }
+        if (!hasNext) {
+            close();
+            return false;
+        }
+        action.accept(extract.apply(cursor));
+        return true;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        if (cursor != null) {
+            if (!txn.isFinished()) {
+                cursor.close();
+            }
+            cursor = null;
+        }
+    }
+}
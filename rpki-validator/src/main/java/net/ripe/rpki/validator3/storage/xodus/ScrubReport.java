@@ -0,0 +1,129 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import com.google.common.collect.ImmutableList;
+import lombok.Getter;
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress and findings of one pass of the {@link XodusScrubber}.
+ *
+ * The scrubber updates the report while it runs, readers only get to see a consistent
+ * copy of it through {@link #snapshot()}.
+ */
+@Getter
+public class ScrubReport {
+
+    /**
+     * Don't keep thousands of keys around if the whole database is broken.
+     */
+    private static final int MAX_REPORTED_KEYS = 100;
+
+    private final Instant startedAt;
+    private Instant finishedAt;
+    private String currentMap;
+    private long checkedValues;
+    private long checkedIndexEntries;
+    private long corruptedValues;
+    private long missingIndexEntries;
+    private long danglingIndexEntries;
+    private long repairedIndexEntries;
+    private List<String> corruptedKeys;
+
+    ScrubReport() {
+        this.startedAt = Instant.now();
+        this.corruptedKeys = new ArrayList<>();
+    }
+
+    private ScrubReport(ScrubReport report) {
+        this.startedAt = report.startedAt;
+        this.finishedAt = report.finishedAt;
+        this.currentMap = report.currentMap;
+        this.checkedValues = report.checkedValues;
+        this.checkedIndexEntries = report.checkedIndexEntries;
+        this.corruptedValues = report.corruptedValues;
+        this.missingIndexEntries = report.missingIndexEntries;
+        this.danglingIndexEntries = report.danglingIndexEntries;
+        this.repairedIndexEntries = report.repairedIndexEntries;
+        this.corruptedKeys = ImmutableList.copyOf(report.corruptedKeys);
+    }
+
+    /**
+     * @return immutable copy of the report as it is now.
+     */
+    public synchronized ScrubReport snapshot() {
+        return new ScrubReport(this);
+    }
+
+    synchronized void scrubbing(String mapName) {
+        currentMap = mapName;
+    }
+
+    synchronized void finished() {
+        currentMap = null;
+        finishedAt = Instant.now();
+    }
+
+    synchronized void valueChecked() {
+        checkedValues++;
+    }
+
+    synchronized void indexEntryChecked() {
+        checkedIndexEntries++;
+    }
+
+    synchronized void corrupted(String mapName, Key key) {
+        corruptedValues++;
+        if (corruptedKeys.size() < MAX_REPORTED_KEYS) {
+            corruptedKeys.add(mapName + ":" + key);
+        }
+    }
+
+    synchronized void missingIndexEntry() {
+        missingIndexEntries++;
+    }
+
+    synchronized void danglingIndexEntry() {
+        danglingIndexEntries++;
+    }
+
+    synchronized void repaired(int count) {
+        repairedIndexEntries += count;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+}
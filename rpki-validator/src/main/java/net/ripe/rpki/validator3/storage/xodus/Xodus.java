@@ -34,9 +34,11 @@ import com.google.gson.Gson;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.*;
 import net.ripe.rpki.validator3.storage.data.Key;
@@ -48,9 +50,13 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -66,6 +72,27 @@ public abstract class Xodus implements Storage {
     private Gson gson = new Gson();
     private Store metadata;
 
+    @Getter
+    @Setter
+    private ChecksumPolicy checksumPolicy = ChecksumPolicy.always();
+
+    /**
+     * New indexes are built in the background in transactions of this many values,
+     * pausing between them.
+     */
+    @Getter
+    @Setter
+    private int reindexChunkSize = 1000;
+
+    @Getter
+    @Setter
+    private Duration reindexChunkPause = Duration.ofMillis(10);
+
+    private ExecutorService reindexExecutor;
+
+    @Getter
+    private final Map<String, ReindexProgress> reindexProgress = new ConcurrentHashMap<>();
+
     protected synchronized Store meta() {
         if (metadata == null) {
             metadata = getEnv().computeInTransaction(txn ->
@@ -76,6 +103,8 @@ public abstract class Xodus implements Storage {
 
     protected abstract Environment getEnv();
 
+    private final ThreadLocal<XodusTx.Write> currentWriteTx = new ThreadLocal<>();
+
     public <T> T writeTx(Function<Tx.Write, T> f) {
         AtomicReference<List<Runnable>> afterCommitHooks = new AtomicReference<>(Collections.emptyList());
 
@@ -83,11 +112,13 @@ public abstract class Xodus implements Storage {
         T result = ForkJoin.blocking(() -> env.computeInExclusiveTransaction(txn -> {
             XodusTx.Write tx = XodusTx.fromRWNative(env, txn);
             txs.put(tx.getId(), new TxInfo(tx));
+            currentWriteTx.set(tx);
             try {
                 T innerResult = f.apply(tx);
                 afterCommitHooks.set(tx.getAfterCommitHooks());
                 return innerResult;
             } finally {
+                currentWriteTx.remove();
                 txs.remove(tx.getId());
             }
         }));
@@ -104,6 +135,11 @@ public abstract class Xodus implements Storage {
         return result;
     }
 
+    @Override
+    public Optional<Tx.Write> currentWriteTx() {
+        return Optional.ofNullable(currentWriteTx.get());
+    }
+
     public void writeTx0(Consumer<Tx.Write> c) {
         writeTx(tx -> {
             c.accept(tx);
@@ -152,9 +188,19 @@ public abstract class Xodus implements Storage {
         getEnv().gc();
     }
 
+    /**
+     * Percentage of the log space used by live data as estimated by Xodus GC,
+     * or a negative value if it's not known yet.
+     */
+    public long getUtilizationPercent() {
+        final EnvironmentStatistics statistics = (EnvironmentStatistics) getEnv().getStatistics();
+        return statistics.getStatisticsItem(EnvironmentStatistics.Type.UTILIZATION_PERCENT).getTotal();
+    }
+
     @Getter
     private final Map<Long, TxInfo> txs = new ConcurrentHashMap<>();
 
+    @Getter(AccessLevel.PACKAGE)
     private final Map<String, IxBase<?>> ixMaps = new ConcurrentHashMap<>();
 
     public <T extends Serializable> IxMap<T> createIxMap(String name,
@@ -200,7 +246,76 @@ public abstract class Xodus implements Storage {
         return Key.of(dbName + "-key");
     }
 
-    <T extends Serializable> Pair<Map<String, Store>, Boolean> createIndexes(
+    private Key reindexWatermarkKey(String name) {
+        return Key.of(name + "-reindex-watermark");
+    }
+
+    /**
+     * @return the last primary key processed by the background build of the indexes of the map,
+     * or null if nothing is processed yet (or the build is finished)
+     */
+    Key getReindexWatermark(Transaction txn, String name) {
+        final ByteIterable bi = meta().get(txn, reindexWatermarkKey(name).toByteIterable());
+        return bi == null ? null : new Key(bi);
+    }
+
+    void setReindexWatermark(Transaction txn, String name, Key watermark) {
+        if (watermark == null) {
+            meta().delete(txn, reindexWatermarkKey(name).toByteIterable());
+        } else {
+            meta().put(txn, reindexWatermarkKey(name).toByteIterable(), watermark.toByteIterable());
+        }
+    }
+
+    /**
+     * Record the indexes as completely built, in the same transaction as the last chunk of the build.
+     */
+    void markIndexesBuilt(Transaction txn, String name, Set<String> built) {
+        final ByteIterable key = dbMetaKey(name).toByteIterable();
+        final IxMapInfo info = gson.fromJson(new String(Bytes.toBytes(meta().get(txn, key)), UTF_8), IxMapInfo.class);
+        info.setIndexes(Sets.union(info.getIndexes(), built).immutableCopy());
+        meta().put(txn, key, new ArrayByteIterable(gson.toJson(info).getBytes(UTF_8)));
+    }
+
+    ReindexProgress startReindex(String name, Set<String> indexes, long totalEntries, Runnable build) {
+        final ReindexProgress progress = new ReindexProgress(name, indexes, totalEntries);
+        reindexProgress.put(name, progress);
+        synchronized (this) {
+            if (reindexExecutor == null) {
+                reindexExecutor = Executors.newSingleThreadExecutor(r -> {
+                    final Thread t = new Thread(r, "xodus-reindex");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            reindexExecutor.submit(build);
+        }
+        return progress;
+    }
+
+    /**
+     * Stop the background index builds, an interrupted build starts over after the restart.
+     */
+    protected synchronized void stopReindex() {
+        if (reindexExecutor != null) {
+            reindexExecutor.shutdownNow();
+            try {
+                reindexExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Open the index stores of the map. Indexes that are recorded in the metadata are ready to use,
+     * stores of the removed indexes are dropped. New indexes (also the ones whose build was interrupted)
+     * are truncated and returned to be built in the background, they are recorded in the metadata
+     * only when completely built.
+     *
+     * @return index stores and the names of the indexes to build
+     */
+    <T extends Serializable> Pair<Map<String, Store>, Set<String>> createIndexes(
             String name,
             Map<String, Function<T, Set<Key>>> indexFunctions,
             StoreConfig storeConfigs) {
@@ -216,7 +331,7 @@ public abstract class Xodus implements Storage {
         });
 
         final Map<String, Store> indexes = new HashMap<>();
-        boolean reindex = false;
+        final Set<String> toBuild = new HashSet<>();
         if (existingIxMapInfo != null) {
             final Set<String> existingIndexes = existingIxMapInfo.getIndexes();
             if (existingIndexes != null) {
@@ -230,9 +345,9 @@ public abstract class Xodus implements Storage {
                                 }
                         );
                     });
-                    existingIxMapInfo.setIndexes(indexFunctions.keySet());
+                    toBuild.addAll(Sets.difference(indexFunctions.keySet(), existingIndexes));
+                    existingIxMapInfo.setIndexes(Sets.intersection(existingIndexes, indexFunctions.keySet()).immutableCopy());
                     saveDbMeta(existingIxMapInfo);
-                    reindex = true;
                 }
             } else {
                 existingIxMapInfo.setIndexes(indexFunctions.keySet());
@@ -246,12 +361,16 @@ public abstract class Xodus implements Storage {
         }
         getEnv().executeInTransaction(txn -> {
             indexFunctions.forEach((n, idxFun) -> {
+                if (toBuild.contains(n) && getEnv().storeExists(idxStoreName(name, n), txn)) {
+                    getEnv().truncateStore(idxStoreName(name, n), txn);
+                }
                 Store store = getEnv().openStore(idxStoreName(name, n), storeConfigs, txn);
                 indexes.put(n, store);
             });
+            setReindexWatermark(txn, name, null);
         });
 
-        return Pair.of(indexes, reindex);
+        return Pair.of(indexes, toBuild);
     }
 
     private String idxStoreName(String name, String idx) {
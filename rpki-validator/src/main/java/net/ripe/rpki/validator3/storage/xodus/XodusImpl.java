@@ -42,6 +42,7 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.File;
+import java.time.Duration;
 
 @Profile("!test")
 @Component
@@ -53,15 +54,22 @@ public class XodusImpl extends Xodus {
 
     private Environment env;
 
-    public XodusImpl(@Value("${rpki.validator.data.path}") String path) {
+    public XodusImpl(@Value("${rpki.validator.data.path}") String path,
+                     @Value("${rpki.validator.storage.checksum.verification:first-read}") String checksumVerification,
+                     @Value("${rpki.validator.storage.checksum.sample.rate:0.01}") double checksumSampleRate,
+                     @Value("${rpki.validator.storage.reindex.chunk.size:1000}") int reindexChunkSize,
+                     @Value("${rpki.validator.storage.reindex.chunk.pause:PT0.01S}") String reindexChunkPause) {
         this.path = path;
+        setChecksumPolicy(new ChecksumPolicy(ChecksumPolicy.Mode.parse(checksumVerification), checksumSampleRate));
+        setReindexChunkSize(reindexChunkSize);
+        setReindexChunkPause(Duration.parse(reindexChunkPause));
     }
 
     @PostConstruct
     public void initXodus() {
         try {
             final String dbPath = createDirectoryIfNeeded();
-            log.info("Creating Xodus environment at {}", dbPath);
+            log.info("Creating Xodus environment at {}, checksum verification: {}", dbPath, getChecksumPolicy().getMode());
 
             final EnvironmentConfig config = new EnvironmentConfig()
                 .setLogCacheUseSoftReferences(true)
@@ -106,6 +114,7 @@ public class XodusImpl extends Xodus {
 
     @PreDestroy
     public synchronized void waitForAllTxToFinishAndClose() {
+        stopReindex();
         env.close();
     }
 
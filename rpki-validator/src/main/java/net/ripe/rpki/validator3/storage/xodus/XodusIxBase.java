@@ -39,6 +39,7 @@ import jetbrains.exodus.env.Transaction;
 import jetbrains.exodus.management.Statistics;
 import lombok.Getter;
 import net.ripe.rpki.validator3.storage.Bytes;
+import net.ripe.rpki.validator3.storage.CorruptedDataException;
 import net.ripe.rpki.validator3.storage.IxBase;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
@@ -47,6 +48,7 @@ import net.ripe.rpki.validator3.storage.encoding.Coder;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -55,6 +57,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 import java.util.zip.CRC32;
 
 public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
@@ -65,6 +68,7 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
 
     private final Store mainDb;
     final Coder<T> coder;
+    private final ChecksumPolicy checksumPolicy;
 
     XodusIxBase(final Xodus xodus,
                 final String name,
@@ -72,6 +76,7 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
         this.env = xodus.getEnv();
         this.name = name;
         this.coder = coder;
+        this.checksumPolicy = xodus.getChecksumPolicy();
         synchronized (xodus) {
             this.mainDb = xodus.createMainMapDb(name, getStoreConfig());
         }
@@ -84,6 +89,7 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
         this.env = xodus.getEnv();
         this.name = name;
         this.coder = coder;
+        this.checksumPolicy = xodus.getChecksumPolicy();
         synchronized (xodus) {
             this.mainDb = xodus.createMainMapDb(name, storeConfig);
         }
@@ -140,15 +146,74 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
     }
 
     protected T getValue(Key k, byte[] b) {
-        ByteBuffer bb = ByteBuffer.wrap(b);
-        long crc32 = bb.getLong();
-        final byte[] valueBytes = Bytes.toBytes(bb);
+        final long crc32 = ByteBuffer.wrap(b).getLong();
+        if (checksumPolicy.shouldVerify(k, crc32)) {
+            verifyChecksum(k, b, crc32);
+            checksumPolicy.markVerified(k, crc32);
+        }
+        return decode(b);
+    }
+
+    /**
+     * Decode the stored value without looking at the checksum.
+     */
+    T decode(byte[] b) {
+        return coder.fromBytes(Arrays.copyOfRange(b, Long.BYTES, b.length));
+    }
+
+    /**
+     * Unconditionally verify the checksum of the stored value, independently of the checksum policy.
+     */
+    protected void verifyChecksum(Key k, byte[] b) {
+        verifyChecksum(k, b, ByteBuffer.wrap(b).getLong());
+    }
+
+    private static void verifyChecksum(Key k, byte[] b, long crc32) {
+        // CRC32 is an intrinsic in HotSpot and uses the CLMUL instructions where available
         CRC32 checksum = new CRC32();
-        checksum.update(valueBytes);
+        checksum.update(b, Long.BYTES, b.length - Long.BYTES);
         if (checksum.getValue() != crc32) {
-            throw new RuntimeException("Data for the key " + k + " is corrupted");
+            throw new CorruptedDataException(k);
         }
-        return coder.fromBytes(valueBytes);
+    }
+
+    /**
+     * Verify checksums of at most (approximately) `maxEntries` values, starting from the
+     * key `from` or from the beginning of the map if `from` is null. All the values of
+     * one key are always processed within the same chunk.
+     *
+     * @return the key to continue from or null if the end of the map is reached
+     */
+    Key scrubValues(Tx.Read tx, Key from, int maxEntries, ScrubReport report, List<IndexRepair> repairs) {
+        try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
+            boolean hasNext = from == null ? c.getNext() : c.getSearchKeyRange(from.toByteIterable()) != null;
+            Key previousKey = null;
+            int count = 0;
+            while (hasNext) {
+                final Key k = new Key(c.getKey());
+                if (count >= maxEntries && !k.equals(previousKey)) {
+                    return k;
+                }
+                final byte[] v = Bytes.toBytes(c.getValue());
+                try {
+                    verifyChecksum(k, v);
+                    report.valueChecked();
+                    scrubValue(tx, k, v, report, repairs);
+                } catch (CorruptedDataException e) {
+                    report.corrupted(getName(), k);
+                }
+                previousKey = k;
+                count++;
+                hasNext = c.getNext();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Additional consistency checks of one stored value with the verified checksum.
+     */
+    protected void scrubValue(Tx.Read tx, Key k, byte[] storedValue, ScrubReport report, List<IndexRepair> repairs) {
     }
 
     public Set<Key> keys(Tx.Read tx) {
@@ -197,6 +262,49 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
         }
     }
 
+    @Override
+    public Stream<Key> streamKeys(Tx.Read tx) {
+        return CursorSpliterator.stream(castTxn(tx), getMainDb(),
+                Cursor::getNext, Cursor::getNext,
+                c -> new Key(c.getKey()));
+    }
+
+    @Override
+    public Stream<Key> streamKeys(Tx.Read tx, Key after) {
+        return CursorSpliterator.stream(castTxn(tx), getMainDb(),
+                c -> positionAfter(c, after), Cursor::getNext,
+                c -> new Key(c.getKey()));
+    }
+
+    /**
+     * Move the cursor to the first key after `key`, or to the first one if `key` is null.
+     */
+    protected static boolean positionAfter(Cursor c, Key key) {
+        if (key == null) {
+            return c.getNext();
+        }
+        return c.getSearchKeyRange(key.toByteIterable()) != null &&
+                (!key.equals(new Key(c.getKey())) || c.getNext());
+    }
+
+    /**
+     * Move the cursor of a store with duplicates to the first entry after (`key`, `value`).
+     */
+    protected static boolean positionAfter(Cursor c, ByteIterable key, ByteIterable value) {
+        if (c.getSearchBothRange(key, value) != null) {
+            return !value.equals(c.getValue()) || c.getNext();
+        }
+        // no entries of the key from the value on, continue with the next key
+        return c.getSearchKeyRange(key) != null && (!key.equals(c.getKey()) || c.getNextNoDup());
+    }
+
+    @Override
+    public Stream<T> streamValues(Tx.Read tx) {
+        return CursorSpliterator.stream(castTxn(tx), getMainDb(),
+                Cursor::getNext, Cursor::getNext,
+                c -> getValue(new Key(c.getKey()), Bytes.toBytes(c.getValue())));
+    }
+
     public long size(Tx.Read tx) {
         AtomicLong s = new AtomicLong();
         forEach(tx, (k, v) -> s.getAndIncrement());
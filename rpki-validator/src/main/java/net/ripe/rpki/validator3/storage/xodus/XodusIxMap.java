@@ -29,13 +29,18 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.UnsignedBytes;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Store;
 import jetbrains.exodus.env.StoreConfig;
 import jetbrains.exodus.env.Transaction;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.Bytes;
+import net.ripe.rpki.validator3.storage.CorruptedDataException;
 import net.ripe.rpki.validator3.storage.IxMap;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
@@ -51,45 +56,193 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
+ * New indexes are built online: the map is usable right away, the indexes are filled
+ * in the background in small chunks (see {@link #buildIndexes()}) while all the writes
+ * maintain them as usual. Until an index is complete in the snapshot of a transaction,
+ * queries on it use the index entries of the values up to the watermark of the build and
+ * compute the entries of the rest of the values by scanning them. Only the computed
+ * entries a query can return are kept, so lookups of an index key or range only hold
+ * their results while the scan runs.
  *
  * @param <T>
  */
+@Slf4j
 public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implements IxMap<T> {
 
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::getBytes, UnsignedBytes.lexicographicalComparator());
+    private static final Comparator<Pair<Key, Key>> ENTRY_ORDER = Comparator.<Pair<Key, Key>, Key>comparing(Pair::getLeft, KEY_ORDER)
+            .thenComparing(Pair::getRight, KEY_ORDER);
+
+    private final Xodus xodus;
     private final Map<String, Store> indexes;
     private final Map<String, Function<T, Set<Key>>> indexFunctions;
     private final List<BiConsumer<Tx.Write, Key>> onDeleteTriggers = new ArrayList<>();
 
+    private final Set<String> buildingIndexes;
+    /**
+     * High address of the log right after the build of the indexes was committed, transactions
+     * starting at or after this address see the complete indexes.
+     */
+    private volatile long builtAtHighAddress = Long.MAX_VALUE;
+    private ReindexProgress reindexProgress;
+
     public XodusIxMap(final Xodus xodus,
                       final String name,
                       final Coder<T> coder,
                       final Map<String, Function<T, Set<Key>>> indexFunctions) {
         super(xodus, name, coder);
+        this.xodus = xodus;
         this.indexFunctions = indexFunctions;
-        Pair<Map<String, Store>, Boolean> p = xodus.createIndexes(name, indexFunctions, StoreConfig.WITH_DUPLICATES_WITH_PREFIXING);
+        Pair<Map<String, Store>, Set<String>> p = xodus.createIndexes(name, indexFunctions, StoreConfig.WITH_DUPLICATES_WITH_PREFIXING);
         indexes = p.getLeft();
-        boolean reindex = p.getRight();
-        if (reindex) {
-            reindex();
+        buildingIndexes = ImmutableSet.copyOf(p.getRight());
+        if (!buildingIndexes.isEmpty()) {
+            final long total = env.computeInReadonlyTransaction(txn -> getMainDb().count(txn));
+            log.info("Building indexes {} of {} with {} values in the background", buildingIndexes, name, total);
+            reindexProgress = xodus.startReindex(name, buildingIndexes, total, this::buildIndexes);
         }
     }
 
-    private void reindex() {
-        this.env.executeInExclusiveTransaction(txn -> {
-            indexes.forEach((name, idx) -> env.truncateStore(idx.getName(), txn));
-            try (final Cursor ci = getMainDb().openCursor(txn)) {
-                while (ci.getNext()) {
-                    ByteIterable pk = ci.getKey();
-                    final T value = getValue(new Key(pk), Bytes.toBytes(ci.getValue()));
-                    indexFunctions.forEach((n, idxFun) -> {
-                        final Store idx = getIdx(n);
-                        idxFun.apply(value).forEach(ik -> idx.put(txn, ik.toByteIterable(), pk));
-                    });
+    private void buildIndexes() {
+        try {
+            boolean done = false;
+            long chunks = 0;
+            while (!done) {
+                final Pair<Integer, Boolean> chunk = env.computeInTransaction(this::buildChunk);
+                reindexProgress.processed(chunk.getLeft());
+                done = chunk.getRight();
+                if (++chunks % 100 == 0) {
+                    log.info("Building indexes {} of {}: {} of {} values processed", buildingIndexes, getName(),
+                            reindexProgress.getProcessedEntries().get(), reindexProgress.getTotalEntries());
+                }
+                if (!done) {
+                    Thread.sleep(xodus.getReindexChunkPause().toMillis());
                 }
             }
-        });
+            builtAtHighAddress = env.computeInReadonlyTransaction(Transaction::getHighAddress);
+            reindexProgress.finished();
+            log.info("Built indexes {} of {} in {}ms", buildingIndexes, getName(),
+                    reindexProgress.getFinishedAt().toEpochMilli() - reindexProgress.getStartedAt().toEpochMilli());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reindexProgress.failed("interrupted");
+        } catch (RuntimeException e) {
+            // The build starts over after the restart, queries keep using the fallback until then
+            log.error("Failed to build indexes {} of {}", buildingIndexes, getName(), e);
+            reindexProgress.failed(e.toString());
+        }
+    }
+
+    /**
+     * Add the index entries of the next chunk of values after the watermark and move the watermark.
+     *
+     * @return number of processed values and whether the build is finished
+     */
+    private Pair<Integer, Boolean> buildChunk(Transaction txn) {
+        final Key watermark = xodus.getReindexWatermark(txn, getName());
+        int count = 0;
+        Key last = null;
+        try (Cursor c = getMainDb().openCursor(txn)) {
+            boolean hasNext = positionAfter(c, watermark);
+            while (hasNext && count < xodus.getReindexChunkSize()) {
+                final Key pk = new Key(c.getKey());
+                try {
+                    final T value = getValue(pk, Bytes.toBytes(c.getValue()));
+                    final ByteIterable pkBuf = pk.toByteIterable();
+                    buildingIndexes.forEach(n -> indexFunctions.get(n).apply(value).stream()
+                            .filter(Objects::nonNull)
+                            .forEach(ik -> getIdx(n).put(txn, ik.toByteIterable(), pkBuf)));
+                } catch (CorruptedDataException e) {
+                    log.error("Not indexing corrupted value {} of {}", pk, getName());
+                }
+                last = pk;
+                count++;
+                hasNext = c.getNext();
+            }
+            if (!hasNext) {
+                xodus.setReindexWatermark(txn, getName(), null);
+                xodus.markIndexesBuilt(txn, getName(), buildingIndexes);
+                return Pair.of(count, true);
+            }
+        }
+        xodus.setReindexWatermark(txn, getName(), last);
+        return Pair.of(count, false);
+    }
+
+    private boolean isBuilt(String indexName) {
+        return !buildingIndexes.contains(indexName) || builtAtHighAddress != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return null if the index is complete in the snapshot of the transaction, otherwise
+     * the build watermark together with the index entries of the values after it that
+     * have an index key accepted by <code>indexKeys</code>
+     */
+    private PartialIndex partialIndex(Transaction txn, String indexName, Predicate<Key> indexKeys) {
+        if (!buildingIndexes.contains(indexName) || txn.getHighAddress() >= builtAtHighAddress) {
+            return null;
+        }
+        final Key watermark = xodus.getReindexWatermark(txn, getName());
+        final NavigableMap<Key, NavigableSet<Key>> rest = new TreeMap<>(KEY_ORDER);
+        final Function<T, Set<Key>> indexFunction = indexFunctions.get(indexName);
+        try (Cursor c = getMainDb().openCursor(txn)) {
+            boolean hasNext = positionAfter(c, watermark);
+            while (hasNext) {
+                final Key pk = new Key(c.getKey());
+                try {
+                    indexFunction.apply(getValue(pk, Bytes.toBytes(c.getValue()))).stream()
+                            .filter(ik -> ik != null && indexKeys.test(ik))
+                            .forEach(ik -> rest.computeIfAbsent(ik, k -> new TreeSet<>(KEY_ORDER)).add(pk));
+                } catch (CorruptedDataException e) {
+                    log.error("Skipping corrupted value {} of {}", pk, getName());
+                }
+                hasNext = c.getNext();
+            }
+        }
+        return new PartialIndex(watermark, rest);
+    }
+
+    /**
+     * All the (index key, primary key) entries of an index that is being built, in the order of the index.
+     */
+    private Stream<Pair<Key, Key>> partialIndexEntries(Transaction txn, Store index, PartialIndex partial, boolean ascending) {
+        final Stream<Pair<Key, Key>> indexed = CursorSpliterator.stream(txn, index,
+                ascending ? Cursor::getNext : Cursor::getLast,
+                ascending ? Cursor::getNext : Cursor::getPrev,
+                c -> Pair.of(new Key(c.getKey()), new Key(c.getValue())));
+        final NavigableMap<Key, NavigableSet<Key>> rest = ascending ? partial.rest : partial.rest.descendingMap();
+        final Iterator<Pair<Key, Key>> scanned = rest.entrySet().stream()
+                .flatMap(e -> (ascending ? e.getValue() : e.getValue().descendingSet()).stream().map(pk -> Pair.of(e.getKey(), pk)))
+                .iterator();
+        final Iterator<Pair<Key, Key>> merged = Iterators.mergeSorted(
+                Arrays.asList(indexed.filter(e -> partial.isIndexed(e.getRight())).iterator(), scanned),
+                ascending ? ENTRY_ORDER : ENTRY_ORDER.reversed());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+                .onClose(indexed::close);
+    }
+
+    private static class PartialIndex {
+        /**
+         * The values up to and including the watermark are in the index store.
+         */
+        final Key watermark;
+        /**
+         * Index entries of the values after the watermark.
+         */
+        final NavigableMap<Key, NavigableSet<Key>> rest;
+
+        PartialIndex(Key watermark, NavigableMap<Key, NavigableSet<Key>> rest) {
+            this.watermark = watermark;
+            this.rest = rest;
+        }
+
+        boolean isIndexed(Key pk) {
+            return watermark != null && KEY_ORDER.compare(pk, watermark) <= 0;
+        }
     }
 
     private Store getIdx(String name) {
@@ -271,7 +424,23 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
 
         Store index = getIdx(indexName);
         final Map<Key, T> m = new HashMap<>();
-        if (index != null) {
+        final PartialIndex partial = index == null ? null : partialIndex(castTxn(tx), indexName, ik -> true);
+        if (partial != null) {
+            try (Stream<Pair<Key, Key>> entries = partialIndexEntries(castTxn(tx), index, partial, ascending)) {
+                Key foundIndexKey = null;
+                for (Iterator<Pair<Key, Key>> it = entries.iterator(); it.hasNext(); ) {
+                    final Pair<Key, Key> e = it.next();
+                    if (foundIndexKey != null && !foundIndexKey.equals(e.getLeft())) {
+                        break;
+                    }
+                    final Optional<T> value = get(tx, e.getRight());
+                    if (value.isPresent() && predicate.test(value.get())) {
+                        foundIndexKey = e.getLeft();
+                        m.put(e.getRight(), value.get());
+                    }
+                }
+            }
+        } else if (index != null) {
             Store mainDb = getMainDb();
             Transaction txn = castTxn(tx);
             try (Cursor cursor = index.openCursor(txn)) {
@@ -313,12 +482,93 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
         return getValue(null, bb);
     }
 
+    @Override
+    public Stream<Key> streamPkByIndex(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        final Store index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
+        final PartialIndex partial = partialIndex(castTxn(tx), indexName, indexKey::equals);
+        final ByteIterable idxKey = indexKey.toByteIterable();
+        final Stream<Key> pks = CursorSpliterator.stream(castTxn(tx), index,
+                c -> c.getSearchKey(idxKey) != null, Cursor::getNextDup,
+                c -> new Key(c.getValue()));
+        if (partial != null) {
+            return Stream.concat(
+                    pks.filter(partial::isIndexed),
+                    partial.rest.getOrDefault(indexKey, Collections.emptyNavigableSet()).stream());
+        }
+        return pks;
+    }
+
+    @Override
+    public Stream<T> streamByIndex(String indexName, Tx.Read tx, Key indexKey, int batchSize) {
+        final Stream<Key> pks = streamPkByIndex(indexName, tx, indexKey);
+        final Iterator<List<Key>> batches = Iterators.partition(pks.iterator(), batchSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+                .flatMap(batch -> {
+                    final List<Key> sorted = new ArrayList<>(batch);
+                    sorted.sort(Comparator.comparing(Key::toByteIterable));
+                    return sorted.stream()
+                            .map(pk -> get(tx, pk))
+                            .filter(Optional::isPresent)
+                            .map(Optional::get);
+                })
+                .onClose(pks::close);
+    }
+
+    @Override
+    public Stream<T> streamByIdxDescending(String indexName, Tx.Read tx) {
+        final Store index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
+        final Store mainDb = getMainDb();
+        final Transaction txn = castTxn(tx);
+        final PartialIndex partial = partialIndex(txn, indexName, ik -> true);
+        if (partial != null) {
+            return partialIndexEntries(txn, index, partial, false)
+                    .map(e -> get(tx, e.getRight()))
+                    .filter(Optional::isPresent)
+                    .map(Optional::get);
+        }
+        return CursorSpliterator.stream(txn, index,
+                Cursor::getLast, Cursor::getPrev,
+                c -> {
+                    final ByteIterable pk = c.getValue();
+                    final ByteIterable value = mainDb.get(txn, pk);
+                    return value == null ? Optional.<T>empty() : Optional.of(getValue(new Key(pk), Bytes.toBytes(value)));
+                })
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
+    @Override
+    public Stream<Pair<Key, Key>> streamIndexEntries(String indexName, Tx.Read tx, Pair<Key, Key> after) {
+        final Store index = getIdx(indexName);
+        if (index == null) {
+            return Stream.empty();
+        }
+        final Transaction txn = castTxn(tx);
+        final PartialIndex partial = partialIndex(txn, indexName, ik -> after == null || KEY_ORDER.compare(ik, after.getLeft()) >= 0);
+        if (partial != null) {
+            final Stream<Pair<Key, Key>> entries = partialIndexEntries(txn, index, partial, true);
+            return after == null ? entries : entries.filter(e -> ENTRY_ORDER.compare(e, after) > 0);
+        }
+        return CursorSpliterator.stream(txn, index,
+                c -> after == null ? c.getNext() : positionAfter(c, after.getLeft().toByteIterable(), after.getRight().toByteIterable()),
+                Cursor::getNext,
+                c -> Pair.of(new Key(c.getKey()), new Key(c.getValue())));
+    }
+
     private Set<Key> getPkByIndexKeyRange(String indexName, Tx.Read tx, ByteIterable start, ByteIterable stop) {
         final Store index = getIdx(indexName);
         if (index == null) {
             return Collections.emptySet();
         }
         final Transaction txn = castTxn(tx);
+        final PartialIndex partial = partialIndex(txn, indexName, ik -> inRange(ik.toByteIterable(), start, stop));
         final Set<Key> pks = new HashSet<>();
         try (Cursor cursor = index.openCursor(txn)) {
             if (start == null) {
@@ -363,9 +613,159 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
                 }
             }
         }
+        if (partial != null) {
+            pks.removeIf(pk -> !partial.isIndexed(pk));
+            pks.addAll(partialRange(partial.rest, start, stop));
+        }
+        return pks;
+    }
+
+    /**
+     * Same bounds as {@link #getPkByIndexKeyRange}: inclusive start, exclusive stop unless it is
+     * the same as the start.
+     */
+    private static boolean inRange(ByteIterable indexKey, ByteIterable start, ByteIterable stop) {
+        if (start != null && indexKey.compareTo(start) < 0) {
+            return false;
+        }
+        if (stop == null) {
+            return true;
+        }
+        return start != null && start.equals(stop) ? indexKey.compareTo(stop) <= 0 : indexKey.compareTo(stop) < 0;
+    }
+
+    private static Set<Key> partialRange(NavigableMap<Key, NavigableSet<Key>> entries, ByteIterable start, ByteIterable stop) {
+        final NavigableMap<Key, NavigableSet<Key>> range;
+        if (start == null) {
+            range = stop == null ? entries : entries.headMap(new Key(stop), false);
+        } else if (stop == null) {
+            range = entries.tailMap(new Key(start), true);
+        } else if (start.equals(stop)) {
+            range = entries.subMap(new Key(start), true, new Key(stop), true);
+        } else {
+            range = entries.subMap(new Key(start), true, new Key(stop), false);
+        }
+        final Set<Key> pks = new HashSet<>();
+        range.values().forEach(pks::addAll);
         return pks;
     }
 
+    /**
+     * Check that the value is present in all the indexes it should be in.
+     */
+    @Override
+    protected void scrubValue(Tx.Read tx, Key pk, byte[] storedValue, ScrubReport report, List<IndexRepair> repairs) {
+        if (indexFunctions.isEmpty()) {
+            return;
+        }
+        final Transaction txn = castTxn(tx);
+        final ByteIterable pkBuf = pk.toByteIterable();
+        final T value = decode(storedValue);
+        indexFunctions.forEach((idxName, idxFun) -> {
+            if (!isBuilt(idxName)) {
+                return;
+            }
+            final Store index = getIdx(idxName);
+            idxFun.apply(value).stream()
+                    .filter(Objects::nonNull)
+                    .forEach(ik -> {
+                        try (Cursor c = index.openCursor(txn)) {
+                            if (!c.getSearchBoth(ik.toByteIterable(), pkBuf)) {
+                                report.missingIndexEntry();
+                                repairs.add(new IndexRepair(idxName, ik, pk, true));
+                            }
+                        }
+                    });
+        });
+    }
+
+    /**
+     * @return names of the completely built indexes
+     */
+    Set<String> getIndexNames() {
+        return indexFunctions.keySet().stream().filter(this::isBuilt).collect(Collectors.toSet());
+    }
+
+    /**
+     * Check that at most `maxEntries` entries of the index refer to existing values
+     * having the same index key, starting from the entry `from` or from the beginning
+     * of the index if `from` is null.
+     *
+     * @return the (index key, primary key) pair to continue from or null if the end of the index is reached
+     */
+    Pair<Key, Key> scrubIndex(Tx.Read tx, String indexName, Pair<Key, Key> from, int maxEntries,
+                              ScrubReport report, List<IndexRepair> repairs) {
+        final Transaction txn = castTxn(tx);
+        try (Cursor c = getIdx(indexName).openCursor(txn)) {
+            boolean hasNext;
+            if (from == null) {
+                hasNext = c.getNext();
+            } else {
+                hasNext = c.getSearchBothRange(from.getLeft().toByteIterable(), from.getRight().toByteIterable()) != null;
+                if (!hasNext) {
+                    // all the entries of the index key are processed already, go to the next one
+                    final ByteIterable next = c.getSearchKeyRange(from.getLeft().toByteIterable());
+                    hasNext = next != null && (!from.getLeft().equals(new Key(c.getKey())) || c.getNextNoDup());
+                }
+            }
+            int count = 0;
+            while (hasNext) {
+                final Key ik = new Key(c.getKey());
+                final Key pk = new Key(c.getValue());
+                if (count++ >= maxEntries) {
+                    return Pair.of(ik, pk);
+                }
+                report.indexEntryChecked();
+                if (!isValidIndexEntry(txn, indexName, ik, pk)) {
+                    report.danglingIndexEntry();
+                    repairs.add(new IndexRepair(indexName, ik, pk, false));
+                }
+                hasNext = c.getNext();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply the repairs, every one of them is checked again since the data
+     * could have been modified after the scrubber has found the inconsistency.
+     *
+     * @return number of actually repaired index entries
+     */
+    int repair(Tx.Write tx, List<IndexRepair> repairs) {
+        final Transaction txn = castTxn(tx);
+        int repaired = 0;
+        for (IndexRepair r : repairs) {
+            final boolean shouldExist = isValidIndexEntry(txn, r.getIndexName(), r.getIndexKey(), r.getPrimaryKey());
+            final ByteIterable ik = r.getIndexKey().toByteIterable();
+            final ByteIterable pk = r.getPrimaryKey().toByteIterable();
+            try (Cursor c = getIdx(r.getIndexName()).openCursor(txn)) {
+                final boolean exists = c.getSearchBoth(ik, pk);
+                if (shouldExist && !exists) {
+                    getIdx(r.getIndexName()).put(txn, ik, pk);
+                    repaired++;
+                } else if (!shouldExist && exists) {
+                    c.deleteCurrent();
+                    repaired++;
+                }
+            }
+        }
+        return repaired;
+    }
+
+    private boolean isValidIndexEntry(Transaction txn, String indexName, Key ik, Key pk) {
+        final ByteIterable bi = getMainDb().get(txn, pk.toByteIterable());
+        if (bi == null) {
+            return false;
+        }
+        try {
+            return indexFunctions.get(indexName).apply(decode(Bytes.toBytes(bi))).contains(ik);
+        } catch (RuntimeException e) {
+            // the value itself is broken, it is reported when the main map is scrubbed
+            return true;
+        }
+    }
+
     @Override
     public XodusIxBase.Sizes sizeInfo(Tx.Read tx) {
         XodusIxBase.Sizes sizes = super.sizeInfo(tx);
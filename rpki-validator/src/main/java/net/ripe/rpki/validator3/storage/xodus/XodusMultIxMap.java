@@ -42,6 +42,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class XodusMultIxMap<T extends Serializable> extends XodusIxBase<T> implements MultIxMap<T> {
 
@@ -124,6 +125,17 @@ public class XodusMultIxMap<T extends Serializable> extends XodusIxBase<T> imple
         return getValue(null, bb);
     }
 
+    @Override
+    public Stream<Pair<Key, T>> streamEntries(Tx.Read tx, Pair<Key, T> after) {
+        return CursorSpliterator.stream(castTxn(tx), getMainDb(),
+                c -> after == null ? c.getNext() : positionAfter(c, after.getLeft().toByteIterable(), valueWithChecksum(after.getRight())),
+                Cursor::getNext,
+                c -> {
+                    final Key k = new Key(c.getKey());
+                    return Pair.of(k, getValue(k, Bytes.toBytes(c.getValue())));
+                });
+    }
+
     @Override
     public boolean exists(Tx.Read tx, Key pk, T value) {
         try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
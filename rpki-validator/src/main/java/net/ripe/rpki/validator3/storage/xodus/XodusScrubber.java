@@ -0,0 +1,209 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.storage.IxBase;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Walks through all the maps of the storage in small chunks, every chunk in its own
+ * short transaction, verifies checksums of all the values and consistency of the indexes
+ * with the main maps. Inconsistent index entries are repaired, corrupted values are only
+ * reported.
+ *
+ * After the pass Xodus GC is triggered if the utilisation of the log is too low.
+ */
+@Component
+@Slf4j
+public class XodusScrubber {
+
+    private final Xodus xodus;
+    private final int chunkSize;
+    private final Duration chunkPause;
+    private final int gcUtilizationThreshold;
+
+    private final Counter gcTriggeredCounter;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile ScrubReport report;
+
+    @Autowired
+    public XodusScrubber(Xodus xodus,
+                         MeterRegistry registry,
+                         @Value("${rpki.validator.storage.scrubber.chunk.size:1000}") int chunkSize,
+                         @Value("${rpki.validator.storage.scrubber.chunk.pause:PT0.05S}") String chunkPause,
+                         @Value("${rpki.validator.storage.gc.utilization.threshold:50}") int gcUtilizationThreshold) {
+        this.xodus = xodus;
+        this.chunkSize = chunkSize;
+        this.chunkPause = Duration.parse(chunkPause);
+        this.gcUtilizationThreshold = gcUtilizationThreshold;
+
+        reportGauge(registry, "rpkivalidator.xodus.scrub.values.checked", "Number of values with verified checksum in the last scrubber pass", ScrubReport::getCheckedValues);
+        reportGauge(registry, "rpkivalidator.xodus.scrub.values.corrupted", "Number of values with wrong checksum in the last scrubber pass", ScrubReport::getCorruptedValues);
+        reportGauge(registry, "rpkivalidator.xodus.scrub.index.checked", "Number of checked index entries in the last scrubber pass", ScrubReport::getCheckedIndexEntries);
+        reportGauge(registry, "rpkivalidator.xodus.scrub.index.missing", "Number of missing index entries in the last scrubber pass", ScrubReport::getMissingIndexEntries);
+        reportGauge(registry, "rpkivalidator.xodus.scrub.index.dangling", "Number of index entries without a matching value in the last scrubber pass", ScrubReport::getDanglingIndexEntries);
+        reportGauge(registry, "rpkivalidator.xodus.scrub.index.repaired", "Number of repaired index entries in the last scrubber pass", ScrubReport::getRepairedIndexEntries);
+        Gauge.builder("rpkivalidator.xodus.utilization.percent", xodus, Xodus::getUtilizationPercent)
+                .description("Percentage of the database log used by live data")
+                .register(registry);
+        this.gcTriggeredCounter = Counter.builder("rpkivalidator.xodus.gc.triggered")
+                .description("Number of times Xodus GC was triggered because of low utilization")
+                .register(registry);
+    }
+
+    private void reportGauge(MeterRegistry registry, String name, String description, ToDoubleFunction<ScrubReport> f) {
+        Gauge.builder(name, this, s -> {
+                    final ScrubReport r = s.getReport();
+                    return r == null ? 0 : f.applyAsDouble(r);
+                })
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * @return report of the running pass or of the last finished one, null if there were none.
+     */
+    public ScrubReport getReport() {
+        final ScrubReport r = report;
+        return r == null ? null : r.snapshot();
+    }
+
+    public ScrubReport scrub() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Scrubber is already running");
+            return getReport();
+        }
+        try {
+            final ScrubReport current = new ScrubReport();
+            report = current;
+            final List<Map.Entry<String, IxBase<?>>> ixMaps = new ArrayList<>(xodus.getIxMaps().entrySet());
+            ixMaps.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+            for (Map.Entry<String, IxBase<?>> e : ixMaps) {
+                if (e.getValue() instanceof XodusIxBase && !scrubMap((XodusIxBase<?>) e.getValue(), current)) {
+                    log.info("Scrubber was interrupted");
+                    return current.snapshot();
+                }
+            }
+            current.finished();
+            final ScrubReport r = current.snapshot();
+            log.info("Scrubber pass finished in {}ms: checked {} values and {} index entries, {} corrupted values, " +
+                            "{} missing and {} dangling index entries, {} index entries repaired",
+                    Duration.between(r.getStartedAt(), r.getFinishedAt()).toMillis(),
+                    r.getCheckedValues(), r.getCheckedIndexEntries(), r.getCorruptedValues(),
+                    r.getMissingIndexEntries(), r.getDanglingIndexEntries(), r.getRepairedIndexEntries());
+            if (r.getCorruptedValues() > 0) {
+                log.error("Found corrupted values: {}", r.getCorruptedKeys());
+            }
+            compactIfNeeded();
+            return r;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private boolean scrubMap(XodusIxBase<?> ixMap, ScrubReport r) {
+        r.scrubbing(ixMap.getName());
+        Key next = null;
+        do {
+            final Key from = next;
+            final List<IndexRepair> repairs = new ArrayList<>();
+            next = xodus.readTx(tx -> ixMap.scrubValues(tx, from, chunkSize, r, repairs));
+            repair(ixMap, repairs, r);
+            if (!pause()) {
+                return false;
+            }
+        } while (next != null);
+
+        if (ixMap instanceof XodusIxMap) {
+            final XodusIxMap<?> indexed = (XodusIxMap<?>) ixMap;
+            for (String indexName : indexed.getIndexNames()) {
+                r.scrubbing(ixMap.getName() + "-idx-" + indexName);
+                Pair<Key, Key> nextEntry = null;
+                do {
+                    final Pair<Key, Key> from = nextEntry;
+                    final List<IndexRepair> repairs = new ArrayList<>();
+                    nextEntry = xodus.readTx(tx -> indexed.scrubIndex(tx, indexName, from, chunkSize, r, repairs));
+                    repair(ixMap, repairs, r);
+                    if (!pause()) {
+                        return false;
+                    }
+                } while (nextEntry != null);
+            }
+        }
+        return true;
+    }
+
+    private void repair(XodusIxBase<?> ixMap, List<IndexRepair> repairs, ScrubReport r) {
+        if (!repairs.isEmpty() && ixMap instanceof XodusIxMap) {
+            final int repaired = xodus.writeTx(tx -> ((XodusIxMap<?>) ixMap).repair(tx, repairs));
+            log.warn("Repaired {} index entries of {}", repaired, ixMap.getName());
+            r.repaired(repaired);
+        }
+    }
+
+    private boolean pause() {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        try {
+            Thread.sleep(chunkPause.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void compactIfNeeded() {
+        final long utilization = xodus.getUtilizationPercent();
+        if (utilization >= 0 && utilization < gcUtilizationThreshold) {
+            log.info("Database utilization is {}%, below the threshold of {}%, triggering GC", utilization, gcUtilizationThreshold);
+            gcTriggeredCounter.increment();
+            xodus.gc();
+        }
+    }
+}
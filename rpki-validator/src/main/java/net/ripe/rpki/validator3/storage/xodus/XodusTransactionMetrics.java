@@ -0,0 +1,84 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Open transactions keep the log files they read from alive, so that Xodus GC can't
+ * reclaim them. Long readers are reported to find the endpoints or jobs holding
+ * transactions for too long.
+ */
+@Component
+public class XodusTransactionMetrics {
+
+    private final Xodus xodus;
+    private final Duration longReaderThreshold;
+
+    @Autowired
+    public XodusTransactionMetrics(Xodus xodus,
+                                   MeterRegistry registry,
+                                   @Value("${rpki.validator.storage.long.reader.threshold:PT30S}") String longReaderThreshold) {
+        this.xodus = xodus;
+        this.longReaderThreshold = Duration.parse(longReaderThreshold);
+
+        Gauge.builder("rpkivalidator.xodus.tx.open", this, m -> m.xodus.getTxs().size())
+                .description("Number of open Xodus transactions")
+                .register(registry);
+        Gauge.builder("rpkivalidator.xodus.tx.long.readers", this, XodusTransactionMetrics::countLongReaders)
+                .description("Number of read transactions open for longer than the threshold, pinning old log files")
+                .register(registry);
+        Gauge.builder("rpkivalidator.xodus.tx.oldest.age.seconds", this, XodusTransactionMetrics::oldestAgeSeconds)
+                .description("Age of the oldest open Xodus transaction in seconds")
+                .register(registry);
+    }
+
+    long countLongReaders() {
+        final Instant startedBefore = Instant.now().minus(longReaderThreshold);
+        return xodus.getTxs().values().stream()
+                .filter(tx -> !tx.isWriting() && tx.getStartedAt().isBefore(startedBefore))
+                .count();
+    }
+
+    double oldestAgeSeconds() {
+        final Instant now = Instant.now();
+        return xodus.getTxs().values().stream()
+                .mapToLong(tx -> Duration.between(tx.getStartedAt(), now).toMillis())
+                .max()
+                .orElse(0) / 1000.0;
+    }
+}
@@ -36,8 +36,11 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.Tx;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * This is to have type-level distinction between
@@ -54,6 +57,7 @@ public abstract class XodusTx implements AutoCloseable {
     @Getter
     private final long id;
     private boolean aborted = false;
+    private Map<Object, Object> attributes;
 
     private static AtomicLong idseq = new AtomicLong(1);
 
@@ -105,6 +109,14 @@ public abstract class XodusTx implements AutoCloseable {
         checkEnv();
     }
 
+    @SuppressWarnings("unchecked")
+    public synchronized <V> V attribute(Object key, Supplier<V> supplier) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        return (V) attributes.computeIfAbsent(key, k -> supplier.get());
+    }
+
     void checkEnv() {
         Xodus.checkEnv(env);
     }
@@ -0,0 +1,169 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import net.ripe.rpki.validator3.IntegrationTest;
+import net.ripe.rpki.validator3.api.roaprefixassertions.AddRoaPrefixAssertion;
+import net.ripe.rpki.validator3.api.bgpsec.BgpSecAssertionsService;
+import net.ripe.rpki.validator3.api.bgpsec.BgpSecFilterService;
+import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilterService;
+import net.ripe.rpki.validator3.api.roaprefixassertions.RoaPrefixAssertionsService;
+import net.ripe.rpki.validator3.api.slurm.SlurmStore;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@IntegrationTest
+public class RtrPayloadFeedTest {
+
+    @Autowired
+    private RtrPayloadFeed feed;
+
+    @Autowired
+    private RoaPrefixAssertionsService roaPrefixAssertionsService;
+
+    @Autowired
+    private ValidatedRpkiObjects validatedRpkiObjects;
+
+    @Autowired
+    private IgnoreFilterService ignoreFilterService;
+
+    @Autowired
+    private BgpSecAssertionsService bgpSecAssertionsService;
+
+    @Autowired
+    private BgpSecFilterService bgpSecFilterService;
+
+    @Autowired
+    private SlurmStore slurmStore;
+
+    @After
+    public void tearDown() {
+        roaPrefixAssertionsService.clear();
+    }
+
+    @Test
+    public void should_notify_waiting_clients_of_changes() throws Exception {
+        final long sessionId = feed.getSessionId();
+        final long serial = awaitSerial();
+        assertThat(feed.getChanges(sessionId, serial)).isEmpty();
+
+        final CompletableFuture<RtrPayloadFeed.Changes> notified = new CompletableFuture<>();
+        feed.onChanges(sessionId, serial, notified::complete);
+        assertThat(notified).isNotDone();
+
+        roaPrefixAssertionsService.execute(AddRoaPrefixAssertion.builder().asn("AS65000").prefix("192.0.2.0/24").build());
+
+        final RtrPayloadFeed.Changes changes = notified.get(10, TimeUnit.SECONDS);
+        assertThat(changes.getSessionId()).isEqualTo(sessionId);
+        assertThat(changes.getSerial()).isEqualTo(serial + 1);
+        assertThat(changes.isReset()).isFalse();
+        assertThat(changes.getDelta().getVrpAdditionCount()).isEqualTo(1);
+        assertThat(changes.getDelta().getVrpRemovalCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void should_reset_clients_of_other_sessions() {
+        final Optional<RtrPayloadFeed.Changes> changes = feed.getChanges(feed.getSessionId() + 1, 0L);
+        assertThat(changes).isPresent();
+        assertThat(changes.get().isReset()).isTrue();
+        assertThat(changes.get().getSerial()).isEqualTo(feed.getSerial());
+
+        assertThat(feed.getChanges(null, null).get().isReset()).isTrue();
+    }
+
+    @Test
+    public void should_encode_snapshot_once_per_serial() throws Exception {
+        final long serial = awaitSerial();
+        final RtrPayloadFeed.Snapshot snapshot = feed.getSnapshot();
+        assertThat(snapshot.getSerial()).isEqualTo(serial);
+        assertThat(snapshot.getContent()).isEqualTo(feed.getChanges(null, null).get().toByteArray());
+        assertThat(feed.getSnapshot()).isSameAs(snapshot);
+
+        roaPrefixAssertionsService.execute(AddRoaPrefixAssertion.builder().asn("AS65000").prefix("192.0.2.0/24").build());
+        final long updatedSerial = awaitSerial();
+
+        final RtrPayloadFeed.Snapshot updated = feed.getSnapshot();
+        assertThat(updated.getSerial()).isEqualTo(updatedSerial).isGreaterThan(serial);
+        assertThat(updated.getETag()).isNotEqualTo(snapshot.getETag());
+    }
+
+    @Test
+    public void should_become_ready_without_changes_of_the_validated_objects() throws Exception {
+        final AtomicBoolean ready = new AtomicBoolean();
+        final ValidatorReadiness readiness = new ValidatorReadiness() {
+            @Override
+            public boolean isReady() {
+                return ready.get();
+            }
+        };
+        final RtrPayloadFeed notReadyFeed = new RtrPayloadFeed(100, validatedRpkiObjects, ignoreFilterService,
+            roaPrefixAssertionsService, bgpSecAssertionsService, bgpSecFilterService, slurmStore, readiness, "PT0.1S");
+        try {
+            notReadyFeed.refresh();
+            assertThat(notReadyFeed.getChanges(null, null).get().isReady()).isFalse();
+
+            final long serial = notReadyFeed.getSerial();
+            final CompletableFuture<RtrPayloadFeed.Changes> notified = new CompletableFuture<>();
+            notReadyFeed.onChanges(notReadyFeed.getSessionId(), serial, notified::complete);
+
+            ready.set(true);
+
+            final RtrPayloadFeed.Changes changes = notified.get(10, TimeUnit.SECONDS);
+            assertThat(changes.isReady()).isTrue();
+            assertThat(changes.getSerial()).isEqualTo(serial + 1);
+        } finally {
+            notReadyFeed.stop();
+        }
+    }
+
+    /**
+     * Wait for pending updates of the feed, e.g. from clearing the assertions of earlier tests.
+     */
+    private long awaitSerial() throws InterruptedException {
+        long serial;
+        do {
+            serial = feed.getSerial();
+            Thread.sleep(200);
+        } while (serial != feed.getSerial());
+        return serial;
+    }
+}
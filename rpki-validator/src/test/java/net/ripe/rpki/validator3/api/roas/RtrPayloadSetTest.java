@@ -0,0 +1,123 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import net.ripe.ipresource.IpRange;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RtrPayloadSetTest {
+
+    @Test
+    public void should_keep_distinct_vrps() {
+        RtrPayloadSet set = RtrPayloadSet.builder()
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 24)
+            .vrp(3333, IpRange.parse("2001:db8::/32"), 48)
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 24)
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 16)
+            .build();
+
+        assertThat(set.getVrpCount()).isEqualTo(3);
+        assertThat(set).isEqualTo(RtrPayloadSet.builder()
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 16)
+            .vrp(3333, IpRange.parse("2001:db8::/32"), 48)
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 24)
+            .build());
+    }
+
+    @Test
+    public void should_compose_deltas() {
+        Random random = new Random(42);
+        RtrPayloadSet[] versions = new RtrPayloadSet[10];
+        for (int v = 0; v < versions.length; v++) {
+            RtrPayloadSet.Builder builder = RtrPayloadSet.builder();
+            for (int i = 0; i < 100; i++) {
+                if (random.nextBoolean()) {
+                    builder.vrp(i % 7, IpRange.parse("10." + i + ".0.0/16"), 16 + i % 3);
+                }
+            }
+            if (random.nextBoolean()) {
+                builder.routerKey(65000, "c2tp", "c3BraQ==");
+            }
+            versions[v] = builder.build();
+        }
+
+        for (int from = 0; from < versions.length; from++) {
+            RtrPayloadSet.Delta composed = versions[from].diff(versions[from]);
+            assertThat(composed.isEmpty()).isTrue();
+            for (int to = from + 1; to < versions.length; to++) {
+                composed = composed.then(versions[to - 1].diff(versions[to]));
+                assertThat(composed).isEqualTo(versions[from].diff(versions[to]));
+            }
+        }
+    }
+
+    @Test
+    public void should_write_fixed_width_records() throws Exception {
+        RtrPayloadSet set = RtrPayloadSet.builder()
+            .vrp(3333, IpRange.parse("10.0.0.0/8"), 24)
+            .vrp(4294967295L, IpRange.parse("2001:db8::/32"), 48)
+            .build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        set.asDelta().writeTo(new DataOutputStream(bytes));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        assertThat(buffer.remaining()).isEqualTo(4 + 2 * 24 + 3 * 4);
+        assertThat(buffer.getInt()).isEqualTo(2);
+
+        assertThat(buffer.getInt()).isEqualTo(3333);
+        assertThat(buffer.get()).isEqualTo((byte) 4);
+        assertThat(buffer.get()).isEqualTo((byte) 8);
+        assertThat(buffer.get()).isEqualTo((byte) 24);
+        assertThat(buffer.get()).isEqualTo((byte) 0);
+        assertThat(buffer.getInt()).isEqualTo(0x0a000000);
+        assertThat(buffer.getInt()).isEqualTo(0);
+        assertThat(buffer.getLong()).isEqualTo(0);
+
+        assertThat(Integer.toUnsignedLong(buffer.getInt())).isEqualTo(4294967295L);
+        assertThat(buffer.get()).isEqualTo((byte) 6);
+        assertThat(buffer.get()).isEqualTo((byte) 32);
+        assertThat(buffer.get()).isEqualTo((byte) 48);
+        assertThat(buffer.get()).isEqualTo((byte) 0);
+        assertThat(buffer.getLong()).isEqualTo(0x20010db800000000L);
+        assertThat(buffer.getLong()).isEqualTo(0);
+
+        assertThat(buffer.getInt()).isEqualTo(0);
+        assertThat(buffer.getInt()).isEqualTo(0);
+        assertThat(buffer.getInt()).isEqualTo(0);
+    }
+}
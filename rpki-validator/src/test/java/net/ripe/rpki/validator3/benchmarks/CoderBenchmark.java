@@ -0,0 +1,128 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.benchmarks;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.encoding.GsonCoder;
+import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.CTValidationRunCoder;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of a validation run with the custom coders,
+ * the map-based {@link Encoded} parsing they replaced and the Gson fallback.
+ *
+ * Run it with "mvn test -Dtest=CoderBenchmark" after removing @Ignore.
+ */
+@Ignore
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoderBenchmark {
+
+    @Param({"10", "10000"})
+    public int checkCount;
+
+    private final CTValidationRunCoder coder = new CTValidationRunCoder();
+    private final GsonCoder<CertificateTreeValidationRun> gsonCoder = new GsonCoder<>(CertificateTreeValidationRun.class);
+
+    private CertificateTreeValidationRun validationRun;
+    private byte[] encoded;
+    private byte[] gsonEncoded;
+
+    @Setup
+    public void setUp() {
+        validationRun = new CertificateTreeValidationRun(Ref.unsafe("ta", Key.of(1L)));
+        validationRun.setId(Key.of(2L));
+        for (int i = 0; i < checkCount; i++) {
+            validationRun.addCheck(new ValidationCheck("rsync://rpki.example.org/repository/" + i + ".roa",
+                    ValidationCheck.Status.WARNING, "cert.crldp.present", "param-" + i));
+        }
+        validationRun.setSucceeded();
+        encoded = coder.toBytes(validationRun);
+        gsonEncoded = gsonCoder.toBytes(validationRun);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return coder.toBytes(validationRun);
+    }
+
+    @Benchmark
+    public CertificateTreeValidationRun decode() {
+        return coder.fromBytes(encoded);
+    }
+
+    @Benchmark
+    public Map<Short, byte[]> decodeFieldMap() {
+        return Encoded.fromByteArray(encoded).getContent();
+    }
+
+    @Benchmark
+    public byte[] encodeGson() {
+        return gsonCoder.toBytes(validationRun);
+    }
+
+    @Benchmark
+    public CertificateTreeValidationRun decodeGson() {
+        return gsonCoder.fromBytes(gsonEncoded);
+    }
+
+    @Test
+    public void run() throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CoderBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
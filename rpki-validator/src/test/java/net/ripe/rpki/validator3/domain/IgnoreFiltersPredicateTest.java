@@ -0,0 +1,80 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain;
+
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilter;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IgnoreFiltersPredicateTest {
+
+    private final IgnoreFiltersPredicate predicate = new IgnoreFiltersPredicate(Stream.of(
+        new IgnoreFilter(1, 64496L, null, "asn"),
+        new IgnoreFilter(2, null, IpRange.parse("10.0.0.0/8"), "prefix"),
+        new IgnoreFilter(3, 64497L, IpRange.parse("10.1.0.0/16"), "more specific prefix and asn"),
+        new IgnoreFilter(4, 64498L, IpRange.parse("2001:db8::/32"), "ipv6"),
+        new IgnoreFilter(5, null, IpRange.parse("192.168.0.0-192.168.0.5"), "range")
+    ));
+
+    @Test
+    public void should_filter_primitive_prefixes_like_roa_prefixes() {
+        assertSameResult(64496, "192.0.2.0/24", true);
+        assertSameResult(64500, "192.0.2.0/24", false);
+        assertSameResult(64500, "10.2.0.0/16", true);
+        assertSameResult(64500, "10.0.0.0/8", true);
+        assertSameResult(64500, "0.0.0.0/0", false);
+        assertSameResult(64497, "10.1.2.0/24", true);
+        // Only the most specific filter applies
+        assertSameResult(64500, "10.1.2.0/24", false);
+        assertSameResult(64498, "2001:db8:1::/48", true);
+        assertSameResult(64498, "2001:db9::/32", false);
+        assertSameResult(64498, "::/0", false);
+        assertSameResult(64500, "192.168.0.4/31", true);
+        assertSameResult(64500, "192.168.0.4/30", false);
+    }
+
+    private void assertSameResult(long asn, String prefix, boolean ignored) {
+        final IpRange range = IpRange.parse(prefix);
+        final BigInteger start = range.getStart().getValue();
+        assertThat(predicate.test(ValidatedRoaPrefix.of(null, asn, range, null, 0, 0, BigInteger.ONE, ImmutableSortedSet.of())))
+            .as("%s AS%d", prefix, asn)
+            .isEqualTo(ignored);
+        assertThat(predicate.test(asn, range.getType() == IpResourceType.IPv6, start.shiftRight(Long.SIZE).longValue(), start.longValue(), range.getPrefixLength()))
+            .as("%s AS%d as primitive values", prefix, asn)
+            .isEqualTo(ignored);
+    }
+}
@@ -103,4 +103,25 @@ public class RpkiObjectCleanupServiceTest extends GenericStorageTest {
         // Orphan is now old, so should be deleted
         assertThat(subject.cleanupRpkiObjects()).isEqualTo(1);
     }
+
+    @Test
+    public void should_keep_objects_reachable_again() throws Exception {
+        RpkiObject object = new RpkiObject(
+            new X509ResourceCertificateBuilder()
+                .withResources(IpResourceSet.parse("10.0.0.0/8"))
+                .withIssuerDN(new X500Principal("CN=issuer"))
+                .withSubjectDN(new X500Principal("CN=reachable"))
+                .withSerial(TrustAnchorsFactory.nextSerial())
+                .withPublicKey(KEY_PAIR_FACTORY.generate().getPublic())
+                .withSigningKeyPair(KEY_PAIR_FACTORY.generate())
+                .withValidityPeriod(new ValidityPeriod(DateTime.now(), DateTime.now().plusYears(1)))
+                .build()
+        );
+        wtx0(tx -> rpkiObjects.put(tx, object));
+        wtx0(tx -> rpkiObjects.markReachable(tx, object.key(), InstantWithoutNanos.now().minus(Duration.ofDays(10))));
+        wtx0(tx -> rpkiObjects.markReachable(tx, Collections.singletonList(object.key())));
+
+        assertThat(subject.cleanupRpkiObjects()).isEqualTo(0);
+        assertThat(rtx(tx -> rpkiObjects.get(tx, object.key())).isPresent()).isTrue();
+    }
 }
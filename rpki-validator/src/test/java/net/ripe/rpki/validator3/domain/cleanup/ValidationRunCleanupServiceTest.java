@@ -145,6 +145,39 @@ public class ValidationRunCleanupServiceTest extends GenericStorageTest {
         assertThat(oldCount.get()).isEqualTo(1);
     }
 
+    @Test
+    public void shouldCleanUpOldUnfinishedValidationRun() {
+        final InstantWithoutNanos lastMonth = InstantWithoutNanos.now().minus(Duration.ofDays(30));
+        CertificateTreeValidationRun unfinished = new CertificateTreeValidationRun(testTARef1);
+        unfinished.setCreatedAt(lastMonth);
+        wtx0(tx -> getValidationRuns().add(tx, unfinished));
+
+        CertificateTreeValidationRun running = new CertificateTreeValidationRun(testTARef1);
+        wtx0(tx -> getValidationRuns().add(tx, running));
+
+        AtomicInteger oldCount = subject.cleanupValidationRuns().getLeft();
+        assertThat(oldCount.get()).isEqualTo(1);
+        assertThat(rtx(tx -> getValidationRuns().get(tx, CertificateTreeValidationRun.class, running.key().asLong())).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldCleanUpOldValidationRunsInChunks() {
+        final InstantWithoutNanos lastMonth = InstantWithoutNanos.now().minus(Duration.ofDays(30));
+        wtx0(tx -> {
+            for (int i = 0; i < 250; i++) {
+                CertificateTreeValidationRun oldValidationRun = new CertificateTreeValidationRun(testTARef1);
+                oldValidationRun.setCreatedAt(lastMonth);
+                oldValidationRun.setCompletedAt(InstantWithoutNanos.now().minus(Duration.ofDays(30).minusMinutes(i)));
+                getValidationRuns().add(tx, oldValidationRun);
+            }
+        });
+
+        AtomicInteger oldCount = subject.cleanupValidationRuns().getLeft();
+        assertThat(oldCount.get()).isEqualTo(250);
+        List<CertificateTreeValidationRun> remaining = rtx(tx -> getValidationRuns().findAll(tx, CertificateTreeValidationRun.class));
+        assertThat(remaining).isEmpty();
+    }
+
     @Test
     public void shouldCleanUpOrphanedAssociationWithObject() {
 
@@ -0,0 +1,68 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocationDictionaryTest {
+
+    @Test
+    public void should_return_stored_locations() {
+        final String[] locations = IntStream.range(0, 100)
+            .mapToObj(i -> "rsync://rpki.example.net/repository/" + (i / 10) + "/élément-" + i + ".roa")
+            .sorted()
+            .toArray(String[]::new);
+
+        final LocationDictionary dictionary = LocationDictionary.of(locations);
+
+        assertThat(dictionary.size()).isEqualTo(100);
+        assertThat(dictionary.toArray()).containsExactly(locations);
+        assertThat(dictionary.byteSize()).isLessThan(String.join("", locations).length());
+    }
+
+    @Test
+    public void should_handle_prefixes_and_empty_strings() {
+        final String[] locations = {"", "a", "ab", "abc", "b"};
+
+        final LocationDictionary dictionary = LocationDictionary.of(locations);
+
+        assertThat(dictionary.toArray()).containsExactly(locations);
+        assertThat(LocationDictionary.EMPTY.size()).isEqualTo(0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void should_reject_unknown_index() {
+        LocationDictionary.of(new String[]{"a"}).get(1);
+    }
+}
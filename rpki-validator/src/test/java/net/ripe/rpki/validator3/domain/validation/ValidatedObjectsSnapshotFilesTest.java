@@ -0,0 +1,117 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.RouterCertificate;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.TrustAnchorData;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ValidatedObjectsSnapshotFilesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TrustAnchorData trustAnchor = TrustAnchorData.of(7L, "Test TA");
+
+    private ValidatedObjectsSnapshotFiles snapshotFiles;
+
+    private RoaPrefixesAndRouterCertificates objects;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotFiles = new ValidatedObjectsSnapshotFiles(temporaryFolder.newFolder().getAbsolutePath());
+        final VrpSnapshot roaPrefixes = new VrpSnapshot.Builder(trustAnchor)
+            .add(3333, ImmutableList.of(new RoaPrefix(IpRange.parse("10.0.0.0/8"), 24), new RoaPrefix(IpRange.parse("2001:db8::/32"), null)),
+                1000L, 2000L, new BigInteger("123456789012345678901234567890"), ImmutableSortedSet.of("rsync://example.com/repo/a.roa", "rsync://example.com/mirror/a.roa"))
+            .add(4294967295L, ImmutableList.of(new RoaPrefix(IpRange.parse("192.168.0.0/16"), null)),
+                3000L, 4000L, BigInteger.ONE, ImmutableSortedSet.of("rsync://example.com/repo/b.roa"))
+            .build();
+        objects = RoaPrefixesAndRouterCertificates.of(roaPrefixes, ImmutableSet.of(
+            RouterCertificate.of(trustAnchor, ImmutableList.of("65000", "65001"), "ski", "spki")
+        ));
+    }
+
+    @Test
+    public void should_read_written_objects() {
+        snapshotFiles.write(42L, 1234L, trustAnchor, objects);
+
+        final Optional<RoaPrefixesAndRouterCertificates> read = snapshotFiles.read(42L, 1234L, trustAnchor);
+
+        assertThat(read.isPresent()).isTrue();
+        assertThat(read.get().getRoaPrefixes().stream().collect(Collectors.toList()))
+            .isEqualTo(objects.getRoaPrefixes().stream().collect(Collectors.toList()));
+        assertThat(read.get().getRouterCertificates()).isEqualTo(objects.getRouterCertificates());
+    }
+
+    @Test
+    public void should_ignore_file_of_other_validation_run() {
+        snapshotFiles.write(42L, 1234L, trustAnchor, objects);
+
+        assertThat(snapshotFiles.read(43L, 1234L, trustAnchor).isPresent()).isFalse();
+        assertThat(snapshotFiles.read(42L, 1235L, trustAnchor).isPresent()).isFalse();
+        assertThat(snapshotFiles.read(42L, 1234L, TrustAnchorData.of(8L, "Other TA")).isPresent()).isFalse();
+    }
+
+    @Test
+    public void should_ignore_corrupted_or_deleted_file() throws Exception {
+        snapshotFiles.write(42L, 1234L, trustAnchor, objects);
+        final File[] files = temporaryFolder.getRoot().listFiles()[0].listFiles();
+        assertThat(files).hasSize(1);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(file.length() / 2);
+            final int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xff);
+        }
+
+        assertThat(snapshotFiles.read(42L, 1234L, trustAnchor).isPresent()).isFalse();
+
+        snapshotFiles.delete(trustAnchor.getId());
+        assertThat(files[0]).doesNotExist();
+        assertThat(snapshotFiles.read(42L, 1234L, trustAnchor).isPresent()).isFalse();
+    }
+}
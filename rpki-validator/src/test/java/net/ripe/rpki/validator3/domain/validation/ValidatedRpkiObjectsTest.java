@@ -0,0 +1,130 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ValidatedRpkiObjectsTest {
+
+    private final ValidatedRpkiObjects validatedRpkiObjects = new ValidatedRpkiObjects();
+
+    @After
+    public void tearDown() {
+        validatedRpkiObjects.stop();
+    }
+
+    @Test
+    public void should_coalesce_notifications_while_listener_is_busy() throws Exception {
+        final CountDownLatch firstCallStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstCall = new CountDownLatch(1);
+        final List<Integer> notifiedTrustAnchorCounts = new CopyOnWriteArrayList<>();
+
+        validatedRpkiObjects.addListener(objects -> {
+            firstCallStarted.countDown();
+            try {
+                releaseFirstCall.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            notifiedTrustAnchorCounts.add(objects.size());
+        });
+        assertThat(notifiedTrustAnchorCounts).isEmpty();
+
+        update(1);
+        assertThat(firstCallStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        for (int ta = 2; ta <= 5; ta++) {
+            update(ta);
+        }
+        releaseFirstCall.countDown();
+
+        awaitNotifications(notifiedTrustAnchorCounts, 2);
+        assertThat(notifiedTrustAnchorCounts).containsExactly(1, 5);
+        assertThat(validatedRpkiObjects.getVersion()).isEqualTo(5);
+        assertThat(validatedRpkiObjects.findCurrentlyValidatedRoaPrefixes().getTotalCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void should_notify_new_listener_of_current_objects() throws Exception {
+        update(1);
+        final List<Collection<ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates>> notified = new CopyOnWriteArrayList<>();
+        validatedRpkiObjects.addListener(notified::add);
+
+        awaitNotifications(notified, 1);
+        assertThat(notified.get(0)).hasSize(1);
+    }
+
+    @Test
+    public void should_keep_notifying_after_listener_failure() throws Exception {
+        final List<Integer> notified = new CopyOnWriteArrayList<>();
+        validatedRpkiObjects.addListener(objects -> {
+            throw new IllegalStateException("failing listener");
+        });
+        validatedRpkiObjects.addListener(objects -> notified.add(objects.size()));
+
+        update(1);
+
+        awaitNotifications(notified, 1);
+        assertThat(notified).containsExactly(1);
+    }
+
+    private void update(long trustAnchorId) {
+        final ValidatedRpkiObjects.Accumulator accumulator = new ValidatedRpkiObjects.Accumulator(
+            ValidatedRpkiObjects.TrustAnchorData.of(trustAnchorId, "TA " + trustAnchorId));
+        accumulator.getRoaPrefixes().add(trustAnchorId, ImmutableList.of(new RoaPrefix(IpRange.parse("10.0.0.0/8"), null)),
+            0L, 0L, BigInteger.ONE, ImmutableSortedSet.of("rsync://example.com/" + trustAnchorId + ".roa"));
+        validatedRpkiObjects.updateByKey(Ref.unsafe("trust-anchors", Key.of(trustAnchorId)), accumulator);
+    }
+
+    private static void awaitNotifications(List<?> notifications, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (notifications.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give a possible extra (non-coalesced) notification the chance to show up
+        Thread.sleep(50);
+    }
+}
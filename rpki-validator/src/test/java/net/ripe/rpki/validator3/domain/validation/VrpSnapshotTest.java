@@ -0,0 +1,127 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaPrefix;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VrpSnapshotTest {
+
+    private final ValidatedRpkiObjects.TrustAnchorData trustAnchor = ValidatedRpkiObjects.TrustAnchorData.of(1L, "Test TA");
+
+    @Test
+    public void should_store_ipv4_and_ipv6_prefixes() {
+        final ImmutableSortedSet<String> locations = ImmutableSortedSet.of("rsync://example.com/repo/roa.roa");
+        final VrpSnapshot snapshot = new VrpSnapshot.Builder(trustAnchor)
+            .add(4294967295L, ImmutableList.of(
+                new RoaPrefix(IpRange.parse("10.0.0.0/8"), 24),
+                new RoaPrefix(IpRange.parse("2001:db8:ffff::/48"), null),
+                new RoaPrefix(IpRange.parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ff00/120"), 128),
+                new RoaPrefix(IpRange.parse("0.0.0.0/0"), null)
+            ), 1000L, 2000L, BigInteger.valueOf(42), locations)
+            .build();
+
+        assertThat(snapshot.size()).isEqualTo(4);
+        assertThat(snapshot.getTrustAnchor()).isEqualTo(trustAnchor);
+
+        assertThat(snapshot.get(0)).isEqualTo(ValidatedRoaPrefix.of(trustAnchor, 4294967295L, IpRange.parse("10.0.0.0/8"), 24, 1000L, 2000L, BigInteger.valueOf(42), locations));
+        assertThat(snapshot.get(1)).isEqualTo(ValidatedRoaPrefix.of(trustAnchor, 4294967295L, IpRange.parse("2001:db8:ffff::/48"), null, 1000L, 2000L, BigInteger.valueOf(42), locations));
+        assertThat(snapshot.getPrefix(2)).isEqualTo(IpRange.parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ff00/120"));
+        assertThat(snapshot.getEffectiveLength(2)).isEqualTo(128);
+        assertThat(snapshot.getPrefix(3)).isEqualTo(IpRange.parse("0.0.0.0/0"));
+        assertThat(snapshot.getEffectiveLength(3)).isEqualTo(0);
+        assertThat(snapshot.getAsn(3)).isEqualTo(4294967295L);
+    }
+
+    @Test
+    public void should_keep_identical_prefixes_once() {
+        final ImmutableSortedSet<String> locations = ImmutableSortedSet.of("rsync://example.com/repo/roa.roa");
+        final ImmutableList<RoaPrefix> prefixes = ImmutableList.of(
+            new RoaPrefix(IpRange.parse("10.0.0.0/8"), 24),
+            new RoaPrefix(IpRange.parse("10.0.0.0/8"), 24),
+            new RoaPrefix(IpRange.parse("10.0.0.0/8"), null)
+        );
+        final VrpSnapshot snapshot = new VrpSnapshot.Builder(trustAnchor)
+            .add(10, prefixes, 1L, 2L, BigInteger.ONE, locations)
+            .add(10, prefixes, 1L, 2L, BigInteger.ONE, locations)
+            .add(20, prefixes, 1L, 2L, BigInteger.ONE, locations)
+            .build();
+
+        final List<ValidatedRoaPrefix> all = snapshot.stream().collect(Collectors.toList());
+        assertThat(all).doesNotHaveDuplicates().hasSize(4);
+        assertThat(all.stream().map(ValidatedRoaPrefix::getAsn).collect(Collectors.toList())).containsExactly(10L, 10L, 20L, 20L);
+        assertThat(all.stream().map(ValidatedRoaPrefix::getMaximumLength).collect(Collectors.toList())).containsExactly(24, null, 24, null);
+    }
+
+    @Test
+    public void should_share_roa_data_between_prefixes() {
+        final VrpSnapshot snapshot = new VrpSnapshot.Builder(trustAnchor)
+            .add(10, ImmutableList.of(new RoaPrefix(IpRange.parse("10.0.0.0/8"), null)), 1L, 2L, BigInteger.ONE, ImmutableSortedSet.of("a"))
+            .add(20, ImmutableList.of(new RoaPrefix(IpRange.parse("11.0.0.0/8"), null), new RoaPrefix(IpRange.parse("12.0.0.0/8"), null)), 3L, 4L, BigInteger.TEN, ImmutableSortedSet.of("b", "c"))
+            .build();
+
+        assertThat(snapshot.stream().map(ValidatedRoaPrefix::getAsn).collect(Collectors.toList())).containsExactly(10L, 20L, 20L);
+        assertThat(snapshot.getSerialNumber(2)).isEqualTo(BigInteger.TEN);
+        assertThat(snapshot.getNotBefore(1)).isEqualTo(3L);
+        assertThat(snapshot.getNotAfter(1)).isEqualTo(4L);
+        assertThat(snapshot.getLocations(1)).isSameAs(snapshot.getLocations(2)).containsExactly("b", "c");
+        assertThat(snapshot.getLocations(0)).containsExactly("a");
+        assertThat(snapshot.getLocationCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_grow_when_adding_concurrently() {
+        final VrpSnapshot.Builder builder = new VrpSnapshot.Builder(trustAnchor);
+        IntStream.range(0, 1000).parallel().forEach(i ->
+            builder.add(i, ImmutableList.of(new RoaPrefix(IpRange.parse("10.0.0.0/8"), null), new RoaPrefix(IpRange.parse("10.0.0.0/16"), 24)),
+                0L, 0L, BigInteger.valueOf(i), ImmutableSortedSet.of("roa-" + i))
+        );
+        final VrpSnapshot snapshot = builder.build();
+
+        assertThat(snapshot.size()).isEqualTo(2000);
+        final List<ValidatedRoaPrefix> prefixes = snapshot.stream().collect(Collectors.toList());
+        assertThat(prefixes).allSatisfy(p -> {
+            assertThat(p.getSerialNumber()).isEqualTo(BigInteger.valueOf(p.getAsn()));
+            assertThat(p.getLocations()).containsExactly("roa-" + p.getAsn());
+        });
+        assertThat(VrpSnapshot.empty(trustAnchor).isEmpty()).isTrue();
+    }
+}
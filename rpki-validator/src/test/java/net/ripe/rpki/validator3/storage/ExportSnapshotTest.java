@@ -0,0 +1,90 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExportSnapshotTest {
+
+    @Test
+    public void testBytesRoundTrip() {
+        final List<byte[]> values = IntStream.range(0, 1000)
+                .mapToObj(i -> ("value" + i).getBytes(UTF_8))
+                .collect(Collectors.toList());
+        try (ExportSnapshot<byte[]> snapshot = ExportSnapshot.ofBytes(values.stream())) {
+            assertEquals(1000, snapshot.getSize());
+            // a snapshot can be streamed more than once
+            for (int n = 0; n < 2; n++) {
+                try (Stream<byte[]> s = snapshot.stream()) {
+                    final List<byte[]> read = s.collect(Collectors.toList());
+                    assertEquals(values.size(), read.size());
+                    for (int i = 0; i < values.size(); i++) {
+                        assertArrayEquals(values.get(i), read.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCustomEncoding() {
+        try (ExportSnapshot<String> snapshot = ExportSnapshot.of(Stream.of("a", "", "ccc"),
+                (out, v) -> out.writeUTF(v), in -> in.readUTF());
+             Stream<String> s = snapshot.stream()) {
+            assertEquals(3, snapshot.getSize());
+            assertEquals("a,,ccc", s.collect(Collectors.joining(",")));
+        }
+    }
+
+    @Test
+    public void testFileIsDeletedOnClose() {
+        final File tmp = new File(System.getProperty("java.io.tmpdir"));
+        final ExportSnapshot<byte[]> snapshot = ExportSnapshot.ofBytes(Stream.of(new byte[]{1, 2, 3}));
+        final long before = countSnapshotFiles(tmp);
+        snapshot.close();
+        assertTrue(countSnapshotFiles(tmp) < before);
+    }
+
+    private static long countSnapshotFiles(File dir) {
+        final String[] names = dir.list((d, name) -> name.startsWith("rpki-validator-export-"));
+        return names == null ? 0 : names.length;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage;
+
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitWriterTest {
+
+    private TmpXodus xodus;
+    private IxMap<String> ixMap;
+    private SimpleMeterRegistry registry;
+    private GroupCommitWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        xodus = new TmpXodus();
+        ixMap = xodus.createIxMap("group-commit",
+                ImmutableMap.of("len", s -> Key.keys(Key.of(s.length()))),
+                CoderFactory.makeCoder(String.class));
+        registry = new SimpleMeterRegistry();
+        writer = new GroupCommitWriter(xodus, registry, "PT0.05S", 100);
+        writer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.stop();
+        xodus.close();
+    }
+
+    @Test
+    public void testConcurrentWritesAreBatched() throws Exception {
+        final int count = 50;
+        final ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (long i = 0; i < count; i++) {
+                final long k = i;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return writer.write(tx -> {
+                        ixMap.put(tx, Key.of(k), "value" + k);
+                        return k;
+                    });
+                }, executor));
+            }
+            start.countDown();
+            for (int i = 0; i < count; i++) {
+                assertEquals(Long.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(count, xodus.readTx(tx -> ixMap.keys(tx)).size());
+        final DistributionSummary batchSize = registry.get("rpkivalidator.storage.group.commit.batch.size").summary();
+        assertEquals(count, (long) batchSize.totalAmount());
+        assertTrue("writes should share transactions", batchSize.count() < count);
+    }
+
+    @Test
+    public void testAfterCommitHooksRunBeforeCompletion() {
+        final AtomicInteger hooks = new AtomicInteger();
+        writer.write0(tx -> {
+            ixMap.put(tx, Key.of(1L), "one");
+            tx.afterCommit(hooks::incrementAndGet);
+        });
+        assertEquals(1, hooks.get());
+    }
+
+    @Test
+    public void testFailingIntentDoesNotFailOthers() throws Exception {
+        final AtomicInteger hooks = new AtomicInteger();
+        final CompletableFuture<Object> ok1 = writer.submit(tx -> {
+            ixMap.put(tx, Key.of(1L), "one");
+            tx.afterCommit(hooks::incrementAndGet);
+            return null;
+        });
+        final AtomicInteger failingApplied = new AtomicInteger();
+        final CompletableFuture<Object> failing = writer.submit(tx -> {
+            failingApplied.incrementAndGet();
+            ixMap.put(tx, Key.of(2L), "two");
+            tx.afterCommit(hooks::incrementAndGet);
+            throw new IllegalArgumentException("boom");
+        });
+        final CompletableFuture<Object> ok2 = writer.submit(tx -> {
+            ixMap.put(tx, Key.of(3L), "three");
+            return null;
+        });
+
+        ok1.get(10, TimeUnit.SECONDS);
+        ok2.get(10, TimeUnit.SECONDS);
+        try {
+            failing.join();
+            fail("Expected the failing intent to fail");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertTrue(xodus.readTx(tx -> ixMap.get(tx, Key.of(1L))).isPresent());
+        assertTrue(!xodus.readTx(tx -> ixMap.get(tx, Key.of(2L))).isPresent());
+        assertTrue(xodus.readTx(tx -> ixMap.get(tx, Key.of(3L))).isPresent());
+        assertEquals(1, hooks.get());
+        assertEquals("the failing intent must not be applied again", 1, failingApplied.get());
+    }
+
+    @Test
+    public void testWriteFromWithinWriteTransactionRunsInline() {
+        final String result = xodus.writeTx(outer -> {
+            ixMap.put(outer, Key.of(1L), "one");
+            return writer.write(tx -> {
+                assertTrue(tx == outer);
+                ixMap.put(tx, Key.of(2L), "two");
+                return "done";
+            });
+        });
+        assertEquals("done", result);
+        assertEquals(2, xodus.readTx(tx -> ixMap.keys(tx)).size());
+    }
+}
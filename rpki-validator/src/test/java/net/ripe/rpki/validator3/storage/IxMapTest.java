@@ -38,6 +38,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -52,6 +53,7 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -101,6 +103,54 @@ public abstract class IxMapTest {
         });
     }
 
+    @Test
+    public void streamValuesAndIndexes() {
+        Key ka = putAndGet("a");
+        Key kaa = putAndGet("aa");
+        Key kab = putAndGet("ab");
+        putAndGet("bbb");
+        putAndGet("xxx");
+
+        rtx0(tx -> {
+            try (Stream<String> values = ixMap.streamValues(tx)) {
+                assertEquals(Sets.newHashSet("a", "aa", "ab", "bbb", "xxx"), values.collect(Collectors.toSet()));
+            }
+            try (Stream<Key> keys = ixMap.streamKeys(tx)) {
+                assertEquals(ixMap.keys(tx), keys.collect(Collectors.toSet()));
+            }
+            try (Stream<Key> pks = ixMap.streamPkByIndex(LENGTH_INDEX, tx, intKey(2))) {
+                assertEquals(Sets.newHashSet(kaa, kab), pks.collect(Collectors.toSet()));
+            }
+            try (Stream<String> values = ixMap.streamByIndex(LENGTH_INDEX, tx, intKey(3), 1)) {
+                assertEquals(Sets.newHashSet("bbb", "xxx"), values.collect(Collectors.toSet()));
+            }
+            try (Stream<String> values = ixMap.streamByIndex(LENGTH_INDEX, tx, intKey(4), 10)) {
+                assertEquals(0, values.count());
+            }
+            try (Stream<String> values = ixMap.streamByIdxDescending(LENGTH_INDEX, tx)) {
+                assertEquals(Arrays.asList(3, 3, 2, 2, 1), values.map(String::length).collect(Collectors.toList()));
+            }
+        });
+    }
+
+    @Test
+    public void streamTerminatesEarly() {
+        wtx0(tx -> {
+            for (int i = 0; i < 1000; i++) {
+                ixMap.put(tx, Key.of(i), "v" + i);
+            }
+        });
+
+        rtx0(tx -> {
+            try (Stream<String> values = ixMap.streamValues(tx)) {
+                assertEquals(10, values.limit(10).count());
+            }
+            try (Stream<String> values = ixMap.streamByIdxDescending(LENGTH_INDEX, tx)) {
+                assertEquals(Optional.of(4), values.map(String::length).findFirst());
+            }
+        });
+    }
+
 
     @Test
     public void putAndUpdateWithBiggerValue() {
@@ -79,6 +79,7 @@ public class TmpXodus extends Xodus {
 
     @PreDestroy
     public void close() {
+        stopReindex();
         getEnv().close();
     }
 }
@@ -0,0 +1,141 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.CTValidationRunCoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnitQuickcheck.class)
+public class EncodedReaderTest {
+
+    @Property
+    public void readLegacyEncoded(List<String> s) {
+        if (s != null && s.size() < Short.MAX_VALUE) {
+            final Encoded e = new Encoded();
+            for (short tag = 1; tag <= s.size(); tag++) {
+                e.append(tag, s.get(tag - 1).getBytes(StandardCharsets.UTF_8));
+            }
+            final EncodedReader reader = EncodedReader.of(e.toByteArray());
+            assertEquals(0, reader.schemaVersion());
+            for (short tag = 1; tag <= s.size(); tag++) {
+                assertEquals(s.get(tag - 1), reader.getString(tag));
+            }
+        }
+    }
+
+    @Property
+    public void writeReadableByLegacyEncoded(List<String> s) {
+        if (s != null && s.size() < Short.MAX_VALUE) {
+            final EncodedWriter writer = EncodedWriter.record();
+            for (short tag = 1; tag <= s.size(); tag++) {
+                writer.putString(tag, s.get(tag - 1));
+            }
+            final byte[] bytes = writer.toByteArray();
+            assertEquals(writer.size(), bytes.length);
+
+            final Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+            for (short tag = 1; tag <= s.size(); tag++) {
+                assertEquals(s.get(tag - 1), Coders.toString(content.get(tag)));
+            }
+            assertEquals(EncodedWriter.SCHEMA_VERSION, EncodedReader.of(bytes).schemaVersion());
+        }
+    }
+
+    @Test
+    public void primitivesAndLists() {
+        final InstantWithoutNanos now = InstantWithoutNanos.now();
+        final List<String> strings = Arrays.asList("a", null, "");
+        final byte[] bytes = new EncodedWriter(1)
+                .putLong((short) 1, 42L)
+                .putInstant((short) 2, now)
+                .putBoolean((short) 3, true)
+                .putKey((short) 4, Key.of("key"))
+                .putStrings((short) 5, strings)
+                .putString((short) 6, null)
+                .toByteArray();
+
+        final Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        assertEquals(42L, Coders.toLong(content.get((short) 1)));
+        assertEquals(now, Coders.toInstant(content.get((short) 2)));
+        assertEquals(strings, Coders.fromBytes(content.get((short) 5), b -> b == null ? null : Coders.toString(b)));
+
+        final EncodedReader reader = EncodedReader.of(bytes);
+        assertEquals(Long.valueOf(42L), reader.getLong((short) 1));
+        assertEquals(now, reader.getInstant((short) 2));
+        assertEquals(true, reader.getBoolean((short) 3));
+        assertArrayEquals(Key.of("key").getBytes(), reader.getBytes((short) 4));
+        assertEquals(strings, reader.getStrings((short) 5));
+        assertFalse(reader.has((short) 6));
+        assertNull(reader.getString((short) 6));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectDuplicateTags() {
+        new EncodedWriter().putString((short) 1, "a").putString((short) 1, "b");
+    }
+
+    @Test
+    public void validationRunWithChecks() {
+        final CertificateTreeValidationRun run = new CertificateTreeValidationRun(Ref.unsafe("ta", Key.of(1L)));
+        run.setId(Key.of(2L));
+        for (int i = 0; i < 1000; i++) {
+            run.addCheck(new ValidationCheck("rsync://example.org/" + i + ".roa", ValidationCheck.Status.WARNING, "key." + i, "p" + i));
+        }
+        run.setSucceeded();
+
+        final CTValidationRunCoder coder = new CTValidationRunCoder();
+        final CertificateTreeValidationRun decoded = coder.fromBytes(coder.toBytes(run));
+
+        assertEquals(run.getId(), decoded.getId());
+        assertEquals(run.getStatus(), decoded.getStatus());
+        assertEquals(run.getCompletedAt(), decoded.getCompletedAt());
+        assertEquals(run.getTrustAnchor(), decoded.getTrustAnchor());
+        assertEquals(run.getValidationChecks(), decoded.getValidationChecks());
+        decoded.addCheck(new ValidationCheck("rsync://example.org/new.roa", ValidationCheck.Status.ERROR, "key"));
+    }
+}
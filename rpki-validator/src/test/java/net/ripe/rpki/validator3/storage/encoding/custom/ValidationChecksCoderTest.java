@@ -0,0 +1,141 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.CTValidationRunCoder;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.ValidationCheckCoder;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.ValidationChecksCoder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ValidationChecksCoderTest {
+
+    @Test
+    public void should_round_trip_small_lists() {
+        final List<ValidationCheck> checks = checks(3);
+        checks.add(new ValidationCheck(null, ValidationCheck.Status.ERROR, "key", "p", null, ""));
+        checks.get(0).setId(Key.of(42L));
+        checks.get(1).setUpdatedAt(null);
+
+        final List<ValidationCheck> decoded = ValidationChecksCoder.fromBytes(ValidationChecksCoder.toBytes(checks));
+
+        assertThat(decoded).hasSize(4);
+        assertThat(decoded).isEqualTo(checks);
+    }
+
+    @Test
+    public void should_compress_big_lists() {
+        final List<ValidationCheck> checks = checks(10_000);
+
+        final byte[] compact = ValidationChecksCoder.toBytes(checks);
+        final byte[] legacy = Coders.toBytes(checks, new ValidationCheckCoder()::toBytes);
+
+        assertThat(compact.length).isLessThan(legacy.length / 10);
+        assertThat(ValidationChecksCoder.fromBytes(compact)).isEqualTo(checks);
+    }
+
+    @Test
+    public void should_store_fixed_status_codes() {
+        final List<ValidationCheck> checks = new ArrayList<>();
+        checks.add(new ValidationCheck(null, ValidationCheck.Status.WARNING, null));
+        checks.add(new ValidationCheck(null, ValidationCheck.Status.ERROR, null));
+
+        final byte[] bytes = ValidationChecksCoder.toBytes(checks);
+
+        // header (9 bytes), empty string table (4 bytes), then the status of the first check
+        final int checkLength = 1 + 4 + 4 + 4 + 2 + 8 + 8;
+        assertThat(bytes[9 + 4]).isEqualTo((byte) 0);
+        assertThat(bytes[9 + 4 + checkLength]).isEqualTo((byte) 1);
+        assertThat(ValidationChecksCoder.fromBytes(bytes)).isEqualTo(checks);
+    }
+
+    @Test
+    public void should_stream_without_materialising() {
+        final List<ValidationCheck> checks = checks(1000);
+        final byte[] bytes = ValidationChecksCoder.toBytes(checks);
+        final List<ValidationCheck> decoded = ValidationChecksCoder.fromBytes(bytes);
+
+        assertThat(decoded.stream().skip(10).limit(5).collect(Collectors.toList()))
+                .isEqualTo(checks.subList(10, 15));
+        assertThat(decoded.stream().filter(c -> c.getStatus() == ValidationCheck.Status.ERROR).count())
+                .isEqualTo(checks.stream().filter(c -> c.getStatus() == ValidationCheck.Status.ERROR).count());
+
+        // an unchanged list is written back as it is
+        assertThat(ValidationChecksCoder.toBytes(decoded)).isSameAs(bytes);
+    }
+
+    @Test
+    public void should_allow_modification_of_decoded_list() {
+        final List<ValidationCheck> checks = checks(100);
+        final List<ValidationCheck> decoded = ValidationChecksCoder.fromBytes(ValidationChecksCoder.toBytes(checks));
+
+        final ValidationCheck added = new ValidationCheck("rsync://example.org/new.cer", ValidationCheck.Status.ERROR, "new");
+        decoded.add(added);
+        checks.add(added);
+
+        assertThat(decoded).hasSize(101);
+        assertThat(ValidationChecksCoder.fromBytes(ValidationChecksCoder.toBytes(decoded))).isEqualTo(checks);
+    }
+
+    @Test
+    public void should_store_validation_run_checks() {
+        final CertificateTreeValidationRun run = new CertificateTreeValidationRun(Ref.unsafe("ta", Key.of(1L)));
+        checks(500).forEach(run::addCheck);
+        run.setSucceeded();
+
+        final CTValidationRunCoder coder = new CTValidationRunCoder();
+        final CertificateTreeValidationRun decoded = coder.fromBytes(coder.toBytes(run));
+
+        assertThat(decoded.getValidationChecks()).isEqualTo(run.getValidationChecks());
+        assertThat(decoded.countChecks(ValidationCheck.Status.WARNING)).isEqualTo(run.countChecks(ValidationCheck.Status.WARNING));
+        assertThat(EncodedReader.of(coder.toBytes(run)).schemaVersion()).isEqualTo(EncodedWriter.SCHEMA_VERSION);
+    }
+
+    private static List<ValidationCheck> checks(int n) {
+        final List<ValidationCheck> checks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            checks.add(new ValidationCheck(
+                    "rsync://rpki.example.org/repository/" + (i % 50) + "/object.mft",
+                    i % 7 == 0 ? ValidationCheck.Status.ERROR : ValidationCheck.Status.WARNING,
+                    "cert.crldp.present." + (i % 5),
+                    "param " + (i % 13)));
+        }
+        return checks;
+    }
+}
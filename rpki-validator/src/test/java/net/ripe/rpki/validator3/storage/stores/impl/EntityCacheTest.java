@@ -0,0 +1,164 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.ripe.rpki.validator3.storage.IxMap;
+import net.ripe.rpki.validator3.storage.TmpXodus;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.RpkiRepository;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntityCacheTest {
+
+    private static final String BY_STATUS = "by-status";
+
+    private TmpXodus xodus;
+    private IxMap<RpkiRepository> ixMap;
+    private EntityCache<RpkiRepository> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        xodus = new TmpXodus();
+        final Coder<RpkiRepository> coder = CoderFactory.makeCoder(RpkiRepository.class);
+        ixMap = xodus.createIxMap("repositories", ImmutableMap.of(), coder);
+        xodus.writeTx0(tx -> ixMap.put(tx, Key.of(1L), repository(1L, "rsync://host/one")));
+        cache = new EntityCache<>(xodus, ixMap, coder,
+                ImmutableMap.of(BY_STATUS, r -> Key.keys(Key.of(r.getStatus().name()))),
+                ImmutableSet.of());
+        xodus.readTx0(cache::load);
+    }
+
+    @After
+    public void tearDown() {
+        xodus.close();
+    }
+
+    @Test
+    public void testLoadAndCommittedWrites() {
+        assertTrue(xodus.readTx(tx -> cache.get(tx, Key.of(1L))).isPresent());
+
+        final long version = cache.getVersion();
+        xodus.writeTx0(tx -> cache.put(tx, Key.of(2L), repository(2L, "rsync://host/two")));
+        assertTrue(cache.getVersion() > version);
+        assertEquals(2, (long) xodus.readTx(tx -> cache.viewByIndex(tx, BY_STATUS, Key.of("PENDING")).count()));
+
+        xodus.writeTx0(tx -> cache.delete(tx, Key.of(1L)));
+        assertFalse(xodus.readTx(tx -> cache.get(tx, Key.of(1L))).isPresent());
+        assertEquals(1, (long) xodus.readTx(tx -> cache.view(tx).count()));
+    }
+
+    @Test
+    public void testAbortedWritesDoNotReachTheCache() {
+        try {
+            xodus.writeTx0(tx -> {
+                cache.put(tx, Key.of(2L), repository(2L, "rsync://host/two"));
+                throw new IllegalStateException("abort");
+            });
+            fail("Expected the transaction to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse(xodus.readTx(tx -> cache.get(tx, Key.of(2L))).isPresent());
+        assertFalse(xodus.readTx(tx -> ixMap.get(tx, Key.of(2L))).isPresent());
+    }
+
+    @Test
+    public void testSecondaryIndexFollowsUpdates() {
+        final RpkiRepository r = xodus.readTx(tx -> cache.get(tx, Key.of(1L))).get();
+        r.setDownloaded();
+        xodus.writeTx0(tx -> cache.put(tx, r.key(), r));
+
+        assertEquals(0, (long) xodus.readTx(tx -> cache.viewByIndex(tx, BY_STATUS, Key.of("PENDING")).count()));
+        assertEquals(ImmutableSet.of(Key.of(1L)), xodus.readTx(tx -> cache.viewByIndex(tx, BY_STATUS, Key.of("DOWNLOADED"))
+                .map(RpkiRepository::key)
+                .collect(Collectors.toSet())));
+    }
+
+    @Test
+    public void testReturnedValuesAreCopies() {
+        final RpkiRepository r = xodus.readTx(tx -> cache.get(tx, Key.of(1L))).get();
+        r.setFailed();
+        assertTrue(xodus.readTx(tx -> cache.get(tx, Key.of(1L))).get().isPending());
+        assertTrue(xodus.readTx(tx -> cache.view(tx, Key.of(1L))).get().isPending());
+    }
+
+    @Test
+    public void testWriteTransactionsSeeTheirOwnChanges() {
+        final long pending = xodus.writeTx(tx -> {
+            cache.put(tx, Key.of(2L), repository(2L, "rsync://host/two"));
+            return cache.viewByIndex(tx, BY_STATUS, Key.of("PENDING")).count();
+        });
+        assertEquals(2, pending);
+    }
+
+    @Test
+    public void testClear() {
+        xodus.writeTx0(tx -> {
+            cache.clear(tx);
+            cache.put(tx, Key.of(3L), repository(3L, "rsync://host/three"));
+        });
+        assertEquals(ImmutableSet.of(Key.of(3L)), xodus.readTx(tx -> cache.view(tx)
+                .map(RpkiRepository::key)
+                .collect(Collectors.toSet())));
+    }
+
+    @Test
+    public void testReadTransactionKeepsItsView() {
+        final long[] counts = xodus.readTx(tx -> {
+            final long before = cache.view(tx).count();
+            xodus.writeTx0(wtx -> cache.put(wtx, Key.of(2L), repository(2L, "rsync://host/two")));
+            return new long[]{before, cache.view(tx).count()};
+        });
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(2, (long) xodus.readTx(tx -> cache.view(tx).count()));
+    }
+
+    private static RpkiRepository repository(long id, String uri) {
+        final RpkiRepository r = new RpkiRepository(Ref.unsafe(TrustAnchors.TRUST_ANCHORS, Key.of(42L)), uri, RpkiRepository.Type.RSYNC);
+        r.setId(Key.of(id));
+        return r;
+    }
+}
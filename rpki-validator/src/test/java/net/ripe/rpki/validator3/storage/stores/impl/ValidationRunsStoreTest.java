@@ -32,18 +32,25 @@ package net.ripe.rpki.validator3.storage.stores.impl;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.IntegrationTest;
 import net.ripe.rpki.validator3.TestObjects;
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.data.validation.ValidationRun;
+import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
@@ -140,4 +147,41 @@ public class ValidationRunsStoreTest extends GenericStorageTest {
         });
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemoveOldValidationRunsChecksEveryChunkAgain() {
+        final TrustAnchor trustAnchor = TestObjects.newTrustAnchor();
+        wtx0(tx -> this.getTrustAnchors().add(tx, trustAnchor));
+        final Ref<TrustAnchor> trustAnchorRef = rtx(tx -> this.getTrustAnchors().makeRef(tx, trustAnchor.key()));
+
+        final InstantWithoutNanos lastMonth = InstantWithoutNanos.now().minus(Duration.ofDays(30));
+        final CertificateTreeValidationRun vr1 = new CertificateTreeValidationRun(trustAnchorRef);
+        vr1.setFailed();
+        vr1.setCompletedAt(lastMonth.minus(Duration.ofMinutes(1)));
+        final CertificateTreeValidationRun vr2 = new CertificateTreeValidationRun(trustAnchorRef);
+        vr2.setFailed();
+        vr2.setCompletedAt(lastMonth);
+        wtx0(tx -> {
+            this.getValidationRuns().add(tx, vr1);
+            this.getValidationRuns().add(tx, vr2);
+        });
+
+        final InstantWithoutNanos completedBefore = InstantWithoutNanos.now().minus(Duration.ofDays(1));
+        final Pair<Integer, ValidationRuns.CleanupPosition> first = wtx(tx ->
+                this.getValidationRuns().removeOldValidationRuns(tx, completedBefore, null, 1));
+        assertEquals(1, (int) first.getLeft());
+        assertNotNull(first.getRight());
+
+        // the second run becomes the latest successful one before the next chunk
+        vr2.setSucceeded();
+        vr2.setCompletedAt(lastMonth);
+        wtx0(tx -> this.getValidationRuns().update(tx, vr2));
+
+        final Pair<Integer, ValidationRuns.CleanupPosition> second = wtx(tx ->
+                this.getValidationRuns().removeOldValidationRuns(tx, completedBefore, first.getRight(), 100));
+        assertEquals(0, (int) second.getLeft());
+        assertNull(second.getRight());
+        assertFalse(rtx(tx -> this.getValidationRuns().get(tx, CertificateTreeValidationRun.class, vr1.key().asLong())).isPresent());
+        assertTrue(rtx(tx -> this.getValidationRuns().get(tx, CertificateTreeValidationRun.class, vr2.key().asLong())).isPresent());
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChecksumPolicyTest {
+
+    @Test
+    public void testAlwaysVerifies() {
+        final ChecksumPolicy policy = ChecksumPolicy.always();
+        policy.markVerified(Key.of(1L), 42L);
+        assertTrue(policy.shouldVerify(Key.of(1L), 42L));
+        assertTrue(policy.shouldVerify(null, 42L));
+    }
+
+    @Test
+    public void testFirstReadVerifiesOnlyOnce() {
+        final ChecksumPolicy policy = new ChecksumPolicy(ChecksumPolicy.Mode.FIRST_READ, 0);
+        assertTrue(policy.shouldVerify(Key.of(1L), 42L));
+        policy.markVerified(Key.of(1L), 42L);
+        assertFalse(policy.shouldVerify(Key.of(1L), 42L));
+
+        // new value for the same key or another key with the same value
+        assertTrue(policy.shouldVerify(Key.of(1L), 43L));
+        assertTrue(policy.shouldVerify(Key.of(2L), 42L));
+        assertTrue(policy.shouldVerify(null, 42L));
+    }
+
+    @Test
+    public void testFirstReadRemembersManyValues() {
+        final ChecksumPolicy policy = new ChecksumPolicy(ChecksumPolicy.Mode.FIRST_READ, 0);
+        final int count = 100_000;
+        for (long i = 0; i < count; i++) {
+            policy.markVerified(Key.of(i), i * 31);
+        }
+        int remembered = 0;
+        for (long i = 0; i < count; i++) {
+            if (!policy.shouldVerify(Key.of(i), i * 31)) {
+                remembered++;
+            }
+            assertTrue(policy.shouldVerify(Key.of(i), i * 31 + 1));
+        }
+        // some values may share a slot and get verified again, but most are remembered
+        assertTrue(remembered > count * 9 / 10);
+    }
+
+    @Test
+    public void testSampled() {
+        assertFalse(new ChecksumPolicy(ChecksumPolicy.Mode.SAMPLED, 0).shouldVerify(Key.of(1L), 42L));
+        assertTrue(new ChecksumPolicy(ChecksumPolicy.Mode.SAMPLED, 1).shouldVerify(Key.of(1L), 42L));
+    }
+
+    @Test
+    public void testScrubberNeverVerifiesOnRead() {
+        assertFalse(new ChecksumPolicy(ChecksumPolicy.Mode.SCRUBBER, 1).shouldVerify(Key.of(1L), 42L));
+    }
+
+    @Test
+    public void testParseMode() {
+        assertTrue(ChecksumPolicy.Mode.parse("first-read") == ChecksumPolicy.Mode.FIRST_READ);
+        assertTrue(ChecksumPolicy.Mode.parse(" Scrubber ") == ChecksumPolicy.Mode.SCRUBBER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleRate() {
+        new ChecksumPolicy(ChecksumPolicy.Mode.SAMPLED, 1.5);
+    }
+}
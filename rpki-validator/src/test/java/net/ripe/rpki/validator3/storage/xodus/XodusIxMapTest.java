@@ -30,24 +30,28 @@
 package net.ripe.rpki.validator3.storage.xodus;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import jetbrains.exodus.env.Transaction;
 import net.ripe.rpki.validator3.storage.IxMapTest;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.time.Duration;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -107,6 +111,103 @@ public class XodusIxMapTest extends IxMapTest {
         assertEquals(ImmutableMap.of(Key.of(2L), "aBa"), xodus.readTx(tx -> ixMap.getByIndex("lower", tx, Key.of("aba"))));
     }
 
+    @Test
+    public void testOnlineReindex() throws Exception {
+        xodus.setReindexChunkSize(10);
+        xodus.setReindexChunkPause(Duration.ofMillis(20));
+        ixMap = xodus.createIxMap("testOnlineReindex",
+                ImmutableMap.of("len", IxMapTest::stringLen),
+                CoderFactory.makeCoder(String.class));
+        wtx0(tx -> {
+            for (long i = 0; i < 200; i++) {
+                ixMap.put(tx, Key.of(i), i % 2 == 0 ? "value" + i : "VALUE" + i);
+            }
+        });
+
+        ixMap = xodus.createIxMap("testOnlineReindex",
+                ImmutableMap.of(
+                        "len", IxMapTest::stringLen,
+                        "lower", s -> Key.keys(Key.of(s.toLowerCase()))),
+                CoderFactory.makeCoder(String.class));
+        final ReindexProgress progress = xodus.getReindexProgress().get("testOnlineReindex");
+        assertEquals(ImmutableSet.of("lower"), progress.getIndexes());
+        assertEquals(200, progress.getTotalEntries());
+
+        // queries and writes while the index is being built
+        assertEquals(ImmutableMap.of(Key.of(3L), "VALUE3"), rtx(tx -> ixMap.getByIndex("lower", tx, Key.of("value3"))));
+        assertEquals(ImmutableMap.of(Key.of(0L), "value0"), rtx(tx -> ixMap.getByIdxAscendingWhere("lower", tx, v -> true)));
+        assertEquals(ImmutableMap.of(Key.of(99L), "VALUE99"), rtx(tx -> ixMap.getByIdxDescendingWhere("lower", tx, v -> true)));
+        wtx0(tx -> ixMap.put(tx, Key.of(3L), "other"));
+        wtx0(tx -> ixMap.delete(tx, Key.of(198L)));
+        wtx0(tx -> ixMap.put(tx, Key.of(1000L), "VALUE1000"));
+        assertEquals(ImmutableSet.of(Key.of(1000L)), rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value1000"))));
+        assertTrue(rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value3"))).isEmpty());
+        assertEquals(ImmutableSet.of(Key.of(199L)), rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value199"))));
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!progress.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(progress.isFinished());
+        assertEquals(200, progress.getProcessedEntries().get());
+
+        assertEquals(ImmutableSet.of(Key.of(3L)), rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("other"))));
+        assertTrue(rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value198"))).isEmpty());
+        assertEquals(ImmutableSet.of(Key.of(1000L)), rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value1000"))));
+        assertEquals(200, rtx(tx -> ixMap.getPkByIndexGreaterThan("lower", tx, Key.of(""))).size());
+
+        // the build is recorded, the index is not built again
+        xodus.createIxMap("testOnlineReindex",
+                ImmutableMap.of(
+                        "len", IxMapTest::stringLen,
+                        "lower", s -> Key.keys(Key.of(s.toLowerCase()))),
+                CoderFactory.makeCoder(String.class));
+        assertSame(progress, xodus.getReindexProgress().get("testOnlineReindex"));
+    }
+
+    @Test
+    public void testQueryOnIndexBeingBuiltScansValuesNotIndexedYet() {
+        // The build stops after the first chunk, the other 990 values are not indexed for a while
+        xodus.setReindexChunkSize(10);
+        xodus.setReindexChunkPause(Duration.ofSeconds(10));
+        ixMap = xodus.createIxMap("testReindexQueryScan",
+                ImmutableMap.of("len", IxMapTest::stringLen),
+                CoderFactory.makeCoder(String.class));
+        wtx0(tx -> {
+            for (long i = 0; i < 1000; i++) {
+                ixMap.put(tx, Key.of(i), "value" + (i % 100));
+            }
+        });
+        ixMap = xodus.createIxMap("testReindexQueryScan",
+                ImmutableMap.of(
+                        "len", IxMapTest::stringLen,
+                        "lower", s -> Key.keys(Key.of(s.toLowerCase()))),
+                CoderFactory.makeCoder(String.class));
+
+        assertEquals(10, rtx(tx -> ixMap.getPkByIndex("lower", tx, Key.of("value3"))).size());
+        assertEquals(10, rtx(tx -> ixMap.getByIndex("lower", tx, Key.of("value42"))).size());
+        assertEquals(1000, rtx(tx -> ixMap.getPkByIndexGreaterThan("lower", tx, Key.of(""))).size());
+        assertEquals(20, rtx(tx -> ixMap.getPkByIndexLessThan("lower", tx, Key.of("value10"))).size());
+        assertEquals(10, rtx(tx -> ixMap.getByIdxAscendingWhere("lower", tx, v -> true)).size());
+        assertEquals(1000L, (long) rtx(tx -> {
+            try (Stream<Pair<Key, Key>> entries = ixMap.streamIndexEntries("lower", tx, null)) {
+                return entries.count();
+            }
+        }));
+        assertEquals(990L, (long) rtx(tx -> {
+            try (Stream<Pair<Key, Key>> entries = ixMap.streamIndexEntries("lower", tx, Pair.of(Key.of("value0"), Key.of(900L)))) {
+                return entries.count();
+            }
+        }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streamOutsideOfTransaction() {
+        wtx0(tx -> ixMap.put(tx, Key.of(1L), "a"));
+        final Stream<String> values = xodus.readTx(tx -> ixMap.streamValues(tx));
+        values.count();
+    }
+
     @Override
     protected <T> T rtx(Function<Tx.Read, T> f) {
         return xodus.readTx(f);
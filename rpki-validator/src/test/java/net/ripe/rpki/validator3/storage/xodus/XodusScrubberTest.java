@@ -0,0 +1,143 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import net.ripe.rpki.validator3.storage.IxMap;
+import net.ripe.rpki.validator3.storage.TmpXodus;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XodusScrubberTest {
+
+    private TmpXodus xodus;
+    private IxMap<String> ixMap;
+    private XodusScrubber scrubber;
+
+    @Before
+    public void setUp() throws Exception {
+        xodus = new TmpXodus();
+        ixMap = xodus.createIxMap("scrub",
+                ImmutableMap.of("len", s -> Key.keys(Key.of(s.length()))),
+                CoderFactory.makeCoder(String.class));
+        scrubber = new XodusScrubber(xodus, new SimpleMeterRegistry(), 2, "PT0S", 0);
+        xodus.writeTx0(tx -> {
+            for (long i = 0; i < 10; i++) {
+                ixMap.put(tx, Key.of(i), "value" + i);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        xodus.close();
+    }
+
+    @Test
+    public void testConsistentStorage() {
+        final ScrubReport report = scrubber.scrub();
+        assertTrue(report.isFinished());
+        assertEquals(10, report.getCheckedValues());
+        assertEquals(10, report.getCheckedIndexEntries());
+        assertEquals(0, report.getCorruptedValues());
+        assertEquals(0, report.getMissingIndexEntries());
+        assertEquals(0, report.getDanglingIndexEntries());
+    }
+
+    @Test
+    public void testRepairIndexes() {
+        final Environment env = xodus.getEnv();
+        env.executeInTransaction(txn -> {
+            final Store index = env.openStore("scrub-idx-len", StoreConfig.WITH_DUPLICATES_WITH_PREFIXING, txn);
+            // remove the entry for the value of the key 3
+            try (Cursor c = index.openCursor(txn)) {
+                if (c.getSearchBoth(Key.of(6L).toByteIterable(), Key.of(3L).toByteIterable())) {
+                    c.deleteCurrent();
+                }
+            }
+            // add entries for a non-existent key and with a wrong index key
+            index.put(txn, Key.of(6L).toByteIterable(), Key.of(42L).toByteIterable());
+            index.put(txn, Key.of(7L).toByteIterable(), Key.of(1L).toByteIterable());
+        });
+
+        final ScrubReport report = scrubber.scrub();
+        assertEquals(1, report.getMissingIndexEntries());
+        assertEquals(2, report.getDanglingIndexEntries());
+        assertEquals(3, report.getRepairedIndexEntries());
+
+        assertEquals(10, xodus.readTx(tx -> ixMap.getPkByIndex("len", tx, Key.of(6L))).size());
+        assertTrue(xodus.readTx(tx -> ixMap.getPkByIndex("len", tx, Key.of(7L))).isEmpty());
+
+        final ScrubReport second = scrubber.scrub();
+        assertEquals(0, second.getMissingIndexEntries());
+        assertEquals(0, second.getDanglingIndexEntries());
+    }
+
+    @Test
+    public void testReportCorruptedValues() {
+        final Environment env = xodus.getEnv();
+        env.executeInTransaction(txn -> {
+            final Store main = env.openStore("scrub-main", StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING, txn);
+            main.put(txn, Key.of(5L).toByteIterable(), new ArrayByteIterable(new byte[]{0, 0, 0, 0, 0, 0, 0, 1, 42}));
+        });
+
+        final ScrubReport report = scrubber.scrub();
+        assertEquals(9, report.getCheckedValues());
+        assertEquals(1, report.getCorruptedValues());
+        assertEquals(1, report.getCorruptedKeys().size());
+    }
+
+    @Test
+    public void testStopAfterChunkWhenInterrupted() {
+        final ScrubReport report;
+        Thread.currentThread().interrupt();
+        try {
+            report = scrubber.scrub();
+        } finally {
+            Thread.interrupted();
+        }
+        assertFalse(report.isFinished());
+        assertEquals(2, report.getCheckedValues());
+        assertEquals(2, scrubber.getReport().getCheckedValues());
+    }
+}